@@ -25,7 +25,7 @@ fi
 
 # 第三步：Maven 打包
 echo "$(date +'%Y-%m-%d %H:%M:%S') ${ORANGE}开始 Maven 打包...${NC}"
-mvn clean package
+mvn clean package -Pstartup
 
 if [ $? -ne 0 ]; then
     echo "$(date +'%Y-%m-%d %H:%M:%S') ${ORANGE}Maven 打包失败！${NC}"
@@ -0,0 +1,93 @@
+package com.nick.share_work;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.AntPathMatcher;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+/**
+ * 基准测试的公共工具，在不启动 Spring 容器的情况下组装被测对象。
+ *
+ * @author nick
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 创建与 application.properties 取值一致的配置读取器
+     *
+     * @param filesBasePath 文件工作路径
+     * @param userDataFilePath 用户数据文件路径
+     * @return 配置读取器
+     */
+    public static PropertiesReader propertiesReader(Path filesBasePath, Path userDataFilePath) {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "antPathMatcher", new AntPathMatcher());
+        ReflectionTestUtils.setField(reader, "indexPageUrl", "/index");
+        ReflectionTestUtils.setField(reader, "loginPath", "/login");
+        ReflectionTestUtils.setField(reader, "registerPath", "/register");
+        ReflectionTestUtils.setField(reader, "updatePath", "/update");
+        ReflectionTestUtils.setField(reader, "deletePath", "/delete");
+        ReflectionTestUtils.setField(reader, "logoutPath", "/logout");
+        ReflectionTestUtils.setField(reader, "loginSuccessPath", "/home");
+        ReflectionTestUtils.setField(reader, "errorPath", "/error");
+        ReflectionTestUtils.setField(reader, "faviconUrl", "/favicon.ico");
+        ReflectionTestUtils.setField(reader, "staticUrl", "/static/**");
+        ReflectionTestUtils.setField(reader, "publicUrl", "/public/**");
+        ReflectionTestUtils.setField(reader, "actuatorUrl", "/actuator/**");
+        ReflectionTestUtils.setField(reader, "userPageUrl", "/user/**");
+        ReflectionTestUtils.setField(reader, "adminUrl", "/admin/**");
+        ReflectionTestUtils.setField(reader, "ajaxUrl", "/ajax/**");
+        ReflectionTestUtils.setField(reader, "filesBasePath", filesBasePath == null ? null : filesBasePath.toString());
+        ReflectionTestUtils.setField(reader, "userDataFilePath", userDataFilePath == null ? null : userDataFilePath.toString());
+        ReflectionTestUtils.setField(reader, "filesCacheMaxBytes", 64L * 1024 * 1024);
+        ReflectionTestUtils.setField(reader, "filesDocumentStorage", "heap");
+        ReflectionTestUtils.setField(reader, "filesHistoryPath",
+                filesBasePath == null ? null : filesBasePath.resolve(".history").toString());
+        ReflectionTestUtils.setField(reader, "filesHistorySnapshotInterval", 20);
+        ReflectionTestUtils.setField(reader, "filesJournalPath", ""); // 默认不记录日志，只测量内存中的操作
+        ReflectionTestUtils.setField(reader, "filesAutosaveIntervalMs", 0L); // 不自动保存，保存只在基准方法中发生
+        ReflectionTestUtils.setField(reader, "executionMode", BlockingExecution.PLATFORM);
+        return reader;
+    }
+
+    /**
+     * 创建临时目录
+     *
+     * @param prefix 目录名前缀
+     * @return 临时目录
+     */
+    public static Path tempDirectory(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 递归删除目录
+     *
+     * @param directory 目录
+     */
+    public static void delete(Path directory) {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
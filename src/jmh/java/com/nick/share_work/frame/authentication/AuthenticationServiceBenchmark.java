@@ -0,0 +1,76 @@
+package com.nick.share_work.frame.authentication;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.authentication.model.Authority;
+import com.nick.share_work.frame.authentication.model.User;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+/**
+ * {@link AuthenticationService#loadUserByUsername} 在不同用户规模下的查找耗时。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthenticationServiceBenchmark {
+
+    @Param({"10", "10000", "100000"})
+    public int users;
+
+    private Path directory;
+    private AuthenticationService authenticationService;
+    private String existing;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-users");
+        Path file = directory.resolve("users.json");
+        Map<String, User> userMap = new LinkedHashMap<>();
+        for (int i = 0; i < users; i++) {
+            String id = "id-" + i;
+            // 密码字段只参与查找后的比较，这里不需要真实的 BCrypt 哈希
+            userMap.put(id, new User(id, "user-" + i, "{noop}password", "user" + i + "@example.com", List.of(Authority.USER)));
+        }
+        new ObjectMapper().writeValue(file.toFile(), userMap);
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(null, file);
+        authenticationService = new AuthenticationService(propertiesReader,
+                new BlockingExecution(propertiesReader), new NoopBackplane("benchmark"));
+        existing = "user-" + users / 2;
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.delete(directory);
+    }
+
+    @Benchmark
+    public User existingUser() {
+        return authenticationService.loadUserByUsername(existing).block();
+    }
+
+    @Benchmark
+    public User missingUser() {
+        return authenticationService.loadUserByUsername("nobody").block();
+    }
+}
@@ -0,0 +1,126 @@
+package com.nick.share_work.frame.jwt;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.http.HttpCookie;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.server.WebFilterChain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.authentication.AuthenticationService;
+import com.nick.share_work.frame.authentication.model.Authority;
+import com.nick.share_work.frame.authentication.model.User;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link JwtTokenProvider} 的签发与校验，以及 {@link JwtAuthenticationFilter} 对白名单路径、
+ * 携带令牌的受保护路径和未登录请求的处理开销。
+ * 过滤器不修改前两种请求的交换对象，因此复用同一个；未登录请求会写入响应，每次都要新建，
+ * 其中新建交换对象本身的开销见 {@link #exchangeBaseline()}。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JwtBenchmark {
+
+    private static final WebFilterChain CHAIN = exchange -> Mono.empty();
+
+    private Path directory;
+    private JwtTokenProvider jwtTokenProvider;
+    private JwtAuthenticationFilter filter;
+    private Authentication authentication;
+    private String token;
+    private MockServerWebExchange whitelisted;
+    private MockServerWebExchange authenticated;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-jwt");
+        Path file = directory.resolve("users.json");
+        new ObjectMapper().writeValue(file.toFile(), Map.of("id-0",
+                new User("id-0", "user-0", "{noop}password", "user0@example.com", List.of(Authority.USER))));
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(null, file);
+        jwtTokenProvider = new JwtTokenProvider(new AuthenticationService(propertiesReader,
+                new BlockingExecution(propertiesReader), new NoopBackplane("benchmark")), new JwtKeyRing(propertiesReader));
+
+        filter = new JwtAuthenticationFilter();
+        ReflectionTestUtils.setField(filter, "jwtTokenProvider", jwtTokenProvider);
+        ReflectionTestUtils.setField(filter, "propertiesReader", propertiesReader);
+        ReflectionTestUtils.setField(filter, "pathMatcher", new AntPathMatcher());
+        ReflectionTestUtils.setField(filter, "meterRegistry", new SimpleMeterRegistry());
+
+        authentication = new UsernamePasswordAuthenticationToken("user-0", null);
+        token = jwtTokenProvider.generateToken(authentication);
+        // 白名单中靠后的模式，需要逐个匹配
+        whitelisted = MockServerWebExchange.from(MockServerHttpRequest.get("/actuator/prometheus"));
+        authenticated = MockServerWebExchange.from(
+                MockServerHttpRequest.get("/files").cookie(new HttpCookie("AUTH-TOKEN", token)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.delete(directory);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtTokenProvider.generateToken(authentication);
+    }
+
+    @Benchmark
+    public boolean validateToken() {
+        return jwtTokenProvider.validateToken(token);
+    }
+
+    @Benchmark
+    public Authentication getAuthentication() {
+        return jwtTokenProvider.getAuthentication(token).block();
+    }
+
+    @Benchmark
+    public void filterWhitelisted() {
+        filter.filter(whitelisted, CHAIN).block();
+    }
+
+    @Benchmark
+    public void filterAuthenticated() {
+        filter.filter(authenticated, CHAIN).block();
+    }
+
+    @Benchmark
+    public MockServerWebExchange filterRejected() {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/files"));
+        filter.filter(exchange, CHAIN).block();
+        return exchange;
+    }
+
+    @Benchmark
+    public MockServerWebExchange exchangeBaseline() {
+        return MockServerWebExchange.from(MockServerHttpRequest.get("/files"));
+    }
+}
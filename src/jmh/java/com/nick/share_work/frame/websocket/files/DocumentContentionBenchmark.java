@@ -0,0 +1,143 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 多个会话同时读写同一文档时 {@link FileManage#readLine} 的吞吐量。
+ * read 只有读取方，分别以 1 个和 8 个线程运行，比较读取能否随线程数扩展；
+ * write 组中 7 个线程读取、1 个线程不断写入；save 组中 7 个线程读取、1 个线程不断修改一行并保存整个文件，
+ * 读取方在写入和保存进行期间是否被阻塞体现在读取的吞吐量上。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DocumentContentionBenchmark {
+
+    private static final int LINES = 100000;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    private Path directory;
+    private String path;
+    private FileManage fileManage;
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-contention");
+        Path file = directory.resolve("document.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 1; i <= LINES; i++) {
+                writer.write("    line " + i + " : the quick brown fox jumps over the lazy dog");
+                writer.newLine();
+            }
+        }
+        path = file.toString();
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(directory, null);
+        ReflectionTestUtils.setField(propertiesReader, "filesDocumentStorage", storage);
+        FilesMetrics metrics = new FilesMetrics(new SimpleMeterRegistry());
+        fileManage = new FileManage(propertiesReader, metrics, new NoopBackplane("benchmark"),
+                new VersionStore(propertiesReader, metrics), new EditJournal(propertiesReader, metrics),
+                new AutoSaver(propertiesReader, new BlockingExecution(propertiesReader)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fileManage.close();
+        BenchmarkSupport.delete(directory);
+    }
+
+    /**
+     * 每个线程一个打开了该文档的会话
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        private FileSession session;
+        private int edits;
+
+        @Setup
+        public void setup(DocumentContentionBenchmark benchmark) {
+            session = new FileSession("session-" + benchmark.sessions.getAndIncrement());
+            benchmark.fileManage.open(session, benchmark.path);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public WebSocketMessageBody read(Session session) {
+        return readLine(session);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public WebSocketMessageBody readParallel(Session session) {
+        return readLine(session);
+    }
+
+    @Benchmark
+    @Group("write")
+    @GroupThreads(7)
+    public WebSocketMessageBody writeReaders(Session session) {
+        return readLine(session);
+    }
+
+    @Benchmark
+    @Group("write")
+    @GroupThreads(1)
+    public WebSocketMessageBody writer(Session session) {
+        session.edits++;
+        return fileManage.writeLine(session.session, String.valueOf(session.edits % LINES + 1),
+                "    edited " + session.edits, null);
+    }
+
+    @Benchmark
+    @Group("save")
+    @GroupThreads(7)
+    public WebSocketMessageBody saveReaders(Session session) {
+        return readLine(session);
+    }
+
+    @Benchmark
+    @Group("save")
+    @GroupThreads(1)
+    public WebSocketMessageBody saver(Session session) {
+        session.edits++;
+        fileManage.writeLine(session.session, "1", "    saved " + session.edits, null);
+        return fileManage.save(session.session);
+    }
+
+    private WebSocketMessageBody readLine(Session session) {
+        return fileManage.readLine(session.session, String.valueOf(ThreadLocalRandom.current().nextInt(LINES) + 1));
+    }
+}
@@ -0,0 +1,126 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 写入一行并等待其在 {@link EditJournal} 中落盘的耗时。
+ * journal 为 off 时不记录日志，作为内存中写入的基准；single 只有一个写入方，每批只有一条记录，
+ * 每次写入都要等一次 fsync；concurrent 有 8 个写入方同时写入同一文档，同一批中的记录共用一次 fsync。
+ * 结束时输出平均每批提交的操作数。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EditJournalBenchmark {
+
+    @Param({"on", "off"})
+    public String journal;
+
+    private Path directory;
+    private String path;
+    private SimpleMeterRegistry registry;
+    private FileManage fileManage;
+    private EditJournal editJournal;
+    private final AtomicInteger writers = new AtomicInteger();
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-journal");
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            lines.add("    line " + i + " : the quick brown fox jumps over the lazy dog");
+        }
+        path = Files.write(directory.resolve("document.txt"), lines).toString();
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(directory, null);
+        if ("on".equals(journal)) {
+            ReflectionTestUtils.setField(propertiesReader, "filesJournalPath", directory.resolve(".journal").toString());
+        }
+        registry = new SimpleMeterRegistry();
+        FilesMetrics metrics = new FilesMetrics(registry);
+        editJournal = new EditJournal(propertiesReader, metrics);
+        fileManage = new FileManage(propertiesReader, metrics, new NoopBackplane("benchmark"),
+                new VersionStore(propertiesReader, metrics), editJournal,
+                new AutoSaver(propertiesReader, new BlockingExecution(propertiesReader)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        DistributionSummary batch = registry.find("files.journal.batch").summary();
+        if (batch != null && batch.count() > 0) {
+            System.out.printf("%n%.1f operations per batch, %d batches%n", batch.mean(), batch.count());
+        }
+        fileManage.close();
+        editJournal.close();
+        BenchmarkSupport.delete(directory);
+    }
+
+    /**
+     * 每个写入线程一个会话，写入各自的 100 行
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        private FileSession session;
+        private int first;
+        private int edits;
+
+        @Setup
+        public void setup(EditJournalBenchmark benchmark) {
+            int index = benchmark.writers.getAndIncrement();
+            session = new FileSession("writer-" + index);
+            first = index % 10 * 100 + 1;
+            benchmark.fileManage.open(session, benchmark.path);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object single(Writer writer) throws Exception {
+        return write(writer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object concurrent(Writer writer) throws Exception {
+        return write(writer);
+    }
+
+    private Object write(Writer writer) throws Exception {
+        writer.edits++;
+        Object result = fileManage.writeLine(writer.session, String.valueOf(writer.first + writer.edits % 100),
+                "    edited " + writer.edits, null);
+        CompletableFuture<Void> commit = writer.session.takeCommit();
+        if (commit != null) {
+            commit.get();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * {@link FileManage} 打开和保存整个文件的耗时。
+ * open 关闭了文档缓存，打开后立即结束，保证每次都从磁盘读取；reopen 打开缓存中未修改的文档。
+ * save 每次先修改第一行，没有修改的文档不会重复写入。
+ * storage 为行内容的存储方式，offheap 的 reopen 不缓存快照，每次都解码所有行。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileManageBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    private Path directory;
+    private String path;
+    private FileManage fileManage;
+    private FileManage cachedFileManage;
+    private FileSession opening;
+    private FileSession reopening;
+    private FileSession saving;
+    private int saves;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-file");
+        Path file = directory.resolve("document.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 1; i <= lines; i++) {
+                writer.write("    line " + i + " : the quick brown fox jumps over the lazy dog");
+                writer.newLine();
+            }
+        }
+        path = file.toString();
+        PropertiesReader uncached = BenchmarkSupport.propertiesReader(directory, null);
+        ReflectionTestUtils.setField(uncached, "filesCacheMaxBytes", 0L);
+        ReflectionTestUtils.setField(uncached, "filesDocumentStorage", storage);
+        FilesMetrics metrics = new FilesMetrics(new SimpleMeterRegistry());
+        fileManage = new FileManage(uncached, metrics, new NoopBackplane("benchmark"), new VersionStore(uncached, metrics),
+                new EditJournal(uncached, metrics), new AutoSaver(uncached, new BlockingExecution(uncached)));
+        PropertiesReader cached = BenchmarkSupport.propertiesReader(directory, null);
+        ReflectionTestUtils.setField(cached, "filesCacheMaxBytes", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(cached, "filesDocumentStorage", storage);
+        FilesMetrics cachedMetrics = new FilesMetrics(new SimpleMeterRegistry());
+        cachedFileManage = new FileManage(cached, cachedMetrics, new NoopBackplane("benchmark"),
+                new VersionStore(cached, cachedMetrics), new EditJournal(cached, cachedMetrics),
+                new AutoSaver(cached, new BlockingExecution(cached)));
+        opening = new FileSession("opening");
+        reopening = new FileSession("reopening");
+        saving = new FileSession("saving");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fileManage.close();
+        cachedFileManage.close();
+        BenchmarkSupport.delete(directory);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody open() {
+        WebSocketMessageBody snapshot = fileManage.open(opening, path);
+        fileManage.end(opening);
+        return snapshot;
+    }
+
+    @Benchmark
+    public WebSocketMessageBody reopen() {
+        WebSocketMessageBody snapshot = cachedFileManage.open(reopening, path);
+        cachedFileManage.end(reopening);
+        return snapshot;
+    }
+
+    @Benchmark
+    public WebSocketMessageBody save() {
+        if (saving.getHub() == null) {
+            fileManage.open(saving, path);
+        }
+        fileManage.writeLine(saving, "1", "    line 1 : saved " + ++saves, null);
+        return fileManage.save(saving);
+    }
+}
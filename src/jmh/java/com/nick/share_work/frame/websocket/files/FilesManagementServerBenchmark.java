@@ -0,0 +1,105 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * {@link FilesManagementServer#getMsg} 的分发开销，命令作用在一个已打开的 1000 行文档上。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilesManagementServerBenchmark {
+
+    private Path directory;
+    private FilesManagementServer server;
+    private WatchManage watchManage;
+    private FileSession session;
+    private WebSocketMessageBody readLine;
+    private WebSocketMessageBody writeLine;
+    private WebSocketMessageBody unknown;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-getmsg");
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            lines.add("line " + i);
+        }
+        Path file = Files.write(directory.resolve("document.txt"), lines);
+
+        FilesMetrics metrics = new FilesMetrics(new SimpleMeterRegistry());
+        server = new FilesManagementServer();
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(directory, null);
+        VersionStore history = new VersionStore(propertiesReader, metrics);
+        ReflectionTestUtils.setField(server, "fileManage",
+                new FileManage(propertiesReader, metrics, new NoopBackplane("benchmark"), history,
+                        new EditJournal(propertiesReader, metrics),
+                        new AutoSaver(propertiesReader, new BlockingExecution(propertiesReader))));
+        watchManage = new WatchManage(propertiesReader, metrics);
+        ReflectionTestUtils.setField(server, "pathManage", new PathManage(propertiesReader, metrics, history, watchManage));
+        ReflectionTestUtils.setField(server, "metrics", metrics);
+
+        session = new FileSession("benchmark");
+        server.getMsg(session, request(FileManage.OPEN, Map.of(FilesManagementServer.PATH_KEY, file.toString())));
+        readLine = request(FileManage.READE_LINE, Map.of(FilesManagementServer.LINE_KEY, "500"));
+        writeLine = request(FileManage.WRITE_LINE, Map.of(FilesManagementServer.LINE_KEY, "500", FilesManagementServer.VALUE_KEY, "edited"));
+        unknown = request("file_unknown", Map.of());
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.release(session);
+        watchManage.close();
+        BenchmarkSupport.delete(directory);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody readLine() {
+        return server.getMsg(session, readLine);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody writeLine() {
+        return server.getMsg(session, writeLine);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody unknownMessage() {
+        return server.getMsg(session, unknown);
+    }
+
+    private static WebSocketMessageBody request(String message, Map<String, String> value) {
+        WebSocketMessageBody body = new WebSocketMessageBody();
+        body.setType("files");
+        body.setKey("");
+        body.setMessage(message);
+        body.setValue(value);
+        return body;
+    }
+}
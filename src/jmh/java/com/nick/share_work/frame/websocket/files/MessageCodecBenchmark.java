@@ -0,0 +1,84 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+/**
+ * {@link WebSocketMessageBody} 的 JSON 与二进制编解码。
+ * 编码时每次新建消息对象，避免命中 JSON 缓存。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageCodecBenchmark {
+
+    private static final DataBufferFactory FACTORY = DefaultDataBufferFactory.sharedInstance;
+
+    // 消息中的行数，1 对应单行增量，1000 对应打开文件时的快照
+    @Param({"1", "1000"})
+    public int lines;
+
+    private Map<String, String> value;
+    private String json;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        value = new LinkedHashMap<>();
+        for (int i = 1; i <= lines; i++) {
+            value.put(String.valueOf(i), "line " + i + " of the document, with \"quotes\" and 中文.");
+        }
+        WebSocketMessageBody body = message();
+        json = body.toJson();
+        DataBuffer buffer = BinaryFrameCodec.write(FACTORY, body);
+        binary = new byte[buffer.readableByteCount()];
+        buffer.read(binary);
+        DataBufferUtils.release(buffer);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return message().toJson().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody jsonDecode() {
+        return WebSocketMessageBody.fromJson(json);
+    }
+
+    @Benchmark
+    public int binaryEncode() {
+        DataBuffer buffer = BinaryFrameCodec.write(FACTORY, message());
+        int size = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return size;
+    }
+
+    @Benchmark
+    public WebSocketMessageBody binaryDecode() {
+        return BinaryFrameCodec.read(FACTORY.wrap(binary));
+    }
+
+    private WebSocketMessageBody message() {
+        return WebSocketMessageBody.success(lines == 1 ? FileManage.DELTA : FileManage.OPEN, value, 42L);
+    }
+}
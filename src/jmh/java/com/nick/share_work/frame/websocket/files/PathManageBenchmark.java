@@ -0,0 +1,73 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * {@link PathManage} 在合成目录树上的遍历和搜索，每个目录放 100 个文件。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PathManageBenchmark {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @Param({"100", "10000"})
+    public int files;
+
+    private Path directory;
+    private WatchManage watchManage;
+    private PathManage pathManage;
+    private FileSession session;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-path");
+        for (int i = 0; i < files; i++) {
+            Path parent = Files.createDirectories(directory.resolve("dir" + i / FILES_PER_DIRECTORY));
+            Files.createFile(parent.resolve("file" + i + ".txt"));
+        }
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(directory, null);
+        FilesMetrics metrics = new FilesMetrics(new SimpleMeterRegistry());
+        watchManage = new WatchManage(propertiesReader, metrics);
+        pathManage = new PathManage(propertiesReader, metrics, new VersionStore(propertiesReader, metrics), watchManage);
+        session = new FileSession("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        watchManage.close();
+        BenchmarkSupport.delete(directory);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody each() {
+        return pathManage.each(session);
+    }
+
+    @Benchmark
+    public WebSocketMessageBody search() {
+        return pathManage.search(session, ".*file\\d*7\\.txt");
+    }
+}
@@ -0,0 +1,98 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.nick.share_work.BenchmarkSupport;
+import com.nick.share_work.frame.config.PropertiesReader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * {@link VersionStore} 记录和重建版本的耗时。
+ * record 在每次调用前修改文件中的一行，测量把它记为新版本的时间（读取文件、重建上一版本、计算差异并追加）；
+ * rebuild 重建最新版本，该版本距上一个完整快照的差异数在 0 到 files.history.snapshot.interval - 1 之间循环。
+ * 结束时输出版本包平均每个版本的字节数。
+ *
+ * @author nick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VersionStoreBenchmark {
+
+    @Param({"1000", "100000"})
+    public int lines;
+
+    private Path directory;
+    private Path file;
+    private String path;
+    private String[] content;
+    private VersionStore history;
+    private long version;
+    private int edits;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = BenchmarkSupport.tempDirectory("bench-history");
+        file = directory.resolve("document.txt");
+        path = file.toString();
+        content = new String[lines];
+        for (int i = 0; i < lines; i++) {
+            content[i] = "    line " + (i + 1) + " : the quick brown fox jumps over the lazy dog";
+        }
+        PropertiesReader propertiesReader = BenchmarkSupport.propertiesReader(directory, null);
+        history = new VersionStore(propertiesReader, new FilesMetrics(new SimpleMeterRegistry()));
+        write();
+        version = history.record(path);
+    }
+
+    /**
+     * 修改一行并写入磁盘，不计入 record 的耗时
+     */
+    @Setup(Level.Invocation)
+    public void edit() throws IOException {
+        edits++;
+        content[(edits * 7919) % lines] = "    edited " + edits;
+        write();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var packs = Files.list(directory.resolve(".history"))) {
+            long bytes = packs.mapToLong(p -> p.toFile().length()).sum();
+            System.out.printf("%n%d versions, %d bytes per version, document %d bytes%n",
+                    version, bytes / Math.max(1, version), Files.size(file));
+        }
+        BenchmarkSupport.delete(directory);
+    }
+
+    @Benchmark
+    public long record() throws IOException {
+        version = history.record(path);
+        return version;
+    }
+
+    @Benchmark
+    public byte[] rebuild() throws IOException {
+        return history.read(path, version);
+    }
+
+    private void write() throws IOException {
+        Files.write(file, String.join("\n", content).concat("\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
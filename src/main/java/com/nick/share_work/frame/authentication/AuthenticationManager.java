@@ -1,5 +1,8 @@
 package com.nick.share_work.frame.authentication;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +15,8 @@ import org.springframework.stereotype.Component;
 
 import com.nick.share_work.frame.jwt.JwtTokenProvider;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import reactor.core.publisher.Mono;
 
 /**
@@ -35,6 +40,11 @@ public class AuthenticationManager implements ReactiveAuthenticationManager {
     @Autowired
     private JwtTokenProvider jwtTokenProvider; // JWT 令牌提供者，用于生成 JWT 令牌
 
+    @Autowired
+    private MeterRegistry meterRegistry; // 指标注册表，记录认证耗时
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>(); // 指标名称 + 结果 -> 计时器
+
     /**
      * 进行用户认证。
      *
@@ -48,12 +58,19 @@ public class AuthenticationManager implements ReactiveAuthenticationManager {
         String password = (String) authentication.getCredentials(); // 获取密码
 
         LOGGER.debug("Authenticating user: {}", username); // 记录认证过程的日志
+        Timer.Sample sample = Timer.start(meterRegistry);
 
         // 从用户服务中加载用户
         return authenticationService.loadUserByUsername(username)
                .flatMap(user -> {
                     // 使用密码编码器验证密码是否匹配
-                    if (passwordEncoder.matches(password, user.getPassword())) {
+                    // BCrypt 匹配是认证中最耗时的部分，单独计时
+                    boolean matched = timers.computeIfAbsent("auth.password.match", k -> Timer.builder("auth.password.match")
+                                    .description("Time spent verifying a password hash")
+                                    .publishPercentileHistogram()
+                                    .register(meterRegistry))
+                            .record(() -> passwordEncoder.matches(password, user.getPassword()));
+                    if (matched) {
                         String token = jwtTokenProvider.generateToken(authentication); // 生成 JWT 令牌
                         LOGGER.debug("Generated JWT token for user: {}", username); // 记录生成 JWT 令牌的日志
                         // 创建认证成功的 Authentication 对象
@@ -68,7 +85,17 @@ public class AuthenticationManager implements ReactiveAuthenticationManager {
                         return Mono.error(new AuthenticationException("Invalid password") {});
                     }
                })
+               .doOnSuccess(auth -> sample.stop(authenticateTimer(auth == null ? "unknown_user" : "success")))
+               .doOnError(error -> sample.stop(authenticateTimer("failure")))
                .doOnError(error -> LOGGER.error("Error authenticating user: {} error : {}", username, error.getMessage())) // 记录认证失败的错误日志
                .onErrorResume(error -> Mono.error(new AuthenticationException("Authentication failed") {}));
     }
+
+    private Timer authenticateTimer(String outcome) {
+        return timers.computeIfAbsent("auth.authenticate/" + outcome, k -> Timer.builder("auth.authenticate")
+                .description("Time to authenticate a login request")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
 }
@@ -4,8 +4,11 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nick.share_work.frame.authentication.model.Authority;
 import com.nick.share_work.frame.authentication.model.User;
+import com.nick.share_work.frame.cluster.Backplane;
 import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
 
+import reactor.core.Disposable;
 import reactor.core.publisher.Mono;
 
 import org.slf4j.Logger;
@@ -13,44 +16,216 @@ import org.slf4j.LoggerFactory;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map.Entry;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /** 
  * 用户服务实现类
+ * 集群模式下用户的新增、修改和删除在本节点保存成功后通过 {@link Backplane} 发布给其它节点，收到的变更写入本节点的用户映射表和文件。
+ * 每次变更带有 Lamport 时间戳和节点 ID，同一用户以时间戳较大者为准（相同时比较节点 ID），与文档行的合并方式相同。
+ * 不同节点同时注册了同一用户名时，注册时间戳较小的用户保留，另一个在所有节点上被丢弃。
  * 
  * @author nick
  */
 @Component
-public class AuthenticationService {
+public class AuthenticationService implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthenticationService.class);
 
+    // 用户变更的主题
+    public static final String USERS_TOPIC = "users";
+
 
     private final PropertiesReader propertiesReader;
 
+    // 阻塞 I/O 的执行方式，用户数据的保存在其调度器上执行
+    private final BlockingExecution execution;
+
+    // 节点之间的消息通道
+    private final Backplane backplane;
+
+    // 对其它节点用户变更的订阅
+    private final Disposable changes;
+
     // Jackson 对象映射器，用于 JSON 处理
     private final ObjectMapper objectMapper = new ObjectMapper(); 
 
     // 线程安全的用户映射表
     private final Map<String, User> userMap = new ConcurrentHashMap<>(); 
 
+    // 锁，用于保证用户名检查、Lamport 时钟和用户映射表的修改是原子的
+    private final Lock lock = new ReentrantLock();
+
+    // Lamport 时钟，只在 lock 内访问
+    private long clock;
+
+    // 用户 ID -> 最后一次变更的时间戳，包括已删除的用户，只在 lock 内访问
+    private final Map<String, Stamp> stamps = new HashMap<>();
+
+    // 用户 ID -> 注册的时间戳，只在 lock 内访问，从文件加载的用户没有记录，视为最早注册
+    private final Map<String, Stamp> registrations = new HashMap<>();
+
     // 密码编码器
     private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder(); 
 
     /**
      * 构造函数，初始化用户服务。
      */
-    public AuthenticationService(PropertiesReader propertiesReader) {
+    public AuthenticationService(PropertiesReader propertiesReader, BlockingExecution execution, Backplane backplane) {
         this.propertiesReader = propertiesReader;
+        this.execution = execution;
+        this.backplane = backplane;
         loadUsersFromFile(); // 服务初始化时从文件加载用户数据
+        this.changes = backplane.subscribe(USERS_TOPIC).subscribe(this::applyChange);
+    }
+
+    @Override
+    public void close() {
+        changes.dispose();
+    }
+
+    /**
+     * 在本节点记录一次用户变更，在 lock 内调用
+     * @param id 用户 ID
+     * @param user 变更后的用户对象，删除时为 null
+     * @return 带有时间戳的变更，保存成功后发布
+     */
+    private UserChange recordChange(String id, User user) {
+        clock++;
+        Stamp stamp = new Stamp(clock, backplane.nodeId());
+        Stamp registered = registrations.getOrDefault(id, user != null && !userMap.containsKey(id) ? stamp : Stamp.ORIGIN);
+        UserChange change = new UserChange(id, user, stamp, registered);
+        putChange(change);
+        return change;
+    }
+
+    /**
+     * 把变更写入用户映射表和时间戳，在 lock 内调用
+     * @param change 用户变更
+     */
+    private void putChange(UserChange change) {
+        stamps.put(change.id(), change.stamp());
+        if (change.user() == null) {
+            userMap.remove(change.id());
+            registrations.remove(change.id());
+        } else {
+            userMap.put(change.id(), change.user());
+            registrations.put(change.id(), change.registered());
+        }
+    }
+
+    /**
+     * 本节点保存失败时撤销变更，之后已有新的变更时不撤销
+     * @param change 保存失败的变更
+     * @param previous 变更前的用户对象，不存在时为 null
+     * @param previousStamp 变更前的时间戳，不存在时为 null
+     */
+    private void revertChange(UserChange change, User previous, Stamp previousStamp) {
+        lock.lock();
+        try {
+            if (stamps.get(change.id()) != change.stamp()) {
+                return;
+            }
+            if (previousStamp == null) {
+                stamps.remove(change.id());
+            } else {
+                stamps.put(change.id(), previousStamp);
+            }
+            if (previous == null) {
+                userMap.remove(change.id());
+                registrations.remove(change.id());
+            } else {
+                userMap.put(change.id(), previous);
+                registrations.putIfAbsent(change.id(), change.registered());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使用该用户名的其它用户，在 lock 内调用
+     * @param username 用户名
+     * @param id 不计入的用户 ID
+     * @return 用户 ID，没有时返回 null
+     */
+    private String ownerOf(String username, String id) {
+        for (Entry<String, User> entry : userMap.entrySet()) {
+            if (!entry.getKey().equals(id) && entry.getValue().getUsername().equals(username)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把用户变更发布给其它节点
+     * @param change 本节点保存成功的用户变更
+     */
+    private void publishChange(UserChange change) {
+        if (!backplane.isClustered()) {
+            return;
+        }
+        try {
+            backplane.publish(USERS_TOPIC, objectMapper.writeValueAsString(change));
+        } catch (IOException e) {
+            LOGGER.error("Failed to publish user change : {} error : {}", change.id(), e.getMessage());
+        }
+    }
+
+    /**
+     * 应用其它节点发布的用户变更，并保存到本节点的文件。
+     * 时间戳不大于本节点记录的变更被忽略；用户名被更早注册的其它用户占用时忽略，被更晚注册的用户占用时丢弃该用户
+     * @param payload 用户变更的 JSON
+     */
+    private void applyChange(String payload) {
+        UserChange change;
+        try {
+            change = objectMapper.readValue(payload, UserChange.class);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read user change : {}", e.getMessage());
+            return;
+        }
+        lock.lock();
+        try {
+            clock = Math.max(clock, change.stamp().clock());
+            Stamp current = stamps.get(change.id());
+            if (current != null && current.compareTo(change.stamp()) >= 0) {
+                LOGGER.debug("Ignored stale user change from cluster : {}", change.id());
+                return;
+            }
+            if (change.user() != null) {
+                String owner = ownerOf(change.user().getUsername(), change.id());
+                if (owner != null) {
+                    if (registrations.getOrDefault(owner, Stamp.ORIGIN).compareTo(change.registered()) <= 0) {
+                        LOGGER.warn("Rejected user change from cluster, username taken : {}", change.user().getUsername());
+                        return;
+                    }
+                    userMap.remove(owner); // 其它节点更早注册了同一用户名
+                    registrations.remove(owner);
+                    LOGGER.warn("Dropped user registered later with the same username : {}", owner);
+                }
+            }
+            putChange(change);
+            LOGGER.debug("Applied user change from cluster : {}", change.id());
+        } finally {
+            lock.unlock();
+        }
+        execution.call(() -> {
+            saveUsersToFile();
+            return true;
+        }).subscribe(null, e -> LOGGER.error("Failed to save users to file : {}", e.getMessage()));
     }
 
     /**
@@ -77,7 +252,8 @@ public class AuthenticationService {
     }
 
     /**
-     * 将内存中的用户数据保存到文件。
+     * 将内存中的用户数据保存到文件，会阻塞，只在 {@link BlockingExecution} 的调度器上调用。
+     * @throws IOException 保存失败
      */
     private synchronized void saveUsersToFile() throws IOException {
         try {
@@ -94,6 +270,7 @@ public class AuthenticationService {
         } catch (IOException e) {
             LOGGER.error("Failed to save users to file : {} error : {}", propertiesReader.getUserDataFilePath(), e);
             e.printStackTrace();
+            throw e;
         }
     }
 
@@ -103,10 +280,10 @@ public class AuthenticationService {
      * @return 用户对象
      */
     public Mono<User> loadUserByUsername(String username) {
-        LOGGER.info("Loading user with username : {}", username);
+        LOGGER.debug("Loading user with username : {}", username);
         for (Entry<String, User> entry : userMap.entrySet()) {
             if (entry.getValue().getUsername().equals(username)) { // 如果用户名匹配
-                LOGGER.info("User loaded : {}", username);
+                LOGGER.debug("User loaded : {}", username);
                 return Mono.just(entry.getValue()); // 返回用户对象
             }
         }
@@ -123,25 +300,32 @@ public class AuthenticationService {
      */
     public Mono<User> registerUser(String username, String password, String email) {
         LOGGER.info("Registering user with username: {}, password: {}, email: {}", username, password, email);
-        for (Entry<String, User> entry : userMap.entrySet()) {
-            if (entry.getValue().getUsername().equals(username)) { // 如果用户名已存在
-                LOGGER.error("Username already exists : {}" + username);
-                return Mono.empty(); // 注册失败
-            }
-        }
         // 生成随机 ID
         String id = UUID.randomUUID().toString(); // 生成随机 ID
         String encodedPassword = passwordEncoder.encode(password); // 加密密码
         User user = new User(id, username, encodedPassword, email, List.of(Authority.USER)); // 创建用户对象
-        userMap.put(id, user);
+        UserChange change;
+        lock.lock();
         try {
+            if (ownerOf(username, id) != null) { // 如果用户名已存在，检查和写入在同一个锁内，同时注册同一用户名只有一个成功
+                LOGGER.error("Username already exists : {}", username);
+                return Mono.empty(); // 注册失败
+            }
+            change = recordChange(id, user);
+        } finally {
+            lock.unlock();
+        }
+        // 将用户数据保存到文件，成功后再发布给其它节点
+        return execution.call(() -> {
             saveUsersToFile();
-        } catch (IOException e) {
+            LOGGER.info("User registered successfully username : {}" , username);
+            publishChange(change);
+            return user; // 返回注册成功的用户对象
+        }).onErrorResume(IOException.class, e -> {
             LOGGER.error("Failed to save user to file : {}", propertiesReader.getUserDataFilePath(), e);
+            revertChange(change, null, null);
             return Mono.empty(); // 注册失败
-        } // 将用户数据保存到文件
-        LOGGER.info("User registered successfully username : {}" , username);
-        return Mono.just(user); // 返回注册成功的用户对象
+        });
     }
 
     /**
@@ -152,19 +336,33 @@ public class AuthenticationService {
      */
     public Mono<User> updateUser(String id, User user) {
         LOGGER.info("Updating user with id : {}", id);
-        User oldUser = userMap.get(id);
-        if (oldUser != null) { // 如果用户存在
-            LOGGER.debug("User before update user : {}", oldUser); // 打印用户信息
-            userMap.put(id, user); // 更新用户数据
-            try {
+        User oldUser;
+        Stamp oldStamp;
+        UserChange change = null;
+        lock.lock();
+        try {
+            oldUser = userMap.get(id);
+            oldStamp = stamps.get(id);
+            if (oldUser != null && ownerOf(user.getUsername(), id) == null) { // 如果用户存在且新的用户名没有被其它用户使用
+                LOGGER.debug("User before update user : {}", oldUser); // 打印用户信息
+                change = recordChange(id, user); // 更新用户数据
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (change != null) {
+            UserChange updated = change;
+            return execution.call(() -> {
                 saveUsersToFile(); // 将更新后的数据保存到文件
-            } catch (IOException e) {
+                LOGGER.info("User updated successfully");
+                LOGGER.debug("User after update user : {}" , user); // 打印用户信息
+                publishChange(updated);
+                return user; // 返回更新后的用户对象
+            }).onErrorResume(IOException.class, e -> {
                 LOGGER.error("Failed to save user to file : {}" , propertiesReader.getUserDataFilePath(), e);
+                revertChange(updated, oldUser, oldStamp);
                 return Mono.empty(); // 更新失败
-            } 
-            LOGGER.info("User updated successfully");
-            LOGGER.debug("User after update user : {}" , user); // 打印用户信息
-            return Mono.just(user); // 返回更新后的用户对象
+            });
         }
         LOGGER.info("User update failed : {}" , id);
         return Mono.empty(); // 如果用户不存在，返回 null
@@ -178,19 +376,56 @@ public class AuthenticationService {
      */
     public Mono<Boolean> deleteUser(String id, User user) {
         LOGGER.info("Deleting user with id : {}" , id);
-        User oldUser = userMap.get(id);
-        if (oldUser != null && oldUser.equals(user)) { // 如果用户存在且密码正确
-            userMap.remove(id); // 删除用户数据
-            try {
+        User oldUser;
+        Stamp oldStamp;
+        UserChange change = null;
+        lock.lock();
+        try {
+            oldUser = userMap.get(id);
+            oldStamp = stamps.get(id);
+            if (oldUser != null && oldUser.equals(user)) { // 如果用户存在且密码正确
+                change = recordChange(id, null); // 删除用户数据
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (change != null) {
+            UserChange deleted = change;
+            return execution.call(() -> {
                 saveUsersToFile(); // 将删除后的数据保存到文件
-            } catch (IOException e) {
+                LOGGER.info("User deleted by id : {}" , id);
+                publishChange(deleted);
+                return true; // 返回 true 表示删除成功
+            }).onErrorResume(IOException.class, e -> {
                 LOGGER.error("Failed to save user to file : {} error : {}" , propertiesReader.getUserDataFilePath(), e);
+                revertChange(deleted, oldUser, oldStamp);
                 return Mono.just(false); // 删除失败
-            }
-            LOGGER.info("User deleted by id : {}" , id);
-            return Mono.just(true); // 返回 true 表示删除成功
+            });
         }
         LOGGER.info("User deletion failed id : {}" , id);
         return Mono.just(false); // 如果用户名或密码错误，返回 false
     }
+
+    /**
+     * 一次用户变更，user 为 null 表示删除
+     * @param id 用户 ID
+     * @param user 变更后的用户对象
+     * @param stamp 变更的时间戳
+     * @param registered 用户注册的时间戳，用于解决用户名冲突
+     */
+    record UserChange(String id, User user, Stamp stamp, Stamp registered) {
+    }
+
+    /**
+     * Lamport 时间戳，时钟相同时比较节点 ID
+     */
+    record Stamp(long clock, String node) implements Comparable<Stamp> {
+        // 从文件加载的用户的注册时间戳，早于所有变更
+        static final Stamp ORIGIN = new Stamp(0, "");
+
+        @Override
+        public int compareTo(Stamp other) {
+            return clock != other.clock ? Long.compare(clock, other.clock) : node.compareTo(other.node);
+        }
+    }
 }
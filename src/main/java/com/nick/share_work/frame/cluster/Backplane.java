@@ -0,0 +1,50 @@
+package com.nick.share_work.frame.cluster;
+
+import java.io.Closeable;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * 集群节点之间的消息通道。
+ * 消息按主题发布，内容为 JSON 字符串，订阅者只收到其它节点发布的消息。
+ * 同一节点发布到同一主题的消息按发布顺序送达，不同节点之间不保证顺序，由使用方自行合并。
+ * 单机部署使用 {@link NoopBackplane}，同一 JVM 内的多个节点使用 {@link LoopbackBackplane}，
+ * 跨主机部署实现此接口并在 {@link ClusterConfig} 中按 cluster.backplane 选择。
+ *
+ * @author nick
+ */
+public interface Backplane extends Closeable {
+
+    /**
+     * 本节点的 ID
+     *
+     * @return 节点 ID
+     */
+    String nodeId();
+
+    /**
+     * 是否与其它节点相连，单机部署返回 false，使用方可以跳过序列化和发布
+     *
+     * @return 集群模式返回 true
+     */
+    boolean isClustered();
+
+    /**
+     * 发布消息
+     *
+     * @param topic 主题
+     * @param payload 消息内容
+     */
+    void publish(String topic, String payload);
+
+    /**
+     * 订阅其它节点发布到该主题的消息，消息在通道自己的线程上送达
+     *
+     * @param topic 主题
+     * @return 消息内容流
+     */
+    Flux<String> subscribe(String topic);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,46 @@
+package com.nick.share_work.frame.cluster;
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * 集群配置，按 cluster.backplane 创建节点之间的消息通道。
+ *
+ * @author nick
+ */
+@Configuration
+public class ClusterConfig {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterConfig.class);
+
+    public static final String NONE = "none";
+    public static final String LOOPBACK = "loopback";
+
+    /**
+     * 创建消息通道
+     *
+     * @param propertiesReader 配置读取器
+     * @return none 为单机部署，loopback 为同一 JVM 内的集群
+     */
+    @Bean
+    public Backplane backplane(PropertiesReader propertiesReader) {
+        String nodeId = propertiesReader.getClusterNodeId();
+        if (nodeId == null || nodeId.isEmpty()) {
+            nodeId = UUID.randomUUID().toString().substring(0, 8);
+        }
+        String type = propertiesReader.getClusterBackplane();
+        if (type == null || type.isEmpty() || NONE.equalsIgnoreCase(type)) {
+            return new NoopBackplane(nodeId);
+        }
+        if (LOOPBACK.equalsIgnoreCase(type)) {
+            LOGGER.info("[CLUSTER] node {} joined loopback cluster {}", nodeId, propertiesReader.getClusterName());
+            return new LoopbackBackplane(propertiesReader.getClusterName(), nodeId);
+        }
+        throw new IllegalArgumentException("Unknown cluster.backplane : " + type);
+    }
+}
@@ -0,0 +1,68 @@
+package com.nick.share_work.frame.cluster;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 同一 JVM 内的消息通道，集群名称相同的实例互相可见。
+ * 用于在一台机器上启动多个应用上下文验证集群行为，消息不离开进程。
+ * 每个节点在自己的单线程调度器上接收消息，与发布方的线程和锁隔离，和网络通道一样是异步的。
+ *
+ * @author nick
+ */
+public class LoopbackBackplane implements Backplane {
+
+    // 发布时等待其它线程完成发布的最长时间
+    private static final Duration EMIT_TIMEOUT = Duration.ofSeconds(1);
+    // 集群名称 -> 消息总线
+    private static final Map<String, Sinks.Many<Message>> CLUSTERS = new ConcurrentHashMap<>();
+
+    private final String nodeId; // 本节点的 ID
+    private final Sinks.Many<Message> bus; // 所在集群的消息总线
+    private final Scheduler delivery; // 本节点接收消息的线程
+
+    public LoopbackBackplane(String cluster, String nodeId) {
+        this.nodeId = nodeId;
+        this.bus = CLUSTERS.computeIfAbsent(cluster, c -> Sinks.many().multicast().directBestEffort());
+        this.delivery = Schedulers.newSingle("backplane-" + nodeId, true);
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean isClustered() {
+        return true;
+    }
+
+    @Override
+    public void publish(String topic, String payload) {
+        bus.emitNext(new Message(nodeId, topic, payload), Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+    }
+
+    @Override
+    public Flux<String> subscribe(String topic) {
+        // 无界缓冲保证总线不会因为某个节点处理慢而丢弃消息
+        return bus.asFlux()
+                .filter(message -> message.topic().equals(topic) && !message.origin().equals(nodeId))
+                .map(Message::payload)
+                .onBackpressureBuffer()
+                .publishOn(delivery);
+    }
+
+    @Override
+    public void close() {
+        delivery.dispose();
+    }
+
+    private record Message(String origin, String topic, String payload) {
+    }
+}
@@ -0,0 +1,42 @@
+package com.nick.share_work.frame.cluster;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * 单机部署的消息通道，发布的消息直接丢弃，订阅不会收到任何消息。
+ *
+ * @author nick
+ */
+public class NoopBackplane implements Backplane {
+
+    private final String nodeId; // 本节点的 ID
+
+    public NoopBackplane(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public boolean isClustered() {
+        return false;
+    }
+
+    @Override
+    public void publish(String topic, String payload) {
+        // 没有其它节点
+    }
+
+    @Override
+    public Flux<String> subscribe(String topic) {
+        return Flux.never();
+    }
+
+    @Override
+    public void close() {
+        // 没有需要释放的资源
+    }
+}
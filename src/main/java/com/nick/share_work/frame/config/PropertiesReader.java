@@ -50,6 +50,9 @@ public class PropertiesReader {
     @Value("${public.url}")
     private String publicUrl;
 
+    @Value("${actuator.url:/actuator/**}")
+    private String actuatorUrl;
+
     @Value("${user.page.url}")
     private String userPageUrl;
 
@@ -64,7 +67,7 @@ public class PropertiesReader {
      * @return 白名单路径
      */
     public String[] getWhitePaths() {
-        return new String[]{"/", indexPageUrl, loginPath, registerPath, logoutPath, errorPath, faviconUrl, staticUrl, publicUrl};
+        return new String[]{"/", indexPageUrl, loginPath, registerPath, logoutPath, errorPath, faviconUrl, staticUrl, publicUrl, actuatorUrl};
     }
 
     /**
@@ -228,6 +231,503 @@ public class PropertiesReader {
         return filesWebsocketConnectionUrl;
     }
 
+    // 从配置文件中加载websocket帧参数
+    @Value("${echo.websocket.compress:true}")
+    private boolean echoWebsocketCompress;
+
+    @Value("${echo.websocket.max.frame.payload:65536}")
+    private int echoWebsocketMaxFramePayload;
+
+    @Value("${echo.websocket.max.aggregate.size:65536}")
+    private int echoWebsocketMaxAggregateSize;
+
+    @Value("${files.websocket.compress:true}")
+    private boolean filesWebsocketCompress;
+
+    @Value("${files.websocket.max.frame.payload:65536}")
+    private int filesWebsocketMaxFramePayload;
+
+    @Value("${files.websocket.max.aggregate.size:1048576}")
+    private int filesWebsocketMaxAggregateSize;
+
+    /**
+     * echo websocket是否启用permessage-deflate压缩
+     * @return 是否启用压缩
+     */
+    public boolean isEchoWebsocketCompress() {
+        return echoWebsocketCompress;
+    }
+
+    /**
+     * 获取echo websocket单帧最大负载字节数
+     * @return 单帧最大负载字节数
+     */
+    public int getEchoWebsocketMaxFramePayload() {
+        return echoWebsocketMaxFramePayload;
+    }
+
+    /**
+     * 获取echo websocket分片聚合后的最大消息字节数
+     * @return 聚合后的最大消息字节数
+     */
+    public int getEchoWebsocketMaxAggregateSize() {
+        return echoWebsocketMaxAggregateSize;
+    }
+
+    /**
+     * files websocket是否启用permessage-deflate压缩
+     * @return 是否启用压缩
+     */
+    public boolean isFilesWebsocketCompress() {
+        return filesWebsocketCompress;
+    }
+
+    /**
+     * 获取files websocket单帧最大负载字节数
+     * @return 单帧最大负载字节数
+     */
+    public int getFilesWebsocketMaxFramePayload() {
+        return filesWebsocketMaxFramePayload;
+    }
+
+    /**
+     * 获取files websocket分片聚合后的最大消息字节数
+     * @return 聚合后的最大消息字节数
+     */
+    public int getFilesWebsocketMaxAggregateSize() {
+        return filesWebsocketMaxAggregateSize;
+    }
+
+    @Value("${websocket.ping.interval.seconds:30}")
+    private int websocketPingIntervalSeconds;
+
+    @Value("${websocket.pong.timeout.seconds:75}")
+    private int websocketPongTimeoutSeconds;
+
+    @Value("${websocket.idle.timeout.seconds:1800}")
+    private int websocketIdleTimeoutSeconds;
+
+    /**
+     * 获取websocket服务端ping间隔秒数
+     * @return ping间隔秒数
+     */
+    public int getWebsocketPingIntervalSeconds() {
+        return websocketPingIntervalSeconds;
+    }
+
+    /**
+     * 获取websocket心跳超时秒数，超过该时间没有收到任何帧则关闭连接
+     * @return 心跳超时秒数
+     */
+    public int getWebsocketPongTimeoutSeconds() {
+        return websocketPongTimeoutSeconds;
+    }
+
+    /**
+     * 获取websocket空闲超时秒数，超过该时间没有收到数据帧则关闭连接
+     * @return 空闲超时秒数
+     */
+    public int getWebsocketIdleTimeoutSeconds() {
+        return websocketIdleTimeoutSeconds;
+    }
+
+    @Value("${files.rate.cheap.per.second:50}")
+    private double filesRateCheapPerSecond;
+
+    @Value("${files.rate.cheap.burst:100}")
+    private int filesRateCheapBurst;
+
+    @Value("${files.rate.expensive.per.second:2}")
+    private double filesRateExpensivePerSecond;
+
+    @Value("${files.rate.expensive.burst:10}")
+    private int filesRateExpensiveBurst;
+
+    @Value("${files.scheduler.bulk.workers:0}")
+    private int filesSchedulerBulkWorkers;
+
+    @Value("${files.scheduler.interactive.max.pending:64}")
+    private int filesSchedulerInteractiveMaxPending;
+
+    @Value("${files.scheduler.interactive.workers:0}")
+    private int filesSchedulerInteractiveWorkers;
+
+    @Value("${files.scheduler.bulk.max.pending:16}")
+    private int filesSchedulerBulkMaxPending;
+
+    @Value("${files.scheduler.admin.weight:2}")
+    private int filesSchedulerAdminWeight;
+
+    @Value("${files.scheduler.user.concurrency:2}")
+    private int filesSchedulerUserConcurrency;
+
+    @Value("${files.session.max.inflight:32}")
+    private int filesSessionMaxInflight;
+
+    /**
+     * 获取每个用户每秒可执行的轻量文件命令数
+     * @return 每秒命令数
+     */
+    public double getFilesRateCheapPerSecond() {
+        return filesRateCheapPerSecond;
+    }
+
+    /**
+     * 获取每个用户允许突发的轻量文件命令数
+     * @return 突发命令数
+     */
+    public int getFilesRateCheapBurst() {
+        return filesRateCheapBurst;
+    }
+
+    /**
+     * 获取每个用户每秒可执行的重量文件命令数
+     * @return 每秒命令数
+     */
+    public double getFilesRateExpensivePerSecond() {
+        return filesRateExpensivePerSecond;
+    }
+
+    /**
+     * 获取每个用户允许突发的重量文件命令数
+     * @return 突发命令数
+     */
+    public int getFilesRateExpensiveBurst() {
+        return filesRateExpensiveBurst;
+    }
+
+    /**
+     * 获取执行批量文件命令（遍历目录、打开和保存整个文件等）的工作线程数，0 表示与 CPU 核数相同，virtual 模式下为 execution.virtual.concurrency
+     * @return 工作线程数
+     */
+    public int getFilesSchedulerBulkWorkers() {
+        return filesSchedulerBulkWorkers;
+    }
+
+    /**
+     * 获取每个用户最多排队的交互文件命令数
+     * @return 排队命令数
+     */
+    public int getFilesSchedulerInteractiveMaxPending() {
+        return filesSchedulerInteractiveMaxPending;
+    }
+
+    /**
+     * 获取执行交互文件命令（逐行读写等）的工作线程数，0 表示与 CPU 核数相同，virtual 模式下为 execution.virtual.concurrency
+     * @return 工作线程数
+     */
+    public int getFilesSchedulerInteractiveWorkers() {
+        return filesSchedulerInteractiveWorkers;
+    }
+
+    /**
+     * 获取每个用户最多排队的批量文件命令数
+     * @return 排队命令数
+     */
+    public int getFilesSchedulerBulkMaxPending() {
+        return filesSchedulerBulkMaxPending;
+    }
+
+    /**
+     * 获取管理员在公平调度中的权重，普通用户为 1
+     * @return 权重
+     */
+    public int getFilesSchedulerAdminWeight() {
+        return filesSchedulerAdminWeight;
+    }
+
+    /**
+     * 获取同一用户同时占用的工作线程数的上限
+     * @return 工作线程数
+     */
+    public int getFilesSchedulerUserConcurrency() {
+        return filesSchedulerUserConcurrency;
+    }
+
+    /**
+     * 获取每个会话同时处理的命令数的上限，超出后暂停读取该会话的后续消息
+     * @return 命令数
+     */
+    public int getFilesSessionMaxInflight() {
+        return filesSessionMaxInflight;
+    }
+
+    // 文档缓存配置
+    @Value("${files.cache.max.bytes:67108864}")
+    private long filesCacheMaxBytes;
+
+    /**
+     * 获取没有会话使用的文档最多占用的堆内存估算值，超出后淘汰最近最少使用的文档，0 表示不缓存
+     * @return 字节数
+     */
+    public long getFilesCacheMaxBytes() {
+        return filesCacheMaxBytes;
+    }
+
+    // 文档行内容的存储方式
+    @Value("${files.document.storage:heap}")
+    private String filesDocumentStorage;
+
+    /**
+     * 获取文档行内容的存储方式，heap 为每行一个 String，offheap 为 UTF-8 字节保存在直接内存中
+     * @return heap 或 offheap
+     */
+    public String getFilesDocumentStorage() {
+        return filesDocumentStorage;
+    }
+
+    // 文件历史版本配置
+    @Value("${files.history.path:/home/history}")
+    private String filesHistoryPath;
+
+    @Value("${files.history.snapshot.interval:20}")
+    private int filesHistorySnapshotInterval;
+
+    /**
+     * 获取文件历史版本包所在的目录
+     * @return 目录路径
+     */
+    public String getFilesHistoryPath() {
+        return filesHistoryPath;
+    }
+
+    /**
+     * 获取完整快照的间隔，每隔该数量的版本保存一次完整内容，其余版本只保存差异
+     * @return 版本数
+     */
+    public int getFilesHistorySnapshotInterval() {
+        return filesHistorySnapshotInterval;
+    }
+
+    // 未保存修改的日志配置
+    @Value("${files.journal.path:/home/journal}")
+    private String filesJournalPath;
+
+    /**
+     * 获取未保存修改的日志所在的目录，为空时不记录日志
+     * @return 目录路径
+     */
+    public String getFilesJournalPath() {
+        return filesJournalPath;
+    }
+
+    // 自动保存配置
+    @Value("${files.autosave.interval.ms:5000}")
+    private long filesAutosaveIntervalMs;
+
+    @Value("${files.autosave.concurrency:2}")
+    private int filesAutosaveConcurrency;
+
+    /**
+     * 获取自动保存的间隔，文档变为未保存后经过该时间保存，每个文档在每个间隔内最多保存一次，0 为不自动保存
+     * @return 毫秒
+     */
+    public long getFilesAutosaveIntervalMs() {
+        return filesAutosaveIntervalMs;
+    }
+
+    /**
+     * 获取同时进行的自动保存的最大数量
+     * @return 保存数
+     */
+    public int getFilesAutosaveConcurrency() {
+        return filesAutosaveConcurrency;
+    }
+
+    // 跟踪文件新增行的配置
+    @Value("${files.tail.poll.ms:1000}")
+    private long filesTailPollMs;
+
+    @Value("${files.tail.buffer.size:256}")
+    private int filesTailBufferSize;
+
+    @Value("${files.tail.initial.lines:100}")
+    private int filesTailInitialLines;
+
+    /**
+     * 获取检查所有跟踪的文件的间隔，目录监听不可用或漏掉变化时以此为准
+     * @return 毫秒
+     */
+    public long getFilesTailPollMs() {
+        return filesTailPollMs;
+    }
+
+    /**
+     * 获取每个订阅者最多缓冲的新行消息数，超出时丢弃最早的消息
+     * @return 消息数
+     */
+    public int getFilesTailBufferSize() {
+        return filesTailBufferSize;
+    }
+
+    /**
+     * 获取开始跟踪时返回的文件最后的行数，0 为不返回
+     * @return 行数
+     */
+    public int getFilesTailInitialLines() {
+        return filesTailInitialLines;
+    }
+
+    // 目录订阅的配置
+    @Value("${files.watch.debounce.ms:200}")
+    private long filesWatchDebounceMs;
+
+    @Value("${files.watch.max.events:1000}")
+    private int filesWatchMaxEvents;
+
+    @Value("${files.path.cache.ttl.ms:0}")
+    private long filesPathCacheTtlMs;
+
+    /**
+     * 获取目录变化批次的时间窗口，第一个变化之后经过该时间推送一次
+     * @return 毫秒
+     */
+    public long getFilesWatchDebounceMs() {
+        return filesWatchDebounceMs;
+    }
+
+    /**
+     * 获取一个目录变化批次最多包含的路径数，超过时只通知客户端重新遍历
+     * @return 路径数
+     */
+    public int getFilesWatchMaxEvents() {
+        return filesWatchMaxEvents;
+    }
+
+    /**
+     * 获取 path_each 和 path_search 的结果复用的时间，期间观察到目录变化时立即失效，0 表示只合并同时进行的遍历。
+     * 大于 0 时一直监听整个 files.base.path，不能监听时忽略该设置
+     * @return 毫秒
+     */
+    public long getFilesPathCacheTtlMs() {
+        return filesPathCacheTtlMs;
+    }
+
+    // 阻塞 I/O 的执行方式
+    @Value("${execution.mode:platform}")
+    private String executionMode;
+
+    @Value("${execution.virtual.concurrency:1024}")
+    private int executionVirtualConcurrency;
+
+    /**
+     * 获取阻塞 I/O 的执行方式，platform 为平台线程，virtual 为虚拟线程（需要 Java 21）
+     * @return platform 或 virtual
+     */
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * 获取 virtual 模式下文件命令工作线程的默认数量，files.scheduler.bulk.workers 和 files.scheduler.interactive.workers 大于 0 时以其为准
+     * @return 工作线程数
+     */
+    public int getExecutionVirtualConcurrency() {
+        return executionVirtualConcurrency;
+    }
+
+    // 集群配置
+    @Value("${cluster.backplane:none}")
+    private String clusterBackplane;
+
+    @Value("${cluster.name:share_work}")
+    private String clusterName;
+
+    @Value("${cluster.node.id:}")
+    private String clusterNodeId;
+
+    @Value("${cluster.sync.timeout.ms:200}")
+    private long clusterSyncTimeoutMs;
+
+    @Value("${jwt.secrets:}")
+    private String jwtSecrets;
+
+    @Value("${jwt.keystore.path:}")
+    private String jwtKeystorePath;
+
+    @Value("${jwt.key.rotation.hours:168}")
+    private int jwtKeyRotationHours;
+
+    /**
+     * 获取节点之间的消息通道，none 为单机部署，loopback 为同一 JVM 内的集群
+     * @return none 或 loopback
+     */
+    public String getClusterBackplane() {
+        return clusterBackplane;
+    }
+
+    /**
+     * 获取集群名称，名称相同的节点互相可见
+     * @return 集群名称
+     */
+    public String getClusterName() {
+        return clusterName;
+    }
+
+    /**
+     * 获取本节点的 ID，为空时随机生成
+     * @return 节点 ID
+     */
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    /**
+     * 获取打开文件时等待其它节点回复该文件已有写入的最长时间，没有节点打开该文件时每次读取文件都等待这么久
+     * @return 毫秒
+     */
+    public long getClusterSyncTimeoutMs() {
+        return clusterSyncTimeoutMs;
+    }
+
+    /**
+     * 获取 JWT 签名密钥，逗号分隔的 Base64 字符串，每个至少 32 字节。
+     * 第一个用于签名，全部用于验证；为空时使用 jwt.keystore.path 中的密钥
+     * @return 密钥列表
+     */
+    public String getJwtSecrets() {
+        return jwtSecrets;
+    }
+
+    /**
+     * 获取 JWT 密钥文件的路径，未配置 jwt.secrets 时使用，为空时密钥只保存在内存中
+     * @return 文件路径
+     */
+    public String getJwtKeystorePath() {
+        return jwtKeystorePath;
+    }
+
+    /**
+     * 获取 JWT 签名密钥的轮换间隔，0 表示不轮换，配置了 jwt.secrets 时不轮换
+     * @return 小时数
+     */
+    public int getJwtKeyRotationHours() {
+        return jwtKeyRotationHours;
+    }
+
+    // WebSocket 消息内容日志的采样与截断配置
+    @Value("${websocket.log.payload.sample:100}")
+    private int websocketLogPayloadSample;
+
+    @Value("${websocket.log.payload.max.length:256}")
+    private int websocketLogPayloadMaxLength;
+
+    /**
+     * 获取消息内容日志的采样间隔，每隔多少条消息记录一条，0 表示不记录
+     * @return 采样间隔
+     */
+    public int getWebsocketLogPayloadSample() {
+        return websocketLogPayloadSample;
+    }
+
+    /**
+     * 获取消息内容日志的最大字符数，超出部分截断
+     * @return 最大字符数
+     */
+    public int getWebsocketLogPayloadMaxLength() {
+        return websocketLogPayloadMaxLength;
+    }
+
     // 从配置文件中加载文件存储路径
     @Value("${files.base.path}")
     private String filesBasePath;
@@ -22,9 +22,15 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 
 import com.nick.share_work.frame.authentication.AuthenticationAccessDeniedHandler;
 import com.nick.share_work.frame.authentication.model.Authority;
+import com.nick.share_work.frame.cluster.Backplane;
 import com.nick.share_work.frame.jwt.JwtAuthenticationFilter;
+import com.nick.share_work.frame.websocket.files.AutoSaver;
+import com.nick.share_work.frame.websocket.files.EditJournal;
 import com.nick.share_work.frame.websocket.files.FileManage;
+import com.nick.share_work.frame.websocket.files.FilesMetrics;
 import com.nick.share_work.frame.websocket.files.PathManage;
+import com.nick.share_work.frame.websocket.files.VersionStore;
+import com.nick.share_work.frame.websocket.files.WatchManage;
 
 
 
@@ -117,23 +123,33 @@ public class SecurityConfig {
     /**
      * 配置路径管理器。
      * 
+     * @param filesMetrics 文件管理的指标
+     * @param versionStore 文件的历史版本
+     * @param watchManage 目录订阅
      * @return PathManage 对象。
      */
     @Bean
-    public PathManage pathManage(PropertiesReader propertiesReader) {
+    public PathManage pathManage(PropertiesReader propertiesReader, FilesMetrics filesMetrics, VersionStore versionStore,
+            WatchManage watchManage) {
         LOGGER.debug("pathManage started");
-        return new PathManage(propertiesReader);
+        return new PathManage(propertiesReader, filesMetrics, versionStore, watchManage);
     }
 
     /**
      * 配置文件管理器。
      * 
+     * @param filesMetrics 文件管理的指标
+     * @param backplane 节点之间的消息通道
+     * @param versionStore 文件的历史版本
+     * @param editJournal 未保存修改的日志
+     * @param autoSaver 自动保存
      * @return FileManage 对象。
      */
     @Bean
-    public FileManage fileManage() {
+    public FileManage fileManage(PropertiesReader propertiesReader, FilesMetrics filesMetrics, Backplane backplane,
+            VersionStore versionStore, EditJournal editJournal, AutoSaver autoSaver) {
         LOGGER.debug("fileManage started");
-        return new FileManage();
+        return new FileManage(propertiesReader, filesMetrics, backplane, versionStore, editJournal, autoSaver);
     }
 
     /**
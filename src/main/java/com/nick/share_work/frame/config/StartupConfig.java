@@ -0,0 +1,35 @@
+package com.nick.share_work.frame.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.nick.share_work.frame.authentication.AuthenticationService;
+import com.nick.share_work.frame.cluster.Backplane;
+import com.nick.share_work.frame.jwt.JwtKeyRing;
+import com.nick.share_work.frame.websocket.files.FairCommandScheduler;
+import com.nick.share_work.frame.websocket.files.FileManage;
+
+/**
+ * 启动配置。
+ * startup 配置开启 spring.main.lazy-initialization 后，这里列出的 Bean 仍在启动时创建：
+ * 消息通道和用户服务要在启动时订阅其它节点的变更，密钥环要在启动时生成或读取密钥库并开始轮换，
+ * 命令调度器的工作线程在第一个请求到达前就绪，文件管理器要在启动时重放未保存修改的日志。
+ *
+ * @author nick
+ */
+@Configuration
+public class StartupConfig {
+
+    /**
+     * 不参与延迟初始化的 Bean
+     *
+     * @return 按类型排除的过滤器
+     */
+    @Bean
+    public static LazyInitializationExcludeFilter eagerBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                Backplane.class, AuthenticationService.class, JwtKeyRing.class, FairCommandScheduler.class,
+                FileManage.class);
+    }
+}
@@ -13,8 +13,11 @@ import org.springframework.web.reactive.HandlerMapping;
 import org.springframework.web.reactive.config.EnableWebFlux;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
 import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
 import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
 
+import com.nick.share_work.frame.websocket.EndpointUpgradeStrategy;
+import com.nick.share_work.frame.websocket.WebSocketTrafficMetrics;
 import com.nick.share_work.frame.websocket.echo.EchoHandler;
 import com.nick.share_work.frame.websocket.files.FileHandler;
 
@@ -60,13 +63,26 @@ public class WebSocketConfig {
     }
 
     /**
-     * 配置 WebSocket 处理器适配器。
+     * 配置 WebSocket 处理器适配器，按端点设置压缩和帧大小限制。
      * 
+     * @param trafficMetrics WebSocket 流量指标
      * @return WebSocketHandlerAdapter 对象。
      */
     @Bean
-    public WebSocketHandlerAdapter handlerAdapter() {
+    public WebSocketHandlerAdapter handlerAdapter(WebSocketTrafficMetrics trafficMetrics) {
         LOGGER.debug("Configuring WebSocket handler adapter");
-        return new WebSocketHandlerAdapter();
+        final Map<String, EndpointUpgradeStrategy.Options> endpoints = new HashMap<>();
+        endpoints.put(propertiesReader.getEchoWebsocketConnectionUrl(), new EndpointUpgradeStrategy.Options(
+                propertiesReader.isEchoWebsocketCompress(),
+                propertiesReader.getEchoWebsocketMaxFramePayload(),
+                propertiesReader.getEchoWebsocketMaxAggregateSize()));
+        endpoints.put(propertiesReader.getFilesWebsocketConnectionUrl(), new EndpointUpgradeStrategy.Options(
+                propertiesReader.isFilesWebsocketCompress(),
+                propertiesReader.getFilesWebsocketMaxFramePayload(),
+                propertiesReader.getFilesWebsocketMaxAggregateSize()));
+        LOGGER.debug("WebSocket endpoint options : {}", endpoints);
+        final EndpointUpgradeStrategy.Options defaults = new EndpointUpgradeStrategy.Options(false, 65536, 65536);
+        return new WebSocketHandlerAdapter(new HandshakeWebSocketService(
+                new EndpointUpgradeStrategy(endpoints, defaults, trafficMetrics)));
     }
 }
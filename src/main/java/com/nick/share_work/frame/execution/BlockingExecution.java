@@ -0,0 +1,137 @@
+package com.nick.share_work.frame.execution;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 阻塞 I/O 的执行方式。
+ * platform 模式下文件命令由固定数量的平台线程执行，用户数据的持久化在 boundedElastic 上执行；
+ * virtual 模式下两者都使用虚拟线程，每个任务一个线程，可以同时进行大量阻塞的文件操作而不需要调整线程池大小。
+ * 虚拟线程需要 Java 21，通过反射获取，因此代码仍可在 Java 17 上编译，在 Java 17 上启用时启动失败。
+ *
+ * @author nick
+ */
+@Component
+public class BlockingExecution implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BlockingExecution.class);
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    private final boolean virtual; // 是否使用虚拟线程
+    private final ExecutorService executor; // 虚拟线程执行器，platform 模式下为 null
+    private final Scheduler scheduler; // 执行阻塞任务的 Reactor 调度器
+
+    public BlockingExecution(PropertiesReader propertiesReader) {
+        String mode = propertiesReader.getExecutionMode();
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            this.virtual = true;
+            this.executor = newThreadPerTaskExecutor(virtualThreadFactory("blocking-virtual-"));
+            this.scheduler = Schedulers.fromExecutorService(executor, "blocking-virtual");
+        } else if (mode == null || mode.isEmpty() || PLATFORM.equalsIgnoreCase(mode)) {
+            this.virtual = false;
+            this.executor = null;
+            this.scheduler = Schedulers.boundedElastic();
+        } else {
+            throw new IllegalArgumentException("Unknown execution.mode : " + mode);
+        }
+        LOGGER.info("[EXECUTION] {} threads for blocking I/O", virtual ? VIRTUAL : PLATFORM);
+    }
+
+    /**
+     * 是否使用虚拟线程
+     *
+     * @return virtual 模式返回 true
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 执行阻塞任务的 Reactor 调度器
+     *
+     * @return 调度器
+     */
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 在阻塞调度器上执行任务
+     *
+     * @param task 阻塞任务
+     * @return 任务结果
+     */
+    public <T> Mono<T> call(Callable<T> task) {
+        return Mono.fromCallable(task).subscribeOn(scheduler);
+    }
+
+    /**
+     * 创建长期运行的工作线程的工厂，线程名称为前缀加序号
+     *
+     * @param prefix 线程名称前缀
+     * @return virtual 模式下创建虚拟线程，否则创建守护平台线程
+     */
+    public ThreadFactory threadFactory(String prefix) {
+        if (virtual) {
+            return virtualThreadFactory(prefix);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            scheduler.dispose();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 通过反射调用 Thread.ofVirtual().name(prefix, 0).factory()
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = type.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) type.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("execution.mode=virtual requires Java 21, running on "
+                    + Runtime.version(), e);
+        }
+    }
+
+    /**
+     * 通过反射调用 Executors.newThreadPerTaskExecutor(factory)
+     */
+    private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("execution.mode=virtual requires Java 21, running on "
+                    + Runtime.version(), e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.nick.share_work.frame.jwt;
 
 import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +18,8 @@ import org.springframework.web.server.WebFilterChain;
 
 import com.nick.share_work.frame.config.PropertiesReader;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import reactor.core.publisher.Mono;
 
 /**
@@ -41,6 +45,11 @@ public class JwtAuthenticationFilter implements WebFilter {
     @Autowired
     private AntPathMatcher pathMatcher; // 路径匹配器
 
+    @Autowired
+    private MeterRegistry meterRegistry; // 指标注册表，记录过滤器自身的耗时
+
+    private final Map<String, Timer> filterTimers = new ConcurrentHashMap<>(); // 过滤结果 -> 计时器
+
     /**
      * 过滤方法处理每个请求，尝试提取和验证 JWT 令牌。
      * 如果令牌有效，它将设置认证上下文，并继续处理请求。
@@ -53,12 +62,14 @@ public class JwtAuthenticationFilter implements WebFilter {
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
         LOGGER.debug("JwtAuthenticationFilter filter");
+        Timer.Sample sample = Timer.start(meterRegistry);
         ServerHttpRequest request = exchange.getRequest();
         String path = request.getPath().toString();
 
         // 如果路径在白名单中，则直接返回，不进行认证
         if (isPathWhiteListed(path)){
             LOGGER.debug("Path is whitelisted: {}", path);
+            sample.stop(filterTimer("whitelisted"));
             return chain.filter(exchange); 
         }
 
@@ -71,6 +82,7 @@ public class JwtAuthenticationFilter implements WebFilter {
             return jwtTokenProvider.getAuthentication(token)
                     .flatMap(authentication -> {
                         LOGGER.debug("Authentication successful: {}", authentication);
+                        sample.stop(filterTimer("authenticated"));
                         // 设置认证上下文，并继续处理请求
                         return chain.filter(exchange)
                                 .contextWrite(ReactiveSecurityContextHolder.withAuthentication(authentication));
@@ -78,11 +90,13 @@ public class JwtAuthenticationFilter implements WebFilter {
                     .onErrorResume(e -> {
                         // 错误处理：记录错误日志，并返回 401 未授权状态
                         LOGGER.error("Authentication error : {}", e);
+                        sample.stop(filterTimer("error"));
                         exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
                         return exchange.getResponse().setComplete();
                     });
         } else {
             LOGGER.debug("Token validation failed");
+            sample.stop(filterTimer("rejected"));
             // 如果验证失败，设置状态码为 302，并重定向到首页
             exchange.getResponse().setStatusCode(HttpStatus.FOUND);
             exchange.getResponse().getHeaders().setLocation(URI.create("/"));
@@ -90,6 +104,20 @@ public class JwtAuthenticationFilter implements WebFilter {
         }
     }
 
+    /**
+     * 过滤器耗时的计时器，不包含后续过滤链的处理时间
+     *
+     * @param outcome 过滤结果
+     * @return 计时器
+     */
+    private Timer filterTimer(String outcome) {
+        return filterTimers.computeIfAbsent(outcome, k -> Timer.builder("auth.jwt.filter")
+                .description("Time spent in the JWT authentication filter itself")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
     /**
      * 判断路径是否在白名单中。
      *
@@ -0,0 +1,301 @@
+package com.nick.share_work.frame.jwt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.crypto.SecretKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nick.share_work.frame.config.PropertiesReader;
+
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+
+/**
+ * JWT 签名密钥环。
+ * 每个密钥有一个 kid，令牌头部携带签名所用的 kid，验证时按 kid 在哈希表中直接取得密钥。
+ * 配置了 jwt.secrets 时密钥固定，kid 由密钥内容的摘要得出，各节点一致；
+ * 否则密钥保存在 jwt.keystore.path 指向的文件中，启动时读取，重启后已签发的令牌仍然有效。
+ * 文件模式下每 jwt.key.rotation.hours 小时生成一个新密钥用于签名，旧密钥继续用于验证，
+ * 直到它签发的最后一个令牌过期后才删除，轮换不会使任何未过期的令牌失效。
+ * 多个节点可以共用同一个文件：写入时持有文件锁，遇到未知的 kid 时重新读取文件。
+ *
+ * @author nick
+ */
+@Component
+public class JwtKeyRing implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwtKeyRing.class);
+
+    // HS256 密钥的字节数
+    private static final int KEY_BYTES = 32;
+    // 检查是否需要轮换的间隔，单位秒
+    private static final long CHECK_INTERVAL_SECONDS = 60;
+    // 因未知 kid 重新读取文件的最小间隔，单位毫秒，避免伪造的 kid 反复触发读取
+    private static final long RELOAD_INTERVAL = 1000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SecureRandom random = new SecureRandom();
+    private final Path keystore; // 密钥文件，为 null 时只保存在内存中
+    private final long rotation; // 轮换间隔，单位毫秒，0 表示不轮换
+    private final Lock lock = new ReentrantLock(); // 锁，用于串行化读取、轮换和写入
+    private final ScheduledExecutorService rotator; // 定时轮换的线程，密钥固定时为 null
+    private volatile Ring ring; // 当前的密钥，整体替换
+    private long reloadedAt; // 最后一次因未知 kid 重新读取文件的时间
+
+    public JwtKeyRing(PropertiesReader propertiesReader) {
+        List<StoredKey> configured = configured(propertiesReader.getJwtSecrets());
+        if (!configured.isEmpty()) {
+            this.keystore = null;
+            this.rotation = 0;
+            this.rotator = null;
+            this.ring = new Ring(configured);
+            LOGGER.info("[JWT] {} configured keys, signing with kid {}", configured.size(), ring.signing.kid());
+            return;
+        }
+        String path = propertiesReader.getJwtKeystorePath();
+        this.keystore = path == null || path.isEmpty() ? null : Paths.get(path);
+        this.rotation = TimeUnit.HOURS.toMillis(Math.max(0, propertiesReader.getJwtKeyRotationHours()));
+        this.ring = new Ring(List.of());
+        refresh();
+        if (keystore == null) {
+            LOGGER.info("jwt.keystore.path is not set, tokens are only valid until this node restarts");
+        }
+        if (rotation > 0) {
+            this.rotator = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "jwt-key-rotator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            rotator.scheduleWithFixedDelay(this::refresh, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        } else {
+            this.rotator = null;
+        }
+    }
+
+    /**
+     * 当前用于签名的密钥
+     *
+     * @return kid 和密钥
+     */
+    public SigningKey current() {
+        return ring.signing;
+    }
+
+    /**
+     * 按 kid 查找验证密钥，本节点没有时重新读取密钥文件，其它节点可能刚刚完成轮换
+     *
+     * @param kid 令牌头部的 kid
+     * @return 密钥，未知的 kid 返回 null
+     */
+    public SecretKey find(String kid) {
+        SecretKey key = ring.keys.get(kid);
+        if (key != null || keystore == null) {
+            return key;
+        }
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            if (now - reloadedAt >= RELOAD_INTERVAL) {
+                reloadedAt = now;
+                List<StoredKey> stored = read();
+                if (stored != null && !stored.isEmpty()) {
+                    ring = new Ring(merge(ring.stored, stored));
+                }
+            }
+            return ring.keys.get(kid);
+        } catch (IOException e) {
+            LOGGER.error("[JWT] Failed to read keystore : {} error : {}", keystore, e.getMessage());
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (rotator != null) {
+            rotator.shutdownNow();
+        }
+    }
+
+    /**
+     * 读取密钥文件，需要时生成新密钥、删除过期密钥并写回文件
+     */
+    private void refresh() {
+        lock.lock();
+        try {
+            if (keystore == null) {
+                ring = new Ring(rotate(new ArrayList<>(ring.stored)));
+                return;
+            }
+            Files.createDirectories(keystore.toAbsolutePath().getParent());
+            Path lockFile = keystore.resolveSibling(keystore.getFileName() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                List<StoredKey> stored = read();
+                List<StoredKey> keys = merge(ring.stored, stored == null ? List.of() : stored);
+                List<StoredKey> rotated = rotate(new ArrayList<>(keys));
+                if (!rotated.equals(stored)) {
+                    write(rotated);
+                }
+                ring = new Ring(rotated);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("[JWT] Failed to refresh keystore : {} error : {}", keystore, e.getMessage());
+            if (ring.stored.isEmpty()) {
+                ring = new Ring(rotate(new ArrayList<>())); // 文件不可用时至少保证能签发令牌
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 最新的密钥超过轮换间隔（或没有密钥）时生成新密钥，删除签发的令牌均已过期的旧密钥
+     *
+     * @param keys 按创建时间升序排列的密钥
+     * @return 轮换后的密钥
+     */
+    private List<StoredKey> rotate(List<StoredKey> keys) {
+        long now = System.currentTimeMillis();
+        if (keys.isEmpty() || rotation > 0 && now - keys.get(keys.size() - 1).created() >= rotation) {
+            byte[] secret = new byte[KEY_BYTES];
+            random.nextBytes(secret);
+            keys.add(new StoredKey(kid(secret), Base64.getEncoder().encodeToString(secret), now));
+            LOGGER.info("[JWT] New signing key {}", keys.get(keys.size() - 1).kid());
+        }
+        // 密钥在下一个密钥创建时停止签名，之后再经过令牌的有效期即可删除
+        while (keys.size() > 1 && keys.get(1).created() + JwtTokenProvider.EXPIRATION_TIME < now) {
+            LOGGER.info("[JWT] Retired key {}", keys.remove(0).kid());
+        }
+        return keys;
+    }
+
+    private List<StoredKey> read() throws IOException {
+        if (!Files.exists(keystore)) {
+            return null;
+        }
+        return objectMapper.readValue(keystore.toFile(), new TypeReference<List<StoredKey>>() {});
+    }
+
+    /**
+     * 先写入临时文件再替换，读取方不会读到写了一半的文件；在支持 POSIX 权限的系统上只允许所有者读写
+     */
+    private void write(List<StoredKey> keys) throws IOException {
+        Path temp = keystore.resolveSibling(keystore.getFileName() + ".tmp");
+        Files.write(temp, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(keys));
+        try {
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // 不支持 POSIX 权限的文件系统
+        }
+        Files.move(temp, keystore, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 合并内存中和文件中的密钥，按 kid 去重，按创建时间升序排列
+     */
+    private static List<StoredKey> merge(List<StoredKey> current, List<StoredKey> stored) {
+        Map<String, StoredKey> merged = new HashMap<>();
+        current.forEach(key -> merged.put(key.kid(), key));
+        stored.forEach(key -> merged.put(key.kid(), key));
+        List<StoredKey> keys = new ArrayList<>(merged.values());
+        keys.sort(Comparator.comparingLong(StoredKey::created).thenComparing(StoredKey::kid));
+        return keys;
+    }
+
+    /**
+     * 解析 jwt.secrets，倒序排列，使第一个密钥排在最后，即用于签名
+     */
+    private static List<StoredKey> configured(String secrets) {
+        List<StoredKey> keys = new ArrayList<>();
+        if (secrets == null) {
+            return keys;
+        }
+        for (String secret : secrets.split(",")) {
+            if (!secret.isBlank()) {
+                keys.add(0, new StoredKey(kid(Decoders.BASE64.decode(secret.trim())), secret.trim(), 0));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 由密钥内容得出 kid：SHA-256 摘要的前 9 字节，URL 安全的 Base64 编码
+     */
+    private static String kid(byte[] secret) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 9));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 用于签名的密钥
+     *
+     * @param kid 密钥 ID
+     * @param key 密钥
+     */
+    public record SigningKey(String kid, SecretKey key) {
+    }
+
+    /**
+     * 密钥文件中的一条记录
+     *
+     * @param kid 密钥 ID
+     * @param secret Base64 编码的密钥
+     * @param created 创建时间，毫秒
+     */
+    record StoredKey(String kid, String secret, long created) {
+    }
+
+    /**
+     * 不可变的密钥集合，最后一个密钥用于签名
+     */
+    private static final class Ring {
+        private final List<StoredKey> stored;
+        private final Map<String, SecretKey> keys = new HashMap<>();
+        private final SigningKey signing;
+
+        private Ring(List<StoredKey> stored) {
+            this.stored = List.copyOf(stored);
+            SigningKey last = null;
+            for (StoredKey key : stored) {
+                SecretKey secret = Keys.hmacShaKeyFor(Base64.getDecoder().decode(key.secret()));
+                keys.put(key.kid(), secret);
+                last = new SigningKey(key.kid(), secret);
+            }
+            this.signing = last;
+        }
+    }
+}
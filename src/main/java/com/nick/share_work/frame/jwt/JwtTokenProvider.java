@@ -11,16 +11,18 @@ import org.springframework.stereotype.Component;
 import com.nick.share_work.frame.authentication.AuthenticationService;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.LocatorAdapter;
 
 import java.security.Key;
 import java.util.Date;
 
 /**
  * JwtTokenProvider 类用于生成和验证 JWT 令牌，以及从令牌中提取认证信息。
+ * 令牌头部携带签名密钥的 kid，验证时从 {@link JwtKeyRing} 按 kid 取得密钥。
  * 
  * @author nick
  */
@@ -30,23 +32,35 @@ public class JwtTokenProvider {
     // 日志记录器，用于记录日志信息
     private static final Logger LOGGER = LoggerFactory.getLogger(JwtTokenProvider.class);
 
-    // 用于签名 JWT 的密钥（使用 HS256 算法）
-    @SuppressWarnings("deprecation")
-    private static final Key key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
-
-    // 令牌的过期时间（1 天，单位为毫秒）
-    private static final long EXPIRATION_TIME = 86400000;
+    // 令牌的过期时间（1 天，单位为毫秒），密钥停止签名后至少保留这么久
+    static final long EXPIRATION_TIME = 86400000;
 
     // 用户服务，用于加载用户信息
     private final AuthenticationService authenticationService;
 
+    // 签名密钥环
+    private final JwtKeyRing keyRing;
+
+    // 令牌解析器，按头部的 kid 查找验证密钥，启动时创建后复用
+    private final JwtParser parser;
+
     /**
-     * 构造方法，注入 UserServiceImpl。
+     * 构造方法，注入 UserServiceImpl 和密钥环。
      *
      * @param userService 用户服务实例
+     * @param keyRing 签名密钥环
      */
-    public JwtTokenProvider(AuthenticationService authenticationService) {
+    public JwtTokenProvider(AuthenticationService authenticationService, JwtKeyRing keyRing) {
         this.authenticationService = authenticationService;
+        this.keyRing = keyRing;
+        this.parser = Jwts.parser().keyLocator(new LocatorAdapter<Key>() {
+            @Override
+            protected Key locate(JwsHeader header) {
+                String kid = header.getKeyId();
+                // 没有 kid 的令牌来自引入密钥环之前，用当前签名密钥尝试验证
+                return kid == null ? keyRing.current().key() : keyRing.find(kid);
+            }
+        }).build();
     }
 
     /**
@@ -64,13 +78,15 @@ public class JwtTokenProvider {
         Date now = new Date();
         // 设置令牌的过期时间
         Date expiryDate = new Date(now.getTime() + EXPIRATION_TIME);
+        JwtKeyRing.SigningKey signing = keyRing.current();
 
         // 构建并返回 JWT 令牌字符串
         String token = Jwts.builder()
+                .setHeaderParam("kid", signing.kid()) // 设置签名密钥的 ID
                 .setSubject(username) // 设置令牌的主题（通常为用户名）
                 .setIssuedAt(now) // 设置令牌的签发时间
                 .setExpiration(expiryDate) // 设置令牌的过期时间
-                .signWith(key) // 使用密钥签名令牌
+                .signWith(signing.key()) // 使用当前密钥签名令牌
                 .compact(); // 构建并压缩成 JWT 字符串
         LOGGER.debug("Generated JWT token: {}", token);
         return token;
@@ -82,16 +98,11 @@ public class JwtTokenProvider {
      * @param token JWT 令牌字符串
      * @return 包含用户信息的认证对象，如果解析失败则返回 Mono.empty()
      */
-    @SuppressWarnings("deprecation")
     public Mono<Authentication> getAuthentication(String token) {
         LOGGER.debug("getAuthentication for token: {}", token);
         try {
             // 解析令牌，获取声明体（Claims）
-            Claims claims = Jwts.parser()
-                .setSigningKey(key) // 设置用于验证签名的密钥
-                .build()
-                .parseClaimsJws(token) // 解析 JWT 令牌
-                .getBody();
+            Claims claims = parse(token);
             // 从声明体中获取用户名
             String username = claims.getSubject();
             LOGGER.debug("Get username from token: {}", username);
@@ -116,19 +127,26 @@ public class JwtTokenProvider {
      * @param token JWT 令牌字符串
      * @return 如果令牌有效则返回 true，否则返回 false
      */
-    @SuppressWarnings("deprecation")
     public boolean validateToken(String token) {
         LOGGER.debug("Validate JWT token: {}", token);
         try {
             // 解析令牌以验证其有效性
-            Jwts.parser()
-                .setSigningKey(key) // 设置用于验证签名的密钥
-                .build()
-                .parseClaimsJws(token); // 解析 JWT 令牌
+            parse(token);
             return true; // 如果解析成功则令牌有效
         } catch (JwtException | IllegalArgumentException e) {
             LOGGER.error("JWT token is invalid: {}", e.getMessage());
             return false; // 如果解析失败则令牌无效
         }
     }
+
+    /**
+     * 解析并验证令牌。
+     *
+     * @param token JWT 令牌字符串
+     * @return 声明体
+     * @throws JwtException 令牌无效或 kid 未知时抛出
+     */
+    private Claims parse(String token) {
+        return parser.parseSignedClaims(token).getPayload();
+    }
 }
@@ -0,0 +1,55 @@
+package com.nick.share_work.frame.logging;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AsyncAppenderBase;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 异步日志的指标：各异步追加器丢弃的日志数和队列剩余容量。
+ * 丢弃数持续增长说明日志量超出了磁盘的写入能力，应调低日志级别或采样率。
+ *
+ * @author nick
+ */
+@Component
+public class LoggingMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext context)) {
+            return;
+        }
+        for (Logger logger : context.getLoggerList()) {
+            for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext();) {
+                if (it.next() instanceof AsyncAppenderBase<ILoggingEvent> appender) {
+                    bind(registry, context, appender);
+                }
+            }
+        }
+    }
+
+    private void bind(MeterRegistry registry, LoggerContext context, AsyncAppenderBase<ILoggingEvent> appender) {
+        String name = appender.getName();
+        Gauge.builder("logback.queue.remaining", appender, AsyncAppenderBase::getRemainingCapacity)
+                .description("Free slots in the async appender queue")
+                .tags("appender", name)
+                .register(registry); // 同一追加器挂在多个 logger 上时重复注册返回已有的指标
+        if (context.getObject(MeteredAsyncAppender.DROPPED_KEY + name) instanceof LongAdder dropped) {
+            FunctionCounter.builder("logback.events.dropped", dropped, LongAdder::sum)
+                    .description("Log events dropped because the async appender queue was full")
+                    .tags("appender", name)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.nick.share_work.frame.logging;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * 统计丢弃数的异步日志追加器。
+ * 丢弃规则与 {@link AsyncAppender} 相同：剩余容量低于 discardingThreshold 时丢弃 INFO 及以下的日志，
+ * 开启 neverBlock 时队列满后丢弃所有日志。
+ * 计数器放在 logback 上下文中而不是静态字段里，开发时 devtools 用另一个类加载器加载应用类，
+ * 静态字段在两边不是同一份；由 {@link LoggingMetrics} 导出。
+ *
+ * @author nick
+ */
+public class MeteredAsyncAppender extends AsyncAppender {
+
+    // 丢弃计数器在 logback 上下文中的键前缀，后接追加器名称
+    static final String DROPPED_KEY = "share_work.async.dropped.";
+
+    private LongAdder dropped = new LongAdder();
+
+    @Override
+    public void start() {
+        dropped = new LongAdder();
+        getContext().putObject(DROPPED_KEY + getName(), dropped);
+        super.start();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (isStarted()) {
+            int remaining = getRemainingCapacity();
+            if ((remaining < getDiscardingThreshold() && isDiscardable(event)) || (remaining == 0 && isNeverBlock())) {
+                dropped.increment(); // 判断与父类入队不是原子的，并发时为近似值
+            }
+        }
+        super.append(event);
+    }
+}
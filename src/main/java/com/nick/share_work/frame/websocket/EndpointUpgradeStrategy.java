@@ -0,0 +1,83 @@
+package com.nick.share_work.frame.websocket;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.lang.Nullable;
+import org.springframework.web.reactive.socket.HandshakeInfo;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.adapter.ReactorNettyWebSocketSession;
+import org.springframework.web.reactive.socket.server.RequestUpgradeStrategy;
+import org.springframework.web.server.ServerWebExchange;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.http.server.WebsocketServerSpec;
+
+/**
+ * 按端点区分帧参数的 Reactor Netty 升级策略。
+ * 与 Spring 自带的 ReactorNettyRequestUpgradeStrategy 相同，只是压缩、单帧上限和
+ * 分片聚合上限可以对每个端点分别配置，并在升级后挂上流量指标。
+ *
+ * @author nick
+ */
+public class EndpointUpgradeStrategy implements RequestUpgradeStrategy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndpointUpgradeStrategy.class);
+
+    private final Map<String, Options> endpoints; // 端点路径 -> 帧参数
+    private final Options defaults; // 未配置端点使用的帧参数
+    private final WebSocketTrafficMetrics metrics;
+
+    public EndpointUpgradeStrategy(Map<String, Options> endpoints, Options defaults, WebSocketTrafficMetrics metrics) {
+        this.endpoints = Map.copyOf(endpoints);
+        this.defaults = defaults;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Mono<Void> upgrade(ServerWebExchange exchange, WebSocketHandler handler,
+            @Nullable String subProtocol, Supplier<HandshakeInfo> handshakeInfoFactory) {
+        String path = exchange.getRequest().getPath().value();
+        Options options = endpoints.getOrDefault(path, defaults);
+        LOGGER.debug("Upgrading {} with {}", path, options);
+
+        ServerHttpResponse response = exchange.getResponse();
+        HttpServerResponse reactorResponse = ServerHttpResponseDecorator.getNativeResponse(response);
+        HandshakeInfo handshakeInfo = handshakeInfoFactory.get();
+        NettyDataBufferFactory bufferFactory = (NettyDataBufferFactory) response.bufferFactory();
+        WebsocketServerSpec.Builder builder = WebsocketServerSpec.builder()
+                .compress(options.compress())
+                .maxFramePayloadLength(options.maxFramePayload());
+        if (subProtocol != null) {
+            builder.protocols(subProtocol);
+        }
+        WebsocketServerSpec spec = builder.build();
+
+        // 先触发 WebFlux 的提交前处理，再升级连接
+        return response.setComplete()
+                .then(Mono.defer(() -> reactorResponse.sendWebsocket((in, out) -> {
+                    in.withConnection(connection -> metrics.bind(path, connection));
+                    ReactorNettyWebSocketSession session = new ReactorNettyWebSocketSession(
+                            in, out, handshakeInfo, bufferFactory, options.maxAggregateSize());
+                    return handler.handle(session).checkpoint(path + " [EndpointUpgradeStrategy]");
+                }, spec)));
+    }
+
+    /**
+     * 单个端点的帧参数
+     *
+     * @param compress 是否协商 permessage-deflate
+     * @param maxFramePayload 单个入站帧的最大负载字节数
+     * @param maxAggregateSize 分片帧聚合后的最大消息字节数，不小于单帧上限
+     */
+    public record Options(boolean compress, int maxFramePayload, int maxAggregateSize) {
+        public Options {
+            maxAggregateSize = Math.max(maxAggregateSize, maxFramePayload);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.nick.share_work.frame.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * WebSocket 消息内容日志的采样器。
+ * 每隔固定条数放行一条，放行的内容按配置的长度截断，避免高频消息把完整内容写进日志。
+ *
+ * @author nick
+ */
+@Component
+public class PayloadLogSampler {
+
+    private final int sample; // 采样间隔，0 表示不记录
+    private final int maxLength; // 最大字符数
+    private final AtomicLong counter = new AtomicLong();
+
+    public PayloadLogSampler(PropertiesReader propertiesReader) {
+        this.sample = propertiesReader.getWebsocketLogPayloadSample();
+        this.maxLength = Math.max(0, propertiesReader.getWebsocketLogPayloadMaxLength());
+    }
+
+    /**
+     * 判断本条消息是否需要记录
+     *
+     * @return 需要记录返回 true
+     */
+    public boolean sample() {
+        return sample > 0 && counter.getAndIncrement() % sample == 0;
+    }
+
+    /**
+     * 截断消息内容
+     *
+     * @param payload 消息内容，调用其 toString
+     * @return 截断后的内容
+     */
+    public String truncate(Object payload) {
+        String text = String.valueOf(payload);
+        if (text.length() <= maxLength) {
+            return text;
+        }
+        return text.substring(0, maxLength) + "...(" + text.length() + " chars)";
+    }
+}
@@ -4,17 +4,22 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * WebSocketMessageBody 类用于封装 WebSocket 消息的内容，并提供将其转换为 JSON 字符串和从 JSON 字符串反序列化的方法。
+ * 二进制协议下的编解码见 {@link com.nick.share_work.frame.websocket.files.BinaryFrameCodec}。
  */
 public class WebSocketMessageBody {
     private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketMessageBody.class);
     private static final String SUCCESS = "success"; // 成功类型消息的标识
     private static final String ERROR = "error"; // 错误类型消息的标识
+    public static final String REASON_KEY = "reason"; // 错误原因的键
+    private static final ObjectMapper MAPPER = new ObjectMapper(); // 线程安全，所有消息共用
 
     private static final String UTF_8 = "utf-8"; // 字符编码
     
@@ -22,17 +27,24 @@ public class WebSocketMessageBody {
     private String key; // 消息的关键字
     private String message; // 消息内容
     private Map<String, String> value; // 附带的值
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long version; // 共享文档的版本号，仅文档相关消息携带
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String requestId; // 客户端为请求指定的 ID，原样带回响应，用于对应乱序返回的响应
+    private transient WebSocketMessageBody base; // 带上请求 ID 之前的响应，序列化时复用其结果
+    private transient volatile String json; // 序列化结果的缓存
 
     // 无参构造函数，供 Jackson 反序列化使用
     public WebSocketMessageBody() {
     }
 
     // 带参数的构造函数
-    private WebSocketMessageBody(String type, String key, String message, Map<String, String> value) {
+    private WebSocketMessageBody(String type, String key, String message, Map<String, String> value, Long version) {
         this.type = type;
         this.key = key;
         this.message = message;
         this.value = value;
+        this.version = version;
     }
 
     // Getter 和 Setter 方法
@@ -43,6 +55,8 @@ public class WebSocketMessageBody {
 
     public void setType(String type) {
         this.type = type;
+        this.base = null;
+        this.json = null;
     }
 
     public String getKey() {
@@ -51,6 +65,8 @@ public class WebSocketMessageBody {
 
     public void setKey(String key) {
         this.key = key;
+        this.base = null;
+        this.json = null;
     }
 
     public String getMessage() {
@@ -59,6 +75,8 @@ public class WebSocketMessageBody {
 
     public void setMessage(String message) {
         this.message = message;
+        this.base = null;
+        this.json = null;
     }
 
     public Map<String, String> getValue() {
@@ -67,63 +85,131 @@ public class WebSocketMessageBody {
 
     public void setValue(Map<String, String> value) {
         this.value = value;
+        this.base = null;
+        this.json = null;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+        this.base = null;
+        this.json = null;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+        this.base = null;
+        this.json = null;
     }
     
     public String toString() {
-        return "WebSocketMessageBody [type=" + type + ", key=" + key + ", message=" + message + ", value=" + value + "]";
+        return "WebSocketMessageBody [type=" + type + ", key=" + key + ", message=" + message + ", value=" + value + ", version=" + version
+                + (requestId == null ? "" : ", requestId=" + requestId) + "]";
     }
 
     /**
-     * 创建一个成功类型的 WebSocket 消息并转换为 JSON 字符串。
+     * 是否为错误类型的消息
+     * 
+     * @return 错误类型返回 true
+     */
+    @JsonIgnore
+    public boolean isError() {
+        return ERROR.equals(type);
+    }
+
+    /**
+     * 带上请求 ID 的响应。响应可能是多个会话共享的对象（如文档快照），因此不修改原对象而是返回副本，
+     * 副本的 JSON 在原对象的序列化结果前插入 requestId，不重新序列化 value
+     *
+     * @param requestId 请求 ID，为 null 时返回原对象
+     * @return 响应
+     */
+    public WebSocketMessageBody withRequestId(String requestId) {
+        if (requestId == null) {
+            return this;
+        }
+        WebSocketMessageBody reply = new WebSocketMessageBody(type, key, message, value, version);
+        reply.requestId = requestId;
+        reply.base = this;
+        return reply;
+    }
+
+    /**
+     * 创建一个成功类型的 WebSocket 消息。
      * 
-     * @param key 消息的关键字
      * @param message 消息内容
      * @param value 消息附带的值
-     * @return JSON 字符串格式的消息
+     * @return 消息对象
      */
-    public static String success(String message, Map<String, String> value) {
-        return createMessage(SUCCESS, UTF_8, message, value);
+    public static WebSocketMessageBody success(String message, Map<String, String> value) {
+        return createMessage(SUCCESS, UTF_8, message, value, null);
     }
 
     /**
-     * 创建一个错误类型的 WebSocket 消息并转换为 JSON 字符串。
+     * 创建一个携带文档版本号的成功类型 WebSocket 消息。
      * 
-     * @param key 消息的关键字
      * @param message 消息内容
      * @param value 消息附带的值
-     * @return JSON 字符串格式的消息
+     * @param version 文档版本号
+     * @return 消息对象
      */
-    public static String error(String message, String reason) {
-        return createMessage(ERROR, UTF_8, message, Map.of("reason", reason));
+    public static WebSocketMessageBody success(String message, Map<String, String> value, long version) {
+        return createMessage(SUCCESS, UTF_8, message, value, version);
     }
 
     /**
-     * 创建 WebSocket 消息并将其转换为 JSON 字符串。
+     * 创建一个错误类型的 WebSocket 消息。
+     * 
+     * @param message 消息内容
+     * @param reason 错误原因
+     * @return 消息对象
+     */
+    public static WebSocketMessageBody error(String message, String reason) {
+        return createMessage(ERROR, UTF_8, message, Map.of(REASON_KEY, reason), null);
+    }
+
+    /**
+     * 创建 WebSocket 消息。
      * 
      * @param type 消息类型
      * @param key 消息的关键字
      * @param message 消息内容
      * @param value 消息附带的值
-     * @return JSON 字符串格式的消息
+     * @param version 文档版本号，可为 null
+     * @return 消息对象
      */
-    private static String createMessage(String type, String key, String message, Map<String, String> value) {
+    private static WebSocketMessageBody createMessage(String type, String key, String message, Map<String, String> value, Long version) {
         LOGGER.debug("Creating WebSocketMessageBody with type {}, key {}, message {}", type, key, message);
-        WebSocketMessageBody messageBody = new WebSocketMessageBody(type, key, message, value);
-        return messageBody.toJson();
+        return new WebSocketMessageBody(type, key, message, value, version);
     }
 
     /**
      * 将 WebSocketMessageBody 对象转换为 JSON 字符串。
+     * 同一个消息对象只序列化一次，推送给多个会话时共享结果。
      * 
      * @return JSON 字符串格式的消息
      */
-    private String toJson() {
-        try {
-            return new ObjectMapper().writeValueAsString(this);
-        } catch (JsonProcessingException e) {
-            LOGGER.error("Error while converting WebSocketMessageBody to JSON: {}", e.getMessage());
-            return null;
+    public String toJson() {
+        String result = json;
+        if (result == null) {
+            try {
+                String original = base == null ? null : base.toJson();
+                result = original != null && original.startsWith("{")
+                        ? "{\"requestId\":" + MAPPER.writeValueAsString(requestId) + "," + original.substring(1)
+                        : MAPPER.writeValueAsString(this);
+                json = result;
+            } catch (JsonProcessingException e) {
+                LOGGER.error("Error while converting WebSocketMessageBody to JSON: {}", e.getMessage());
+            }
         }
+        return result;
     }
 
     /**
@@ -134,7 +220,7 @@ public class WebSocketMessageBody {
      */
     public static WebSocketMessageBody fromJson(String json) {
         try {
-            WebSocketMessageBody messageBody = new ObjectMapper().readValue(json, WebSocketMessageBody.class);
+            WebSocketMessageBody messageBody = MAPPER.readValue(json, WebSocketMessageBody.class);
             LOGGER.debug("Converting JSON to WebSocketMessageBody: {}", messageBody);
             return messageBody;
         } catch (JsonMappingException e) {
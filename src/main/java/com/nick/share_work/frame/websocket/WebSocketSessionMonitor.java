@@ -0,0 +1,163 @@
+package com.nick.share_work.frame.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * WebSocket 会话监视器。
+ * 由服务端定时发送 ping，客户端（浏览器会自动回复 pong）在超时时间内没有任何帧到达时判定连接已失效；
+ * 长时间没有收到数据帧的会话视为空闲会话。两种情况都由服务端主动关闭连接，
+ * 处理器在 doFinally 中释放会话占用的资源。
+ * 同时按端点登记活动会话数及会话持有的内存估算值。
+ *
+ * @author nick
+ */
+@Component
+public class WebSocketSessionMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketSessionMonitor.class);
+
+    // 空闲超时关闭码，客户端收到后不应自动重连
+    public static final CloseStatus IDLE_TIMEOUT = CloseStatus.create(4000, "Idle timeout");
+    // 心跳超时关闭码
+    public static final CloseStatus HEARTBEAT_TIMEOUT = CloseStatus.GOING_AWAY.withReason("Heartbeat timeout");
+
+    private static final byte[] PING_PAYLOAD = "sharework".getBytes(StandardCharsets.US_ASCII);
+
+    private final MeterRegistry meterRegistry;
+    private final Duration pingInterval; // ping 间隔
+    private final long pongTimeoutMillis; // 没有任何帧到达的最长时间
+    private final long idleTimeoutMillis; // 没有数据帧到达的最长时间
+    private final Map<String, Tracked> sessions = new ConcurrentHashMap<>(); // 会话 ID -> 会话状态
+    private final Map<String, Boolean> endpoints = new ConcurrentHashMap<>(); // 已登记指标的端点
+
+    public WebSocketSessionMonitor(PropertiesReader propertiesReader, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.pingInterval = Duration.ofSeconds(propertiesReader.getWebsocketPingIntervalSeconds());
+        this.pongTimeoutMillis = propertiesReader.getWebsocketPongTimeoutSeconds() * 1000L;
+        this.idleTimeoutMillis = propertiesReader.getWebsocketIdleTimeoutSeconds() * 1000L;
+    }
+
+    /**
+     * 开始监视一个会话
+     *
+     * @param endpoint 端点路径，作为指标标签
+     * @param session WebSocket 会话
+     * @param retainedBytes 会话持有内存的估算，单位字节
+     * @return 会话状态
+     */
+    public Tracked track(String endpoint, WebSocketSession session, LongSupplier retainedBytes) {
+        endpoints.computeIfAbsent(endpoint, this::registerGauges);
+        Tracked tracked = new Tracked(endpoint, session, retainedBytes);
+        sessions.put(session.getId(), tracked);
+        return tracked;
+    }
+
+    private Boolean registerGauges(String endpoint) {
+        Gauge.builder("websocket.sessions.active", () -> sessions.values().stream()
+                        .filter(t -> t.endpoint.equals(endpoint)).count())
+                .description("Open WebSocket sessions")
+                .tags("endpoint", endpoint)
+                .register(meterRegistry);
+        Gauge.builder("websocket.sessions.retained.bytes", () -> sessions.values().stream()
+                        .filter(t -> t.endpoint.equals(endpoint)).mapToLong(Tracked::retainedBytes).sum())
+                .description("Estimated heap retained by open WebSocket sessions")
+                .baseUnit("bytes")
+                .tags("endpoint", endpoint)
+                .register(meterRegistry);
+        Gauge.builder("websocket.session.retained.bytes.max", () -> sessions.values().stream()
+                        .filter(t -> t.endpoint.equals(endpoint)).mapToLong(Tracked::retainedBytes).max().orElse(0))
+                .description("Estimated heap retained by the largest open WebSocket session")
+                .baseUnit("bytes")
+                .tags("endpoint", endpoint)
+                .register(meterRegistry);
+        return Boolean.TRUE;
+    }
+
+    /**
+     * 单个会话的监视状态
+     */
+    public final class Tracked {
+        private final String endpoint;
+        private final WebSocketSession session;
+        private final LongSupplier retainedBytes;
+        private volatile long lastFrame = System.currentTimeMillis(); // 最后收到任意帧的时间
+        private volatile long lastMessage = lastFrame; // 最后收到数据帧的时间
+
+        private Tracked(String endpoint, WebSocketSession session, LongSupplier retainedBytes) {
+            this.endpoint = endpoint;
+            this.session = session;
+            this.retainedBytes = retainedBytes;
+        }
+
+        /**
+         * 记录收到的帧
+         *
+         * @param message 收到的帧
+         * @return 数据帧返回 true，ping/pong 等控制帧返回 false
+         */
+        public boolean onInbound(WebSocketMessage message) {
+            long now = System.currentTimeMillis();
+            lastFrame = now;
+            if (message.getType() == WebSocketMessage.Type.TEXT || message.getType() == WebSocketMessage.Type.BINARY) {
+                lastMessage = now;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 心跳流，需合并到会话的发送流中。超时后关闭会话，会话关闭时结束
+         *
+         * @return ping 帧流
+         */
+        public Flux<WebSocketMessage> heartbeat() {
+            return Flux.interval(pingInterval)
+                    .concatMap(tick -> {
+                        long now = System.currentTimeMillis();
+                        if (now - lastFrame > pongTimeoutMillis) {
+                            LOGGER.info("[HEARTBEAT TIMEOUT] {} {}", endpoint, session.getId());
+                            return session.close(HEARTBEAT_TIMEOUT).then(Mono.<WebSocketMessage>empty());
+                        }
+                        if (now - lastMessage > idleTimeoutMillis) {
+                            LOGGER.info("[IDLE TIMEOUT] {} {}", endpoint, session.getId());
+                            return session.close(IDLE_TIMEOUT).then(Mono.<WebSocketMessage>empty());
+                        }
+                        return Mono.just(session.pingMessage(factory -> factory.wrap(PING_PAYLOAD)));
+                    })
+                    .takeUntilOther(session.closeStatus());
+        }
+
+        /**
+         * 会话持有内存的估算值
+         *
+         * @return 字节数
+         */
+        public long retainedBytes() {
+            return retainedBytes.getAsLong();
+        }
+
+        /**
+         * 停止监视该会话
+         */
+        public void release() {
+            sessions.remove(session.getId(), this);
+        }
+    }
+}
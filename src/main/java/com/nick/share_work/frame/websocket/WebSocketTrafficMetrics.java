@@ -0,0 +1,154 @@
+package com.nick.share_work.frame.websocket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import reactor.netty.Connection;
+
+/**
+ * WebSocket 流量指标。
+ * 在连接的管道两端各挂一个计数器：靠近应用的一端统计未压缩的帧负载，
+ * 靠近网络的一端统计实际写入套接字的字节，两者之比即压缩率。
+ *
+ * @author nick
+ */
+@Component
+public class WebSocketTrafficMetrics {
+
+    private static final String WIRE_HANDLER = "sharework.ws.wire.metrics";
+    private static final String FRAME_HANDLER = "sharework.ws.frame.metrics";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>(); // 端点 -> 指标
+
+    public WebSocketTrafficMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 为升级后的 WebSocket 连接挂上计数器
+     *
+     * @param endpoint 端点路径，作为指标标签
+     * @param connection Reactor Netty 连接
+     */
+    public void bind(String endpoint, Connection connection) {
+        Meters endpointMeters = meters.computeIfAbsent(endpoint, Meters::new);
+        connection.channel().pipeline().addFirst(WIRE_HANDLER, new WireCounter(endpointMeters));
+        connection.addHandlerLast(FRAME_HANDLER, new FrameCounter(endpointMeters));
+    }
+
+    /**
+     * 单个端点的指标，按方向区分
+     */
+    private final class Meters {
+        private final Direction in;
+        private final Direction out;
+
+        private Meters(String endpoint) {
+            this.in = new Direction(endpoint, "in");
+            this.out = new Direction(endpoint, "out");
+        }
+    }
+
+    private final class Direction {
+        private final DistributionSummary frameSize;
+        private final Counter payloadBytes;
+        private final Counter wireBytes;
+
+        private Direction(String endpoint, String direction) {
+            this.frameSize = DistributionSummary.builder("websocket.frame.size")
+                    .description("Uncompressed payload size of WebSocket data frames")
+                    .baseUnit("bytes")
+                    .tags("endpoint", endpoint, "direction", direction)
+                    .publishPercentiles(0.5, 0.99)
+                    .register(meterRegistry);
+            this.payloadBytes = Counter.builder("websocket.payload.bytes")
+                    .description("Uncompressed WebSocket payload bytes")
+                    .baseUnit("bytes")
+                    .tags("endpoint", endpoint, "direction", direction)
+                    .register(meterRegistry);
+            this.wireBytes = Counter.builder("websocket.wire.bytes")
+                    .description("Bytes on the socket after WebSocket framing and compression")
+                    .baseUnit("bytes")
+                    .tags("endpoint", endpoint, "direction", direction)
+                    .register(meterRegistry);
+            Gauge.builder("websocket.compression.ratio", this, d -> d.payloadBytes.count() == 0
+                            ? 1.0 : d.wireBytes.count() / d.payloadBytes.count())
+                    .description("Wire bytes divided by payload bytes, lower is better")
+                    .tags("endpoint", endpoint, "direction", direction)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 统计套接字上的原始字节
+     */
+    private static final class WireCounter extends ChannelDuplexHandler {
+        private final Meters meters;
+
+        private WireCounter(Meters meters) {
+            this.meters = meters;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ByteBuf buf) {
+                meters.in.wireBytes.increment(buf.readableBytes());
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf buf) {
+                meters.out.wireBytes.increment(buf.readableBytes());
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    /**
+     * 统计未压缩的数据帧
+     */
+    private static final class FrameCounter extends ChannelDuplexHandler {
+        private final Meters meters;
+
+        private FrameCounter(Meters meters) {
+            this.meters = meters;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            record(meters.in, msg);
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            record(meters.out, msg);
+            super.write(ctx, msg, promise);
+        }
+
+        private static void record(Direction direction, Object msg) {
+            if (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame) {
+                int size = ((WebSocketFrame) msg).content().readableBytes();
+                direction.frameSize.record(size);
+                direction.payloadBytes.increment(size);
+            }
+        }
+    }
+}
@@ -7,10 +7,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketSession;
+
+import com.nick.share_work.frame.websocket.PayloadLogSampler;
+import com.nick.share_work.frame.websocket.WebSocketSessionMonitor;
+
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
  * WebSocket 消息处理器，负责处理 WebSocket 连接和消息回显。
+ * 心跳和空闲超时由 {@link WebSocketSessionMonitor} 负责。
  * 
  * @author nick
  */
@@ -24,6 +30,14 @@ public class EchoHandler implements WebSocketHandler {
     @Autowired
     private EchoServer echoServer;
 
+    // 注入会话监视器，用于心跳和空闲超时
+    @Autowired
+    private WebSocketSessionMonitor sessionMonitor;
+
+    // 消息内容日志的采样器
+    @Autowired
+    private PayloadLogSampler payloadLogSampler;
+
     /**
      * 处理 WebSocket 会话中的消息。
      *
@@ -36,23 +50,37 @@ public class EchoHandler implements WebSocketHandler {
         // 记录 WebSocket 连接建立的信息
         LOGGER.info("Echo WebSocket connection established");
 
+        // 回显会话不持有额外状态
+        WebSocketSessionMonitor.Tracked tracked = sessionMonitor.track(
+                session.getHandshakeInfo().getUri().getPath(), session, () -> 0L);
+
         // 处理消息的发送和接收
-        return session.send(
+        return session.send(Flux.merge(
                 session.receive()
+                        .filter(tracked::onInbound) // 控制帧只用于心跳判断
                         .map(msg -> {
                             // 读取接收到的消息
                             String message = msg.getPayloadAsText();
-                            LOGGER.debug("Received: {}", message);
+                            boolean sampled = LOGGER.isDebugEnabled() && payloadLogSampler.sample();
+                            if (sampled) {
+                                LOGGER.debug("Received: {}", payloadLogSampler.truncate(message));
+                            }
 
                             // 通过 EchoServer 处理消息并生成响应
                             String response = echoServer.answer(message);
-                            LOGGER.debug("Response: {}", response);
+                            if (sampled) {
+                                LOGGER.debug("Response: {}", payloadLogSampler.truncate(response));
+                            }
 
                             // 返回 WebSocket 文本消息
                             return session.textMessage(response);
-                        })
+                        }),
+                tracked.heartbeat())
         )
         // 连接关闭时的处理
-        .doOnTerminate(() -> LOGGER.info("WebSocket connection closed"));
+        .doFinally(signal -> {
+            tracked.release();
+            LOGGER.info("WebSocket connection closed");
+        });
     }
 }
@@ -0,0 +1,88 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 原子地替换文件内容：先写入同一目录下的临时文件并 fsync，再重命名为目标文件，最后 fsync 目录。
+ * 任何时刻崩溃，目标文件要么是原来的完整内容，要么是新的完整内容，不会被截断成一半。
+ * 目标文件已存在时临时文件沿用其 POSIX 权限。
+ *
+ * @author nick
+ */
+final class AtomicFiles {
+
+    // 临时文件的扩展名
+    private static final String TEMPORARY = ".tmp";
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * 写入文件内容的回调
+     */
+    @FunctionalInterface
+    interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * 原子地写入字节
+     *
+     * @param target 目标文件
+     * @param bytes 完整内容
+     * @throws IOException 写入失败时抛出，目标文件保持不变
+     */
+    static void write(Path target, byte[] bytes) throws IOException {
+        write(target, out -> out.write(bytes));
+    }
+
+    /**
+     * 原子地写入回调产生的内容
+     *
+     * @param target 目标文件
+     * @param content 写入完整内容的回调，不需要关闭流
+     * @throws IOException 写入失败时抛出，目标文件保持不变
+     */
+    static void write(Path target, Content content) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path directory = absolute.getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "." + absolute.getFileName(), TEMPORARY);
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+                content.writeTo(file);
+                file.getFD().sync();
+            }
+            copyPermissions(absolute, temporary);
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        syncDirectory(directory);
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (NoSuchFileException | UnsupportedOperationException e) {
+            // 新文件或不支持 POSIX 权限的平台
+        }
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true); // 重命名后的目录条目也要落盘
+        } catch (IOException | UnsupportedOperationException e) {
+            // 部分平台不能打开目录
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+/**
+ * 有未保存修改的文档的自动保存（write-behind）。
+ * 文档第一次变为未保存时安排一次保存，在 files.autosave.interval.ms 之后执行，期间的写入都合并到这一次保存中；
+ * 保存开始后的写入再安排下一次，因此每个文档在每个间隔内最多保存一次。
+ * 保存在 files.autosave.concurrency 个后台线程上执行（由 {@link BlockingExecution} 创建），同时进行的保存数不超过该数量。
+ * 间隔为 0 时不自动保存。
+ *
+ * @author nick
+ */
+@Component
+public class AutoSaver implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AutoSaver.class);
+
+    private final long intervalMillis; // 保存间隔，0 为不自动保存
+    private final ScheduledThreadPoolExecutor executor; // 执行保存的线程池，不自动保存时为 null
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>(); // 文件的绝对路径 -> 已安排的保存
+    private volatile boolean closed;
+
+    public AutoSaver(PropertiesReader propertiesReader, BlockingExecution execution) {
+        this.intervalMillis = Math.max(0, propertiesReader.getFilesAutosaveIntervalMs());
+        if (intervalMillis == 0) {
+            this.executor = null;
+            return;
+        }
+        int concurrency = Math.max(1, propertiesReader.getFilesAutosaveConcurrency());
+        this.executor = new ScheduledThreadPoolExecutor(concurrency, execution.threadFactory("files-autosave-"));
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        LOGGER.info("[AUTOSAVE] every {} ms, {} concurrent saves", intervalMillis, concurrency);
+    }
+
+    /**
+     * 是否自动保存
+     *
+     * @return files.autosave.interval.ms 大于 0 时返回 true
+     */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * 文档有新的写入，该文档还没有安排保存时在一个间隔后保存，已安排时合并到那一次
+     *
+     * @param key 文件的绝对路径
+     * @param save 保存该文档，返回 false 表示保存失败，一个间隔后重试
+     */
+    public void schedule(String key, SaveTask save) {
+        if (executor == null || closed) {
+            return;
+        }
+        try {
+            pending.computeIfAbsent(key, k -> executor.schedule(() -> run(k, save), intervalMillis, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            // 正在关闭，由关闭时的保存负责
+        }
+    }
+
+    /**
+     * 取消所有已安排的保存，并等待正在进行的保存结束。
+     * 关闭后不再安排新的保存，剩余未保存的文档由调用方在关闭前自行保存
+     */
+    @Override
+    public void close() {
+        if (executor == null || closed) {
+            return;
+        }
+        closed = true;
+        pending.values().forEach(future -> future.cancel(false));
+        pending.clear();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("[AUTOSAVE] Saves still running after 30 s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(String key, SaveTask save) {
+        pending.remove(key); // 之后的写入安排下一次保存
+        boolean saved;
+        try {
+            saved = save.save();
+        } catch (RuntimeException e) {
+            LOGGER.error("[AUTOSAVE ERROR] {} ,error : {}", key, e.getMessage());
+            saved = false;
+        }
+        if (!saved) {
+            schedule(key, save);
+        }
+    }
+
+    /**
+     * 保存一个文档
+     */
+    @FunctionalInterface
+    public interface SaveTask {
+
+        /**
+         * 保存文档，文档已经没有未保存的修改时直接返回
+         *
+         * @return 保存失败返回 false
+         */
+        boolean save();
+    }
+}
@@ -0,0 +1,389 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+/**
+ * 二进制帧编解码器，客户端在握手时请求 {@link #SUBPROTOCOL} 子协议即可启用。
+ * <p>
+ * 帧格式（varint 均为无符号 LEB128）：
+ * <pre>
+ * frame   := opcode:varint flags:byte [message:string]? [version:varint]? [requestId:string]? [count:varint entry*]?
+ * entry   := tag:varint (string | varint)
+ * string  := (byteLength + 1):varint utf8-bytes     // 0 表示 null
+ * </pre>
+ * opcode 为 {@link #MESSAGES} 中的序号加一，0 表示后面紧跟字符串形式的消息名。
+ * flags 的第 0 位表示错误消息，第 1 位表示携带版本号，第 2 位表示携带 value，第 3 位表示携带请求 ID。
+ * tag 的低两位区分键的种类：0 为内联键（高位是键的字节长度，后接 UTF-8 字节），
+ * 1 为行号键（高位即行号），2 为常用字段（高位是 {@link #FIELDS} 中的序号）。
+ * 常用字段中的行号直接以 varint 表示（值不是行号时该字段以内联键表示），其余值都是 string。
+ *
+ * @author nick
+ */
+@Component
+public class BinaryFrameCodec implements FrameCodec {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryFrameCodec.class);
+
+    // 握手时协商的子协议名称
+    public static final String SUBPROTOCOL = "sharework.files.binary.v1";
+
+    // 消息名称表，顺序即协议的一部分，只能在末尾追加
+    private static final List<String> MESSAGES = List.of(
+            PathManage.EACH, PathManage.SEARCH, PathManage.CREATE, PathManage.DELETE, PathManage.END,
+            FileManage.OPEN, FileManage.SAVE, FileManage.END, FileManage.READE_LINE, FileManage.WRITE_LINE,
+            FileManage.DELTA, FileManage.VERSIONS, FileManage.RESTORE, FileManage.RELOAD,
+            TailManage.TAIL, TailManage.UNTAIL, TailManage.LINES,
+            WatchManage.WATCH, WatchManage.UNWATCH, WatchManage.CHANGES, FileManage.RESYNC);
+
+    // 常用字段表，顺序即协议的一部分，只能在末尾追加
+    private static final List<String> FIELDS = List.of(
+            FilesManagementServer.PATH_KEY, FilesManagementServer.COND_KEY, FilesManagementServer.VALUE_KEY,
+            FilesManagementServer.LINE_KEY, WebSocketMessageBody.REASON_KEY);
+    private static final int LINE_FIELD = FIELDS.indexOf(FilesManagementServer.LINE_KEY);
+
+    // 编码时按名称查找序号，不必每次线性扫描上面的表
+    private static final Map<String, Integer> MESSAGE_CODES = index(MESSAGES);
+    private static final Map<String, Integer> FIELD_CODES = index(FIELDS);
+
+    // 读取 value 时预分配的容量，条目数来自客户端，不能据此预分配
+    private static final int INITIAL_ENTRIES = 16;
+
+    private static final int FLAG_ERROR = 1;
+    private static final int FLAG_VERSION = 1 << 1;
+    private static final int FLAG_VALUE = 1 << 2;
+    private static final int FLAG_REQUEST_ID = 1 << 3;
+
+    private static final int TAG_INLINE = 0;
+    private static final int TAG_LINE = 1;
+    private static final int TAG_FIELD = 2;
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+
+    @Override
+    public WebSocketMessageBody decode(WebSocketMessage message) {
+        if (message.getType() != WebSocketMessage.Type.BINARY) {
+            LOGGER.error("Unexpected {} frame on binary protocol", message.getType());
+            return null;
+        }
+        return read(message.getPayload());
+    }
+
+    @Override
+    public WebSocketMessage encode(WebSocketSession session, WebSocketMessageBody body) {
+        return new WebSocketMessage(WebSocketMessage.Type.BINARY, write(session.bufferFactory(), body));
+    }
+
+    /**
+     * 将消息写入一个大小恰好的缓冲区
+     *
+     * @param factory 缓冲区工厂
+     * @param body 消息对象
+     * @return 写好的缓冲区
+     */
+    public static DataBuffer write(DataBufferFactory factory, WebSocketMessageBody body) {
+        int opcode = MESSAGE_CODES.getOrDefault(body.getMessage(), -1) + 1;
+        Map<String, String> value = body.getValue();
+        int flags = (body.isError() ? FLAG_ERROR : 0)
+                | (body.getVersion() != null ? FLAG_VERSION : 0)
+                | (value != null ? FLAG_VALUE : 0)
+                | (body.getRequestId() != null ? FLAG_REQUEST_ID : 0);
+
+        // 先计算精确长度，避免缓冲区扩容和多余的内存占用
+        int size = varintSize(opcode) + 1;
+        if (opcode == 0) {
+            size += stringSize(body.getMessage());
+        }
+        if (body.getVersion() != null) {
+            size += varintSize(body.getVersion());
+        }
+        if (body.getRequestId() != null) {
+            size += stringSize(body.getRequestId());
+        }
+        if (value != null) {
+            size += varintSize(value.size());
+            for (Map.Entry<String, String> entry : value.entrySet()) {
+                size += entrySize(entry.getKey(), entry.getValue());
+            }
+        }
+
+        DataBuffer buffer = factory.allocateBuffer(size);
+        writeVarint(buffer, opcode);
+        buffer.write((byte) flags);
+        if (opcode == 0) {
+            writeString(buffer, body.getMessage());
+        }
+        if (body.getVersion() != null) {
+            writeVarint(buffer, body.getVersion());
+        }
+        if (body.getRequestId() != null) {
+            writeString(buffer, body.getRequestId());
+        }
+        if (value != null) {
+            writeVarint(buffer, value.size());
+            for (Map.Entry<String, String> entry : value.entrySet()) {
+                writeEntry(buffer, entry.getKey(), entry.getValue());
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * 从缓冲区读取一条消息
+     *
+     * @param buffer 缓冲区
+     * @return 消息对象，格式错误时返回 null
+     */
+    public static WebSocketMessageBody read(DataBuffer buffer) {
+        try {
+            WebSocketMessageBody body = new WebSocketMessageBody();
+            int opcode = (int) readVarint(buffer);
+            int flags = buffer.read();
+            if (opcode == 0) {
+                body.setMessage(readString(buffer));
+            } else {
+                body.setMessage(MESSAGES.get(opcode - 1));
+            }
+            body.setType((flags & FLAG_ERROR) != 0 ? ERROR : SUCCESS);
+            if ((flags & FLAG_VERSION) != 0) {
+                body.setVersion(readVarint(buffer));
+            }
+            if ((flags & FLAG_REQUEST_ID) != 0) {
+                body.setRequestId(readString(buffer));
+            }
+            if ((flags & FLAG_VALUE) != 0) {
+                long count = readVarint(buffer);
+                if (count < 0 || count > buffer.readableByteCount() / 2) { // 每个条目至少占两个字节（tag 和值）
+                    throw new IllegalArgumentException("Entry count " + count + " exceeds frame");
+                }
+                Map<String, String> value = new LinkedHashMap<>(INITIAL_ENTRIES);
+                for (int i = 0; i < count; i++) {
+                    readEntry(buffer, value);
+                }
+                body.setValue(value);
+            }
+            return body;
+        } catch (RuntimeException e) {
+            LOGGER.error("Error while reading binary frame: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static int entrySize(String key, String value) {
+        int line = lineNumber(key);
+        if (line >= 0) {
+            return varintSize(((long) line << 2) | TAG_LINE) + stringSize(value);
+        }
+        int field = field(key, value);
+        if (field == LINE_FIELD) {
+            return varintSize((field << 2) | TAG_FIELD) + varintSize(lineNumber(value));
+        }
+        if (field >= 0) {
+            return varintSize((field << 2) | TAG_FIELD) + stringSize(value);
+        }
+        int length = utf8Length(key);
+        return varintSize(((long) length << 2) | TAG_INLINE) + length + stringSize(value);
+    }
+
+    private static void writeEntry(DataBuffer buffer, String key, String value) {
+        int line = lineNumber(key);
+        if (line >= 0) {
+            writeVarint(buffer, ((long) line << 2) | TAG_LINE);
+            writeString(buffer, value);
+            return;
+        }
+        int field = field(key, value);
+        if (field == LINE_FIELD) {
+            writeVarint(buffer, (field << 2) | TAG_FIELD);
+            writeVarint(buffer, lineNumber(value));
+        } else if (field >= 0) {
+            writeVarint(buffer, (field << 2) | TAG_FIELD);
+            writeString(buffer, value);
+        } else {
+            writeVarint(buffer, ((long) utf8Length(key) << 2) | TAG_INLINE);
+            writeUtf8(buffer, key);
+            writeString(buffer, value);
+        }
+    }
+
+    private static void readEntry(DataBuffer buffer, Map<String, String> value) {
+        long tag = readVarint(buffer);
+        int kind = (int) (tag & 3);
+        long high = tag >>> 2;
+        switch (kind) {
+            case TAG_LINE:
+                value.put(String.valueOf(high), readString(buffer));
+                break;
+            case TAG_FIELD:
+                String field = FIELDS.get((int) high);
+                value.put(field, high == LINE_FIELD ? String.valueOf(readVarint(buffer)) : readString(buffer));
+                break;
+            case TAG_INLINE:
+                String key = readUtf8(buffer, (int) high);
+                value.put(key, readString(buffer));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown entry tag " + tag);
+        }
+    }
+
+    /**
+     * 键在常用字段表中的序号，不是常用字段时返回 -1。
+     * 常用字段中的行号总是按 varint 读取，值不是行号时改用内联键
+     */
+    private static int field(String key, String value) {
+        int field = FIELD_CODES.getOrDefault(key, -1);
+        return field == LINE_FIELD && lineNumber(value) < 0 ? -1 : field;
+    }
+
+    /**
+     * 判断键是否为规范的行号（无前导零的非负整数），是则返回行号，否则返回 -1
+     */
+    private static int lineNumber(String key) {
+        if (key == null || key.isEmpty() || key.length() > 9 || (key.length() > 1 && key.charAt(0) == '0')) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static Map<String, Integer> index(List<String> names) {
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            codes.put(names.get(i), i);
+        }
+        return Map.copyOf(codes);
+    }
+
+    private static int stringSize(String value) {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varintSize(length + 1L) + length;
+    }
+
+    private static void writeString(DataBuffer buffer, String value) {
+        if (value == null) {
+            buffer.write((byte) 0);
+            return;
+        }
+        writeVarint(buffer, utf8Length(value) + 1L);
+        writeUtf8(buffer, value);
+    }
+
+    private static String readString(DataBuffer buffer) {
+        long length = readVarint(buffer);
+        return length == 0 ? null : readUtf8(buffer, (int) (length - 1));
+    }
+
+    private static String readUtf8(DataBuffer buffer, int length) {
+        int position = buffer.readPosition();
+        if (length > buffer.readableByteCount()) {
+            throw new IllegalArgumentException("String length " + length + " exceeds frame");
+        }
+        String text = buffer.toString(position, length, StandardCharsets.UTF_8);
+        buffer.readPosition(position + length);
+        return text;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(DataBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.write((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.write((byte) value);
+    }
+
+    private static long readVarint(DataBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.read();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * 逐字节写入字符串的 UTF-8 编码。{@link DataBuffer#write(CharSequence, java.nio.charset.Charset)}
+     * 按每个字符的最大字节数预留空间，剩余空间不足时会扩容并复制已写入的内容，预先算好的大小就没有意义了
+     */
+    private static void writeUtf8(DataBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.write((byte) c);
+            } else if (c < 0x800) {
+                buffer.write((byte) (0xC0 | (c >> 6)));
+                buffer.write((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.write((byte) (0xF0 | (codePoint >> 18)));
+                buffer.write((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.write((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.write((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.write((byte) '?'); // 与 StandardCharsets.UTF_8 的替换字符一致
+            } else {
+                buffer.write((byte) (0xE0 | (c >> 12)));
+                buffer.write((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.write((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * 计算字符串的 UTF-8 字节长度，不产生中间数组，结果与 {@link StandardCharsets#UTF_8} 的编码一致
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // 不成对的代理字符会被编码为 '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,150 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * 文件管理命令的限流器。
+ * 每个用户有两个令牌桶：行读写等轻量命令共用一个，遍历、搜索、打开、保存等涉及磁盘的重量命令共用一个。
+ * 同一用户的多个会话共享令牌桶，超出配额的命令直接拒绝而不排队。
+ * 令牌已补满的桶与新建的桶没有区别，每隔 SWEEP_INTERVAL 移除这样的用户，离开的用户不会一直占用内存。
+ *
+ * @author nick
+ */
+@Component
+public class CommandRateLimiter {
+
+    // 需要访问磁盘的重量命令
+    private static final Set<String> EXPENSIVE = Set.of(
+            PathManage.EACH, PathManage.SEARCH, PathManage.CREATE, PathManage.DELETE,
+            FileManage.OPEN, FileManage.SAVE, FileManage.VERSIONS, FileManage.RESTORE, FileManage.RELOAD,
+            TailManage.TAIL, WatchManage.WATCH);
+
+    // 移除空闲用户的间隔
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private final PropertiesReader propertiesReader;
+    private final Map<String, Buckets> users = new ConcurrentHashMap<>(); // 用户名 -> 令牌桶
+    private final AtomicLong sweptAt = new AtomicLong(System.nanoTime()); // 上次移除空闲用户的时间
+
+    public CommandRateLimiter(PropertiesReader propertiesReader) {
+        this.propertiesReader = propertiesReader;
+    }
+
+    /**
+     * 判断命令是否为重量命令
+     *
+     * @param message 命令名称
+     * @return 重量命令返回 true
+     */
+    public static boolean isExpensive(String message) {
+        return EXPENSIVE.contains(message);
+    }
+
+    /**
+     * 尝试为用户的一条命令取得令牌
+     *
+     * @param user 用户名
+     * @param message 命令名称
+     * @return 取得令牌返回 true，超出配额返回 false
+     */
+    public boolean tryAcquire(String user, String message) {
+        long now = System.nanoTime();
+        long swept = sweptAt.get();
+        if (now - swept >= SWEEP_INTERVAL && sweptAt.compareAndSet(swept, now)) {
+            sweep(now);
+        }
+        boolean expensive = isExpensive(message);
+        boolean[] acquired = new boolean[1];
+        users.compute(user, (u, buckets) -> { // 与 sweep 互斥，取令牌的桶不会同时被移除
+            Buckets target = buckets != null ? buckets : new Buckets();
+            acquired[0] = expensive ? target.expensive.tryAcquire(now) : target.cheap.tryAcquire(now);
+            return target;
+        });
+        return acquired[0];
+    }
+
+    /**
+     * 当前记录的用户数
+     */
+    int size() {
+        return users.size();
+    }
+
+    /**
+     * 移除两个令牌桶都已补满的用户
+     */
+    void sweep(long now) {
+        for (String user : users.keySet()) {
+            users.computeIfPresent(user,
+                    (u, buckets) -> buckets.cheap.isFull(now) && buckets.expensive.isFull(now) ? null : buckets);
+        }
+    }
+
+    /**
+     * 单个用户的令牌桶
+     */
+    private final class Buckets {
+        private final TokenBucket cheap = new TokenBucket(
+                propertiesReader.getFilesRateCheapPerSecond(), propertiesReader.getFilesRateCheapBurst());
+        private final TokenBucket expensive = new TokenBucket(
+                propertiesReader.getFilesRateExpensivePerSecond(), propertiesReader.getFilesRateExpensiveBurst());
+    }
+
+    /**
+     * 令牌桶，取令牌时按流逝的时间补充，不需要定时任务
+     */
+    private static final class TokenBucket {
+        private final double perNano; // 每纳秒补充的令牌数
+        private final double capacity; // 桶容量，即允许的突发数
+        private final Lock lock = new ReentrantLock();
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private TokenBucket(double perSecond, int burst) {
+            this.perNano = perSecond / 1_000_000_000d;
+            this.capacity = Math.max(1, burst);
+            this.tokens = capacity;
+        }
+
+        private boolean tryAcquire(long now) {
+            lock.lock();
+            try {
+                refill(now);
+                if (tokens < 1) {
+                    return false;
+                }
+                tokens -= 1;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isFull(long now) {
+            lock.lock();
+            try {
+                refill(now);
+                return tokens >= capacity;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(long now) {
+            if (now > refilledAt) { // 其它线程可能已用更晚的时间补充过
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+                refilledAt = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,1001 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 共享文档中心，每个被打开的文件对应一个实例。
+ * 所有会话的行操作都在这里按版本号串行应用到同一份内存文档，并把增量推送给订阅该文件的其它会话。
+ * 每个订阅者有自己的缓冲区，最多缓存 {@link #DELTA_BUFFER_SIZE} 条增量，发送跟不上时丢弃最早的增量，其它订阅者不受影响；
+ * 每次写入的版本号连续加一，订阅者收到的版本号不连续即表示有增量被丢弃，此时改为推送一次 {@link FileManage#RESYNC} 完整快照。
+ * 集群模式下本节点的写入通过 {@link Replicator} 发布给其它节点，其它节点的写入由 {@link #applyRemote} 应用。
+ * 每行带有 Lamport 时间戳和节点 ID，同一行以时间戳较大者为准（相同时比较节点 ID），各节点收到同样的写入后内容一致。
+ * 被删掉的行以内容为 null 的写入发布，时间戳保留为墓碑。之后才打开该文件的节点通过 {@link #stamps} 取得已有节点的这些写入，
+ * 应用后与其它节点一致，Lamport 时钟也随之推进。
+ * 本节点的写入同时追加到 {@link EditJournal}，保存后清空，重启后由 {@link #replay} 重新应用；
+ * 文件在这期间被外部修改时不重放，文档标记为冲突（{@link #markConflicted}），直到 {@link #reload} 或 {@link #restore} 之前只读。
+ * <p>
+ * 读写文件时记录文件的修改时间、大小、内容的 CRC32C 和末尾 {@link #TAIL_BYTES} 字节的 CRC32C。
+ * 保存前只读取一次文件属性，修改时间或大小变化时才读取内容比较哈希；内容确实被其它进程或节点修改过时按行三方合并：
+ * 磁盘上的第 i 行对应上次读写时的第 i 行，本节点没有修改的行取磁盘上的内容，修改过的行在磁盘上仍是原内容（或已相同）时保留本节点的内容，
+ * 否则拒绝保存。磁盘上的行数变少，或双方都在末尾新增了行时无法对齐，同样拒绝保存。
+ * {@link #reload} 在文件只被追加时（末尾哈希不变且以换行结束）只读取新增的部分。
+ * <p>
+ * 每次写入后把内容发布为一个不可变的版本（{@link LineStore#snapshot()}，与上一版本共享未修改的部分）。
+ * 写入之间仍由文档锁串行化，读取一行和生成快照直接读取最新发布的版本，不获取任何锁。
+ * 保存在锁内取得当前版本，在锁外把它写入磁盘，写入期间其它会话的读写照常进行；
+ * 保存、恢复和重新读取这些读写磁盘的操作由另一把锁串行化。
+ *
+ * @author nick
+ */
+public class DocumentHub {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentHub.class);
+
+    // 每个订阅者最多缓存的增量数，超出后丢弃最早的增量，之后以完整快照重新同步
+    private static final int DELTA_BUFFER_SIZE = 1024;
+    // 快照中每行的固定开销估算：LinkedHashMap 节点和字符串形式的行号，行内容与文档共享
+    private static final int SNAPSHOT_LINE_OVERHEAD = 96;
+    // 恢复历史版本时 lineWriters 中记录的前缀，不会与会话 ID 相同
+    private static final String RESTORE = "restore:";
+    // 重放未保存修改时 lineWriters 中记录的写入方
+    private static final String JOURNAL = "journal:";
+    // 合并或重新读取磁盘上的修改时 lineWriters 中记录的写入方，所有会话都会收到增量
+    private static final String DISK = "disk:";
+    // 判断文件是否只被追加时比较的末尾字节数
+    private static final int TAIL_BYTES = 4096;
+    // 内容哈希未知，例如只读取了追加的部分之后
+    private static final long UNKNOWN_HASH = -1;
+    // 磁盘上的修改无法与本节点的修改合并时的错误原因
+    static final String CONFLICT = "Conflicting changes on disk";
+    // 日志中的修改无法重放时，写入和保存的错误原因
+    static final String JOURNAL_CONFLICT = "Unsaved edits conflict with changes on disk";
+    // 保存时使用的行分隔符
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final String path; // 文件路径
+    private LineStore lines; // 行号 -> 行内容，恢复历史版本时整体替换
+    private final Map<Integer, Long> lineVersions = new HashMap<>(); // 行号 -> 最后修改该行的版本号
+    private final Map<Integer, String> lineWriters = new HashMap<>(); // 行号 -> 最后修改该行的会话
+    private final Map<Integer, Stamp> lineStamps = new HashMap<>(); // 行号 -> 最后写入的时间戳，只在集群模式下记录
+    private final Map<Integer, String> baseLines = new HashMap<>(); // 上次读写文件后修改过的行 -> 当时的内容，新增的行为 null
+    private final Replicator replicator; // 集群模式下发布本节点的写入，单机为 null
+    private final EditJournal.Log journal; // 未保存修改的日志，不记录日志时为 null
+    private final Set<String> members = new HashSet<>(); // 已加入的会话 ID
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>(); // 增量的订阅者，推送时订阅者可能在同一线程上退订
+    private final FilesMetrics metrics; // 指标
+    private final Lock lock; // 锁，用于串行化同一文档上的写入
+    private final Lock diskLock; // 锁，用于串行化读写磁盘的操作，先于 lock 获取
+    private final boolean offHeap; // 行内容是否保存在堆外
+    private volatile Version current; // 最新发布的版本，读取不加锁
+    private long version; // 文档版本号，每次写入加一
+    private long clock; // Lamport 时钟，只在集群模式下使用
+    private long savedVersion; // 最后一次与磁盘一致时的版本号
+    private long diskModified; // 最后一次读写时文件的修改时间，毫秒
+    private long diskSize = -1; // 最后一次读写时文件的字节数
+    private long diskHash = UNKNOWN_HASH; // 最后一次读写时文件内容的 CRC32C
+    private long diskTail; // 最后一次读写时文件末尾 TAIL_BYTES 字节的 CRC32C
+    private volatile WebSocketMessageBody snapshot; // 最近生成的快照，版本号不是最新时不再使用
+    private volatile long retainedBytes; // 文档占用内存的估算值，包括堆外内存
+    private volatile long snapshotBytes; // 快照及其 JSON 占用堆内存的估算值
+    private boolean closed; // 是否已关闭，只在 lock 内访问
+    private volatile boolean conflicted; // 日志中的修改与磁盘上的文件冲突而未重放，重新读取或恢复前拒绝写入和保存
+
+    private DocumentHub(String path, FilesMetrics metrics, boolean offHeap, Replicator replicator,
+            EditJournal.Log journal) {
+        this.path = path;
+        this.lines = newStore(offHeap, metrics);
+        this.offHeap = offHeap;
+        this.replicator = replicator;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.lock = metrics.lock("document");
+        this.diskLock = metrics.lock("document_disk");
+    }
+
+    /**
+     * 从磁盘读取文件并创建共享文档
+     *
+     * @param path 文件路径
+     * @param metrics 文件管理的指标
+     * @param offHeap 行内容是否保存在堆外
+     * @param replicator 集群模式下发布本节点的写入，单机为 null
+     * @param journal 未保存修改的日志，不记录日志时为 null
+     * @return 共享文档
+     * @throws IOException 读取失败时抛出
+     */
+    public static DocumentHub load(String path, FilesMetrics metrics, boolean offHeap, Replicator replicator,
+            EditJournal.Log journal) throws IOException {
+        long start = System.nanoTime();
+        DocumentHub hub = new DocumentHub(path, metrics, offHeap, replicator, journal);
+        hub.stat(); // 先于读取记录，读取期间文件被修改时下次打开会重新读取
+        CRC32C crc = new CRC32C();
+        try (InputStream in = new CheckedInputStream(new FileInputStream(path), crc)) {
+            hub.lines.load(in);
+            hub.diskHash = crc.getValue();
+        } catch (IOException e) {
+            hub.lines.close();
+            throw e;
+        }
+        hub.retainedBytes = hub.lines.retainedBytes();
+        hub.advance();
+        metrics.document("open", hub.diskSize, hub.lines.size(), System.nanoTime() - start);
+        LOGGER.debug("[HUB LOAD] {} : {} lines", path, hub.lines.size());
+        return hub;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 文档占用内存的估算值，包括堆外内存和缓存的快照
+     *
+     * @return 字节数
+     */
+    public long getRetainedBytes() {
+        return retainedBytes + snapshotBytes;
+    }
+
+    /**
+     * 是否有尚未保存到磁盘的修改
+     *
+     * @return 有未保存的修改返回 true
+     */
+    public boolean isDirty() {
+        lock.lock();
+        try {
+            return version != savedVersion;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 磁盘上的文件是否已在读写之后被修改（修改时间或大小不同），文件不存在时也视为已修改
+     *
+     * @return 已修改返回 true
+     */
+    public boolean isStale() {
+        lock.lock();
+        try {
+            return changedOnDisk();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 标记为冲突：日志中未保存的修改因文件已被外部修改而没有重放。
+     * 标记期间拒绝写入和保存，{@link #reload} 读取磁盘上的内容或 {@link #restore} 恢复历史版本后解除
+     */
+    public void markConflicted() {
+        conflicted = true;
+    }
+
+    /**
+     * 是否因日志中的修改无法重放而处于冲突状态
+     *
+     * @return 冲突时返回 true
+     */
+    public boolean isConflicted() {
+        return conflicted;
+    }
+
+    /**
+     * 会话加入该文档
+     *
+     * @param sessionId 会话 ID
+     */
+    public void join(String sessionId) {
+        lock.lock();
+        try {
+            members.add(sessionId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 会话离开该文档
+     *
+     * @param sessionId 会话 ID
+     * @return 没有会话剩余时返回 true
+     */
+    public boolean leave(String sessionId) {
+        lock.lock();
+        try {
+            members.remove(sessionId);
+            return members.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取指定会话应收到的增量流，不包含该会话自己产生的增量。
+     * 调用时即开始缓存之后的增量，之后取得的快照不会漏掉其间的写入；流结束或被取消时退订。
+     * 缓冲区满时丢弃最早的增量，发现版本号不连续时以一条 {@link FileManage#RESYNC} 完整快照代替丢失的增量，
+     * 之后跳过快照已包含的增量
+     *
+     * @param sessionId 会话 ID
+     * @return 增量消息流
+     */
+    public Flux<WebSocketMessageBody> deltas(String sessionId) {
+        Subscriber subscriber = new Subscriber(Sinks.many().unicast().onBackpressureBuffer());
+        long from;
+        lock.lock();
+        try {
+            if (closed) {
+                return Flux.empty();
+            }
+            subscribers.add(subscriber);
+            from = version;
+        } finally {
+            lock.unlock();
+        }
+        AtomicLong last = new AtomicLong(from); // 已推送或已包含在快照中的最后一个版本
+        return subscriber.sink().asFlux()
+                .onBackpressureBuffer(DELTA_BUFFER_SIZE, dropped -> metrics.deltaDropped(), BufferOverflowStrategy.DROP_OLDEST)
+                .<WebSocketMessageBody>handle((delta, sink) -> {
+                    long number = delta.body().getVersion();
+                    if (number <= last.get()) {
+                        return; // 已包含在重新同步的快照中
+                    }
+                    if (number > last.get() + 1) {
+                        WebSocketMessageBody resync = resync();
+                        last.set(resync.getVersion());
+                        metrics.deltaResync();
+                        sink.next(resync);
+                        return;
+                    }
+                    last.set(number);
+                    if (!delta.origin().equals(sessionId)) {
+                        sink.next(delta.body());
+                    }
+                })
+                .doFinally(signal -> unsubscribe(subscriber));
+    }
+
+    /**
+     * 当前内容的完整快照，用于丢失增量的订阅者重新同步
+     *
+     * @return 消息名称为 {@link FileManage#RESYNC}，携带当前版本号
+     */
+    private WebSocketMessageBody resync() {
+        WebSocketMessageBody open = snapshot();
+        return WebSocketMessageBody.success(FileManage.RESYNC, open.getValue(), open.getVersion());
+    }
+
+    /**
+     * 移除增量的订阅者
+     */
+    private void unsubscribe(Subscriber subscriber) {
+        lock.lock();
+        try {
+            subscribers.remove(subscriber);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把增量交给所有订阅者，没有订阅者的缓存文档不保留增量，调用方需持有锁
+     */
+    private void emit(Delta delta) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.sink().tryEmitNext(delta);
+        }
+    }
+
+    /**
+     * 生成当前文档的完整快照。
+     * 版本号不变时返回同一个消息对象，多次打开共享同一份 JSON 序列化结果。
+     * 堆外存储的文档不缓存快照，否则所有行都会以 String 的形式常驻堆上。
+     * 从最新发布的版本生成，不获取锁，生成期间的写入不影响结果
+     *
+     * @return 操作结果，携带当前版本号
+     */
+    public WebSocketMessageBody snapshot() {
+        Version latest = current;
+        WebSocketMessageBody cached = snapshot;
+        if (cached != null && cached.getVersion() == latest.number()) {
+            return cached;
+        }
+        LineView view = latest.lines();
+        Map<String, String> model = new LinkedHashMap<>(Math.max(16, view.size() * 4 / 3 + 1));
+        view.forEach((number, text) -> model.put(String.valueOf(number), text));
+        WebSocketMessageBody body = WebSocketMessageBody.success(FileManage.OPEN, model, latest.number());
+        if (!offHeap && current == latest) {
+            // 与写入并发时可能缓存了刚过期的快照，版本号不同不会被返回，下次写入时清除
+            snapshot = body;
+            snapshotBytes = (long) view.size() * SNAPSHOT_LINE_OVERHEAD + view.textBytes();
+        }
+        return body;
+    }
+
+    /**
+     * 读取指定行的内容，读取最新发布的版本，不获取锁
+     *
+     * @param line 行号
+     * @return 操作结果
+     */
+    public WebSocketMessageBody readLine(int line) {
+        Version latest = current;
+        String text = latest.lines().get(line);
+        if (text == null) {
+            return WebSocketMessageBody.error(FileManage.READE_LINE, "Line not found");
+        }
+        return WebSocketMessageBody.success(FileManage.READE_LINE, Map.of(String.valueOf(line), text), latest.number());
+    }
+
+    /**
+     * 写入内容到指定行，并把增量推送给其它会话。
+     * 如果客户端携带了基准版本号，而该行在此之后已被其它会话修改，则拒绝写入，
+     * 客户端会先收到那次修改的增量，再基于新版本重试。
+     *
+     * @param sessionId 写入的会话 ID
+     * @param line 行号
+     * @param text 写入的内容
+     * @param baseVersion 客户端所见的文档版本号，可为 null
+     * @return 操作结果，携带新的版本号
+     */
+    public WebSocketMessageBody writeLine(String sessionId, int line, String text, Long baseVersion) {
+        lock.lock();
+        try {
+            if (conflicted) {
+                return WebSocketMessageBody.error(FileManage.WRITE_LINE, JOURNAL_CONFLICT);
+            }
+            Long lineVersion = lineVersions.get(line);
+            if (baseVersion != null && lineVersion != null && lineVersion > baseVersion
+                    && !sessionId.equals(lineWriters.get(line))) {
+                LOGGER.debug("[HUB CONFLICT] {} line {} base {} current {}", path, line, baseVersion, lineVersion);
+                return WebSocketMessageBody.error(FileManage.WRITE_LINE, "Version conflict");
+            }
+            apply(sessionId, line, text);
+            if (journal != null) {
+                journal.append(line, text, diskModified, diskSize);
+            }
+            if (replicator != null) {
+                clock++;
+                lineStamps.put(line, new Stamp(clock, replicator.node()));
+                replicator.publish(line, text, clock);
+            }
+            return WebSocketMessageBody.success(FileManage.WRITE_LINE, null, version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 本节点最近一次写入在日志中的提交结果
+     *
+     * @return 落盘后完成的 future，不记录日志时返回 null
+     */
+    public CompletableFuture<Void> lastCommit() {
+        if (journal == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return journal.lastCommit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 重放日志中一次未保存的写入，不再追加到日志，也不发布给其它节点，重放后文档为未保存
+     *
+     * @param line 行号
+     * @param text 写入的内容
+     */
+    public void replay(int line, String text) {
+        lock.lock();
+        try {
+            change(JOURNAL, line, text); // 启动时还没有订阅者，不推送增量
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 应用其它节点的写入，并把增量推送给本节点的所有会话。
+     * 该行在本节点的时间戳更大时忽略。其它节点的写入由写入方负责保存，不会使本节点的文档变为未保存
+     *
+     * @param line 行号
+     * @param text 写入的内容，删除该行时为 null
+     * @param stamp 写入方的 Lamport 时间戳
+     * @param node 写入方的节点 ID
+     */
+    public void applyRemote(int line, String text, long stamp, String node) {
+        lock.lock();
+        try {
+            clock = Math.max(clock, stamp);
+            Stamp current = lineStamps.get(line);
+            if (current != null && (current.clock() > stamp
+                    || current.clock() == stamp && current.node().compareTo(node) >= 0)) {
+                return;
+            }
+            lineStamps.put(line, new Stamp(stamp, node));
+            boolean clean = version == savedVersion;
+            apply(Replicator.REMOTE + node, line, text);
+            if (clean) {
+                savedVersion = version;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 集群模式下每行最后一次写入的内容和时间戳，包括被删掉的行，用于之后打开该文件的节点同步
+     *
+     * @param consumer 每行调用一次，被删掉的行内容为 null
+     */
+    public void stamps(StampConsumer consumer) {
+        lock.lock();
+        try {
+            lineStamps.forEach((line, stamp) -> consumer.accept(line, lines.get(line), stamp.clock(), stamp.node()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入一行并推送增量，调用方需持有锁
+     *
+     * @param writer 写入的会话 ID，其它节点为 {@link Replicator#REMOTE} 加节点 ID
+     */
+    private void apply(String writer, int line, String text) {
+        change(writer, line, text);
+        WebSocketMessageBody body = WebSocketMessageBody.success(FileManage.DELTA,
+                Collections.singletonMap(String.valueOf(line), text), version);
+        emit(new Delta(writer, body));
+    }
+
+    /**
+     * 写入一行，调用方需持有锁
+     */
+    private void change(String writer, int line, String text) {
+        if (!baseLines.containsKey(line)) {
+            baseLines.put(line, lines.get(line));
+        }
+        if (text == null) {
+            lines.remove(line);
+        } else {
+            lines.put(line, text);
+        }
+        retainedBytes = lines.retainedBytes();
+        version++;
+        lineVersions.put(line, version);
+        lineWriters.put(line, writer);
+        advance();
+    }
+
+    /**
+     * 将文档内容保存到文件中。先写入临时文件并 fsync 再原子地替换原文件，之后才清空日志，
+     * 崩溃后磁盘上要么是原来的内容加上日志，要么是保存后的内容，不会出现被截断的文件。
+     * 没有未保存的修改且磁盘上的文件没有变化时不重复写入。
+     * 写入的是保存开始时的版本，写入期间不持有文档锁；期间的写入在保存后仍是未保存的修改，日志中只保留这些写入
+     *
+     * @return 操作结果，携带写入磁盘的版本号
+     */
+    public WebSocketMessageBody save() {
+        diskLock.lock();
+        long start = System.nanoTime();
+        try {
+            Version saving;
+            lock.lock();
+            try {
+                if (conflicted) {
+                    return WebSocketMessageBody.error(FileManage.SAVE, JOURNAL_CONFLICT);
+                }
+                boolean changed = changedOnDisk();
+                if (version == savedVersion && !changed) {
+                    return WebSocketMessageBody.success(FileManage.SAVE, null, version);
+                }
+                if (changed) {
+                    String conflict = merge();
+                    if (conflict != null) {
+                        return WebSocketMessageBody.error(FileManage.SAVE, conflict);
+                    }
+                }
+                saving = current;
+            } finally {
+                lock.unlock();
+            }
+            CRC32C crc = new CRC32C();
+            AtomicFiles.write(Paths.get(path), file -> {
+                OutputStream out = new BufferedOutputStream(new CheckedOutputStream(file, crc));
+                saving.lines().write(out, LINE_SEPARATOR);
+                out.flush();
+            });
+            long size;
+            lock.lock();
+            try {
+                stat();
+                diskHash = crc.getValue();
+                saved(saving);
+                size = diskSize;
+            } finally {
+                lock.unlock();
+            }
+            metrics.document("save", size, saving.lines().size(), System.nanoTime() - start);
+            return WebSocketMessageBody.success(FileManage.SAVE, null, saving.number());
+        } catch (IOException e) {
+            LOGGER.error("[SAVE ERROR] Failed to save content to file : {} ,error : {}", path, e.getMessage());
+            return WebSocketMessageBody.error(FileManage.SAVE, "Failed to save file");
+        } finally {
+            diskLock.unlock();
+        }
+    }
+
+    /**
+     * 用历史版本替换文档内容并写入磁盘，变化的行作为一条增量推送给所有会话（包括发起恢复的会话），
+     * 被删掉的行在增量中的内容为 null。有未保存的修改时拒绝恢复。
+     * 集群模式下变化的行和被删掉的行都发布给其它节点
+     *
+     * @param sessionId 发起恢复的会话 ID
+     * @param content 历史版本的完整内容
+     * @return 操作结果，携带新的版本号
+     */
+    public WebSocketMessageBody restore(String sessionId, byte[] content) {
+        diskLock.lock();
+        lock.lock();
+        long start = System.nanoTime();
+        LineStore restored = newStore(lines.isOffHeap(), metrics);
+        try {
+            if (version != savedVersion) {
+                restored.close();
+                return WebSocketMessageBody.error(FileManage.RESTORE, "Unsaved changes");
+            }
+            restored.load(new ByteArrayInputStream(content));
+            AtomicFiles.write(Paths.get(path), content);
+            stat();
+            CRC32C crc = new CRC32C();
+            crc.update(content);
+            diskHash = crc.getValue();
+            // 与会话 ID 不同，发起恢复的会话也会收到增量
+            publish(swap(restored), RESTORE + sessionId, true);
+            savedVersion = version;
+            baseLines.clear();
+            conflicted = false;
+            metrics.document("save", diskSize, lines.size(), System.nanoTime() - start);
+            return WebSocketMessageBody.success(FileManage.RESTORE, null, version);
+        } catch (IOException e) {
+            restored.close();
+            LOGGER.error("[RESTORE ERROR] Failed to restore file : {} ,error : {}", path, e.getMessage());
+            return WebSocketMessageBody.error(FileManage.RESTORE, "Failed to restore file");
+        } finally {
+            lock.unlock();
+            diskLock.unlock();
+        }
+    }
+
+    /**
+     * 重新读取磁盘上的文件，变化的行作为一条增量推送给所有会话。
+     * 文件没有变化时直接返回；只在末尾追加了内容时只读取追加的部分，新增的行排在最后一行之后；
+     * 否则读取整个文件，被删掉的行在增量中的内容为 null。有未保存的修改时拒绝。
+     * 集群模式下变化的行和被删掉的行都发布给其它节点
+     *
+     * @return 操作结果，携带当前版本号
+     */
+    public WebSocketMessageBody reload() {
+        diskLock.lock();
+        lock.lock();
+        long start = System.nanoTime();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().toMillis() == diskModified && attributes.size() == diskSize && !conflicted) {
+                metrics.diskChange("unchanged");
+                return WebSocketMessageBody.success(FileManage.RELOAD, null, version);
+            }
+            if (version != savedVersion && !conflicted) {
+                return WebSocketMessageBody.error(FileManage.RELOAD, "Unsaved changes");
+            }
+            long size = attributes.size();
+            if (size > diskSize && !conflicted && appended()) {
+                List<String> added = readLines(readRange(diskSize, size));
+                Map<String, String> changes = new LinkedHashMap<>();
+                int next = lastLine();
+                for (String text : added) {
+                    next++;
+                    lines.put(next, text);
+                    changes.put(String.valueOf(next), text);
+                }
+                stat(attributes);
+                diskHash = UNKNOWN_HASH; // 没有读取整个文件，下次保存前如有变化再比较内容
+                publish(changes, DISK, true);
+                metrics.diskChange("appended");
+                metrics.document("reload", size - diskSize, added.size(), System.nanoTime() - start);
+            } else {
+                LineStore reloaded = newStore(lines.isOffHeap(), metrics);
+                CRC32C crc = new CRC32C();
+                try (InputStream in = new CheckedInputStream(new FileInputStream(path), crc)) {
+                    stat(attributes);
+                    reloaded.load(in);
+                } catch (IOException e) {
+                    reloaded.close();
+                    throw e;
+                }
+                diskHash = crc.getValue();
+                publish(swap(reloaded), DISK, true);
+                metrics.diskChange("reloaded");
+                metrics.document("reload", diskSize, lines.size(), System.nanoTime() - start);
+            }
+            savedVersion = version;
+            baseLines.clear();
+            conflicted = false;
+            return WebSocketMessageBody.success(FileManage.RELOAD, null, version);
+        } catch (IOException e) {
+            LOGGER.error("[RELOAD ERROR] Failed to reload file : {} ,error : {}", path, e.getMessage());
+            return WebSocketMessageBody.error(FileManage.RELOAD, "Failed to read file");
+        } finally {
+            lock.unlock();
+            diskLock.unlock();
+        }
+    }
+
+    /**
+     * 关闭文档，结束所有订阅并释放行内容
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Subscriber subscriber : subscribers) {
+                subscriber.sink().tryEmitComplete();
+            }
+            subscribers.clear();
+            members.clear();
+            if (journal != null) {
+                journal.close();
+            }
+            lines.close();
+            snapshot = null;
+            snapshotBytes = 0;
+            retainedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static LineStore newStore(boolean offHeap, FilesMetrics metrics) {
+        return offHeap ? new OffHeapLineStore(metrics) : new HeapLineStore();
+    }
+
+    /**
+     * 把磁盘上被修改过的内容合并到文档中，调用方需持有锁。
+     * 内容的哈希与上次读写时相同（只是修改时间变了）时不做任何事
+     *
+     * @return 无法合并时返回错误原因，否则返回 null
+     */
+    private String merge() throws IOException {
+        byte[] content = Files.readAllBytes(Paths.get(path));
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        if (diskHash != UNKNOWN_HASH && crc.getValue() == diskHash) {
+            metrics.diskChange("touched");
+            return null;
+        }
+        List<String> theirs = readLines(content);
+        List<Integer> base = new ArrayList<>(); // 上次读写时的行号，按顺序对应磁盘上的行
+        int[] last = {0, 0}; // 上次读写时的最后一行，本节点新增的最后一行
+        lines.forEach((number, text) -> {
+            if (baseLines.containsKey(number) && baseLines.get(number) == null) {
+                last[1] = number;
+            } else {
+                base.add(number);
+                last[0] = number;
+            }
+        });
+        if (theirs.size() < base.size() || theirs.size() > base.size() && last[1] > last[0]) {
+            LOGGER.warn("[HUB CONFLICT] {} has {} lines on disk, {} when last read", path, theirs.size(), base.size());
+            metrics.diskChange("conflict");
+            return CONFLICT;
+        }
+        Map<String, String> changes = new TreeMap<>();
+        List<Integer> conflicts = new ArrayList<>();
+        for (int i = 0; i < base.size(); i++) {
+            int number = base.get(i);
+            String disk = theirs.get(i);
+            String current = lines.get(number);
+            if (!baseLines.containsKey(number)) {
+                if (!disk.equals(current)) {
+                    changes.put(String.valueOf(number), disk);
+                }
+            } else if (!disk.equals(baseLines.get(number)) && !disk.equals(current)) {
+                conflicts.add(number);
+            }
+        }
+        if (!conflicts.isEmpty()) {
+            LOGGER.warn("[HUB CONFLICT] {} lines {} changed both on disk and in memory", path, conflicts);
+            metrics.diskChange("conflict");
+            return CONFLICT;
+        }
+        int next = Math.max(last[0], last[1]);
+        for (int i = base.size(); i < theirs.size(); i++) {
+            changes.put(String.valueOf(++next), theirs.get(i));
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            lines.put(Integer.parseInt(change.getKey()), change.getValue());
+        }
+        publish(changes, DISK, false);
+        metrics.diskChange("merged");
+        LOGGER.info("[HUB MERGE] {} : {} lines from disk", path, changes.size());
+        return null;
+    }
+
+    /**
+     * 用新的行存储替换当前内容，调用方需持有锁
+     *
+     * @param next 新的内容
+     * @return 变化的行，被删掉的行内容为 null
+     */
+    private Map<String, String> swap(LineStore next) {
+        Map<String, String> changes = new HashMap<>();
+        LineStore previous = lines;
+        previous.forEach((number, text) -> {
+            if (next.get(number) == null) {
+                changes.put(String.valueOf(number), null);
+            }
+        });
+        next.forEach((number, text) -> {
+            if (!text.equals(previous.get(number))) {
+                changes.put(String.valueOf(number), text);
+            }
+        });
+        lines = next;
+        previous.close();
+        return changes;
+    }
+
+    /**
+     * 已写入行存储的一组变化作为一个版本，以一条增量推送，调用方需持有锁
+     *
+     * @param changes 变化的行，被删掉的行内容为 null
+     * @param writer 写入方，与会话 ID 不同，所有会话都会收到
+     * @param replicate 是否发布给其它节点，包括被删掉的行
+     */
+    private void publish(Map<String, String> changes, String writer, boolean replicate) {
+        retainedBytes = lines.retainedBytes();
+        if (changes.isEmpty()) {
+            advance(); // 内容相同，但行存储可能已被替换
+            return;
+        }
+        version++;
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            int line = Integer.parseInt(change.getKey());
+            lineVersions.put(line, version);
+            lineWriters.put(line, writer);
+            if (replicate && replicator != null) {
+                clock++;
+                lineStamps.put(line, new Stamp(clock, replicator.node()));
+                replicator.publish(line, change.getValue(), clock);
+            }
+        }
+        advance();
+        WebSocketMessageBody body = WebSocketMessageBody.success(FileManage.DELTA, changes, version);
+        emit(new Delta(writer, body));
+    }
+
+    /**
+     * 把当前内容发布为新的版本，之后的读取都读到它，调用方需持有锁或尚未发布该实例
+     */
+    private void advance() {
+        current = new Version(version, lines.snapshot());
+        snapshot = null;
+        snapshotBytes = 0;
+    }
+
+    /**
+     * 某个版本已写入磁盘，调用方需持有锁。
+     * 之后修改过的行仍是未保存的修改，它们的原内容变为写入磁盘的内容，日志中只保留其中本节点的写入
+     *
+     * @param saved 写入磁盘的版本
+     */
+    private void saved(Version saved) {
+        savedVersion = saved.number();
+        List<EditJournal.Line> unsaved = new ArrayList<>();
+        Iterator<Map.Entry<Integer, String>> iterator = baseLines.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, String> entry = iterator.next();
+            int line = entry.getKey();
+            if (lineVersions.get(line) <= saved.number()) {
+                iterator.remove();
+                continue;
+            }
+            entry.setValue(saved.lines().get(line));
+            if (!lineWriters.get(line).startsWith(Replicator.REMOTE)) {
+                unsaved.add(new EditJournal.Line(line, lines.get(line)));
+            }
+        }
+        if (journal == null) {
+            return;
+        }
+        if (unsaved.isEmpty()) {
+            journal.clear();
+        } else {
+            journal.rewrite(unsaved, diskModified, diskSize);
+        }
+    }
+
+    /**
+     * 磁盘上的文件是否只在上次读写之后追加了内容：原来末尾的字节没有变化，并且以换行结束，调用方需持有锁
+     */
+    private boolean appended() throws IOException {
+        if (diskSize <= 0) {
+            return false;
+        }
+        byte[] tail = readRange(Math.max(0, diskSize - TAIL_BYTES), diskSize);
+        CRC32C crc = new CRC32C();
+        crc.update(tail);
+        return crc.getValue() == diskTail && tail[tail.length - 1] == '\n';
+    }
+
+    /**
+     * 最后一行的行号，调用方需持有锁
+     */
+    private int lastLine() {
+        int[] last = {0};
+        lines.forEach((number, text) -> last[0] = number);
+        return last[0];
+    }
+
+    /**
+     * 读取文件中的一段
+     *
+     * @param from 起始位置（包含）
+     * @param to 结束位置（不包含）
+     */
+    private byte[] readRange(long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(to - from));
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, from + buffer.position()) < 0) {
+                    throw new IOException("File truncated while reading : " + path);
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 按行拆分 UTF-8 内容，行结束符与 {@link LineStore#load} 一致
+     */
+    private static List<String> readLines(byte[] content) throws IOException {
+        List<String> result = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            result.add(line);
+        }
+        return result;
+    }
+
+    /**
+     * 磁盘上的文件是否已在读写之后被修改，调用方需持有锁
+     */
+    private boolean changedOnDisk() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+            return attributes.lastModifiedTime().toMillis() != diskModified || attributes.size() != diskSize;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 记录文件当前的修改时间和大小，调用方需持有锁或尚未发布该实例
+     */
+    private void stat() throws IOException {
+        stat(Files.readAttributes(Paths.get(path), BasicFileAttributes.class));
+    }
+
+    /**
+     * 记录读取到的文件属性，并计算文件末尾的哈希
+     */
+    private void stat(BasicFileAttributes attributes) throws IOException {
+        diskModified = attributes.lastModifiedTime().toMillis();
+        diskSize = attributes.size();
+        CRC32C crc = new CRC32C();
+        crc.update(readRange(Math.max(0, diskSize - TAIL_BYTES), diskSize));
+        diskTail = crc.getValue();
+    }
+
+    /**
+     * 把本节点的写入发布给其它节点
+     */
+    public interface Replicator {
+        // 其它节点写入时 lineWriters 中记录的前缀，不会与会话 ID 相同
+        String REMOTE = "node:";
+
+        /**
+         * 本节点的 ID
+         *
+         * @return 节点 ID
+         */
+        String node();
+
+        /**
+         * 发布一次写入，在文档锁内调用，实现不能阻塞
+         *
+         * @param line 行号
+         * @param text 写入的内容，删除该行时为 null
+         * @param stamp Lamport 时间戳
+         */
+        void publish(int line, String text, long stamp);
+    }
+
+    /**
+     * 接收 {@link #stamps} 中的每一行
+     */
+    @FunctionalInterface
+    public interface StampConsumer {
+        void accept(int line, String text, long stamp, String node);
+    }
+
+    private record Stamp(long clock, String node) {
+    }
+
+    /**
+     * 一个已发布的版本
+     *
+     * @param number 版本号
+     * @param lines 该版本的内容，不可变
+     */
+    private record Version(long number, LineView lines) {
+    }
+
+    /**
+     * 一次写入产生的增量，消息对象由所有订阅者共享，JSON 只序列化一次
+     */
+    private record Delta(String origin, WebSocketMessageBody body) {
+    }
+
+    /**
+     * 增量的订阅者，sink 不限长度，由订阅方的有界缓冲区丢弃来不及发送的增量
+     */
+    private record Subscriber(Sinks.Many<Delta> sink) {
+    }
+}
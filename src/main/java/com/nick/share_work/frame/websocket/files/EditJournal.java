@@ -0,0 +1,534 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * 未保存修改的预写日志（write-ahead log）。
+ * 每个有未保存修改的文档对应一个日志文件，本节点的每次写入在文档锁内追加一条记录（行号和内容），
+ * 保存把内容写入磁盘后删除日志；保存期间又有写入时，把这些写入重写为新的日志（先写入临时文件再原子替换）。进程崩溃或重启后由 {@link #recover} 读出这些日志，
+ * {@link FileManage} 在磁盘上的原始内容上重放，未保存的修改不会丢失。
+ * <p>
+ * 追加只放入队列，由单独的提交线程成组写入并 fsync（group commit）：一批中同一日志的多条记录只 fsync 一次，
+ * 多个文档的日志在同一批中提交。写入命令等到所在的批次落盘后才响应客户端，等待不占用工作线程。
+ * <p>
+ * 日志格式（整数均为大端）：
+ * <pre>
+ * journal := MAGIC:int FORMAT:byte path:utf baseModified:long baseSize:long record*
+ * record  := line:int length:int text:utf-8 crc:int   // crc 覆盖 line、length 和 text
+ * </pre>
+ * baseModified 和 baseSize 为第一次写入时磁盘上文件的修改时间和大小，重放时不一致说明文件在此期间被外部修改，
+ * 按行号记录的修改已无法对齐：这样的日志不重放，改名为 {@link #CONFLICT_EXTENSION} 保留原样，文档标记为冲突。
+ * 写入中途断电时最后一条记录不完整或校验失败，重放时忽略，下次追加前截掉。
+ * files.journal.path 为空时不记录日志。
+ *
+ * @author nick
+ */
+@Component
+public class EditJournal implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EditJournal.class);
+
+    private static final int MAGIC = 0x5357454A; // "SWEJ"
+    private static final byte FORMAT = 1;
+    // 日志文件的扩展名
+    private static final String EXTENSION = ".wal";
+    // 与磁盘上的文件冲突、未重放的日志的扩展名，启动时不再读取
+    static final String CONFLICT_EXTENSION = ".conflict";
+    // 提交线程处理的操作
+    private static final int CREATE = 0; // 写入文件头和第一条记录，已有的文件先清空
+    private static final int APPEND = 1;
+    private static final int CLEAR = 2; // 删除日志文件
+    private static final int CLOSE = 3; // 关闭文件，保留内容
+    private static final int STOP = 4;
+    private static final int REWRITE = 5; // 以新的文件头和记录替换整个日志文件
+
+    private final Path directory; // 日志所在的目录，不记录日志时为 null
+    private final FilesMetrics metrics; // 指标
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>(); // 待提交的操作，按加入顺序处理
+    private final Thread committer; // 提交线程，不记录日志时为 null
+    private volatile boolean closed;
+
+    public EditJournal(PropertiesReader propertiesReader, FilesMetrics metrics) {
+        String path = propertiesReader.getFilesJournalPath();
+        this.directory = path == null || path.isBlank() ? null : Paths.get(path);
+        this.metrics = metrics;
+        if (directory == null) {
+            this.committer = null;
+            return;
+        }
+        this.committer = new Thread(this::commitLoop, "files-journal");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * 是否记录日志
+     *
+     * @return files.journal.path 不为空时返回 true
+     */
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * 创建一个文档的日志，第一次追加时才创建文件
+     *
+     * @param key 文件的绝对路径
+     * @return 日志，不记录日志时返回 null
+     */
+    Log log(String key) {
+        return directory == null ? null : new Log(key, false, 0);
+    }
+
+    /**
+     * 读出日志目录中所有未保存的修改，只在启动时调用。
+     * 无法识别的日志文件保留原样并记录日志，没有任何完整记录的日志直接删除
+     *
+     * @return 每个文档的修改，之后的写入继续追加到返回的日志中
+     */
+    List<Recovered> recover() {
+        List<Recovered> recovered = new ArrayList<>();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return recovered;
+        }
+        List<Path> files;
+        try (var paths = Files.list(directory)) {
+            files = paths.filter(p -> p.getFileName().toString().endsWith(EXTENSION)).sorted().toList();
+        } catch (IOException e) {
+            LOGGER.error("[JOURNAL ERROR] Failed to list : {} ,error : {}", directory, e.getMessage());
+            return recovered;
+        }
+        for (Path file : files) {
+            try {
+                Recovered entry = read(file);
+                if (entry == null) {
+                    Files.deleteIfExists(file);
+                } else if (entry.conflicted()) {
+                    // 保留原来的日志，之后的写入记入新的日志，不会截掉这些记录
+                    Path kept = file.resolveSibling(file.getFileName() + "." + System.currentTimeMillis() + CONFLICT_EXTENSION);
+                    Files.move(file, kept, StandardCopyOption.ATOMIC_MOVE);
+                    LOGGER.error("[JOURNAL] {} changed on disk after {} unsaved edits were made, kept them in {}",
+                            entry.path(), entry.lines().size(), kept);
+                    recovered.add(new Recovered(entry.path(), entry.lines(), new Log(entry.path(), false, 0), true));
+                } else {
+                    recovered.add(entry);
+                }
+            } catch (IOException e) {
+                LOGGER.error("[JOURNAL ERROR] Failed to read : {} ,error : {}", file, e.getMessage());
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * 处理完已加入的操作后停止提交线程
+     */
+    @Override
+    public void close() {
+        if (committer == null || closed) {
+            return;
+        }
+        closed = true;
+        queue.add(new Op(null, STOP, null, null));
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 读取一个日志文件
+     *
+     * @return 修改，没有完整记录时返回 null
+     */
+    private Recovered read(Path file) throws IOException {
+        long fileLength = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT) {
+                throw new IOException("Not an edit journal");
+            }
+            String key = in.readUTF();
+            long baseModified = in.readLong();
+            long baseSize = in.readLong();
+            if (!file.getFileName().toString().equals(VersionStore.fileName(key, EXTENSION))) {
+                throw new IOException("Journal belongs to " + key);
+            }
+            long position = 4 + 1 + 2 + key.getBytes(StandardCharsets.UTF_8).length + 8 + 8;
+            List<Line> lines = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            while (position + 12 <= fileLength) {
+                int line = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || position + 12 + length > fileLength) {
+                    break; // 最后一条记录不完整
+                }
+                byte[] text = new byte[length];
+                in.readFully(text);
+                crc.reset();
+                crc.update(ByteBuffer.allocate(8).putInt(line).putInt(length).array());
+                crc.update(text);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                lines.add(new Line(line, new String(text, StandardCharsets.UTF_8)));
+                position += 12 + length;
+            }
+            if (position < fileLength) {
+                LOGGER.warn("[JOURNAL] {} : ignoring {} bytes after the last complete record", key, fileLength - position);
+            }
+            if (lines.isEmpty()) {
+                return null;
+            }
+            boolean conflicted;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(Paths.get(key), BasicFileAttributes.class);
+                conflicted = attributes.lastModifiedTime().toMillis() != baseModified || attributes.size() != baseSize;
+            } catch (IOException e) {
+                LOGGER.warn("[JOURNAL] {} with unsaved edits is missing on disk", key);
+                conflicted = true;
+            }
+            return new Recovered(key, lines, new Log(key, true, position), conflicted);
+        } catch (EOFException e) {
+            return null; // 文件头不完整，还没有任何记录
+        }
+    }
+
+    /**
+     * 加入一个操作，日志已关闭时返回失败的 future
+     */
+    private CompletableFuture<Void> submit(Log log, int kind, byte[] bytes) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (closed) {
+            done.completeExceptionally(new IOException("Journal closed"));
+            return done;
+        }
+        queue.add(new Op(log, kind, bytes, done));
+        return done;
+    }
+
+    /**
+     * 提交线程：取出队列中已有的全部操作作为一批，写入后对这一批涉及的每个日志 fsync 一次，再完成它们的 future
+     */
+    private void commitLoop() {
+        List<Op> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // 只在 close 时通过 STOP 退出
+            }
+            queue.drainTo(batch);
+            running = commit(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 提交一批操作
+     *
+     * @param batch 按加入顺序排列的操作
+     * @return 遇到 STOP 时返回 false
+     */
+    private boolean commit(List<Op> batch) {
+        long start = System.nanoTime();
+        boolean running = true;
+        Set<Log> touched = new LinkedHashSet<>(); // 有写入、需要 fsync 的日志
+        Map<Log, IOException> failed = new HashMap<>();
+        long bytes = 0;
+        for (Op op : batch) {
+            Log log = op.log();
+            try {
+                switch (op.kind()) {
+                    case CREATE, APPEND -> {
+                        log.write(op.kind() == CREATE, op.bytes());
+                        touched.add(log);
+                        bytes += op.bytes().length;
+                    }
+                    case REWRITE -> {
+                        log.rewrite(op.bytes());
+                        touched.add(log);
+                        bytes += op.bytes().length;
+                    }
+                    case CLEAR -> {
+                        touched.remove(log);
+                        log.delete();
+                    }
+                    case CLOSE -> {
+                        if (touched.remove(log)) {
+                            log.force();
+                        }
+                        log.release();
+                    }
+                    default -> running = false;
+                }
+            } catch (IOException e) {
+                failed.put(log, e);
+                touched.remove(log);
+                log.release(); // 下次追加时重新打开并截掉写了一半的记录
+            }
+        }
+        for (Log log : touched) {
+            try {
+                log.force();
+            } catch (IOException e) {
+                failed.put(log, e);
+                log.release();
+            }
+        }
+        for (Op op : batch) {
+            if (op.done() == null) {
+                continue;
+            }
+            IOException e = failed.get(op.log());
+            if (e == null) {
+                op.done().complete(null);
+            } else {
+                op.done().completeExceptionally(e);
+            }
+        }
+        failed.forEach((log, e) -> LOGGER.error("[JOURNAL ERROR] {} ,error : {}", log.key, e.getMessage()));
+        metrics.journal(batch.size(), touched.size(), bytes, System.nanoTime() - start);
+        return running;
+    }
+
+    /**
+     * 文件头
+     */
+    private static byte[] header(String key, long baseModified, long baseSize) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT);
+            out.writeUTF(key);
+            out.writeLong(baseModified);
+            out.writeLong(baseSize);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 一条记录，前面可以带上文件头
+     */
+    private static byte[] record(byte[] header, int line, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(header.length + 12 + bytes.length);
+        buffer.put(header).putInt(line).putInt(bytes.length).put(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), header.length, 8 + bytes.length);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * 一个文档的日志。
+     * 追加、重写、清空和关闭在文档锁内调用，只把操作放入队列；文件只在提交线程上读写
+     */
+    final class Log {
+        private final String key; // 文件的绝对路径
+        private final Path file; // 日志文件
+        private boolean started; // 已追加过文件头，只在文档锁内访问
+        private CompletableFuture<Void> lastCommit = CompletableFuture.completedFuture(null); // 最近一次追加，只在文档锁内访问
+        private FileChannel channel; // 只在提交线程上访问
+        private long validLength; // 最后一条完整记录的结束位置，只在提交线程上访问
+        private boolean created; // 文件是新建的，fsync 时同时 fsync 目录，只在提交线程上访问
+
+        private Log(String key, boolean started, long validLength) {
+            this.key = key;
+            this.file = directory.resolve(VersionStore.fileName(key, EXTENSION));
+            this.started = started;
+            this.validLength = validLength;
+        }
+
+        /**
+         * 追加一次写入，第一次追加时带上文件头
+         *
+         * @param line 行号
+         * @param text 写入的内容
+         * @param baseModified 磁盘上文件最后一次读写时的修改时间
+         * @param baseSize 以及字节数
+         */
+        void append(int line, String text, long baseModified, long baseSize) {
+            byte[] bytes = record(started ? new byte[0] : header(key, baseModified, baseSize), line, text);
+            lastCommit = submit(this, started ? APPEND : CREATE, bytes);
+            started = true;
+        }
+
+        /**
+         * 最近一次追加所在批次的提交结果，落盘后完成
+         *
+         * @return future
+         */
+        CompletableFuture<Void> lastCommit() {
+            return lastCommit;
+        }
+
+        /**
+         * 内容已写入磁盘，删除日志
+         */
+        void clear() {
+            if (started) {
+                started = false;
+                submit(this, CLEAR, null);
+            }
+        }
+
+        /**
+         * 内容已写入磁盘，但写入的是保存开始时的版本，之后的写入仍未保存：用这些写入替换整个日志
+         *
+         * @param lines 仍未保存的写入，每行一条
+         * @param baseModified 磁盘上文件保存后的修改时间
+         * @param baseSize 以及字节数
+         */
+        void rewrite(List<Line> lines, long baseModified, long baseSize) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] header = header(key, baseModified, baseSize);
+            for (Line line : lines) {
+                buffer.writeBytes(record(header, line.line(), line.text()));
+                header = new byte[0];
+            }
+            lastCommit = submit(this, REWRITE, buffer.toByteArray());
+            started = true;
+        }
+
+        /**
+         * 文档已关闭，关闭日志文件并保留内容
+         */
+        void close() {
+            submit(this, CLOSE, null);
+        }
+
+        private void write(boolean create, byte[] bytes) throws IOException {
+            if (create) {
+                release();
+                validLength = 0;
+            } else if (validLength == 0) {
+                throw new IOException("Journal header was not written"); // 第一次写入失败，保存后重新开始
+            }
+            if (channel == null) {
+                Files.createDirectories(directory);
+                created |= Files.notExists(file);
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.truncate(validLength);
+                channel.position(validLength);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            validLength += bytes.length;
+        }
+
+        /**
+         * 把完整的日志写入临时文件并 fsync，再原子地替换原来的日志，替换前崩溃时原来的日志仍然完整
+         */
+        private void rewrite(byte[] bytes) throws IOException {
+            release();
+            validLength = 0;
+            Files.createDirectories(directory);
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            created = true; // 目录中的条目变了，fsync 时同时 fsync 目录
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.position(bytes.length);
+            validLength = bytes.length;
+        }
+
+        private void force() throws IOException {
+            channel.force(false);
+            if (created) {
+                created = false;
+                try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+                    dir.force(true); // 新建的文件在目录中的条目也要落盘
+                } catch (IOException | UnsupportedOperationException e) {
+                    // 部分平台不能打开目录
+                }
+            }
+        }
+
+        private void delete() throws IOException {
+            release();
+            validLength = 0;
+            Files.deleteIfExists(file);
+        }
+
+        private void release() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("[JOURNAL] Failed to close : {} ,error : {}", file, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * 一个文档在日志中的未保存修改
+     *
+     * @param path 文件的绝对路径
+     * @param lines 按写入顺序排列的修改
+     * @param log 该文档的日志，冲突时为新的空日志
+     * @param conflicted 文件在修改之后被外部修改或已不存在，这些修改不能重放
+     */
+    record Recovered(String path, List<Line> lines, Log log, boolean conflicted) {
+    }
+
+    /**
+     * 一次写入
+     *
+     * @param line 行号
+     * @param text 写入的内容
+     */
+    record Line(int line, String text) {
+    }
+
+    /**
+     * 提交线程处理的操作
+     */
+    private record Op(Log log, int kind, byte[] bytes, CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,251 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * 文件管理命令的公平调度器。
+ * 命令分为交互（{@link Priority#INTERACTIVE}，逐行读写等）和批量（{@link Priority#BULK}，遍历目录、打开和保存整个文件等）两类，
+ * 每类有自己的工作线程和排队上限，批量命令再多也不会占用交互命令的工作线程，按键级的写入不必排在大目录遍历之后。
+ * 每类中每个用户一个 FIFO 队列，工作线程按加权轮询在用户之间轮转：每轮最多执行用户的 权重 条命令，之后排到队尾。
+ * 同一类命令的开销相近，不再按开销计算额度。
+ * 同一用户同一时刻最多占用 files.scheduler.user.concurrency 个工作线程，命令按提交顺序开始执行，
+ * 慢命令不会挡住同一用户之后的命令；需要按顺序完成的命令由调用方在前一条完成后再提交（见 {@link FileHandler}）。
+ * 一个用户大量提交命令也只会拉长自己的队列。队列已满时立即拒绝。用户的命令全部执行完后移除其队列。
+ * 工作线程由 {@link BlockingExecution} 创建，virtual 模式下为虚拟线程，默认数量也相应放大。
+ *
+ * @author nick
+ */
+@Component
+public class FairCommandScheduler implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FairCommandScheduler.class);
+
+    /**
+     * 命令的类别，每类由独立的工作线程执行
+     */
+    public enum Priority {
+        INTERACTIVE("interactive"), BULK("bulk");
+
+        private final String tag; // 指标标签和线程名中使用的名称
+
+        Priority(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final int userConcurrency; // 每个用户同时占用的工作线程数
+    private final FilesMetrics metrics;
+    private final Pool interactive;
+    private final Pool bulk;
+    private volatile boolean closed;
+
+    public FairCommandScheduler(PropertiesReader propertiesReader, BlockingExecution execution, FilesMetrics metrics) {
+        this.userConcurrency = Math.max(1, propertiesReader.getFilesSchedulerUserConcurrency());
+        this.metrics = metrics;
+        int defaultWorkers = execution.isVirtual()
+                ? propertiesReader.getExecutionVirtualConcurrency() : Runtime.getRuntime().availableProcessors();
+        int interactiveWorkers = propertiesReader.getFilesSchedulerInteractiveWorkers();
+        int bulkWorkers = propertiesReader.getFilesSchedulerBulkWorkers();
+        this.interactive = new Pool(Priority.INTERACTIVE, propertiesReader.getFilesSchedulerInteractiveMaxPending(),
+                interactiveWorkers > 0 ? interactiveWorkers : defaultWorkers, execution);
+        this.bulk = new Pool(Priority.BULK, propertiesReader.getFilesSchedulerBulkMaxPending(),
+                bulkWorkers > 0 ? bulkWorkers : defaultWorkers, execution);
+        LOGGER.info("[SCHEDULER] {} interactive and {} bulk {} workers, {} interactive and {} bulk pending and {} running per user",
+                interactive.workers.length, bulk.workers.length,
+                execution.isVirtual() ? BlockingExecution.VIRTUAL : BlockingExecution.PLATFORM,
+                interactive.maxPending, bulk.maxPending, userConcurrency);
+    }
+
+    /**
+     * 提交一条命令
+     *
+     * @param priority 命令的类别
+     * @param user 用户名
+     * @param weight 用户权重，即每轮最多执行的命令数，至少为 1
+     * @param command 命令
+     * @return 命令结果，用户在该类别的队列已满时以 {@link RejectedExecutionException} 结束
+     */
+    public <T> Mono<T> submit(Priority priority, String user, int weight, Supplier<T> command) {
+        if (closed) {
+            return Mono.error(new RejectedExecutionException("Scheduler closed"));
+        }
+        Pool pool = priority == Priority.BULK ? bulk : interactive;
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        Runnable task = () -> {
+            if (future.isDone()) {
+                return; // 会话已取消
+            }
+            long started = System.nanoTime();
+            metrics.schedulerWait(priority.getTag(), started - submitted);
+            try {
+                future.complete(command.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                metrics.schedulerRun(priority.getTag(), System.nanoTime() - started);
+            }
+        };
+        while (true) {
+            UserQueue queue = pool.queues.computeIfAbsent(user, UserQueue::new);
+            queue.lock.lock();
+            try {
+                if (queue.removed) {
+                    continue; // 刚刚因空闲被移除，重新取得用户的队列
+                }
+                queue.weight = Math.max(1, weight);
+                if (queue.tasks.size() >= pool.maxPending) {
+                    return Mono.error(new RejectedExecutionException("Too many pending commands"));
+                }
+                queue.tasks.add(task);
+                pool.pending.incrementAndGet();
+                pool.schedule(queue);
+            } finally {
+                queue.lock.unlock();
+            }
+            return Mono.fromFuture(future);
+        }
+    }
+
+    /**
+     * 在该类别中有命令排队或执行中的用户数
+     */
+    int users(Priority priority) {
+        return (priority == Priority.BULK ? bulk : interactive).queues.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        interactive.close();
+        bulk.close();
+    }
+
+    /**
+     * 一类命令的用户队列和工作线程
+     */
+    private final class Pool {
+        private final int maxPending; // 每个用户最多排队的命令数
+        private final Map<String, UserQueue> queues = new ConcurrentHashMap<>(); // 用户名 -> 有命令排队或执行中的队列
+        private final BlockingQueue<UserQueue> ready = new LinkedBlockingQueue<>(); // 有命令待执行的用户，按轮转顺序排列
+        private final AtomicInteger pending = new AtomicInteger(); // 所有用户排队的命令数
+        private final Thread[] workers;
+
+        private Pool(Priority priority, int maxPending, int count, BlockingExecution execution) {
+            this.maxPending = maxPending;
+            metrics.schedulerPending(priority.getTag(), pending::get);
+            ThreadFactory factory = execution.threadFactory("files-" + priority.getTag() + "-");
+            this.workers = new Thread[count];
+            for (int i = 0; i < count; i++) {
+                workers[i] = factory.newThread(this::work);
+                workers[i].start();
+            }
+        }
+
+        private void work() {
+            while (!closed) {
+                UserQueue queue;
+                try {
+                    queue = ready.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                int turns; // 本轮还能执行的命令数，同一用户在多个工作线程上的各轮互不影响
+                queue.lock.lock();
+                try {
+                    queue.scheduled = false;
+                    queue.running++;
+                    turns = queue.weight;
+                } finally {
+                    queue.lock.unlock();
+                }
+                while (true) {
+                    Runnable task;
+                    queue.lock.lock();
+                    try {
+                        if (queue.tasks.isEmpty() || turns == 0) {
+                            queue.running--;
+                            schedule(queue); // 本轮用完，还有命令时排到队尾等下一轮
+                            if (queue.tasks.isEmpty() && queue.running == 0) { // 用户的命令都已执行完
+                                queue.removed = true;
+                                queues.remove(queue.user, queue);
+                            }
+                            break;
+                        }
+                        task = queue.tasks.poll();
+                        pending.decrementAndGet();
+                        turns--;
+                        if (!queue.tasks.isEmpty()) {
+                            schedule(queue); // 其余命令可以同时在其它工作线程上开始
+                        }
+                    } finally {
+                        queue.lock.unlock();
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.error("[SCHEDULER ERROR] : {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        /**
+         * 用户有命令且占用的工作线程未达上限时加入就绪队列，在用户队列的 lock 内调用
+         */
+        private void schedule(UserQueue queue) {
+            if (!queue.scheduled && !queue.tasks.isEmpty() && queue.running < userConcurrency) {
+                queue.scheduled = true;
+                ready.add(queue);
+            }
+        }
+
+        private void close() {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 单个用户的命令队列，除 weight 外的字段都在 lock 内访问
+     */
+    private static final class UserQueue {
+        private final String user; // 用户名
+        private final Lock lock = new ReentrantLock();
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private volatile int weight = 1;
+        private boolean scheduled; // 是否在就绪队列中
+        private int running; // 正在执行该用户命令的工作线程数
+        private boolean removed; // 已从 queues 中移除，之后提交的命令进入新的队列
+
+        private UserQueue(String user) {
+            this.user = user;
+        }
+    }
+}
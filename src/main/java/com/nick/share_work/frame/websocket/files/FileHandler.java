@@ -1,16 +1,40 @@
 package com.nick.share_work.frame.websocket.files;
 
+import java.security.Principal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketSession;
 
+import com.nick.share_work.frame.authentication.model.Authority;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.PayloadLogSampler;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+import com.nick.share_work.frame.websocket.WebSocketSessionMonitor;
+import com.nick.share_work.frame.websocket.files.FairCommandScheduler.Priority;
+
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
  * 文件管理 WebSocket 处理器
+ * 默认使用 JSON 文本帧，客户端请求 {@link BinaryFrameCodec#SUBPROTOCOL} 子协议时改用二进制帧。
+ * 心跳和空闲超时由 {@link WebSocketSessionMonitor} 负责，无论连接以何种方式结束都会释放会话状态。
+ * 命令先经过按用户的 {@link CommandRateLimiter} 限流，再由 {@link FairCommandScheduler} 在工作线程上执行，
+ * 重量命令交给批量工作线程，其余命令交给交互工作线程，
+ * 不占用网络 I/O 线程。写入命令在工作线程上执行完后，等到写入在 {@link EditJournal} 中落盘才发出响应，
+ * 等待期间工作线程继续执行其它命令。
+ * 每个会话最多同时处理 files.session.max.inflight 条命令，响应按完成的先后发出。
+ * 带 requestId 的命令按 {@link FilesManagementServer#lane} 分队列，只与同一队列的命令保持顺序，响应带回同一个 requestId；
+ * 不带 requestId 的命令全部排在同一个队列中，与之前一样按顺序执行和响应。
  * 
  * @author nick
  */
@@ -18,22 +42,159 @@ import reactor.core.publisher.Mono;
 public class FileHandler implements WebSocketHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileHandler.class);
 
+    // 不带 requestId 的命令共用的顺序队列
+    private static final String SERIAL_LANE = "";
+
+    // 未认证的连接共用的用户名，所有匿名连接共享一份限流和调度额度
+    private static final String ANONYMOUS = "#anonymous";
+
     @Autowired
     private FilesManagementServer fms;
 
+    @Autowired
+    private JsonFrameCodec jsonFrameCodec;
+
+    @Autowired
+    private BinaryFrameCodec binaryFrameCodec;
+
+    @Autowired
+    private WebSocketSessionMonitor sessionMonitor;
+
+    @Autowired
+    private CommandRateLimiter rateLimiter;
+
+    @Autowired
+    private FairCommandScheduler scheduler;
+
+    @Autowired
+    private PropertiesReader propertiesReader;
+
+    @Autowired
+    private PayloadLogSampler payloadLogSampler;
+
+    @Override
+    public List<String> getSubProtocols() {
+        return List.of(BinaryFrameCodec.SUBPROTOCOL);
+    }
+
     @SuppressWarnings("null")
     @Override
     public Mono<Void> handle(final WebSocketSession session) {
-        LOGGER.info("[File Socket] Connection Established"); // 连接建立日志
-
-        return session.send(
-                session.receive()
-                        .doOnNext(msg -> LOGGER.info("[Received Message]: {}", msg.getPayloadAsText())) // 记录接收到的消息
-                        .map(msg -> {
-                            String response = fms.getMsg(msg.getPayloadAsText()); // 获取处理后的响应消息
-                            LOGGER.debug("[Response]: {}", response.length() > 20 ? response.substring(0, 10) + "..." : response); // 记录响应消息
-                            return session.textMessage(response); // 发送响应消息
-                        })
-        );
+        return session.getHandshakeInfo().getPrincipal()
+                .map(principal -> serve(session, principal.getName(), weightOf(principal)))
+                .defaultIfEmpty(Mono.defer(() -> serve(session, ANONYMOUS, 1)))
+                .flatMap(serving -> serving);
+    }
+
+    /**
+     * 处理一个已认证用户的会话
+     *
+     * @param session WebSocket 会话
+     * @param user 用户名，用于限流和公平调度
+     * @param weight 用户在公平调度中的权重
+     * @return 会话结束时完成的 Mono
+     */
+    private Mono<Void> serve(WebSocketSession session, String user, int weight) {
+        FrameCodec codec = BinaryFrameCodec.SUBPROTOCOL.equals(session.getHandshakeInfo().getSubProtocol())
+                ? binaryFrameCodec : jsonFrameCodec;
+        LOGGER.info("[File Socket] Connection Established, user : {}, codec : {}", user, codec.getClass().getSimpleName()); // 连接建立日志
+
+        FileSession fileSession = new FileSession(session.getId());
+        WebSocketSessionMonitor.Tracked tracked = sessionMonitor.track(
+                session.getHandshakeInfo().getUri().getPath(), session, fileSession::retainedBytes);
+
+        Flux<WebSocketMessageBody> responses = session.receive()
+                .filter(tracked::onInbound) // 控制帧只用于心跳判断
+                .flatMap(message -> {
+                    WebSocketMessageBody body = codec.decode(message);
+                    if (LOGGER.isInfoEnabled() && payloadLogSampler.sample()) {
+                        LOGGER.info("[Received Message]: {}", payloadLogSampler.truncate(body)); // 抽样记录接收到的消息
+                    }
+                    return dispatch(fileSession, user, weight, body);
+                }, Math.max(1, propertiesReader.getFilesSessionMaxInflight()))
+                .doOnNext(response -> LOGGER.debug("[Response]: {}", response.getMessage())) // 记录响应消息
+                .doFinally(signal -> fms.release(fileSession)); // 连接断开时释放共享文档
+
+        // 响应消息与其它会话推送的增量、跟踪的文件的新行、订阅的目录的变化合并后发送，并穿插心跳
+        return session.send(Flux.merge(
+                        Flux.merge(responses, fileSession.deltas(), fileSession.tailLines(), fileSession.changes())
+                                .map(body -> codec.encode(session, body)),
+                        tracked.heartbeat()))
+                .doFinally(signal -> {
+                    fms.release(fileSession); // 发送端异常结束时接收流可能未终止，这里再释放一次
+                    tracked.release();
+                    LOGGER.info("[File Socket] Connection Closed : {}", signal);
+                });
+    }
+
+    /**
+     * 限流后把命令交给公平调度器执行，超出配额或排队已满时立即返回错误消息。
+     * 命令在所在队列的前一条命令执行完后才提交，落盘等待不占用队列
+     *
+     * @param fileSession 文件会话
+     * @param user 用户名
+     * @param weight 用户权重
+     * @param body 解码后的命令，解码失败时为 null
+     * @return 处理结果
+     */
+    private Mono<WebSocketMessageBody> dispatch(FileSession fileSession, String user, int weight, WebSocketMessageBody body) {
+        if (body == null || body.getMessage() == null) {
+            return Mono.just(fms.getMsg(fileSession, body));
+        }
+        String message = body.getMessage();
+        String requestId = body.getRequestId();
+        if (!rateLimiter.tryAcquire(user, message)) {
+            LOGGER.warn("[RATE LIMIT] user : {}, message : {}", user, message);
+            return Mono.just(WebSocketMessageBody.error(message, "Rate limit exceeded").withRequestId(requestId));
+        }
+        Priority priority = CommandRateLimiter.isExpensive(message) ? Priority.BULK : Priority.INTERACTIVE;
+        Mono<Reply> executed = Mono.defer(() -> scheduler.submit(priority, user, weight, // 订阅时才提交，排队期间不占用调度器的队列
+                () -> new Reply(fms.getMsg(fileSession, body), fileSession.takeCommit())));
+        String lane = requestId == null ? SERIAL_LANE : FilesManagementServer.lane(message);
+        if (lane != null) {
+            executed = fileSession.inOrder(lane, executed);
+        }
+        return executed
+                .flatMap(Reply::committed)
+                .onErrorResume(RejectedExecutionException.class, e -> {
+                    LOGGER.warn("[SERVER BUSY] user : {}, message : {}", user, message);
+                    return Mono.just(WebSocketMessageBody.error(message, "Server busy"));
+                })
+                .map(response -> response.withRequestId(requestId));
+    }
+
+    /**
+     * 命令的处理结果和需要等待落盘的日志批次
+     */
+    private record Reply(WebSocketMessageBody body, CompletableFuture<Void> commit) {
+
+        /**
+         * 日志批次落盘后发出结果，提交失败时返回错误消息（写入已在内存中生效，只是重启后会丢失）
+         */
+        private Mono<WebSocketMessageBody> committed() {
+            if (commit == null) {
+                return Mono.just(body);
+            }
+            return Mono.fromFuture(commit)
+                    .thenReturn(body)
+                    .onErrorResume(e -> {
+                        LOGGER.error("[JOURNAL ERROR] {} not persisted : {}", body.getMessage(), e.getMessage());
+                        return Mono.just(WebSocketMessageBody.error(body.getMessage(), "Failed to persist edit"));
+                    });
+        }
+    }
+
+    /**
+     * 管理员使用配置的权重，其他用户权重为 1
+     */
+    private int weightOf(Principal principal) {
+        if (principal instanceof Authentication authentication) {
+            for (GrantedAuthority authority : authentication.getAuthorities()) {
+                if (Authority.ADMIN.getAuthority().equals(authority.getAuthority())) {
+                    return propertiesReader.getFilesSchedulerAdminWeight();
+                }
+            }
+        }
+        return 1;
     }
 }
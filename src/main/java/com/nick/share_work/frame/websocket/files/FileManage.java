@@ -1,30 +1,53 @@
 package com.nick.share_work.frame.websocket.files;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nick.share_work.frame.cluster.Backplane;
+import com.nick.share_work.frame.config.PropertiesReader;
 import com.nick.share_work.frame.websocket.WebSocketMessageBody;
 
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
 
 
 /**
- * 文件管理器，用于管理文件内容的读写
- * 
+ * 文件管理器，用于管理文件内容的读写。
+ * 同一个文件只在内存中保留一份共享文档，打开该文件的所有会话都在这份文档上协同编辑。
+ * 最后一个会话离开后文档不立即释放，而是按最近最少使用的顺序缓存，总量受堆内存估算值的预算限制；
+ * 再次打开时如果磁盘上文件的修改时间和大小都没有变化，直接复用内存中的文档。
+ * 有未保存修改的文档不会被淘汰，再次打开时可以继续编辑或保存。
+ * 集群模式下每次写入通过 {@link Backplane} 发给其它节点，其它节点内存中有该文件时应用到自己的共享文档；
+ * 没有打开该文件的节点不保留这些写入，之后读取该文件时向其它节点请求它们已有的写入（{@link #DOCUMENTS_SYNC_TOPIC}），
+ * 在磁盘上的内容上应用第一个回复，与已打开该文件的节点一致。
+ * 每次保存前后把磁盘上的内容记入 {@link VersionStore}，可以列出文件的历史版本并恢复其中任意一个。
+ * 未保存的写入记在 {@link EditJournal} 中，启动时在磁盘上的原始内容上重放，这些文档以未保存的状态放入缓存。
+ * 开启自动保存时，有写入的文档由 {@link AutoSaver} 在一个间隔后保存，关闭时保存所有未保存的文档。
+ * 保存前检查磁盘上的文件是否在打开后被其它进程或节点修改，能按行合并时合并，否则拒绝保存（见 {@link DocumentHub#save}）。
+ * 读取、重新读取和恢复文件都不持有全局锁，全局锁只保护映射表的修改；同一文件正在读取或恢复时，其它打开该文件的请求等待其完成。
+ *
  * @author nick
  */
 @Service
@@ -37,115 +60,389 @@ public class FileManage implements Closeable{
     public static final String END = "file_end";
     public static final String READE_LINE = "file_read_line";
     public static final String WRITE_LINE = "file_write_line";
+    public static final String DELTA = "file_delta";
+    public static final String RESYNC = "file_resync";
+    public static final String VERSIONS = "file_versions";
+    public static final String RESTORE = "file_restore";
+    public static final String RELOAD = "file_reload";
+    // 文档写入的主题
+    public static final String DOCUMENTS_TOPIC = "documents";
+    // 请求其它节点发送某个文件已有写入的主题
+    public static final String DOCUMENTS_SYNC_TOPIC = "documents.sync";
+    // 回复已有写入的主题
+    public static final String DOCUMENTS_STATE_TOPIC = "documents.state";
 
-    private String path; // 文件路径
-    private Map<String, String> model; // 存储文件内容的 Map
-    private Lock lock = new ReentrantLock(); // 锁，用于保证线程安全
+    private final Map<String, DocumentHub> hubs; // 文件路径 -> 共享文档，包括缓存中的文档
+    private final LinkedHashMap<String, Cached> idle; // 没有会话的文档，按访问顺序排列，只在 lock 内访问
+    private final Map<String, CompletableFuture<Void>> busy = new HashMap<>(); // 正在读取或恢复的文件 -> 完成时完成，只在 lock 内访问
+    private final long cacheMaxBytes; // 缓存的文档最多占用的堆内存估算值
+    private final boolean offHeap; // 文档行内容是否保存在堆外
+    private final FilesMetrics metrics; // 指标
+    private final Backplane backplane; // 节点之间的消息通道
+    private final VersionStore history; // 文件的历史版本
+    private final EditJournal journal; // 未保存修改的日志
+    private final AutoSaver autoSaver; // 自动保存
+    private final ObjectMapper objectMapper = new ObjectMapper(); // 写入消息的 JSON 序列化
+    private final Disposable remoteEdits; // 对其它节点写入、同步请求和回复的订阅
+    private final long syncTimeoutMillis; // 等待其它节点回复已有写入的最长时间
+    private final Map<String, DocumentHub> syncing = new ConcurrentHashMap<>(); // 正在读取、尚未放入 hubs 的文档，其它节点的写入同样应用
+    private final Map<String, CompletableFuture<State>> syncs = new ConcurrentHashMap<>(); // 请求 ID -> 等待中的回复
+    private final Lock lock; // 锁，用于保证文档的加入和释放是原子的
+    private volatile long idleBytes; // 缓存的文档占用的堆内存估算值，只在 lock 内修改
+    private volatile int idleCount; // 缓存的文档数，只在 lock 内修改
 
     /**
      * 构造方法，初始化 Map
+     * @param propertiesReader 配置读取器
+     * @param metrics 文件管理的指标
+     * @param backplane 节点之间的消息通道
+     * @param history 文件的历史版本
+     * @param journal 未保存修改的日志
+     * @param autoSaver 自动保存
      */
-    public FileManage() {
-        this.model = new TreeMap<>();
+    public FileManage(PropertiesReader propertiesReader, FilesMetrics metrics, Backplane backplane,
+            VersionStore history, EditJournal journal, AutoSaver autoSaver) {
+        this.hubs = new ConcurrentHashMap<>();
+        this.idle = new LinkedHashMap<>(16, 0.75f, true);
+        this.cacheMaxBytes = Math.max(0, propertiesReader.getFilesCacheMaxBytes());
+        this.offHeap = "offheap".equalsIgnoreCase(propertiesReader.getFilesDocumentStorage());
+        this.metrics = metrics;
+        this.lock = metrics.lock("file_manage");
+        metrics.documentCacheGauges(() -> idleCount, () -> idleBytes);
+        this.backplane = backplane;
+        this.history = history;
+        this.journal = journal;
+        this.autoSaver = autoSaver;
+        this.syncTimeoutMillis = Math.max(0, propertiesReader.getClusterSyncTimeoutMs());
+        this.remoteEdits = Disposables.composite(
+                backplane.subscribe(DOCUMENTS_TOPIC).subscribe(this::applyRemote),
+                backplane.subscribe(DOCUMENTS_SYNC_TOPIC).subscribe(this::answerSync),
+                backplane.subscribe(DOCUMENTS_STATE_TOPIC).subscribe(this::receiveState));
+        recover();
     }
 
     /**
-     * 打开指定路径的文件，并读取其内容到内存中
+     * 打开指定路径的文件，加入该文件的共享文档
+     * @param session 文件会话
      * @param path 文件路径
-     * @return 操作结果的 JSON 字符串
+     * @return 操作结果
      */
-    public String open(String path) {
-        lock.lock();
-        try {
-            // 检查路径是否合法
-            if (path == null || path.isEmpty()) {
-                return WebSocketMessageBody.error(OPEN, "Invalid path provided");
-            }
+    public WebSocketMessageBody open(FileSession session, String path) {
+        // 检查路径是否合法
+        if (path == null || path.isEmpty()) {
+            return WebSocketMessageBody.error(OPEN, "Invalid path provided");
+        }
+
+        // 记录文件打开操作
+        LOGGER.debug("[OPEN] Attempting to open file at path: {}", path);
 
-            // 记录文件打开操作
-            LOGGER.info("[OPEN] Attempting to open file at path: {}", path);
+        // 离开之前打开的文件
+        leave(session);
 
-            // 设置文件路径
-            this.path = path;
-            this.model.clear();
-            String result;
+        String key = Paths.get(path).toAbsolutePath().normalize().toString();
+        DocumentHub hub;
+        try {
+            hub = join(session, key);
+        } catch (IOException e) {
+            LOGGER.error("[OPEN ERROR] Failed to read file at path : {} ,error : {}", path, e.getMessage());
+            return WebSocketMessageBody.error(OPEN, "Failed to read file");
+        }
+        session.attach(hub);
+        if (session.isClosed()) {
+            // 命令在工作线程上执行时会话可能已经断开，此时释放刚加入的文档
+            leave(session);
+            return WebSocketMessageBody.error(OPEN, "Session closed");
+        }
+        return hub.snapshot();
+    }
 
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(this.path), StandardCharsets.UTF_8))) {
-                String line;
-                int lineNumber = 1;
-                while ((line = br.readLine()) != null) {
-                    this.model.put(String.valueOf(lineNumber++), line);
+    /**
+     * 加入文件的共享文档，内存中没有时读取磁盘上的文件。
+     * 全局锁只在查找和修改映射表时持有：读取文件时先登记为正在读取，其它打开该文件的请求等待读取完成后重新查找；
+     * 缓存中已被外部修改的文档先加入（不会再被淘汰），再在锁外重新读取
+     *
+     * @param session 文件会话
+     * @param key 文件的绝对路径
+     * @return 已加入的共享文档
+     * @throws IOException 读取失败时抛出
+     */
+    private DocumentHub join(FileSession session, String key) throws IOException {
+        while (true) {
+            DocumentHub hub;
+            CompletableFuture<Void> pending;
+            boolean reload = false;
+            lock.lock();
+            try {
+                pending = busy.get(key);
+                hub = pending == null ? hubs.get(key) : null;
+                if (hub != null) {
+                    reload = uncache(key) && hub.isStale();
+                    hub.join(session.getId());
+                } else if (pending == null) {
+                    busy.put(key, new CompletableFuture<>());
                 }
-                LOGGER.debug("[OPEN] File content: {} ines", this.model.size());
-                result = WebSocketMessageBody.success(OPEN, model);
-            } catch (IOException e) {
-                LOGGER.error("[OPEN ERROR] Failed to read file at path : {} ,error : {}", path, e.getMessage());
-                result = WebSocketMessageBody.error(OPEN, "Failed to read file");
+            } finally {
+                lock.unlock();
             }
+            if (pending != null) {
+                pending.join(); // 等待读取或恢复完成后重新查找
+                continue;
+            }
+            if (hub == null) {
+                metrics.documentCache(false);
+                return load(session, key);
+            }
+            if (!reload) {
+                metrics.documentCache(true);
+                return hub;
+            }
+            if (hub.isDirty() || hub.isConflicted()) {
+                // 内存中的修改尚未保存，保留内存中的版本，保存时与磁盘上的修改合并；冲突的文档等待客户端重新读取
+                LOGGER.warn("[OPEN] {} changed on disk while unsaved edits are cached", key);
+            } else if (hub.reload().isError() && discard(session, key, hub)) {
+                // 只被追加时只读取新增的部分，读取失败时丢弃内存中的文档重新打开
+                continue;
+            }
+            metrics.documentCache(true);
+            return hub;
+        }
+    }
 
-            return result;
+    /**
+     * 读取文件并加入新的共享文档，调用方已把该文件登记为正在读取
+     *
+     * @param session 文件会话
+     * @param key 文件的绝对路径
+     * @return 已加入的共享文档
+     * @throws IOException 读取失败时抛出
+     */
+    private DocumentHub load(FileSession session, String key) throws IOException {
+        DocumentHub hub = null;
+        try {
+            hub = DocumentHub.load(key, metrics, offHeap, replicator(key), journal.log(key));
+            synchronize(key, hub);
+            hub.join(session.getId());
+            return hub;
         } finally {
-            lock.unlock();
+            lock.lock();
+            try {
+                if (hub != null) {
+                    hubs.put(key, hub);
+                    syncing.remove(key, hub); // 放入 hubs 之后再移除，其间到达的写入不会丢失
+                }
+                busy.remove(key).complete(null);
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
     /**
-     * 将内存中的内容保存到文件中
-     * 
-     * @return 操作结果的 JSON 字符串
+     * 重新读取失败后丢弃文档，其它会话已在使用该文档时保留
+     *
+     * @param session 文件会话
+     * @param key 文件的绝对路径
+     * @param hub 共享文档
+     * @return 已丢弃返回 true
      */
-    public String save() {
-        lock.lock(); // 获取锁以保证线程安全
+    private boolean discard(FileSession session, String key, DocumentHub hub) {
+        lock.lock();
         try {
-            LOGGER.info("[SAVE] Saving contents to file : {}", this.path);
-            String result;
-            
-            // 尝试将内存中的内容写入到文件
-            try (BufferedWriter bw = new BufferedWriter(
-                    new OutputStreamWriter(new FileOutputStream(this.path), StandardCharsets.UTF_8))) {
-                // 遍历内存中的所有行，将每一行写入到文件中
-                for (String line : this.model.values()) {
-                    bw.write(line); // 写入一行
-                    bw.newLine(); // 写入换行符
-                }
-                result = WebSocketMessageBody.success(SAVE, null); // 成功保存内容，返回成功的 JSON 响应
-            } catch (IOException e) {
-                // 捕获并处理文件写入错误
-                LOGGER.error("[SAVE ERROR] Failed to save content to file : {}", e.getMessage());
-                result = WebSocketMessageBody.error(SAVE, null); // 返回保存错误的 JSON 响应
+            if (!hub.leave(session.getId())) {
+                hub.join(session.getId());
+                return false;
             }
-            
-            return result;
+            hubs.remove(key, hub);
+            hub.close();
+            metrics.documentEviction("stale");
+            return true;
         } finally {
-            lock.unlock(); // 释放锁
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将共享文档的内容保存到文件中。
+     * 保存前先记录磁盘上的内容（第一次保存或文件在外部被修改过时产生一个版本），保存后再记录一次
+     *
+     * @param session 文件会话
+     * @return 操作结果
+     */
+    public WebSocketMessageBody save(FileSession session) {
+        DocumentHub hub = session.getHub();
+        if (hub == null) {
+            return WebSocketMessageBody.error(SAVE, "No file opened");
+        }
+        return save(hub);
+    }
+
+    /**
+     * 保存共享文档，前后各记录一次版本
+     * @param hub 共享文档
+     * @return 操作结果
+     */
+    private WebSocketMessageBody save(DocumentHub hub) {
+        LOGGER.debug("[SAVE] Saving contents to file : {}", hub.getPath());
+        record(hub.getPath());
+        WebSocketMessageBody result = hub.save();
+        if (!result.isError()) {
+            record(hub.getPath());
         }
+        return result;
     }
 
+    /**
+     * 重新读取磁盘上的文件，变化的行推送给打开该文件的所有会话
+     *
+     * @param session 文件会话
+     * @return 操作结果
+     */
+    public WebSocketMessageBody reload(FileSession session) {
+        DocumentHub hub = session.getHub();
+        if (hub == null) {
+            return WebSocketMessageBody.error(RELOAD, "No file opened");
+        }
+        LOGGER.debug("[RELOAD] {}", hub.getPath());
+        return hub.reload();
+    }
 
     /**
-     * 结束文件操作，并关闭文件
-     * @return 操作结果的 JSON 字符串
+     * 列出文件的历史版本
+     *
+     * @param path 文件路径
+     * @return 操作结果，版本号 -> 记录时间（ISO-8601）和字节数，以逗号分隔，按版本号从小到大排列
      */
-    public String end(){
+    public WebSocketMessageBody versions(String path) {
+        if (path == null || path.isEmpty()) {
+            return WebSocketMessageBody.error(VERSIONS, "Invalid path provided");
+        }
         try {
-            this.close();
+            Map<String, String> model = new LinkedHashMap<>();
+            for (VersionStore.Version version : history.versions(path)) {
+                model.put(String.valueOf(version.version()), Instant.ofEpochMilli(version.time()) + "," + version.size());
+            }
+            return WebSocketMessageBody.success(VERSIONS, model);
         } catch (IOException e) {
-            return WebSocketMessageBody.error(END, "Close failed");
+            LOGGER.error("[VERSIONS ERROR] Failed to read history of : {} ,error : {}", path, e.getMessage());
+            return WebSocketMessageBody.error(VERSIONS, "Failed to read history");
+        }
+    }
+
+    /**
+     * 把文件恢复到指定的历史版本，恢复后的内容记为新版本，因此恢复本身也可以撤销。
+     * 文件在内存中有共享文档时替换文档内容并推送给所有会话，有未保存的修改时拒绝；
+     * 否则直接写入磁盘，已删除的文件也可以这样恢复
+     *
+     * @param session 文件会话
+     * @param path 文件路径
+     * @param version 版本号
+     * @return 操作结果
+     */
+    public WebSocketMessageBody restore(FileSession session, String path, String version) {
+        if (path == null || path.isEmpty()) {
+            return WebSocketMessageBody.error(RESTORE, "Invalid path provided");
         }
+        long number;
+        try {
+            number = Long.parseLong(version == null ? "" : version.trim());
+        } catch (NumberFormatException e) {
+            return WebSocketMessageBody.error(RESTORE, "Invalid version");
+        }
+        String key = Paths.get(path).toAbsolutePath().normalize().toString();
+        WebSocketMessageBody result;
+        try {
+            byte[] content = history.read(key, number);
+            if (content == null) {
+                return WebSocketMessageBody.error(RESTORE, "Version not found");
+            }
+            history.record(key); // 先保留当前内容，恢复之后仍可以回到这里
+            result = writeRestored(session, key, content);
+        } catch (IOException e) {
+            LOGGER.error("[RESTORE ERROR] Failed to restore : {} version {} ,error : {}", path, version, e.getMessage());
+            return WebSocketMessageBody.error(RESTORE, "Failed to restore file");
+        }
+        if (!result.isError()) {
+            record(key);
+        }
+        return result;
+    }
+
+    /**
+     * 写入恢复的内容。写入期间把该文件登记为正在恢复，不持有全局锁：
+     * 期间打开该文件的请求等待写入完成，内存中的文档也不会被淘汰
+     * @param session 文件会话
+     * @param key 文件的绝对路径
+     * @param content 恢复的内容
+     * @return 操作结果
+     */
+    private WebSocketMessageBody writeRestored(FileSession session, String key, byte[] content) throws IOException {
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        DocumentHub hub;
+        while (true) {
+            CompletableFuture<Void> pending;
+            lock.lock();
+            try {
+                pending = busy.putIfAbsent(key, mine);
+                hub = hubs.get(key);
+            } finally {
+                lock.unlock();
+            }
+            if (pending == null) {
+                break;
+            }
+            pending.join();
+        }
+        try {
+            if (hub != null) {
+                return hub.restore(session.getId(), content);
+            }
+            AtomicFiles.write(Paths.get(key), content); // 先写入临时文件再替换，写入中途失败时原文件不受影响
+            return WebSocketMessageBody.success(RESTORE, null);
+        } finally {
+            lock.lock();
+            try {
+                busy.remove(key, mine);
+            } finally {
+                lock.unlock();
+            }
+            mine.complete(null);
+        }
+    }
+
+
+    /**
+     * 结束文件操作，离开当前的共享文档
+     * @param session 文件会话
+     * @return 操作结果
+     */
+    public WebSocketMessageBody end(FileSession session){
+        leave(session);
         return WebSocketMessageBody.success(END, null);
     }
 
     /**
-     * 关闭文件
+     * 关闭所有共享文档
      * @throws IOException
      */
     @Override
     public void close() throws IOException {
+        remoteEdits.dispose();
+        if (autoSaver.isEnabled()) {
+            autoSaver.close(); // 等待正在进行的自动保存，剩余的在这里保存
+            for (DocumentHub hub : hubs.values()) {
+                if (hub.isDirty()) {
+                    save(hub);
+                }
+            }
+        }
         lock.lock();
         try {
-            this.path = null;
-            this.model.clear();
-            LOGGER.info("[CLOSE]");
+            hubs.values().forEach(DocumentHub::close);
+            hubs.clear();
+            idle.clear();
+            idleBytes = 0;
+            idleCount = 0;
+            LOGGER.debug("[CLOSE]");
         } finally {
             lock.unlock();
         }
@@ -153,37 +450,374 @@ public class FileManage implements Closeable{
 
     /**
      * 读取指定行的内容
+     * @param session 文件会话
      * @param line 行号
-     * @return 操作结果的 JSON 字符串
+     * @return 操作结果
      */
-    public String readLine(String line) {
-        lock.lock();
-        try {
-            LOGGER.info("[READ_LINE] {}", line);
-            String text = this.model.get(line);
-            if (text == null) {
-                return WebSocketMessageBody.error(READE_LINE, "Line not found");
-            }
-            return WebSocketMessageBody.success( READE_LINE, Map.of(line, text));
-        } finally {
-            lock.unlock();
+    public WebSocketMessageBody readLine(FileSession session, String line) {
+        LOGGER.debug("[READ_LINE] {}", line);
+        DocumentHub hub = session.getHub();
+        if (hub == null) {
+            return WebSocketMessageBody.error(READE_LINE, "No file opened");
+        }
+        Integer number = parseLine(line);
+        if (number == null) {
+            return WebSocketMessageBody.error(READE_LINE, "Invalid line number");
         }
+        return hub.readLine(number);
     }
 
     /**
      * 写入内容到指定行
+     * @param session 文件会话
      * @param line 行号
      * @param text 写入的内容
-     * @return 操作结果的 JSON 字符串
+     * @param baseVersion 客户端所见的文档版本号，可为 null
+     * @return 操作结果
+     */
+    public WebSocketMessageBody writeLine(FileSession session, String line, String text, Long baseVersion) {
+        LOGGER.debug("[WRITE_LINE] {}", line);
+        DocumentHub hub = session.getHub();
+        if (hub == null) {
+            return WebSocketMessageBody.error(WRITE_LINE, "No file opened");
+        }
+        Integer number = parseLine(line);
+        if (number == null || text == null) {
+            return WebSocketMessageBody.error(WRITE_LINE, "Invalid line number or value");
+        }
+        WebSocketMessageBody result = hub.writeLine(session.getId(), number, text, baseVersion);
+        if (!result.isError()) {
+            session.awaitCommit(hub.lastCommit());
+            scheduleSave(hub);
+        }
+        return result;
+    }
+
+    /**
+     * 会话离开当前的共享文档，最后一个会话离开时把该文档放入缓存
+     * @param session 文件会话
      */
-    public String writeLine(String line, String text) {
+    public void leave(FileSession session) {
+        DocumentHub hub = session.detach();
+        if (hub == null) {
+            return;
+        }
         lock.lock();
         try {
-            LOGGER.info("[WRITE_LINE] {}", line);
-            this.model.put(line, text);
-            return WebSocketMessageBody.success(WRITE_LINE, null);
+            if (hub.leave(session.getId())) {
+                String key = Paths.get(hub.getPath()).toAbsolutePath().normalize().toString();
+                if (hubs.get(key) == hub) {
+                    cache(key, hub);
+                    evict();
+                }
+            }
         } finally {
             lock.unlock();
         }
     }
+
+    /**
+     * 重放日志中未保存的修改，每个文档读取磁盘上的内容后按写入顺序应用，放入缓存等待打开。
+     * 文件在修改之后被外部修改时不重放，文档标记为冲突，日志由 {@link EditJournal} 改名保留。
+     * 文件已无法读取时保留日志，之后再打开该文件会重新开始记录
+     */
+    private void recover() {
+        for (EditJournal.Recovered recovered : journal.recover()) {
+            String key = recovered.path();
+            DocumentHub hub;
+            try {
+                hub = DocumentHub.load(key, metrics, offHeap, replicator(key), recovered.log());
+            } catch (IOException e) {
+                LOGGER.error("[JOURNAL ERROR] Failed to replay unsaved edits of : {} ,error : {}", key, e.getMessage());
+                continue;
+            }
+            if (recovered.conflicted()) {
+                hub.markConflicted(); // 按行号记录的修改无法对齐到已变化的文件，不重放也不自动保存
+            } else {
+                for (EditJournal.Line line : recovered.lines()) {
+                    hub.replay(line.line(), line.text());
+                }
+            }
+            synchronize(key, hub);
+            lock.lock();
+            try {
+                hubs.put(key, hub);
+                syncing.remove(key, hub);
+                cache(key, hub);
+            } finally {
+                lock.unlock();
+            }
+            if (!recovered.conflicted()) {
+                LOGGER.info("[JOURNAL] Replayed {} unsaved edits of {}", recovered.lines().size(), key);
+                scheduleSave(hub);
+            }
+        }
+    }
+
+    /**
+     * 安排自动保存，同一文档已安排时合并
+     * @param hub 有写入的共享文档
+     */
+    private void scheduleSave(DocumentHub hub) {
+        if (autoSaver.isEnabled()) {
+            String key = Paths.get(hub.getPath()).toAbsolutePath().normalize().toString();
+            autoSaver.schedule(key, () -> autosave(key));
+        }
+    }
+
+    /**
+     * 自动保存一个文档，到期时文档已不在内存中或已没有未保存的修改时直接返回。
+     * 与磁盘上的修改冲突时不再重试，等待客户端重新读取或下一次写入
+     * @param key 文件的绝对路径
+     * @return 保存失败返回 false
+     */
+    private boolean autosave(String key) {
+        DocumentHub hub = hubs.get(key);
+        if (hub == null || !hub.isDirty()) {
+            metrics.autosave("clean");
+            return true;
+        }
+        WebSocketMessageBody result = save(hub);
+        if (result.isError() && DocumentHub.CONFLICT.equals(result.getValue().get(WebSocketMessageBody.REASON_KEY))) {
+            metrics.autosave("conflict");
+            return true;
+        }
+        metrics.autosave(result.isError() ? "failed" : "saved");
+        return !result.isError();
+    }
+
+    /**
+     * 集群模式下发布写入的 {@link DocumentHub.Replicator}
+     * @param key 文件的绝对路径
+     * @return 单机时返回 null
+     */
+    private DocumentHub.Replicator replicator(String key) {
+        return backplane.isClustered() ? new HubReplicator(key) : null;
+    }
+
+    /**
+     * 应用其它节点的写入，本节点内存中没有该文件时忽略
+     * @param payload 写入消息的 JSON
+     */
+    private void applyRemote(String payload) {
+        Edit edit;
+        try {
+            edit = objectMapper.readValue(payload, Edit.class);
+        } catch (JsonProcessingException e) {
+            LOGGER.error("[REMOTE ERROR] Invalid edit : {}", e.getMessage());
+            return;
+        }
+        DocumentHub hub = hubs.get(edit.key());
+        if (hub == null) {
+            hub = syncing.get(edit.key());
+        }
+        if (hub != null) {
+            hub.applyRemote(edit.line(), edit.text(), edit.stamp(), edit.node());
+        }
+    }
+
+    /**
+     * 集群模式下刚读取的文档向其它节点请求该文件已有的写入，应用第一个回复，最多等待 cluster.sync.timeout.ms。
+     * 写入按时间戳合并，先到的单条写入和回复的顺序不影响结果；Lamport 时钟推进到回复中最大的时间戳。
+     * 文档从此登记在 syncing 中，调用方把它放入 hubs 后移除
+     * @param key 文件的绝对路径
+     * @param hub 刚读取的文档
+     */
+    private void synchronize(String key, DocumentHub hub) {
+        if (!backplane.isClustered()) {
+            return;
+        }
+        syncing.put(key, hub);
+        String id = UUID.randomUUID().toString();
+        CompletableFuture<State> reply = new CompletableFuture<>();
+        syncs.put(id, reply);
+        try {
+            backplane.publish(DOCUMENTS_SYNC_TOPIC, objectMapper.writeValueAsString(new SyncRequest(id, key, backplane.nodeId())));
+            State state = reply.get(syncTimeoutMillis, TimeUnit.MILLISECONDS);
+            for (Edit edit : state.edits()) {
+                hub.applyRemote(edit.line(), edit.text(), edit.stamp(), edit.node());
+            }
+            LOGGER.debug("[SYNC] {} : {} edits from {}", key, state.edits().size(), state.node());
+        } catch (TimeoutException e) {
+            LOGGER.debug("[SYNC] {} : no other node has it open", key);
+        } catch (JsonProcessingException | ExecutionException e) {
+            LOGGER.error("[SYNC ERROR] Failed to synchronize : {} ,error : {}", key, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            syncs.remove(id);
+        }
+    }
+
+    /**
+     * 回复其它节点的同步请求，本节点内存中没有该文件时不回复
+     * @param payload 请求的 JSON
+     */
+    private void answerSync(String payload) {
+        try {
+            SyncRequest request = objectMapper.readValue(payload, SyncRequest.class);
+            DocumentHub hub = hubs.get(request.key());
+            if (hub == null) {
+                return;
+            }
+            List<Edit> edits = new ArrayList<>();
+            hub.stamps((line, text, stamp, node) -> edits.add(new Edit(request.key(), line, text, stamp, node)));
+            State state = new State(request.id(), backplane.nodeId(), edits);
+            backplane.publish(DOCUMENTS_STATE_TOPIC, objectMapper.writeValueAsString(state));
+        } catch (JsonProcessingException e) {
+            LOGGER.error("[SYNC ERROR] Invalid sync request : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把回复交给等待中的请求，已超时或由其它节点回复过的忽略
+     * @param payload 回复的 JSON
+     */
+    private void receiveState(String payload) {
+        try {
+            State state = objectMapper.readValue(payload, State.class);
+            CompletableFuture<State> reply = syncs.get(state.id());
+            if (reply != null) {
+                reply.complete(state);
+            }
+        } catch (JsonProcessingException e) {
+            LOGGER.error("[SYNC ERROR] Invalid sync state : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把文档放入缓存，记下此时计入预算的字节数，调用方需持有锁
+     * @param key 文件路径
+     * @param hub 没有会话的文档
+     */
+    private void cache(String key, DocumentHub hub) {
+        Cached cached = new Cached(hub, hub.getRetainedBytes());
+        Cached previous = idle.put(key, cached);
+        idleBytes += cached.bytes() - (previous == null ? 0 : previous.bytes());
+        idleCount = idle.size();
+    }
+
+    /**
+     * 把文档移出缓存，减去放入时计入的字节数（缓存期间文档大小可能变化，例如其它节点的写入），调用方需持有锁
+     * @param key 文件路径
+     * @return 文档在缓存中返回 true，正被其它会话使用返回 false
+     */
+    private boolean uncache(String key) {
+        Cached cached = idle.remove(key);
+        if (cached == null) {
+            return false;
+        }
+        idleBytes -= cached.bytes();
+        idleCount = idle.size();
+        return true;
+    }
+
+    /**
+     * 超出预算时从最久未使用的文档开始释放，跳过有未保存修改的文档，调用方需持有锁
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Cached>> it = idle.entrySet().iterator();
+        while (idleBytes > cacheMaxBytes && it.hasNext()) {
+            Map.Entry<String, Cached> entry = it.next();
+            DocumentHub hub = entry.getValue().hub();
+            if (hub.isDirty() || hub.isConflicted() || busy.containsKey(entry.getKey())) {
+                continue;
+            }
+            it.remove();
+            idleBytes -= entry.getValue().bytes();
+            hubs.remove(entry.getKey(), hub);
+            hub.close();
+            metrics.documentEviction("size");
+            LOGGER.debug("[RELEASE] {}", hub.getPath());
+        }
+        idleCount = idle.size();
+    }
+
+    /**
+     * 记录文件当前的版本，失败时只记录日志，不影响保存本身
+     * @param path 文件路径
+     */
+    private void record(String path) {
+        try {
+            history.record(path);
+        } catch (IOException e) {
+            LOGGER.error("[HISTORY ERROR] Failed to record version of : {} ,error : {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * 解析行号，行号从 1 开始
+     * @param line 行号字符串
+     * @return 行号，无法解析或小于 1 时返回 null
+     */
+    private Integer parseLine(String line) {
+        try {
+            Integer number = line == null ? null : Integer.valueOf(line.trim());
+            return number == null || number < 1 ? null : number;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 缓存中的文档
+     * @param hub 共享文档
+     * @param bytes 放入缓存时计入预算的字节数
+     */
+    private record Cached(DocumentHub hub, long bytes) {
+    }
+
+    /**
+     * 一次写入的消息
+     * @param key 文件的绝对路径
+     * @param line 行号
+     * @param text 写入的内容，删除该行时为 null
+     * @param stamp Lamport 时间戳
+     * @param node 写入方的节点 ID
+     */
+    record Edit(String key, int line, String text, long stamp, String node) {
+    }
+
+    /**
+     * 请求其它节点发送某个文件已有的写入
+     * @param id 请求 ID
+     * @param key 文件的绝对路径
+     * @param node 请求方的节点 ID
+     */
+    record SyncRequest(String id, String key, String node) {
+    }
+
+    /**
+     * 内存中有该文件的节点的回复
+     * @param id 请求 ID
+     * @param node 回复方的节点 ID
+     * @param edits 每行最后一次写入，包括被删掉的行
+     */
+    record State(String id, String node, List<Edit> edits) {
+    }
+
+    /**
+     * 把共享文档的写入发布到消息通道
+     */
+    private final class HubReplicator implements DocumentHub.Replicator {
+        private final String key; // 文件的绝对路径
+
+        private HubReplicator(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String node() {
+            return backplane.nodeId();
+        }
+
+        @Override
+        public void publish(int line, String text, long stamp) {
+            try {
+                backplane.publish(DOCUMENTS_TOPIC, objectMapper.writeValueAsString(new Edit(key, line, text, stamp, node())));
+            } catch (JsonProcessingException e) {
+                LOGGER.error("[REMOTE ERROR] Failed to publish edit : {}", e.getMessage());
+            }
+        }
+    }
 }
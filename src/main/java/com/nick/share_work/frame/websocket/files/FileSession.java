@@ -0,0 +1,211 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 文件管理 WebSocket 会话的状态，记录会话当前打开的共享文档和最近一次的路径列表，
+ * 并把该文档的增量流、正在跟踪的文件的新行和订阅的目录的变化接到会话的发送流上。会话断开时这些状态随之释放。
+ *
+ * @author nick
+ */
+public class FileSession {
+
+    private final String id; // WebSocket 会话 ID
+    private final Sinks.Many<Flux<WebSocketMessageBody>> documents = Sinks.many().unicast().onBackpressureBuffer(); // 当前文档的增量流
+    private final Sinks.Many<Flux<WebSocketMessageBody>> tails = Sinks.many().unicast().onBackpressureBuffer(); // 正在跟踪的文件的新行
+    private final Sinks.Many<Flux<WebSocketMessageBody>> watches = Sinks.many().unicast().onBackpressureBuffer(); // 订阅的目录的变化
+    private volatile DocumentHub hub; // 当前打开的共享文档
+    private volatile boolean closed; // 会话是否已断开
+    // 当前命令的写入所在的日志批次，响应前等待其落盘；同一会话的命令可能同时在多个工作线程上执行，因此按线程记录
+    private final ThreadLocal<CompletableFuture<Void>> commit = new ThreadLocal<>();
+    private final Map<String, CompletableFuture<Void>> lanes = new ConcurrentHashMap<>(); // 顺序队列 -> 最后一条命令执行完成的结果
+    private final Map<String, String> listing = new ConcurrentSkipListMap<>(); // 文件名 -> 路径，按文件名排序
+
+    public FileSession(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public DocumentHub getHub() {
+        return hub;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 获取会话最近一次遍历或搜索得到的路径列表
+     *
+     * @return 文件名 -> 路径
+     */
+    Map<String, String> getListing() {
+        return listing;
+    }
+
+    /**
+     * 会话持有内存的估算值，包括路径列表和当前打开的共享文档（多个会话共享同一文档时会重复计入）
+     *
+     * @return 字节数
+     */
+    public long retainedBytes() {
+        long bytes = 0;
+        for (Map.Entry<String, String> entry : listing.entrySet()) {
+            bytes += 96 + entry.getKey().length() + entry.getValue().length();
+        }
+        DocumentHub current = hub;
+        return current == null ? bytes : bytes + current.getRetainedBytes();
+    }
+
+    /**
+     * 获取其它会话推送过来的增量流，切换文档时自动切换订阅
+     *
+     * @return 增量消息流
+     */
+    public Flux<WebSocketMessageBody> deltas() {
+        return documents.asFlux().switchMap(flux -> flux);
+    }
+
+    /**
+     * 获取正在跟踪的文件的新行，切换跟踪的文件时自动切换订阅
+     *
+     * @return 新行消息流
+     */
+    public Flux<WebSocketMessageBody> tailLines() {
+        return tails.asFlux().switchMap(flux -> flux);
+    }
+
+    /**
+     * 跟踪文件的新行，取消之前的跟踪
+     *
+     * @param lines 新行消息流，取消订阅时释放跟踪
+     * @return 会话已断开时返回 false，流不会被订阅
+     */
+    synchronized boolean follow(Flux<WebSocketMessageBody> lines) {
+        return !closed && tails.tryEmitNext(lines).isSuccess();
+    }
+
+    /**
+     * 取消当前的跟踪
+     */
+    synchronized void unfollow() {
+        tails.tryEmitNext(Flux.empty());
+    }
+
+    /**
+     * 获取订阅的目录的变化，切换订阅的目录时自动切换订阅
+     *
+     * @return 目录变化消息流
+     */
+    public Flux<WebSocketMessageBody> changes() {
+        return watches.asFlux().switchMap(flux -> flux);
+    }
+
+    /**
+     * 订阅目录的变化，取消之前的订阅
+     *
+     * @param changes 目录变化消息流，取消订阅时释放
+     * @return 会话已断开时返回 false，流不会被订阅
+     */
+    synchronized boolean watch(Flux<WebSocketMessageBody> changes) {
+        return !closed && watches.tryEmitNext(changes).isSuccess();
+    }
+
+    /**
+     * 取消当前的目录订阅
+     */
+    synchronized void unwatch() {
+        watches.tryEmitNext(Flux.empty());
+    }
+
+    /**
+     * 关联共享文档并订阅其增量，从调用时开始缓存增量，之后取得的快照不会漏掉其间的写入
+     *
+     * @param hub 共享文档
+     */
+    synchronized void attach(DocumentHub hub) {
+        this.hub = hub;
+        Flux<WebSocketMessageBody> deltas = hub.deltas(id);
+        if (documents.tryEmitNext(deltas).isFailure()) {
+            deltas.subscribe().dispose(); // 会话已断开，流不会被订阅，直接退订
+        }
+    }
+
+    /**
+     * 取消关联当前共享文档
+     *
+     * @return 之前关联的共享文档，没有则返回 null
+     */
+    synchronized DocumentHub detach() {
+        DocumentHub previous = this.hub;
+        this.hub = null;
+        if (previous != null) {
+            documents.tryEmitNext(Flux.empty());
+        }
+        return previous;
+    }
+
+    /**
+     * 记录当前命令需要等待落盘的日志批次，在执行命令的工作线程上调用
+     *
+     * @param commit 日志批次的提交结果，为 null 时不需要等待
+     */
+    void awaitCommit(CompletableFuture<Void> commit) {
+        this.commit.set(commit);
+    }
+
+    /**
+     * 取出当前命令需要等待的日志批次，在执行命令的同一任务中调用
+     *
+     * @return 日志批次的提交结果，没有时返回 null
+     */
+    CompletableFuture<Void> takeCommit() {
+        CompletableFuture<Void> current = commit.get();
+        commit.remove();
+        return current;
+    }
+
+    /**
+     * 在顺序队列中执行命令：同一队列中前一条命令执行完成（或被取消）后才订阅该命令，不同队列之间互不等待
+     *
+     * @param lane 队列名称
+     * @param command 命令
+     * @return 排队后的命令
+     */
+    <T> Mono<T> inOrder(String lane, Mono<T> command) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = lanes.put(lane, done);
+        Mono<T> queued = previous == null || previous.isDone() ? command : Mono.fromFuture(previous, true).then(command);
+        return queued.doFinally(signal -> {
+            done.complete(null);
+            lanes.remove(lane, done); // 队列已空时不再保留
+        });
+    }
+
+    /**
+     * 结束增量流并取消跟踪和目录订阅
+     */
+    void close() {
+        closed = true;
+        listing.clear();
+        documents.tryEmitComplete();
+        synchronized (this) {
+            tails.tryEmitNext(Flux.empty()); // switchMap 在外层结束后仍等待当前的内层流，先换成空流
+            tails.tryEmitComplete();
+            watches.tryEmitNext(Flux.empty());
+            watches.tryEmitComplete();
+        }
+    }
+}
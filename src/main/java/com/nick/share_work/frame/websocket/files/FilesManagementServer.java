@@ -1,5 +1,7 @@
 package com.nick.share_work.frame.websocket.files;
 
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,12 +18,7 @@ public class FilesManagementServer {
     public static final String COND_KEY = "cond";
     public static final String VALUE_KEY = "value";
     public static final String LINE_KEY = "lineNum";
-
-    private String message;
-    private String path;
-    private String cond;
-    private String value;
-    private String line;
+    public static final String UNKNOWN = "unknown";
 
     @Autowired
     private PathManage pathManage;
@@ -29,51 +26,119 @@ public class FilesManagementServer {
     @Autowired
     private FileManage fileManage;
 
+    @Autowired
+    private TailManage tailManage;
+
+    @Autowired
+    private WatchManage watchManage;
+
+    @Autowired
+    private FilesMetrics metrics;
+
     /**
      * 处理 WebSocket 消息并根据消息内容调用相应的文件管理方法
      * 
-     * @param json JSON 格式的消息字符串
-     * @return 处理结果的 JSON 字符串
+     * @param session 发送消息的文件会话
+     * @param wsmb 由 JSON 或二进制帧解码得到的消息，解码失败时为 null
+     * @return 处理结果
      */
-    public String getMsg(String json) {
+    public WebSocketMessageBody getMsg(FileSession session, WebSocketMessageBody wsmb) {
+        long start = System.nanoTime();
+        WebSocketMessageBody response = handle(session, wsmb);
+        metrics.command(wsmb == null ? null : wsmb.getMessage(), response.isError(), System.nanoTime() - start);
+        return response;
+    }
+
+    private WebSocketMessageBody handle(FileSession session, WebSocketMessageBody wsmb) {
+        if (wsmb == null || wsmb.getMessage() == null) {
+            return WebSocketMessageBody.error(UNKNOWN, "Invalid message");
+        }
+        String message = wsmb.getMessage();
         try {
-            // 将 JSON 字符串反序列化为 WebSocketMessageBody 对象
-            WebSocketMessageBody wsmb = WebSocketMessageBody.fromJson(json);
-            this.message = wsmb.getMessage();
-            this.path = wsmb.getValue().get(PATH_KEY);
-            this.cond = wsmb.getValue().get(COND_KEY);
-            this.value = wsmb.getValue().get(VALUE_KEY);
-            this.line = wsmb.getValue().get(LINE_KEY);
-            LOGGER.debug("message: {}, path: {}, cond: {}, value: {}, line: {}", message, path, cond, value, line);
+            Map<String, String> values = wsmb.getValue() == null ? Map.of() : wsmb.getValue();
+            String path = values.get(PATH_KEY);
+            String cond = values.get(COND_KEY);
+            String value = values.get(VALUE_KEY);
+            String line = values.get(LINE_KEY);
+            if (LOGGER.isDebugEnabled()) { // 多个参数会分配数组，未开启时跳过
+                LOGGER.debug("message: {}, path: {}, cond: {}, value: {}, line: {}", message, path, cond, value, line);
+            }
             
             // 根据消息类型调用相应的处理方法
-            switch (this.message) {
+            switch (message) {
                 case PathManage.EACH:
-                    return pathManage.each();
+                    return pathManage.each(session);
                 case PathManage.SEARCH:
-                    return pathManage.search(cond);
+                    return pathManage.search(session, cond);
                 case PathManage.CREATE:
-                    return pathManage.create(path);
+                    return pathManage.create(session, path);
                 case PathManage.DELETE:
-                    return pathManage.delete(path);
+                    return pathManage.delete(session, path);
                 case PathManage.END:
-                    return pathManage.end();
+                    return pathManage.end(session);
                 case FileManage.OPEN:
-                    return fileManage.open(path);
+                    return fileManage.open(session, path);
                 case FileManage.SAVE:
-                    return fileManage.save();
+                    return fileManage.save(session);
                 case FileManage.END:
-                    return fileManage.end();
+                    return fileManage.end(session);
                 case FileManage.READE_LINE:
-                    return fileManage.readLine(line);
+                    return fileManage.readLine(session, line);
                 case FileManage.WRITE_LINE:
-                    return fileManage.writeLine(line, value);
+                    return fileManage.writeLine(session, line, value, wsmb.getVersion());
+                case FileManage.VERSIONS:
+                    return fileManage.versions(path);
+                case FileManage.RESTORE:
+                    return fileManage.restore(session, path, value);
+                case FileManage.RELOAD:
+                    return fileManage.reload(session);
+                case TailManage.TAIL:
+                    return tailManage.tail(session, path);
+                case TailManage.UNTAIL:
+                    return tailManage.untail(session);
+                case WatchManage.WATCH:
+                    return watchManage.watch(session, path);
+                case WatchManage.UNWATCH:
+                    return watchManage.unwatch(session);
                 default:
                     return WebSocketMessageBody.error(message, "Unkonwn message type");
             }
         } catch (Exception e) {
             LOGGER.error("[ERROR] : {}", e);
-            return "ERROR";
+            return WebSocketMessageBody.error(message, "Server error");
+        }
+    }
+
+    /**
+     * 带 requestId 的命令所在的顺序队列。同一队列的命令按到达顺序执行，
+     * 不同队列的命令可以同时执行、乱序返回，例如慢的 path_search 不会挡住之后的 file_read_line
+     *
+     * @param message 命令名称
+     * @return 队列名称，不需要排队时返回 null
+     */
+    public static String lane(String message) {
+        switch (message) {
+            case PathManage.EACH, PathManage.SEARCH, PathManage.CREATE, PathManage.DELETE, PathManage.END:
+                return "path"; // 共用会话的路径列表
+            case FileManage.OPEN, FileManage.SAVE, FileManage.END, FileManage.READE_LINE, FileManage.WRITE_LINE,
+                    FileManage.VERSIONS, FileManage.RESTORE, FileManage.RELOAD:
+                return "file"; // 共用会话打开的文档，写入后的读取须看到写入
+            case TailManage.TAIL, TailManage.UNTAIL:
+                return "tail";
+            case WatchManage.WATCH, WatchManage.UNWATCH:
+                return "watch";
+            default:
+                return null;
         }
     }
+
+    /**
+     * 会话断开时释放其占用的共享文档、路径列表、文件跟踪和目录订阅，可重复调用
+     * 
+     * @param session 文件会话
+     */
+    public void release(FileSession session) {
+        session.close(); // 先标记断开，之后才执行的 open 会自行释放文档
+        fileManage.leave(session);
+    }
 }
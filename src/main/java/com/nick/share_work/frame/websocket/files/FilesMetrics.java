@@ -0,0 +1,459 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 文件管理的指标。
+ * 标签只取固定的几个值（命令名称、结果、操作、锁名称），避免把路径或用户名放进标签。
+ *
+ * @author nick
+ */
+@Component
+public class FilesMetrics {
+
+    // 可以作为标签的命令名称，其余一律记为 unknown
+    private static final Set<String> MESSAGES = Set.of(
+            PathManage.EACH, PathManage.SEARCH, PathManage.CREATE, PathManage.DELETE, PathManage.END,
+            FileManage.OPEN, FileManage.SAVE, FileManage.END, FileManage.READE_LINE, FileManage.WRITE_LINE,
+            FileManage.VERSIONS, FileManage.RESTORE, FileManage.RELOAD, TailManage.TAIL, TailManage.UNTAIL,
+            WatchManage.WATCH, WatchManage.UNWATCH);
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> commands = new ConcurrentHashMap<>(); // 命令名称 + 结果 -> 计时器
+    private final Map<String, Timer> schedulerWaits = new ConcurrentHashMap<>(); // 命令类别 -> 排队时间的计时器
+    private final Map<String, Timer> schedulerRuns = new ConcurrentHashMap<>(); // 命令类别 -> 执行时间的计时器
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>(); // 其它指标名称 + 标签值 -> 计时器
+    private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>(); // 指标名称 + 标签值 -> 分布
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>(); // 指标名称 + 标签值 -> 计数器
+    private final AtomicLong offHeapBytes = new AtomicLong(); // 堆外行存储分配的直接内存
+    private final AtomicLong tailFiles = new AtomicLong(); // 正在跟踪的文件数
+    private final AtomicLong watchDirectories = new AtomicLong(); // 目录订阅注册的目录数
+    private final Counter deltasDropped; // 被丢弃的增量
+    private final Counter deltaResyncs; // 以完整快照重新同步的次数
+
+    public FilesMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("files.document.offheap.bytes", offHeapBytes, AtomicLong::get)
+                .description("Direct memory allocated by off-heap document line storage")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("files.tail.files", tailFiles, AtomicLong::get)
+                .description("Files currently followed by file_tail subscriptions")
+                .register(meterRegistry);
+        Gauge.builder("files.watch.directories", watchDirectories, AtomicLong::get)
+                .description("Directories registered with the watch service for path_watch subscriptions")
+                .register(meterRegistry);
+        deltasDropped = Counter.builder("files.document.deltas.dropped")
+                .description("file_delta messages dropped from a slow session's buffer")
+                .register(meterRegistry);
+        deltaResyncs = Counter.builder("files.document.resyncs")
+                .description("Full snapshots sent to sessions that missed file_delta messages")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一条命令的处理时间
+     *
+     * @param message 命令名称
+     * @param error 是否返回了错误
+     * @param nanos 耗时，单位纳秒
+     */
+    public void command(String message, boolean error, long nanos) {
+        String tag = MESSAGES.contains(message) ? message : FilesManagementServer.UNKNOWN;
+        String outcome = error ? "error" : "success";
+        commands.computeIfAbsent(tag + '/' + outcome, k -> Timer.builder("files.command")
+                        .description("Time to handle a /files_connect command")
+                        .tags("message", tag, "outcome", outcome)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一条命令在调度器中排队的时间
+     *
+     * @param priority 命令类别，interactive 或 bulk
+     * @param nanos 从提交到开始执行的时间，单位纳秒
+     */
+    public void schedulerWait(String priority, long nanos) {
+        schedulerWaits.computeIfAbsent(priority, k -> Timer.builder("files.scheduler.wait")
+                        .description("Time a file command waits in the scheduler before a worker starts it")
+                        .tags("priority", priority)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一条命令在工作线程上的执行时间
+     *
+     * @param priority 命令类别，interactive 或 bulk
+     * @param nanos 执行时间，单位纳秒
+     */
+    public void schedulerRun(String priority, long nanos) {
+        schedulerRuns.computeIfAbsent(priority, k -> Timer.builder("files.scheduler.run")
+                        .description("Time a worker spends executing a file command")
+                        .tags("priority", priority)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 登记一类命令排队的命令数
+     *
+     * @param priority 命令类别，interactive 或 bulk
+     * @param pending 所有用户排队的命令数
+     */
+    public void schedulerPending(String priority, Supplier<Number> pending) {
+        Gauge.builder("files.scheduler.pending", pending)
+                .description("File commands queued in the scheduler, by priority")
+                .tags("priority", priority)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次读取或写入整个文件
+     *
+     * @param operation open、save 或 reload
+     * @param bytes 文件字节数，只读取追加部分的 reload 为追加的字节数
+     * @param lines 行数
+     * @param nanos 耗时，单位纳秒
+     */
+    public void document(String operation, long bytes, int lines, long nanos) {
+        timers.computeIfAbsent("files.document.io/" + operation, k -> Timer.builder("files.document.io")
+                        .description("Time to read or write a whole document")
+                        .tags("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        summaries.computeIfAbsent("files.document.bytes/" + operation, k -> DistributionSummary.builder("files.document.bytes")
+                        .description("Size of documents read or written")
+                        .baseUnit("bytes")
+                        .tags("operation", operation)
+                        .register(meterRegistry))
+                .record(bytes);
+        summaries.computeIfAbsent("files.document.lines/" + operation, k -> DistributionSummary.builder("files.document.lines")
+                        .description("Lines in documents read or written")
+                        .tags("operation", operation)
+                        .register(meterRegistry))
+                .record(lines);
+    }
+
+    /**
+     * 记录一条因会话发送跟不上而被丢弃的增量
+     */
+    public void deltaDropped() {
+        deltasDropped.increment();
+    }
+
+    /**
+     * 记录一次因丢失增量而推送的完整快照
+     */
+    public void deltaResync() {
+        deltaResyncs.increment();
+    }
+
+    /**
+     * 记录一次打开文档时的缓存查找
+     *
+     * @param hit 文档已在内存中返回 true，需要从磁盘读取返回 false
+     */
+    public void documentCache(boolean hit) {
+        counters.computeIfAbsent("files.document.cache.requests/" + (hit ? "hit" : "miss"), k -> Counter.builder("files.document.cache.requests")
+                        .description("Document opens served from memory (hit) or read from disk (miss)")
+                        .tags("result", hit ? "hit" : "miss")
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录一次保存或重新读取前对磁盘上文件的检查
+     *
+     * @param result unchanged 为属性没有变化，touched 为属性变化但内容相同，merged 为合并了磁盘上的修改，
+     *               conflict 为无法合并，appended 为只读取了追加的部分，reloaded 为重新读取了整个文件
+     */
+    public void diskChange(String result) {
+        counters.computeIfAbsent("files.document.disk.changes/" + result, k -> Counter.builder("files.document.disk.changes")
+                        .description("Checks of a document's file on disk before save or reload, by result")
+                        .tags("result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录一次文档缓存淘汰
+     *
+     * @param reason size 为超出内存预算，stale 为磁盘上的文件已被修改
+     */
+    public void documentEviction(String reason) {
+        counters.computeIfAbsent("files.document.cache.evictions/" + reason, k -> Counter.builder("files.document.cache.evictions")
+                        .description("Cached documents dropped from memory")
+                        .tags("reason", reason)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 登记文档缓存的大小
+     *
+     * @param entries 缓存的文档数
+     * @param bytes 缓存的文档占用堆内存的估算值
+     */
+    public void documentCacheGauges(Supplier<Number> entries, Supplier<Number> bytes) {
+        Gauge.builder("files.document.cache.entries", entries)
+                .description("Documents kept in memory with no session attached")
+                .register(meterRegistry);
+        Gauge.builder("files.document.cache.bytes", bytes)
+                .description("Estimated heap retained by cached documents with no session attached")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录堆外行存储分配或释放的直接内存
+     *
+     * @param bytes 分配为正数，释放为负数
+     */
+    public void offHeap(long bytes) {
+        offHeapBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 记录一次历史版本的写入或重建
+     *
+     * @param operation full 或 delta 为写入的记录种类，rebuild 为重建一个版本
+     * @param bytes 写入时为压缩后的记录大小，重建时为版本内容的大小
+     * @param nanos 耗时，单位纳秒
+     */
+    public void history(String operation, long bytes, long nanos) {
+        timers.computeIfAbsent("files.history/" + operation, k -> Timer.builder("files.history")
+                        .description("Time to record or rebuild a file version")
+                        .tags("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        summaries.computeIfAbsent("files.history.bytes/" + operation, k -> DistributionSummary.builder("files.history.bytes")
+                        .description("Compressed size of recorded versions, or size of rebuilt versions")
+                        .baseUnit("bytes")
+                        .tags("operation", operation)
+                        .register(meterRegistry))
+                .record(bytes);
+    }
+
+    /**
+     * 记录未保存修改日志的一次成组提交
+     *
+     * @param operations 这一批的操作数
+     * @param syncs fsync 的日志文件数
+     * @param bytes 写入的字节数
+     * @param nanos 写入和 fsync 的耗时，单位纳秒
+     */
+    public void journal(int operations, int syncs, long bytes, long nanos) {
+        timers.computeIfAbsent("files.journal.commit", k -> Timer.builder("files.journal.commit")
+                        .description("Time to write and fsync one batch of the edit journal")
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        summaries.computeIfAbsent("files.journal.batch", k -> DistributionSummary.builder("files.journal.batch")
+                        .description("Journal operations committed together in one batch")
+                        .register(meterRegistry))
+                .record(operations);
+        summaries.computeIfAbsent("files.journal.syncs", k -> DistributionSummary.builder("files.journal.syncs")
+                        .description("Journal files fsynced in one batch")
+                        .register(meterRegistry))
+                .record(syncs);
+        summaries.computeIfAbsent("files.journal.bytes", k -> DistributionSummary.builder("files.journal.bytes")
+                        .description("Bytes appended to the edit journal in one batch")
+                        .baseUnit("bytes")
+                        .register(meterRegistry))
+                .record(bytes);
+    }
+
+    /**
+     * 记录一次自动保存
+     *
+     * @param result saved 为已保存，clean 为到期时已没有未保存的修改，conflict 为与磁盘上的修改冲突，failed 为保存失败
+     */
+    public void autosave(String result) {
+        counters.computeIfAbsent("files.autosave/" + result, k -> Counter.builder("files.autosave")
+                        .description("Scheduled autosaves by result")
+                        .tags("result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录开始或停止跟踪文件
+     *
+     * @param delta 跟踪的文件数的变化
+     */
+    public void tailFiles(int delta) {
+        tailFiles.addAndGet(delta);
+    }
+
+    /**
+     * 记录一次从跟踪的文件读取追加的内容
+     *
+     * @param bytes 读取的字节数
+     */
+    public void tailRead(long bytes) {
+        if (bytes > 0) {
+            summaries.computeIfAbsent("files.tail.bytes", k -> DistributionSummary.builder("files.tail.bytes")
+                            .description("Bytes appended to a followed file and read in one poll")
+                            .baseUnit("bytes")
+                            .register(meterRegistry))
+                    .record(bytes);
+        }
+    }
+
+    /**
+     * 记录推送的新行
+     *
+     * @param lines 行数
+     */
+    public void tailLines(int lines) {
+        counters.computeIfAbsent("files.tail.lines", k -> Counter.builder("files.tail.lines")
+                        .description("Lines read from followed files and pushed to subscribers")
+                        .register(meterRegistry))
+                .increment(lines);
+    }
+
+    /**
+     * 记录一条因订阅者发送跟不上而被丢弃的推送消息
+     */
+    public void tailDropped() {
+        counters.computeIfAbsent("files.tail.dropped", k -> Counter.builder("files.tail.dropped")
+                        .description("file_tail_lines messages dropped from a slow subscriber's buffer")
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录跟踪的文件被轮转或截断
+     *
+     * @param event rotated 为路径上换成了另一个文件，truncated 为文件变短
+     */
+    public void tailEvent(String event) {
+        counters.computeIfAbsent("files.tail.events/" + event, k -> Counter.builder("files.tail.events")
+                        .description("Followed files that were rotated or truncated")
+                        .tags("event", event)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录注册或取消注册目录
+     *
+     * @param delta 注册的目录数的变化
+     */
+    public void watchDirectories(int delta) {
+        watchDirectories.addAndGet(delta);
+    }
+
+    /**
+     * 记录收到的目录变化事件
+     *
+     * @param source filesystem 为文件系统的事件，local 为本进程报告的修改
+     * @param events 事件数
+     */
+    public void watchEvents(String source, int events) {
+        counters.computeIfAbsent("files.watch.events/" + source, k -> Counter.builder("files.watch.events")
+                        .description("Directory change events received before coalescing, by source")
+                        .tags("source", source)
+                        .register(meterRegistry))
+                .increment(events);
+    }
+
+    /**
+     * 记录一次推送的目录变化批次
+     *
+     * @param overflow 是否因变化太多只推送了 overflow
+     * @param paths 批次中的路径数，overflow 时为 0
+     */
+    public void watchBatch(boolean overflow, int paths) {
+        summaries.computeIfAbsent("files.watch.batch.paths/" + (overflow ? "overflow" : "changes"), k -> DistributionSummary.builder("files.watch.batch.paths")
+                        .description("Paths in one path_changes batch")
+                        .tags("result", overflow ? "overflow" : "changes")
+                        .register(meterRegistry))
+                .record(paths);
+    }
+
+    /**
+     * 记录一条因订阅者发送跟不上而被丢弃的目录变化消息
+     */
+    public void watchDropped() {
+        counters.computeIfAbsent("files.watch.dropped", k -> Counter.builder("files.watch.dropped")
+                        .description("path_changes messages dropped from a slow subscriber's buffer")
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录一次可合并的请求
+     *
+     * @param operation each 或 search
+     * @param result computed 为执行了计算，joined 为等待同时进行的计算，cached 为复用了缓存的结果
+     */
+    public void coalesce(String operation, String result) {
+        counters.computeIfAbsent("files.path.coalesce/" + operation + '/' + result, k -> Counter.builder("files.path.coalesce")
+                        .description("Walk requests computed, joined to an identical in-flight walk, or served from the short-lived cache")
+                        .tags("operation", operation, "result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * 记录一次目录遍历
+     *
+     * @param operation each 或 search
+     * @param visited 遍历到的路径数
+     * @param nanos 耗时，单位纳秒
+     */
+    public void walk(String operation, long visited, long nanos) {
+        timers.computeIfAbsent("files.path.walk/" + operation, k -> Timer.builder("files.path.walk")
+                        .description("Time to walk the files base path")
+                        .tags("operation", operation)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        summaries.computeIfAbsent("files.path.visited/" + operation, k -> DistributionSummary.builder("files.path.visited")
+                        .description("Paths visited while walking the files base path")
+                        .tags("operation", operation)
+                        .register(meterRegistry))
+                .record(visited);
+    }
+
+    /**
+     * 创建记录等待时间和持有时间的锁，同名的锁共用指标
+     *
+     * @param name 锁名称
+     * @return 锁
+     */
+    public TimedLock lock(String name) {
+        return new TimedLock(
+                Timer.builder("files.lock.wait")
+                        .description("Time spent waiting to acquire a lock")
+                        .tags("lock", name)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry),
+                Timer.builder("files.lock.hold")
+                        .description("Time a lock is held")
+                        .tags("lock", name)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+}
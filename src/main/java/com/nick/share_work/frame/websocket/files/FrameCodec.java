@@ -0,0 +1,31 @@
+package com.nick.share_work.frame.websocket.files;
+
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+/**
+ * 文件管理 WebSocket 帧的编解码器，握手时根据子协议选择具体实现。
+ *
+ * @author nick
+ */
+public interface FrameCodec {
+
+    /**
+     * 将收到的 WebSocket 帧解码为消息
+     *
+     * @param message WebSocket 帧
+     * @return 消息对象，解码失败时返回 null
+     */
+    WebSocketMessageBody decode(WebSocketMessage message);
+
+    /**
+     * 将消息编码为要发送的 WebSocket 帧
+     *
+     * @param session 当前的 WebSocket 会话
+     * @param body 消息对象
+     * @return WebSocket 帧
+     */
+    WebSocketMessage encode(WebSocketSession session, WebSocketMessageBody body);
+}
@@ -0,0 +1,158 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 堆内的行存储，每行一个 String，按行号放在 {@link LineTrie} 的叶子中。
+ *
+ * @author nick
+ */
+class HeapLineStore implements LineStore {
+
+    // 每行的固定开销估算：String 对象及其数组头、叶子中的引用和分摊的树节点，以及版本表中的条目
+    private static final int LINE_OVERHEAD = 120;
+
+    private final LineTrie lines = new LineTrie(() -> new String[LineTrie.WIDTH]); // 行号 -> 行内容
+    private int size; // 行数
+    private long textBytes; // 行内容的总字符数
+    private Snapshot snapshot; // 最近一次取得的快照，之后有写入时为 null
+
+    @Override
+    public void load(InputStream in) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 1;
+        while ((line = br.readLine()) != null) {
+            put(lineNumber++, line);
+        }
+    }
+
+    @Override
+    public String get(int line) {
+        return get(lines.root(), line);
+    }
+
+    @Override
+    public void put(int line, String text) {
+        String[] leaf = (String[]) lines.leafForWrite(line);
+        String previous = leaf[line & LineTrie.MASK];
+        leaf[line & LineTrie.MASK] = text;
+        if (previous == null) {
+            size++;
+        }
+        textBytes += text.length() - (previous == null ? 0 : previous.length());
+        snapshot = null;
+    }
+
+    @Override
+    public void remove(int line) {
+        if (get(line) == null) {
+            return; // 不复制路径
+        }
+        String[] leaf = (String[]) lines.leafForWrite(line);
+        String previous = leaf[line & LineTrie.MASK];
+        leaf[line & LineTrie.MASK] = null;
+        size--;
+        textBytes -= previous.length();
+        snapshot = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(LineConsumer consumer) {
+        forEach(lines.root(), consumer);
+    }
+
+    @Override
+    public void write(OutputStream out, byte[] separator) throws IOException {
+        write(lines.root(), out, separator);
+    }
+
+    @Override
+    public long textBytes() {
+        return textBytes;
+    }
+
+    @Override
+    public LineView snapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(lines.freeze(), size, textBytes);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public long retainedBytes() {
+        return (long) size * LINE_OVERHEAD + textBytes;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        lines.clear();
+        size = 0;
+        textBytes = 0;
+        snapshot = null;
+    }
+
+    private static String get(LineTrie.Root root, int line) {
+        String[] leaf = (String[]) root.leaf(line);
+        return leaf == null ? null : leaf[line & LineTrie.MASK];
+    }
+
+    private static void forEach(LineTrie.Root root, LineConsumer consumer) {
+        root.forEachLeaf((first, leaf) -> {
+            String[] texts = (String[]) leaf;
+            for (int i = 0; i < texts.length; i++) {
+                if (texts[i] != null) {
+                    consumer.accept(first + i, texts[i]);
+                }
+            }
+        });
+    }
+
+    private static void write(LineTrie.Root root, OutputStream out, byte[] separator) throws IOException {
+        root.<IOException>forEachLeaf((first, leaf) -> {
+            for (String text : (String[]) leaf) {
+                if (text != null) {
+                    out.write(text.getBytes(StandardCharsets.UTF_8));
+                    out.write(separator);
+                }
+            }
+        });
+    }
+
+    /**
+     * 某一时刻的内容
+     */
+    private record Snapshot(LineTrie.Root root, int size, long textBytes) implements LineView {
+
+        @Override
+        public String get(int line) {
+            return HeapLineStore.get(root, line);
+        }
+
+        @Override
+        public void forEach(LineConsumer consumer) {
+            HeapLineStore.forEach(root, consumer);
+        }
+
+        @Override
+        public void write(OutputStream out, byte[] separator) throws IOException {
+            HeapLineStore.write(root, out, separator);
+        }
+    }
+}
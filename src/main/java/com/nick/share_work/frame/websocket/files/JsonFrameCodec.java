@@ -0,0 +1,26 @@
+package com.nick.share_work.frame.websocket.files;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+/**
+ * 默认的 JSON 文本帧编解码器
+ *
+ * @author nick
+ */
+@Component
+public class JsonFrameCodec implements FrameCodec {
+
+    @Override
+    public WebSocketMessageBody decode(WebSocketMessage message) {
+        return WebSocketMessageBody.fromJson(message.getPayloadAsText());
+    }
+
+    @Override
+    public WebSocketMessage encode(WebSocketSession session, WebSocketMessageBody body) {
+        return session.textMessage(body.toJson());
+    }
+}
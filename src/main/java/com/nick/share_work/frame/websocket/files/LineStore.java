@@ -0,0 +1,63 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 共享文档的行存储，行号从 1 开始，允许不连续。
+ * 写入不是线程安全的，由 {@link DocumentHub} 在自己的锁内进行；{@link #snapshot()} 返回的快照不可变，读取不需要加锁。
+ *
+ * @author nick
+ */
+interface LineStore extends LineView {
+
+    /**
+     * 从输入流按行读取内容，行结束符与 {@link java.io.BufferedReader#readLine()} 一致
+     *
+     * @param in UTF-8 编码的输入流
+     * @throws IOException 读取失败时抛出
+     */
+    void load(InputStream in) throws IOException;
+
+    /**
+     * 写入指定行，行不存在时新增
+     *
+     * @param line 行号，不小于 1
+     * @param text 行内容
+     */
+    void put(int line, String text);
+
+    /**
+     * 删除指定行，行不存在时不做任何事
+     *
+     * @param line 行号，不小于 1
+     */
+    void remove(int line);
+
+    /**
+     * 当前内容的不可变快照，与存储共享未修改的部分，耗时与行数无关。
+     * 之后的写入只复制被修改的路径，不影响已取得的快照；存储关闭后快照仍然可以读取
+     *
+     * @return 快照
+     */
+    LineView snapshot();
+
+    /**
+     * 占用内存的估算值，包括堆外内存
+     *
+     * @return 字节数
+     */
+    long retainedBytes();
+
+    /**
+     * 行内容是否保存在堆外。堆外存储的文档不缓存快照，避免把所有行重新解码到堆上
+     *
+     * @return 堆外存储返回 true
+     */
+    boolean isOffHeap();
+
+    /**
+     * 释放占用的内存，之后不能再写入
+     */
+    void close();
+}
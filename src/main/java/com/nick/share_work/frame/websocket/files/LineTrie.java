@@ -0,0 +1,178 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.util.function.Supplier;
+
+/**
+ * 以行号为下标的持久化 32 叉前缀树，是 {@link LineStore} 的索引。
+ * 写入时只复制从根到叶子的路径（每层一个 32 槽的数组），旧的根仍然表示写入前的完整内容，因此取快照只需要记下当前的根。
+ * 叶子是 32 个槽位的数组，类型由存储决定：堆内为 String[]，堆外为 long[]（行内容的位置）。
+ * 上一次 {@link #freeze()} 之后新建的节点还没有被任何快照引用，可以原地修改，连续写入（例如读取文件）不会反复复制。
+ * 写入不是线程安全的；{@link Root} 不可变，可以并发读取。
+ *
+ * @author nick
+ */
+final class LineTrie {
+    static final int BITS = 5;
+    static final int WIDTH = 1 << BITS;
+    static final int MASK = WIDTH - 1;
+
+    private final Supplier<Object> newLeaf; // 创建空的叶子
+    private Node root; // 根节点，为 null 表示没有任何行
+    private int shift; // 根节点所在的层 * BITS，0 表示根节点就是叶子
+    private Object edit = new Object(); // 当前写入批次，属于该批次的节点可以原地修改
+    private Root frozen; // 最近一次冻结的根，之后有写入时为 null
+
+    LineTrie(Supplier<Object> newLeaf) {
+        this.newLeaf = newLeaf;
+    }
+
+    /**
+     * 当前内容的只读视图，只在写入方自己的线程上使用，之后的写入可能修改它引用的节点
+     *
+     * @return 当前的根
+     */
+    Root root() {
+        return frozen != null ? frozen : new Root(root, shift);
+    }
+
+    /**
+     * 冻结当前内容，之后的写入不再修改它引用的任何节点
+     *
+     * @return 不可变的根
+     */
+    Root freeze() {
+        if (frozen == null) {
+            frozen = new Root(root, shift);
+            edit = new Object();
+        }
+        return frozen;
+    }
+
+    /**
+     * 取得包含指定行的可写叶子，必要时增加层数、复制已冻结的路径
+     *
+     * @param line 行号，不小于 0
+     * @return 叶子数组，槽位为 line &amp; MASK
+     */
+    Object leafForWrite(int line) {
+        if (line < 0) {
+            throw new IllegalArgumentException("Invalid line number : " + line);
+        }
+        while (!covers(shift, line)) {
+            if (root != null) {
+                Node[] children = new Node[WIDTH];
+                children[0] = root;
+                root = new Node(edit, children);
+            }
+            shift += BITS;
+        }
+        frozen = null;
+        root = editable(root, shift);
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            Node[] children = (Node[]) node.array;
+            int index = (line >>> level) & MASK;
+            Node child = editable(children[index], level - BITS);
+            children[index] = child;
+            node = child;
+        }
+        return node.array;
+    }
+
+    /**
+     * 清空所有行，已取得的根不受影响
+     */
+    void clear() {
+        root = null;
+        shift = 0;
+        frozen = null;
+        edit = new Object();
+    }
+
+    private Node editable(Node node, int level) {
+        if (node == null) {
+            return new Node(edit, level == 0 ? newLeaf.get() : new Node[WIDTH]);
+        }
+        if (node.edit == edit) {
+            return node;
+        }
+        Object copy = node.array instanceof long[] refs ? refs.clone() : ((Object[]) node.array).clone();
+        return new Node(edit, copy);
+    }
+
+    private static boolean covers(int shift, int line) {
+        return shift + BITS >= Integer.SIZE || line >>> (shift + BITS) == 0;
+    }
+
+    /**
+     * 树的节点。内部节点的数组为 Node[]，叶子为存储定义的数组
+     *
+     * @param edit 创建该节点的写入批次
+     * @param array 子节点或叶子
+     */
+    private record Node(Object edit, Object array) {
+    }
+
+    /**
+     * 某一时刻的整棵树
+     *
+     * @param node 根节点，为 null 表示没有任何行
+     * @param shift 根节点所在的层 * BITS
+     */
+    record Root(Node node, int shift) {
+
+        /**
+         * 包含指定行的叶子
+         *
+         * @param line 行号
+         * @return 叶子数组，槽位为 line &amp; MASK，整个叶子都不存在时返回 null
+         */
+        Object leaf(int line) {
+            if (line < 0 || !covers(shift, line)) {
+                return null;
+            }
+            Node current = node;
+            for (int level = shift; level > 0 && current != null; level -= BITS) {
+                current = ((Node[]) current.array)[(line >>> level) & MASK];
+            }
+            return current == null ? null : current.array;
+        }
+
+        /**
+         * 按行号顺序遍历所有叶子
+         *
+         * @param consumer 叶子处理函数
+         */
+        <E extends Exception> void forEachLeaf(LeafConsumer<E> consumer) throws E {
+            forEachLeaf(node, shift, 0, consumer);
+        }
+
+        private static <E extends Exception> void forEachLeaf(Node node, int level, int first,
+                LeafConsumer<E> consumer) throws E {
+            if (node == null) {
+                return;
+            }
+            if (level == 0) {
+                consumer.accept(first, node.array);
+                return;
+            }
+            Node[] children = (Node[]) node.array;
+            for (int i = 0; i < WIDTH; i++) {
+                forEachLeaf(children[i], level - BITS, first + (i << level), consumer);
+            }
+        }
+    }
+
+    /**
+     * 叶子处理函数
+     */
+    @FunctionalInterface
+    interface LeafConsumer<E extends Exception> {
+
+        /**
+         * @param first 叶子第一个槽位的行号
+         * @param leaf 叶子数组
+         */
+        void accept(int first, Object leaf) throws E;
+    }
+}
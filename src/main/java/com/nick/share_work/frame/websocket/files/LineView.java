@@ -0,0 +1,59 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 共享文档内容的只读视图，行号从 1 开始，允许不连续。
+ * {@link LineStore#snapshot()} 返回的视图不可变，可以在任意线程上不加锁地并发读取。
+ *
+ * @author nick
+ */
+interface LineView {
+
+    /**
+     * 读取指定行
+     *
+     * @param line 行号
+     * @return 行内容，不存在时返回 null
+     */
+    String get(int line);
+
+    /**
+     * 行数
+     *
+     * @return 行数
+     */
+    int size();
+
+    /**
+     * 按行号顺序遍历所有行
+     *
+     * @param consumer 行处理函数
+     */
+    void forEach(LineConsumer consumer);
+
+    /**
+     * 按行号顺序把所有行以 UTF-8 写入输出流
+     *
+     * @param out 输出流
+     * @param separator 行分隔符
+     * @throws IOException 写入失败时抛出
+     */
+    void write(OutputStream out, byte[] separator) throws IOException;
+
+    /**
+     * 行内容的总长度，用于估算序列化后的大小
+     *
+     * @return 字符数或字节数
+     */
+    long textBytes();
+
+    /**
+     * 行处理函数
+     */
+    @FunctionalInterface
+    interface LineConsumer {
+        void accept(int line, String text);
+    }
+}
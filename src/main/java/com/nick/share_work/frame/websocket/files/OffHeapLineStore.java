@@ -0,0 +1,361 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 堆外的行存储。
+ * 行内容以 4 字节长度加 UTF-8 字节追加写入直接内存块，堆上只保留 {@link LineTrie} 中每行一个 long 的位置
+ * （块序号 &lt;&lt; 32 | 块内偏移）。读取或发送某一行时才解码为 String，保存时直接复制字节。
+ * 覆盖写入的旧内容留在原处，垃圾超过存活内容的一半时整体压缩到新的内存块。
+ * 已写入的字节不再修改，快照引用的内存块在快照不再使用后才被回收，因此快照在压缩和关闭之后仍然可以读取。
+ *
+ * @author nick
+ */
+class OffHeapLineStore implements LineStore {
+
+    // 第一个内存块的大小，之后每块翻倍直到 MAX_CHUNK_SIZE，小文档不会占用整块
+    private static final int MIN_CHUNK_SIZE = 4096;
+    // 内存块的最大大小，超过该大小的行单独分配一块
+    private static final int MAX_CHUNK_SIZE = 1 << 20;
+    // 触发压缩的最小垃圾字节数
+    private static final long COMPACT_THRESHOLD = 1 << 20;
+    // 读取文件时的缓冲区大小
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // 每行在堆上的开销估算：叶子中的 long 和分摊的树节点
+    private static final int REF_BYTES = 10;
+    // 叶子中没有该行
+    private static final long ABSENT = -1;
+
+    private final FilesMetrics metrics; // 指标，登记直接内存的分配和释放
+    private LineTrie lines = newIndex(); // 行号 -> 行内容的位置，压缩时整体替换
+    private ByteBuffer[] chunks = new ByteBuffer[8]; // 直接内存块，只在末尾追加，快照共享同一个数组
+    private int chunkCount; // 已分配的内存块数
+    private int current = -1; // 正在追加的内存块序号
+    private int position; // 正在追加的内存块的写入位置
+    private int size; // 行数
+    private long liveBytes; // 存活行内容的字节数
+    private long garbageBytes; // 被覆盖的行内容（含长度）的字节数
+    private long allocatedBytes; // 已分配的直接内存字节数
+    private Snapshot snapshot; // 最近一次取得的快照，之后有写入时为 null
+
+    OffHeapLineStore(FilesMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void load(InputStream in) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        byte[] line = new byte[256];
+        int length = 0;
+        int lineNumber = 1;
+        boolean cr = false; // 上一个字节是 \r，紧跟的 \n 不再作为新的一行
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    if (b == '\n' && cr) {
+                        cr = false;
+                        continue;
+                    }
+                    cr = b == '\r';
+                    put(lineNumber++, line, length);
+                    length = 0;
+                    continue;
+                }
+                cr = false;
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+        }
+        if (length > 0) {
+            put(lineNumber, line, length);
+        }
+    }
+
+    @Override
+    public String get(int line) {
+        return get(lines.root(), chunks, line);
+    }
+
+    @Override
+    public void put(int line, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        put(line, bytes, bytes.length);
+    }
+
+    @Override
+    public void remove(int line) {
+        long[] existing = (long[]) lines.root().leaf(line);
+        int slot = line & LineTrie.MASK;
+        if (existing == null || existing[slot] == ABSENT) {
+            return; // 不复制路径
+        }
+        long[] leaf = (long[]) lines.leafForWrite(line);
+        int previous = lengthAt(chunks, leaf[slot]);
+        leaf[slot] = ABSENT;
+        size--;
+        liveBytes -= previous;
+        garbageBytes += Integer.BYTES + previous;
+        snapshot = null;
+        if (garbageBytes > COMPACT_THRESHOLD && garbageBytes > liveBytes / 2) {
+            compact();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(LineConsumer consumer) {
+        forEach(lines.root(), chunks, consumer);
+    }
+
+    @Override
+    public void write(OutputStream out, byte[] separator) throws IOException {
+        write(lines.root(), chunks, out, separator);
+    }
+
+    @Override
+    public long textBytes() {
+        return liveBytes;
+    }
+
+    @Override
+    public LineView snapshot() {
+        if (snapshot == null) {
+            snapshot = new Snapshot(lines.freeze(), chunks, size, liveBytes);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public long retainedBytes() {
+        return (long) size * REF_BYTES + allocatedBytes;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        release(chunkCount);
+        chunks = new ByteBuffer[8];
+        chunkCount = 0;
+        lines.clear();
+        current = -1;
+        position = 0;
+        size = 0;
+        liveBytes = 0;
+        garbageBytes = 0;
+        snapshot = null;
+    }
+
+    private void put(int line, byte[] bytes, int length) {
+        long[] leaf = (long[]) lines.leafForWrite(line);
+        int slot = line & LineTrie.MASK;
+        if (leaf[slot] == ABSENT) {
+            size++;
+        } else {
+            int previous = lengthAt(chunks, leaf[slot]);
+            liveBytes -= previous;
+            garbageBytes += Integer.BYTES + previous;
+        }
+        leaf[slot] = append(bytes, length);
+        liveBytes += length;
+        snapshot = null;
+        if (garbageBytes > COMPACT_THRESHOLD && garbageBytes > liveBytes / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * 把长度和行内容追加到内存块中
+     *
+     * @return 行的位置
+     */
+    private long append(byte[] bytes, int length) {
+        long ref = reserve(Integer.BYTES + length);
+        ByteBuffer chunk = chunks[chunk(ref)];
+        chunk.putInt(offset(ref), length);
+        chunk.put(offset(ref) + Integer.BYTES, bytes, 0, length);
+        return ref;
+    }
+
+    private long reserve(int length) {
+        if (length > MAX_CHUNK_SIZE) {
+            return (long) add(allocate(length)) << 32; // 超大的行单独一块，不影响正在追加的块
+        }
+        if (current < 0 || position + length > chunks[current].capacity()) {
+            int previous = current < 0 ? MIN_CHUNK_SIZE / 2 : chunks[current].capacity();
+            current = add(allocate(Math.max(length, Math.min(MAX_CHUNK_SIZE, previous * 2))));
+            position = 0;
+        }
+        long ref = (long) current << 32 | position;
+        position += length;
+        return ref;
+    }
+
+    /**
+     * 追加一个内存块。数组已满时换成更大的副本，快照仍引用旧数组，其中已有的元素不会再被修改
+     *
+     * @return 块序号
+     */
+    private int add(ByteBuffer chunk) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        chunks[chunkCount] = chunk;
+        return chunkCount++;
+    }
+
+    /**
+     * 把存活的行内容按行号顺序复制到新的内存块，旧的内存块在引用它们的快照不再使用后回收
+     */
+    private void compact() {
+        ByteBuffer[] old = chunks;
+        LineTrie.Root previous = lines.root();
+        release(chunkCount);
+        chunks = new ByteBuffer[8];
+        chunkCount = 0;
+        current = -1;
+        position = 0;
+        lines = newIndex();
+        previous.forEachLeaf((first, leaf) -> {
+            long[] refs = (long[]) leaf;
+            for (int i = 0; i < refs.length; i++) {
+                if (refs[i] != ABSENT) {
+                    int length = Integer.BYTES + lengthAt(old, refs[i]);
+                    long ref = reserve(length);
+                    chunks[chunk(ref)].put(offset(ref), old[chunk(refs[i])], offset(refs[i]), length);
+                    ((long[]) lines.leafForWrite(first + i))[i] = ref;
+                }
+            }
+        });
+        garbageBytes = 0;
+        snapshot = null;
+    }
+
+    private ByteBuffer allocate(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        allocatedBytes += size;
+        metrics.offHeap(size);
+        return buffer;
+    }
+
+    /**
+     * 释放前 count 个内存块。直接内存在 ByteBuffer 对象被回收时归还，这里只更新统计
+     */
+    private void release(int count) {
+        long released = 0;
+        for (int i = 0; i < count; i++) {
+            released += chunks[i].capacity();
+        }
+        allocatedBytes -= released;
+        metrics.offHeap(-released);
+    }
+
+    private static LineTrie newIndex() {
+        return new LineTrie(() -> {
+            long[] refs = new long[LineTrie.WIDTH];
+            Arrays.fill(refs, ABSENT);
+            return refs;
+        });
+    }
+
+    private static String get(LineTrie.Root root, ByteBuffer[] chunks, int line) {
+        long[] leaf = (long[]) root.leaf(line);
+        if (leaf == null || leaf[line & LineTrie.MASK] == ABSENT) {
+            return null;
+        }
+        long ref = leaf[line & LineTrie.MASK];
+        byte[] bytes = new byte[lengthAt(chunks, ref)];
+        chunks[chunk(ref)].get(offset(ref) + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void forEach(LineTrie.Root root, ByteBuffer[] chunks, LineConsumer consumer) {
+        byte[][] buffer = {new byte[256]};
+        root.forEachLeaf((first, leaf) -> {
+            long[] refs = (long[]) leaf;
+            for (int i = 0; i < refs.length; i++) {
+                if (refs[i] == ABSENT) {
+                    continue;
+                }
+                int length = lengthAt(chunks, refs[i]);
+                if (buffer[0].length < length) {
+                    buffer[0] = new byte[Math.max(length, buffer[0].length * 2)];
+                }
+                chunks[chunk(refs[i])].get(offset(refs[i]) + Integer.BYTES, buffer[0], 0, length);
+                consumer.accept(first + i, new String(buffer[0], 0, length, StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    private static void write(LineTrie.Root root, ByteBuffer[] chunks, OutputStream out, byte[] separator)
+            throws IOException {
+        byte[] bytes = new byte[8192];
+        root.<IOException>forEachLeaf((first, leaf) -> {
+            for (long ref : (long[]) leaf) {
+                if (ref == ABSENT) {
+                    continue;
+                }
+                ByteBuffer chunk = chunks[chunk(ref)];
+                int offset = offset(ref) + Integer.BYTES;
+                int remaining = lengthAt(chunks, ref);
+                while (remaining > 0) {
+                    int n = Math.min(remaining, bytes.length);
+                    chunk.get(offset, bytes, 0, n);
+                    out.write(bytes, 0, n);
+                    offset += n;
+                    remaining -= n;
+                }
+                out.write(separator);
+            }
+        });
+    }
+
+    private static int lengthAt(ByteBuffer[] chunks, long ref) {
+        return chunks[chunk(ref)].getInt(offset(ref));
+    }
+
+    private static int chunk(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    private static int offset(long ref) {
+        return (int) ref;
+    }
+
+    /**
+     * 某一时刻的内容
+     */
+    private record Snapshot(LineTrie.Root root, ByteBuffer[] chunks, int size, long textBytes) implements LineView {
+
+        @Override
+        public String get(int line) {
+            return OffHeapLineStore.get(root, chunks, line);
+        }
+
+        @Override
+        public void forEach(LineConsumer consumer) {
+            OffHeapLineStore.forEach(root, chunks, consumer);
+        }
+
+        @Override
+        public void write(OutputStream out, byte[] separator) throws IOException {
+            OffHeapLineStore.write(root, chunks, out, separator);
+        }
+    }
+}
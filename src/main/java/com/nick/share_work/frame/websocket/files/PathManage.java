@@ -8,7 +8,7 @@ import java.nio.file.Paths;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,7 +20,11 @@ import com.nick.share_work.frame.websocket.WebSocketMessageBody;
 
 
 /**
- * 路径管理类，用于管理文件路径
+ * 路径管理类，用于管理文件路径。
+ * 遍历和搜索的结果保存在各自的 {@link FileSession} 中，会话之间互不影响，会话断开时一并释放。
+ * 同时进行的相同遍历或搜索由 {@link RequestCoalescer} 合并为一次，files.path.cache.ttl.ms 大于 0 时结果在期间继续复用，
+ * {@link WatchManage} 观察到变化时失效。
+ * 创建和删除报告给 {@link WatchManage}，推送给订阅了所在目录的会话。
  * 
  * @author nick
  */
@@ -37,78 +41,118 @@ public class PathManage implements Closeable {
     public static final String DELETE = "path_delete";
     public static final String END = "path_end";
 
-    private Map<String, String> model;
-    private final Lock lock = new ReentrantLock(); // 锁，用于确保线程安全
+    private final FilesMetrics metrics; // 指标
+    private final VersionStore history; // 文件的历史版本
+    private final WatchManage watchManage; // 目录订阅
+    private final Lock lock; // 锁，用于保证创建和删除时的检查与操作是原子的
+    private final RequestCoalescer<WebSocketMessageBody> eachWalks; // 同时进行的 path_each
+    private final RequestCoalescer<WebSocketMessageBody> searchWalks; // 同时进行的相同条件的 path_search
 
 
-    // 构造函数，初始化 model
-    public PathManage(PropertiesReader propertiesReader) {
+    // 构造函数
+    public PathManage(PropertiesReader propertiesReader, FilesMetrics metrics, VersionStore history,
+            WatchManage watchManage) {
         this.propertiesReader = propertiesReader;
-        this.model = new TreeMap<>(); // 使用 TreeMap 保证文件名的顺序
+        this.metrics = metrics;
+        this.history = history;
+        this.watchManage = watchManage;
+        this.lock = metrics.lock("path_manage");
+        long ttl = propertiesReader.getFilesPathCacheTtlMs();
+        if (ttl > 0 && !watchManage.isBaseWatched()) { // 观察不到外部的修改，缓存的结果可能一直是旧的
+            LOGGER.warn("[PATH] files.path.cache.ttl.ms ignored, {} is not watched", propertiesReader.getFilesBasePath());
+            ttl = 0;
+        }
+        this.eachWalks = new RequestCoalescer<>("each", ttl, watchManage::generation, metrics);
+        this.searchWalks = new RequestCoalescer<>("search", ttl, watchManage::generation, metrics);
     }
 
     /**
-     * 遍历 BASE_PATH 路径下的所有文件，并将其文件名和路径添加到模型中
+     * 遍历 BASE_PATH 路径下的所有文件，并将其文件名和路径添加到会话的列表中。
+     * 同时进行的遍历合并为一次
      * 
-     * @return 操作结果的 JSON 字符串
+     * @param session 文件会话
+     * @return 操作结果
      */
-    public String each() {
-        lock.lock(); // 获取锁
-        try {
-            model.clear(); // 清空模型
-            // 遍历路径下的所有文件
-            try {
-                String basePath = propertiesReader.getFilesBasePath();
-                LOGGER.debug("PathManage each base path : {}", basePath);
-                Files.walk(Paths.get(basePath))
-                    .filter(Files::isRegularFile) // 仅处理文件，不处理目录
-                    .forEach(p -> model.put(p.getFileName().toString(), p.toString())); // 将文件名和路径添加到模型
-                LOGGER.debug("PathManage each model : {}", model);
-                return WebSocketMessageBody.success(EACH, model); // 返回成功的 JSON 响应
-            } catch (IOException e) {
-                LOGGER.error("[EACH ERROR] : {}", e.getMessage());
-                return WebSocketMessageBody.error(EACH, "Each error"); // 返回错误的 JSON 响应
-            }
-        } finally {
-            lock.unlock(); // 释放锁
-        }
+    public WebSocketMessageBody each(FileSession session) {
+        return listed(session, eachWalks.get(EACH, this::walkEach, body -> !body.isError()));
     }
 
     /**
-     * 根据条件在 BASE_PATH 下搜索文件
+     * 根据条件在 BASE_PATH 下搜索文件，同时进行的相同条件的搜索合并为一次
      * 
+     * @param session 文件会话
      * @param cond 文件名的匹配条件
-     * @return 操作结果的 JSON 字符串
+     * @return 操作结果
      */
-    public String search(String cond) {
-        lock.lock(); // 获取锁
-        try {
-            model.clear(); // 清空模型
-            // 根据条件搜索文件
-            try {
-                Files.walk(Paths.get(propertiesReader.getFilesBasePath()))
-                    .filter(p -> p.toString().matches(cond)) // 过滤匹配条件的文件
-                    .forEach(p -> model.put(p.getFileName().toString(), p.toString())); // 将文件名和路径添加到模型
-                return WebSocketMessageBody.success(SEARCH, model); // 返回成功的 JSON 响应
-            } catch (IOException e) {
-                LOGGER.error("[SEARCH ERROR] : {}", e.getMessage());
-                return WebSocketMessageBody.error(SEARCH, "Search error"); // 返回错误的 JSON 响应
-            }
-        } finally {
-            lock.unlock(); // 释放锁
+    public WebSocketMessageBody search(FileSession session, String cond) {
+        return listed(session, searchWalks.get(String.valueOf(cond), () -> walkSearch(cond), body -> !body.isError()));
+    }
+
+    /**
+     * 遍历 BASE_PATH 路径下的所有文件
+     */
+    private WebSocketMessageBody walkEach() {
+        Map<String, String> model = new TreeMap<>(); // 使用 TreeMap 保证文件名的顺序
+        long start = System.nanoTime();
+        long[] visited = {0}; // 遍历到的路径数
+        // 遍历路径下的所有文件
+        String basePath = propertiesReader.getFilesBasePath();
+        LOGGER.debug("PathManage each base path : {}", basePath);
+        try (Stream<Path> paths = Files.walk(Paths.get(basePath))) {
+            paths.peek(p -> visited[0]++)
+                .filter(Files::isRegularFile) // 仅处理文件，不处理目录
+                .forEach(p -> model.put(p.getFileName().toString(), p.toString())); // 将文件名和路径添加到模型
+            metrics.walk("each", visited[0], System.nanoTime() - start);
+            LOGGER.debug("PathManage each model : {}", model);
+            return WebSocketMessageBody.success(EACH, model); // 返回成功的响应
+        } catch (IOException e) {
+            LOGGER.error("[EACH ERROR] : {}", e.getMessage());
+            return WebSocketMessageBody.error(EACH, "Each error"); // 返回错误的响应
         }
     }
 
+    /**
+     * 根据条件在 BASE_PATH 下搜索文件
+     */
+    private WebSocketMessageBody walkSearch(String cond) {
+        Map<String, String> model = new TreeMap<>();
+        long start = System.nanoTime();
+        long[] visited = {0}; // 遍历到的路径数
+        // 根据条件搜索文件
+        try (Stream<Path> paths = Files.walk(Paths.get(propertiesReader.getFilesBasePath()))) {
+            paths.peek(p -> visited[0]++)
+                .filter(p -> p.toString().matches(cond)) // 过滤匹配条件的文件
+                .forEach(p -> model.put(p.getFileName().toString(), p.toString())); // 将文件名和路径添加到模型
+            metrics.walk("search", visited[0], System.nanoTime() - start);
+            return WebSocketMessageBody.success(SEARCH, model); // 返回成功的响应
+        } catch (IOException e) {
+            LOGGER.error("[SEARCH ERROR] : {}", e.getMessage());
+            return WebSocketMessageBody.error(SEARCH, "Search error"); // 返回错误的响应
+        }
+    }
+
+    /**
+     * 成功时用遍历结果替换会话的路径列表，结果由多个会话共用，不能修改
+     */
+    private WebSocketMessageBody listed(FileSession session, WebSocketMessageBody result) {
+        if (!result.isError()) {
+            replace(session, result.getValue());
+        }
+        return result;
+    }
+
     /**
      * 在 BASE_PATH 下创建文件或目录
      * 
+     * @param session 文件会话
      * @param path 要创建的文件或目录路径
-     * @return 操作结果的 JSON 字符串
+     * @return 操作结果
      */
-    public String create(String path) {
+    public WebSocketMessageBody create(FileSession session, String path) {
+        Map<String, String> model = session.getListing();
         lock.lock(); // 获取锁以保证线程安全
         try {
-            LOGGER.debug("PathManage create path : {}" + path);
+            LOGGER.debug("PathManage create path : {}", path);
             Path filePath = Paths.get(path);
             
             // 检查文件或目录是否已存在
@@ -121,21 +165,23 @@ public class PathManage implements Closeable {
                 // 如果路径包含点，则认为是文件，尝试创建文件
                 try {
                     Files.createFile(filePath); // 创建文件
+                    watchManage.changed(filePath, WatchManage.CREATED);
                     model.put(filePath.getFileName().toString(), filePath.toString()); // 将文件名和路径添加到模型
-                    return WebSocketMessageBody.success(CREATE, model); // 返回成功的 JSON 响应
+                    return WebSocketMessageBody.success(CREATE, new TreeMap<>(model)); // 返回成功的响应
                 } catch (IOException e) {
                     LOGGER.error("[CREATE FILE ERROR] : {}", e.getMessage());
-                    return WebSocketMessageBody.error(CREATE, "Create file error"); // 返回文件创建错误的 JSON 响应
+                    return WebSocketMessageBody.error(CREATE, "Create file error"); // 返回文件创建错误的响应
                 }
             } else {
                 // 如果路径不包含点，则认为是目录，尝试创建目录
                 try {
                     Files.createDirectories(filePath); // 创建目录
+                    watchManage.changed(filePath, WatchManage.CREATED);
                     model.put(filePath.getFileName().toString(), filePath.toString()); // 将目录名和路径添加到模型
-                    return WebSocketMessageBody.success(CREATE, model); // 返回成功的 JSON 响应
+                    return WebSocketMessageBody.success(CREATE, new TreeMap<>(model)); // 返回成功的响应
                 } catch (IOException e) {
                     LOGGER.error("[CREATE DIRECTORY ERROR] : {}", e.getMessage());
-                    return WebSocketMessageBody.error(CREATE, "Create directory error"); // 返回目录创建错误的 JSON 响应
+                    return WebSocketMessageBody.error(CREATE, "Create directory error"); // 返回目录创建错误的响应
                 }
             }
         } finally {
@@ -144,27 +190,38 @@ public class PathManage implements Closeable {
     }
 
     /**
-     * 删除指定路径的文件，并将其重命名为 .bk
+     * 删除指定路径的文件，删除前把当前内容记入历史版本，之后可以用 file_restore 恢复。
+     * 目录不记录历史，仍重命名为 .bk
      * 
+     * @param session 文件会话
      * @param path 要删除的文件路径
-     * @return 操作结果的 JSON 字符串
+     * @return 操作结果
      */
-    public String delete(String path) {
+    public WebSocketMessageBody delete(FileSession session, String path) {
+        Map<String, String> model = session.getListing();
         lock.lock(); // 获取锁
         try {
             Path filePath = Paths.get(path);
             Path backupPath = filePath.resolveSibling(filePath.getFileName() + ".bk");
             try {
-                if (Files.exists(filePath) && !Files.exists(backupPath)) {
-                    Files.move(filePath, backupPath); // 将文件重命名为 .bk
+                if (Files.isRegularFile(filePath)) {
+                    history.record(path); // 删除前保留最后的内容
+                    Files.delete(filePath);
+                    watchManage.changed(filePath, WatchManage.DELETED);
                     model.remove(filePath.getFileName().toString()); // 从模型中移除文件
-                    return WebSocketMessageBody.success(DELETE, model); // 返回成功的 JSON 响应
+                    return WebSocketMessageBody.success(DELETE, new TreeMap<>(model)); // 返回成功的响应
+                } else if (Files.exists(filePath) && !Files.exists(backupPath)) {
+                    Files.move(filePath, backupPath); // 将目录重命名为 .bk
+                    watchManage.changed(filePath, WatchManage.DELETED);
+                    watchManage.changed(backupPath, WatchManage.CREATED);
+                    model.remove(filePath.getFileName().toString()); // 从模型中移除文件
+                    return WebSocketMessageBody.success(DELETE, new TreeMap<>(model)); // 返回成功的响应
                 } else {
                     return WebSocketMessageBody.error(DELETE, "Delete error: file not exist or backup file already exist"); // 文件不存在或备份文件已存在，返回错误
                 }
             } catch (IOException e) {
                 LOGGER.error("[DELETE ERROR] : {}", e.getMessage());
-                return WebSocketMessageBody.error(DELETE, "Delete error"); // 返回错误的 JSON 响应
+                return WebSocketMessageBody.error(DELETE, "Delete error"); // 返回错误的响应
             }
         } finally {
             lock.unlock(); // 释放锁
@@ -172,28 +229,28 @@ public class PathManage implements Closeable {
     }
 
     /**
-     * 结束路径管理操作并清理资源
+     * 结束路径管理操作并清理会话的路径列表
      * 
-     * @return 操作结果的 JSON 字符串
+     * @param session 文件会话
+     * @return 操作结果
      */
-    public String end() {
-        lock.lock(); // 获取锁
-        try {
-            LOGGER.info("PathManage end");
-            try {
-                this.close(); // 清理资源
-                return WebSocketMessageBody.success(END, null); // 返回成功的 JSON 响应
-            } catch (IOException e) {
-                LOGGER.error("[END ERROR] : {}", e.getMessage());
-                return WebSocketMessageBody.error(END, "Close error"); // 返回错误的 JSON 响应
-            }
-        } finally {
-            lock.unlock(); // 释放锁
-        }
+    public WebSocketMessageBody end(FileSession session) {
+        LOGGER.debug("PathManage end");
+        session.getListing().clear(); // 清空模型
+        return WebSocketMessageBody.success(END, null); // 返回成功的响应
+    }
+
+    /**
+     * 用新的结果替换会话的路径列表
+     */
+    private void replace(FileSession session, Map<String, String> model) {
+        Map<String, String> listing = session.getListing();
+        listing.clear();
+        listing.putAll(model);
     }
 
     @Override
     public void close() throws IOException {
-        this.model.clear(); // 清空模型
+        // 路径列表保存在各个会话中，随会话释放，这里没有需要清理的资源
     }
 }
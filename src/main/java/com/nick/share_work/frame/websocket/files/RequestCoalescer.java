@@ -0,0 +1,97 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 相同请求的合并（single-flight）。
+ * 同一个键同时只有一次计算，计算期间到达的相同请求等待并共用同一个结果，包括结果的 JSON 序列化缓存。
+ * ttl 大于 0 时结果在 ttl 内继续复用，期间 generation 变化（观察到文件系统的变化）立即失效；
+ * 计算期间 generation 发生变化的结果只交给正在等待的请求，不再复用。
+ *
+ * @author nick
+ */
+class RequestCoalescer<V> {
+
+    private final String operation; // 指标中的操作名称
+    private final long ttlNanos; // 结果的复用时间，0 表示只合并同时进行的请求
+    private final LongSupplier generation; // 变化计数
+    private final FilesMetrics metrics;
+    private final Map<String, Flight<V>> flights = new ConcurrentHashMap<>(); // 键 -> 进行中或可复用的计算
+
+    RequestCoalescer(String operation, long ttlMillis, LongSupplier generation, FilesMetrics metrics) {
+        this.operation = operation;
+        this.ttlNanos = Math.max(0, ttlMillis) * 1_000_000L;
+        this.generation = generation;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 取得键对应的结果，没有进行中或可复用的计算时在当前线程上计算
+     *
+     * @param key 命令和规范化后的参数
+     * @param compute 计算
+     * @param reusable 结果是否可以在 ttl 内复用，错误结果不复用
+     * @return 结果
+     */
+    V get(String key, Supplier<V> compute, Predicate<V> reusable) {
+        while (true) {
+            Flight<V> flight = flights.get(key);
+            if (flight != null) {
+                if (!flight.result.isDone()) {
+                    metrics.coalesce(operation, "joined");
+                    return flight.result.join();
+                }
+                if (flight.isFresh(System.nanoTime(), generation.getAsLong())) {
+                    metrics.coalesce(operation, "cached");
+                    return flight.result.join();
+                }
+                flights.remove(key, flight);
+                continue;
+            }
+            Flight<V> mine = new Flight<>(generation.getAsLong());
+            if (flights.putIfAbsent(key, mine) != null) {
+                continue; // 另一个线程刚开始同一计算
+            }
+            metrics.coalesce(operation, "computed");
+            V value;
+            try {
+                value = compute.get();
+            } catch (RuntimeException e) {
+                flights.remove(key, mine);
+                mine.result.completeExceptionally(e);
+                throw e;
+            }
+            long now = System.nanoTime();
+            mine.expires = now + ttlNanos;
+            mine.result.complete(value);
+            if (ttlNanos == 0 || !reusable.test(value)) {
+                flights.remove(key, mine);
+            }
+            long current = generation.getAsLong();
+            flights.values().removeIf(f -> f.result.isDone() && !f.isFresh(now, current)); // 清除过期的结果
+            return value;
+        }
+    }
+
+    /**
+     * 一次计算，expires 在结果完成前写入，完成后只读
+     */
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final long generation; // 开始计算时的变化计数
+        private volatile long expires; // 复用的截止时间
+
+        private Flight(long generation) {
+            this.generation = generation;
+        }
+
+        private boolean isFresh(long now, long current) {
+            return generation == current && now - expires < 0;
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 跟踪文件末尾新增的行（tail -F）。
+ * 同一文件只有一个跟踪器，打开一个文件通道并记录已读取的位置，文件变化时只读取追加的字节，按行推送给所有订阅的会话。
+ * 变化由一个线程通过 {@link WatchService} 监听文件所在的目录得知，另外每隔 files.tail.poll.ms 检查一次所有文件，
+ * 不支持目录监听的文件系统也能跟踪。
+ * 路径上换成了另一个文件（日志轮转）时先读完原文件剩余的内容再从头读取新文件；文件变短（被截断）时从头读取。
+ * 每个订阅者有自己的缓冲区，最多保留 files.tail.buffer.size 条消息，发送跟不上时丢弃最早的消息，
+ * 不影响其它订阅者和读取；消息的键为跟踪器内递增的行序号，客户端据此发现被丢弃的行。
+ *
+ * @author nick
+ */
+@Service
+public class TailManage implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TailManage.class);
+
+    public static final String TAIL = "file_tail";
+    public static final String UNTAIL = "file_untail";
+    public static final String LINES = "file_tail_lines";
+
+    // 每次从文件读取的字节数
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // 一条推送消息最多包含的行数，一次读到更多行时分成多条
+    private static final int MAX_LINES_PER_MESSAGE = 512;
+    // 没有换行符时一行最多累积的字节数，超过后作为一行推送
+    private static final int MAX_LINE_BYTES = 1 << 20;
+
+    private final Path basePath; // 只能跟踪该目录下的文件
+    private final long pollMillis; // 检查所有文件的间隔
+    private final int bufferSize; // 每个订阅者最多缓冲的消息数
+    private final int initialLines; // 开始跟踪时返回的最近行数
+    private final FilesMetrics metrics; // 指标
+    private final Map<String, Tailer> tailers = new HashMap<>(); // 文件的绝对路径 -> 跟踪器，只在 lock 内访问
+    private final Map<Path, WatchKey> directories = new HashMap<>(); // 目录 -> 监听键，只在 lock 内访问
+    private final WatchService watcher; // 目录监听，不支持时为 null，只靠定时检查
+    private final Thread thread; // 监听和检查文件的线程
+    private final Lock lock; // 锁，用于保证跟踪器的创建和释放是原子的
+    private volatile boolean closed;
+
+    public TailManage(PropertiesReader propertiesReader, FilesMetrics metrics) {
+        this.basePath = Paths.get(propertiesReader.getFilesBasePath()).toAbsolutePath().normalize();
+        this.pollMillis = Math.max(10, propertiesReader.getFilesTailPollMs());
+        this.bufferSize = Math.max(1, propertiesReader.getFilesTailBufferSize());
+        this.initialLines = Math.max(0, propertiesReader.getFilesTailInitialLines());
+        this.metrics = metrics;
+        this.lock = metrics.lock("tail");
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("[TAIL] Watch service unavailable, polling every {} ms : {}", pollMillis, e.getMessage());
+        }
+        this.watcher = service;
+        this.thread = new Thread(this::watchLoop, "files-tail");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 开始跟踪文件末尾新增的行，之后的新行以 file_tail_lines 推送给会话。
+     * 会话之前跟踪的文件被替换，同一会话同时只跟踪一个文件
+     *
+     * @param session 文件会话
+     * @param path 文件路径
+     * @return 操作结果，携带文件最后 files.tail.initial.lines 行（行序号 -> 内容），版本号为最后一行的序号
+     */
+    public WebSocketMessageBody tail(FileSession session, String path) {
+        if (path == null || path.isEmpty()) {
+            return WebSocketMessageBody.error(TAIL, "Invalid path provided");
+        }
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!Files.isRegularFile(file)) {
+            return WebSocketMessageBody.error(TAIL, "File not found");
+        }
+        try {
+            if (!file.startsWith(basePath) || !file.toRealPath().startsWith(basePath.toRealPath())) { // 包括指向外部的链接
+                return WebSocketMessageBody.error(TAIL, "File outside base path");
+            }
+        } catch (IOException e) {
+            return WebSocketMessageBody.error(TAIL, "File not found");
+        }
+        String key = file.toString();
+        Tailer tailer;
+        Subscriber subscriber;
+        Tailer opened = null; // 本次打开的跟踪器，没有放入表中时关闭
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    if (closed) {
+                        return WebSocketMessageBody.error(TAIL, "Server closing");
+                    }
+                    tailer = tailers.get(key);
+                    if (tailer == null && opened != null) {
+                        tailer = opened;
+                        opened = null;
+                        tailers.put(key, tailer);
+                        metrics.tailFiles(1);
+                        watch(file.getParent());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (tailer == null) { // 在锁外打开文件并读取末尾，慢的文件系统不会挡住其它文件的跟踪和释放
+                    Tailer created = new Tailer(file);
+                    created.open();
+                    opened = created;
+                    continue;
+                }
+                subscriber = tailer.subscribe();
+                if (subscriber != null) {
+                    break;
+                }
+                remove(tailer); // 最后一个订阅者刚刚离开，跟踪器正在被释放
+            }
+        } catch (IOException e) {
+            LOGGER.error("[TAIL ERROR] Failed to read file : {} ,error : {}", path, e.getMessage());
+            return WebSocketMessageBody.error(TAIL, "Failed to read file");
+        } finally {
+            if (opened != null) { // 其它会话同时打开了同一文件
+                opened.close();
+            }
+        }
+        Tailer target = tailer;
+        Subscriber follower = subscriber;
+        Flux<WebSocketMessageBody> lines = follower.sink().asFlux()
+                .onBackpressureBuffer(bufferSize, dropped -> metrics.tailDropped(), BufferOverflowStrategy.DROP_OLDEST)
+                .doFinally(signal -> release(target, follower));
+        if (!session.follow(lines)) { // 会话已断开，流不会被订阅
+            release(target, follower);
+            return WebSocketMessageBody.error(TAIL, "Session closed");
+        }
+        return WebSocketMessageBody.success(TAIL, follower.recent(), follower.sequence());
+    }
+
+    /**
+     * 停止跟踪会话当前跟踪的文件
+     *
+     * @param session 文件会话
+     * @return 操作结果
+     */
+    public WebSocketMessageBody untail(FileSession session) {
+        session.unfollow();
+        return WebSocketMessageBody.success(UNTAIL, null);
+    }
+
+    /**
+     * 停止监听线程并结束所有订阅
+     */
+    @Override
+    public void close() {
+        List<Tailer> closing;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closing = new ArrayList<>(tailers.values());
+            tailers.clear();
+            directories.clear();
+        } finally {
+            lock.unlock();
+        }
+        closing.forEach(Tailer::close);
+        metrics.tailFiles(-closing.size());
+        thread.interrupt();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("[TAIL] Failed to close watch service : {}", e.getMessage());
+            }
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 订阅者的流结束时移除订阅者，跟踪器没有订阅者时关闭
+     */
+    private void release(Tailer tailer, Subscriber subscriber) {
+        if (!tailer.unsubscribe(subscriber)) {
+            return;
+        }
+        remove(tailer);
+        tailer.close();
+    }
+
+    /**
+     * 从表中移除不再接受订阅的跟踪器，目录中没有其它跟踪的文件时停止监听
+     */
+    private void remove(Tailer tailer) {
+        lock.lock();
+        try {
+            if (!tailers.remove(tailer.key, tailer)) {
+                return;
+            }
+            metrics.tailFiles(-1);
+            Path directory = tailer.file.getParent();
+            if (tailers.values().stream().noneMatch(t -> t.file.getParent().equals(directory))) {
+                WatchKey watchKey = directories.remove(directory);
+                if (watchKey != null) {
+                    watchKey.cancel();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 监听目录中文件的创建、修改和删除，在 lock 内调用。无法监听时只靠定时检查
+     */
+    private void watch(Path directory) {
+        if (watcher == null || directories.containsKey(directory)) {
+            return;
+        }
+        try {
+            directories.put(directory, directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("[TAIL] Failed to watch : {} ,error : {}", directory, e.getMessage());
+        }
+    }
+
+    /**
+     * 监听线程：有目录变化时检查该目录中跟踪的文件，每隔 pollMillis 检查所有文件
+     */
+    private void watchLoop() {
+        long lastPoll = System.nanoTime();
+        while (!closed) {
+            Set<Path> changed = new HashSet<>();
+            try {
+                WatchKey watchKey = watcher == null ? null : watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (watcher == null) {
+                    Thread.sleep(pollMillis);
+                }
+                while (watchKey != null) {
+                    watchKey.pollEvents();
+                    changed.add((Path) watchKey.watchable());
+                    watchKey.reset(); // 目录被删除时监听键失效，之后靠定时检查发现新的目录
+                    watchKey = watcher.poll();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean all = System.nanoTime() - lastPoll >= TimeUnit.MILLISECONDS.toNanos(pollMillis);
+            if (all) {
+                lastPoll = System.nanoTime();
+            }
+            List<Tailer> polling = new ArrayList<>();
+            lock.lock();
+            try {
+                for (Tailer tailer : tailers.values()) {
+                    if (all || changed.contains(tailer.file.getParent())) {
+                        polling.add(tailer);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            polling.forEach(Tailer::poll);
+        }
+    }
+
+    /**
+     * 文件的标识，文件系统不提供 fileKey 时使用创建时间
+     */
+    private static Object identity(BasicFileAttributes attributes) {
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    /**
+     * 一个订阅者。流被订阅前推送的消息暂存在 sink 中，订阅后由订阅者自己的有界缓冲区接收
+     *
+     * @param sink 推送给该订阅者的消息
+     * @param recent 订阅时文件的最后几行，行序号 -> 内容
+     * @param sequence 订阅时最后一行的序号
+     */
+    private record Subscriber(Sinks.Many<WebSocketMessageBody> sink, Map<String, String> recent, long sequence) {
+    }
+
+    /**
+     * 一个文件的跟踪器，读取和推送只在自己的锁内进行
+     */
+    private class Tailer {
+        private final String key; // 文件的绝对路径
+        private final Path file; // 文件路径
+        private final Lock lock = metrics.lock("tail_file"); // 锁，用于保证读取和订阅的顺序
+        private final List<Subscriber> subscribers = new ArrayList<>(); // 订阅者，只在 lock 内访问
+        private final ArrayDeque<String> recent = new ArrayDeque<>(); // 最后 initialLines 行
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE); // 读取缓冲区
+        private final ByteArrayOutputStream partial = new ByteArrayOutputStream(); // 还没有读到换行符的行
+        private FileChannel channel; // 正在读取的文件
+        private Object identity; // 正在读取的文件的标识
+        private long position; // 已读取到的位置
+        private long sequence; // 最后一行的序号，从 1 开始
+        private boolean retired; // 最后一个订阅者已离开，不再接受新的订阅者
+        private boolean closed;
+
+        Tailer(Path file) {
+            this.file = file;
+            this.key = file.toString();
+        }
+
+        /**
+         * 打开文件并读取末尾的最后几行，之后只读取追加的部分
+         */
+        void open() throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                identity = identity(Files.readAttributes(file, BasicFileAttributes.class));
+                long size = channel.size();
+                if (initialLines == 0) {
+                    position = size;
+                    return;
+                }
+                position = Math.max(0, size - READ_BUFFER_SIZE);
+                if (position > 0) { // 从中间开始读取，丢弃第一个不完整的行
+                    skipLine();
+                }
+                read(false);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 添加订阅者，之后读取到的行都会推送给它
+         *
+         * @return 订阅者，跟踪器已没有订阅者或已关闭时返回 null
+         */
+        Subscriber subscribe() {
+            lock.lock();
+            try {
+                if (retired || closed) {
+                    return null;
+                }
+                Map<String, String> lines = new LinkedHashMap<>();
+                long first = sequence - recent.size() + 1;
+                for (String text : recent) {
+                    lines.put(String.valueOf(first++), text);
+                }
+                Subscriber subscriber = new Subscriber(Sinks.many().unicast().onBackpressureBuffer(), lines, sequence);
+                subscribers.add(subscriber);
+                return subscriber;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 移除订阅者，最后一个订阅者离开后不再接受新的订阅者
+         *
+         * @return 没有订阅者时返回 true
+         */
+        boolean unsubscribe(Subscriber subscriber) {
+            lock.lock();
+            try {
+                subscribers.remove(subscriber);
+                retired = subscribers.isEmpty();
+                return retired;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 读取追加的内容，并检查文件是否被轮转或截断
+         */
+        void poll() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                read(true);
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    return; // 已被改名或删除，新的文件还没有创建
+                }
+                Object current = identity(attributes);
+                if (!current.equals(identity)) {
+                    // 轮转：读完原文件在上次读取之后、改名之前追加的内容，再从头读取路径上的新文件
+                    read(true);
+                    flushPartial();
+                    FileChannel previous = channel;
+                    channel = FileChannel.open(file, StandardOpenOption.READ);
+                    previous.close();
+                    identity = current;
+                    position = 0;
+                    metrics.tailEvent("rotated");
+                    LOGGER.info("[TAIL] {} rotated", key);
+                    read(true);
+                } else if (channel.size() < position) {
+                    // 截断：从头读取
+                    flushPartial();
+                    position = 0;
+                    metrics.tailEvent("truncated");
+                    LOGGER.info("[TAIL] {} truncated", key);
+                    read(true);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("[TAIL ERROR] Failed to read : {} ,error : {}", key, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 关闭文件并结束所有订阅者的流
+         */
+        void close() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.sink().tryEmitComplete();
+                }
+                subscribers.clear();
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warn("[TAIL] Failed to close : {} ,error : {}", key, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 从 position 读取到文件末尾，按行切分
+         *
+         * @param push 是否推送给订阅者，打开时读取的行只留作最近的行
+         */
+        private void read(boolean push) throws IOException {
+            Map<String, String> lines = new LinkedHashMap<>();
+            long bytes = 0;
+            int read;
+            while ((read = channel.read(buffer.clear(), position)) > 0) {
+                position += read;
+                bytes += read;
+                byte[] array = buffer.array();
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (array[i] == '\n') {
+                        partial.write(array, start, i - start);
+                        line(lines, partial.toByteArray());
+                        partial.reset();
+                        start = i + 1;
+                    } else if (partial.size() + i - start >= MAX_LINE_BYTES) {
+                        partial.write(array, start, i - start);
+                        line(lines, partial.toByteArray());
+                        partial.reset();
+                        start = i;
+                    }
+                    if (push && lines.size() == MAX_LINES_PER_MESSAGE) {
+                        emit(lines);
+                        lines = new LinkedHashMap<>();
+                    }
+                }
+                partial.write(array, start, read - start);
+            }
+            if (push) {
+                emit(lines);
+                metrics.tailRead(bytes);
+            }
+        }
+
+        /**
+         * 记录一行，去掉行尾的 \r
+         */
+        private void line(Map<String, String> lines, byte[] bytes) {
+            int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+            String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            lines.put(String.valueOf(++sequence), text);
+            if (initialLines > 0) {
+                if (recent.size() == initialLines) {
+                    recent.removeFirst();
+                }
+                recent.addLast(text);
+            }
+        }
+
+        /**
+         * 原文件不会再有新的内容，把没有换行符结尾的最后一行作为完整的行推送
+         */
+        private void flushPartial() {
+            if (partial.size() == 0) {
+                return;
+            }
+            Map<String, String> lines = new LinkedHashMap<>();
+            line(lines, partial.toByteArray());
+            partial.reset();
+            emit(lines);
+        }
+
+        /**
+         * 推送给所有订阅者，已取消的订阅者由其流的结束回调移除
+         */
+        private void emit(Map<String, String> lines) {
+            if (lines.isEmpty()) {
+                return;
+            }
+            metrics.tailLines(lines.size());
+            WebSocketMessageBody body = WebSocketMessageBody.success(LINES, lines, sequence);
+            for (Subscriber subscriber : subscribers) {
+                subscriber.sink().tryEmitNext(body);
+            }
+        }
+
+        /**
+         * 从 position 跳到下一个换行符之后，文件中没有换行符时跳到末尾
+         */
+        private void skipLine() throws IOException {
+            int read;
+            while ((read = channel.read(buffer.clear(), position)) > 0) {
+                byte[] array = buffer.array();
+                for (int i = 0; i < read; i++) {
+                    if (array[i] == '\n') {
+                        position += i + 1;
+                        return;
+                    }
+                }
+                position += read;
+            }
+        }
+    }
+}
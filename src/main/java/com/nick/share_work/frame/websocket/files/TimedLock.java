@@ -0,0 +1,81 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * 记录等待时间和持有时间的可重入锁。
+ * 重入时只记录最外层的一次获取和释放。
+ *
+ * @author nick
+ */
+public class TimedLock implements Lock {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Timer waitTimer; // 等待获取锁的时间
+    private final Timer holdTimer; // 持有锁的时间
+    private long acquiredAt; // 最外层获取锁的时间，只由持有锁的线程读写
+
+    TimedLock(Timer waitTimer, Timer holdTimer) {
+        this.waitTimer = waitTimer;
+        this.holdTimer = holdTimer;
+    }
+
+    @Override
+    public void lock() {
+        long start = System.nanoTime();
+        lock.lock();
+        acquired(start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lockInterruptibly();
+        acquired(start);
+    }
+
+    @Override
+    public boolean tryLock() {
+        long start = System.nanoTime();
+        if (lock.tryLock()) {
+            acquired(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        if (lock.tryLock(time, unit)) {
+            acquired(start);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        if (lock.getHoldCount() == 1) {
+            holdTimer.record(System.nanoTime() - acquiredAt, TimeUnit.NANOSECONDS);
+        }
+        lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+
+    private void acquired(long start) {
+        if (lock.getHoldCount() == 1) {
+            acquiredAt = System.nanoTime();
+            waitTimer.record(acquiredAt - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * 文件的历史版本存储。
+ * 每个文件一个只追加的版本包，每个版本一条记录：完整快照或与上一版本的按行差异，记录内容以 Deflate 压缩。
+ * 每隔 files.history.snapshot.interval 个版本保存一次完整快照，重建任意版本最多应用该数量的差异；
+ * 差异不比完整内容小时（例如整个文件被重写）也直接保存完整快照。
+ * 差异以行为单位：与上一版本相同的行只记录复制的范围，只有变化的行保存内容，版本包的增长与修改量成正比。
+ * <p>
+ * 版本包格式（整数均为大端）：
+ * <pre>
+ * pack    := MAGIC:int FORMAT:byte path:utf record*
+ * record  := kind:byte version:int time:long modified:long size:long crc:int length:int payload
+ * delta   := (COPY offset:int length:int | ADD length:int bytes)*   // 压缩前
+ * </pre>
+ * 写入中途断电时最后一条记录不完整，读取时忽略，下次追加前截掉。
+ * 同一文件的操作在该文件的锁内串行执行，会阻塞，只在文件命令的工作线程上调用。
+ * 版本包的索引（记录头）保留在内存中，没有操作进行中的索引超过 {@link #MAX_IDLE_PACKS} 个时丢弃最久未使用的，之后访问时重新扫描。
+ *
+ * @author nick
+ */
+@Component
+public class VersionStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionStore.class);
+
+    private static final int MAGIC = 0x53575650; // "SWVP"
+    private static final byte FORMAT = 1;
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    private static final byte COPY = 0;
+    private static final byte ADD = 1;
+    // 记录头的字节数：kind version time modified size crc length
+    private static final int RECORD_HEADER = 1 + 4 + 8 + 8 + 8 + 4 + 4;
+    // 内存中最多保留的版本包索引数，正在使用的不计入淘汰
+    static final int MAX_IDLE_PACKS = 256;
+
+    private final Path directory; // 版本包所在的目录
+    private final int interval; // 完整快照的间隔
+    private final FilesMetrics metrics; // 指标
+    private final LinkedHashMap<String, Pack> packs = new LinkedHashMap<>(16, 0.75f, true); // 文件的绝对路径 -> 版本包，按访问顺序排列，只在 packsLock 内访问
+    private final Lock packsLock; // 锁，用于保护版本包的映射表和使用计数
+
+    public VersionStore(PropertiesReader propertiesReader, FilesMetrics metrics) {
+        this.directory = Paths.get(propertiesReader.getFilesHistoryPath());
+        this.interval = Math.max(1, propertiesReader.getFilesHistorySnapshotInterval());
+        this.metrics = metrics;
+        this.packsLock = metrics.lock("history_packs");
+    }
+
+    /**
+     * 把磁盘上文件的当前内容记为新版本。
+     * 文件的修改时间和大小与最新版本相同，或内容与最新版本相同时不产生新版本；文件不存在时忽略
+     *
+     * @param path 文件路径
+     * @return 最新的版本号，没有任何版本时返回 0
+     * @throws IOException 读写失败时抛出
+     */
+    public long record(String path) throws IOException {
+        Pack pack = acquire(path);
+        try {
+            pack.lock.lock();
+            try {
+                pack.open();
+                Path file = Paths.get(pack.key);
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    return pack.latest();
+                }
+                long modified = attributes.lastModifiedTime().toMillis();
+                Entry last = pack.last();
+                if (last != null && pack.seenModified == modified && pack.seenSize == attributes.size()) {
+                    return last.version;
+                }
+                byte[] content = Files.readAllBytes(file);
+                int crc = crc(content);
+                if (last != null && last.crc == crc && last.size == content.length) {
+                    pack.seen(modified, content.length); // 内容未变，只是重新写入了一次
+                    return last.version;
+                }
+                long start = System.nanoTime();
+                byte kind = FULL;
+                byte[] body = content;
+                if (last != null && pack.entries.size() - pack.lastFull() < interval) {
+                    byte[] delta = delta(pack.rebuild(pack.entries.size() - 1), content);
+                    if (delta != null) {
+                        kind = DELTA;
+                        body = delta;
+                    }
+                }
+                Entry entry = pack.append(kind, modified, content.length, crc, deflate(body));
+                pack.seen(modified, content.length);
+                metrics.history(kind == FULL ? "full" : "delta", entry.length, System.nanoTime() - start);
+                LOGGER.debug("[HISTORY] {} version {} {} {} bytes", pack.key, entry.version,
+                        kind == FULL ? "full" : "delta", entry.length);
+                return entry.version;
+            } finally {
+                pack.lock.unlock();
+            }
+        } finally {
+            release(pack);
+        }
+    }
+
+    /**
+     * 列出文件的所有版本，按版本号从小到大排列
+     *
+     * @param path 文件路径
+     * @return 版本列表，没有历史时为空
+     * @throws IOException 读取失败时抛出
+     */
+    public List<Version> versions(String path) throws IOException {
+        Pack pack = acquire(path);
+        try {
+            pack.lock.lock();
+            try {
+                pack.open();
+                List<Version> versions = new ArrayList<>(pack.entries.size());
+                for (Entry entry : pack.entries) {
+                    versions.add(new Version(entry.version, entry.time, entry.size));
+                }
+                return versions;
+            } finally {
+                pack.lock.unlock();
+            }
+        } finally {
+            release(pack);
+        }
+    }
+
+    /**
+     * 重建文件的指定版本
+     *
+     * @param path 文件路径
+     * @param version 版本号
+     * @return 该版本的完整内容，版本不存在时返回 null
+     * @throws IOException 读取失败或版本包损坏时抛出
+     */
+    public byte[] read(String path, long version) throws IOException {
+        Pack pack = acquire(path);
+        try {
+            pack.lock.lock();
+            try {
+                pack.open();
+                if (version < 1 || version > pack.entries.size()) {
+                    return null;
+                }
+                long start = System.nanoTime();
+                byte[] content = pack.rebuild((int) version - 1);
+                metrics.history("rebuild", content.length, System.nanoTime() - start);
+                return content;
+            } finally {
+                pack.lock.unlock();
+            }
+        } finally {
+            release(pack);
+        }
+    }
+
+    /**
+     * 取得文件的版本包并计入使用，使用期间不会被丢弃，之后必须调用 {@link #release}
+     */
+    private Pack acquire(String path) {
+        String key = Paths.get(path).toAbsolutePath().normalize().toString();
+        packsLock.lock();
+        try {
+            Pack pack = packs.computeIfAbsent(key, Pack::new);
+            pack.users++;
+            return pack;
+        } finally {
+            packsLock.unlock();
+        }
+    }
+
+    /**
+     * 结束使用版本包，超出上限时从最久未使用的开始丢弃没有在使用的索引
+     */
+    private void release(Pack pack) {
+        packsLock.lock();
+        try {
+            pack.users--;
+            Iterator<Pack> it = packs.values().iterator();
+            while (packs.size() > MAX_IDLE_PACKS && it.hasNext()) {
+                if (it.next().users == 0) {
+                    it.remove();
+                }
+            }
+        } finally {
+            packsLock.unlock();
+        }
+    }
+
+    /**
+     * 内存中保留的版本包索引数
+     */
+    int cachedPacks() {
+        packsLock.lock();
+        try {
+            return packs.size();
+        } finally {
+            packsLock.unlock();
+        }
+    }
+
+    /**
+     * 计算按行的差异，行包含其结束符
+     *
+     * @param previous 上一版本的内容
+     * @param next 新版本的内容
+     * @return 压缩前的差异，不比完整内容小时返回 null
+     */
+    static byte[] delta(byte[] previous, byte[] next) throws IOException {
+        int[] before = lineEnds(previous);
+        int[] after = lineEnds(next);
+        int common = Math.min(before.length, after.length);
+        int prefix = 0;
+        while (prefix < common && sameLine(previous, before, prefix, next, after, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < common - prefix && sameLine(previous, before, before.length - 1 - suffix,
+                next, after, after.length - 1 - suffix)) {
+            suffix++;
+        }
+        Ops ops = new Ops(next.length);
+        ops.copy(0, lineStart(before, prefix));
+        // 中间部分按位置对齐：同一位置的行相同则复制，否则保存新内容，适合按行号原地修改的编辑方式
+        int beforeEnd = before.length - suffix;
+        for (int i = prefix; i < after.length - suffix; i++) {
+            if (i < beforeEnd && sameLine(previous, before, i, next, after, i)) {
+                ops.copy(lineStart(before, i), before[i] - lineStart(before, i));
+            } else {
+                ops.add(next, lineStart(after, i), after[i] - lineStart(after, i));
+            }
+        }
+        ops.copy(lineStart(before, beforeEnd), previous.length - lineStart(before, beforeEnd));
+        return ops.finish();
+    }
+
+    /**
+     * 把差异应用到上一版本
+     *
+     * @param previous 上一版本的内容
+     * @param delta 压缩前的差异
+     * @param size 新版本的字节数
+     * @return 新版本的内容
+     */
+    static byte[] apply(byte[] previous, byte[] delta, long size) throws IOException {
+        byte[] next = new byte[Math.toIntExact(size)];
+        int position = 0;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            if (op == COPY) {
+                int offset = in.readInt();
+                int length = in.readInt();
+                System.arraycopy(previous, offset, next, position, length);
+                position += length;
+            } else if (op == ADD) {
+                int length = in.readInt();
+                in.readFully(next, position, length);
+                position += length;
+            } else {
+                throw new IOException("Unknown delta op " + op);
+            }
+        }
+        if (position != next.length) {
+            throw new IOException("Delta produced " + position + " bytes, expected " + size);
+        }
+        return next;
+    }
+
+    /**
+     * 每行结束位置（不含），最后一行没有结束符时以内容末尾为结束
+     */
+    private static int[] lineEnds(byte[] content) {
+        int count = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                count++;
+            }
+        }
+        boolean tail = content.length > 0 && content[content.length - 1] != '\n';
+        int[] ends = new int[count + (tail ? 1 : 0)];
+        int n = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                ends[n++] = i + 1;
+            }
+        }
+        if (tail) {
+            ends[n] = content.length;
+        }
+        return ends;
+    }
+
+    private static int lineStart(int[] ends, int line) {
+        return line == 0 ? 0 : ends[line - 1];
+    }
+
+    private static boolean sameLine(byte[] a, int[] aEnds, int i, byte[] b, int[] bEnds, int j) {
+        int aStart = lineStart(aEnds, i);
+        int bStart = lineStart(bEnds, j);
+        return Arrays.equals(a, aStart, aEnds[i], b, bStart, bEnds[j]);
+    }
+
+    private static int crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] deflate(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater)) {
+            deflated.write(body);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] payload) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(payload))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * 一个版本的概要
+     *
+     * @param version 版本号，从 1 开始
+     * @param time 记录的时间，毫秒
+     * @param size 内容的字节数
+     */
+    public record Version(long version, long time, long size) {
+    }
+
+    /**
+     * 差异的编码，相邻的复制范围合并为一条
+     */
+    private static final class Ops {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final int limit; // 超过该大小时放弃差异
+        private int copyOffset = -1; // 尚未写出的复制范围
+        private int copyLength;
+
+        private Ops(int limit) {
+            this.limit = limit;
+        }
+
+        private void copy(int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (copyOffset >= 0 && copyOffset + copyLength == offset) {
+                copyLength += length;
+                return;
+            }
+            flush();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        private void add(byte[] content, int offset, int length) throws IOException {
+            flush();
+            out.writeByte(ADD);
+            out.writeInt(length);
+            out.write(content, offset, length);
+        }
+
+        private void flush() throws IOException {
+            if (copyOffset >= 0) {
+                out.writeByte(COPY);
+                out.writeInt(copyOffset);
+                out.writeInt(copyLength);
+                copyOffset = -1;
+            }
+        }
+
+        private byte[] finish() throws IOException {
+            flush();
+            return bytes.size() < limit ? bytes.toByteArray() : null;
+        }
+    }
+
+    /**
+     * 版本包中一条记录的位置和概要
+     */
+    private record Entry(byte kind, long version, long time, long modified, long size, int crc, long offset, int length) {
+    }
+
+    /**
+     * 单个文件的版本包，第一次访问时扫描记录头建立索引，之后只追加。除 key、lock 和 users 外的字段都在 lock 内访问
+     */
+    private final class Pack {
+        private final String key; // 文件的绝对路径
+        private final Path file; // 版本包文件
+        private final Lock lock = metrics.lock("history");
+        private final List<Entry> entries = new ArrayList<>();
+        private boolean opened;
+        private int users; // 正在进行的操作数，只在 packsLock 内访问
+        private long validLength; // 最后一条完整记录的结束位置，0 表示还没有写入文件头
+        private long seenModified = -1; // 最近一次确认与最新版本内容相同时文件的修改时间
+        private long seenSize = -1; // 以及文件的字节数
+
+        private Pack(String key) {
+            this.key = key;
+            this.file = directory.resolve(fileName(key, ".pack"));
+        }
+
+        /**
+         * 扫描版本包建立索引，只读取记录头
+         */
+        private void open() throws IOException {
+            if (opened) {
+                return;
+            }
+            if (Files.exists(file)) {
+                long fileLength = Files.size(file);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    if (in.readInt() != MAGIC || in.readByte() != FORMAT) {
+                        throw new IOException("Not a version pack : " + file);
+                    }
+                    String stored = in.readUTF();
+                    if (!stored.equals(key)) {
+                        throw new IOException("Version pack " + file + " belongs to " + stored);
+                    }
+                    long position = 4 + 1 + 2 + stored.getBytes(StandardCharsets.UTF_8).length;
+                    validLength = position;
+                    while (position + RECORD_HEADER <= fileLength) {
+                        byte kind = in.readByte();
+                        int version = in.readInt();
+                        long time = in.readLong();
+                        long modified = in.readLong();
+                        long size = in.readLong();
+                        int crc = in.readInt();
+                        int length = in.readInt();
+                        long offset = position + RECORD_HEADER;
+                        if (offset + length > fileLength || version != entries.size() + 1) {
+                            break;
+                        }
+                        in.skipNBytes(length);
+                        entries.add(new Entry(kind, version, time, modified, size, crc, offset, length));
+                        seen(modified, size);
+                        position = offset + length;
+                        validLength = position;
+                    }
+                } catch (EOFException e) {
+                    // 文件头不完整，视为空版本包
+                    entries.clear();
+                    validLength = 0;
+                }
+                if (validLength < fileLength) {
+                    LOGGER.warn("[HISTORY] {} ignoring {} bytes of incomplete record", file, fileLength - validLength);
+                }
+            }
+            opened = true;
+        }
+
+        private void seen(long modified, long size) {
+            seenModified = modified;
+            seenSize = size;
+        }
+
+        private Entry last() {
+            return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+        }
+
+        private long latest() {
+            return entries.size();
+        }
+
+        private int lastFull() {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (entries.get(i).kind == FULL) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 从不晚于该版本的最近一个完整快照开始依次应用差异
+         */
+        private byte[] rebuild(int index) throws IOException {
+            int full = index;
+            while (entries.get(full).kind != FULL) {
+                full--;
+            }
+            byte[] content;
+            try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+                content = inflate(payload(in, entries.get(full)));
+                for (int i = full + 1; i <= index; i++) {
+                    Entry entry = entries.get(i);
+                    content = apply(content, inflate(payload(in, entry)), entry.size);
+                }
+            }
+            Entry target = entries.get(index);
+            if (content.length != target.size || crc(content) != target.crc) {
+                throw new IOException("Version " + target.version + " of " + key + " is corrupt");
+            }
+            return content;
+        }
+
+        private byte[] payload(RandomAccessFile in, Entry entry) throws IOException {
+            byte[] payload = new byte[entry.length];
+            in.seek(entry.offset);
+            in.readFully(payload);
+            return payload;
+        }
+
+        /**
+         * 追加一条记录，先截掉不完整的记录
+         */
+        private Entry append(byte kind, long modified, long size, int crc, byte[] payload) throws IOException {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (validLength == 0) {
+                    ByteArrayOutputStream header = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(header);
+                    out.writeInt(MAGIC);
+                    out.writeByte(FORMAT);
+                    out.writeUTF(key);
+                    channel.truncate(0);
+                    channel.write(ByteBuffer.wrap(header.toByteArray()), 0);
+                    validLength = header.size();
+                } else if (channel.size() > validLength) {
+                    channel.truncate(validLength);
+                }
+                long time = System.currentTimeMillis();
+                int version = entries.size() + 1;
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+                record.put(kind).putInt(version).putLong(time).putLong(modified).putLong(size).putInt(crc)
+                        .putInt(payload.length).put(payload).flip();
+                long position = validLength;
+                while (record.hasRemaining()) {
+                    position += channel.write(record, position);
+                }
+                Entry entry = new Entry(kind, version, time, modified, size, crc,
+                        validLength + RECORD_HEADER, payload.length);
+                entries.add(entry);
+                validLength = position;
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * 按文件存放的数据（版本包、未保存修改的日志）的文件名，取文件绝对路径的 SHA-256 前 16 字节
+     *
+     * @param key 文件的绝对路径
+     * @param extension 扩展名，包括点号
+     * @return 文件名
+     */
+    static String fileName(String key, String extension) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16) + extension;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
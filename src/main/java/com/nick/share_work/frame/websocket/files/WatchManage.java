@@ -0,0 +1,595 @@
+package com.nick.share_work.frame.websocket.files;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 订阅目录中的变化，代替反复调用 path_each 遍历整个目录。只能订阅 files.base.path 及其子目录。
+ * 订阅的目录及其所有子目录注册到一个 {@link WatchService}，新建的子目录在收到事件时注册；
+ * 遍历和注册目录在锁外进行，大目录的注册不阻塞其它目录的订阅和推送。
+ * {@link PathManage} 创建和删除路径时直接报告，不依赖文件系统的事件。
+ * 同一目录的所有订阅者共用一个批次：第一个事件之后经过 files.watch.debounce.ms 推送一次 path_changes，
+ * 期间同一路径的多个事件合并为一个（新建后又删除的路径不推送）。
+ * 一个批次超过 files.watch.max.events 个路径时只推送该目录的 overflow，客户端应重新遍历，
+ * 这样 git checkout 一万个文件只产生几条消息。
+ * 消息的版本号为该目录的批次序号，每个订阅者最多缓冲 {@link #BUFFER_SIZE} 条消息，丢弃的消息表现为序号不连续。
+ * 观察到的每个变化都会增加 {@link #generation()}，遍历结果的缓存据此失效。
+ * files.path.cache.ttl.ms 大于 0 时启动时即监听整个 files.base.path（没有订阅者，不推送），
+ * 否则外部的修改和恢复历史版本新建的文件不会使缓存失效。
+ *
+ * @author nick
+ */
+@Service
+public class WatchManage implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchManage.class);
+
+    public static final String WATCH = "path_watch";
+    public static final String UNWATCH = "path_unwatch";
+    public static final String CHANGES = "path_changes";
+
+    // path_changes 中路径的变化
+    public static final String CREATED = "created";
+    public static final String MODIFIED = "modified";
+    public static final String DELETED = "deleted";
+    public static final String OVERFLOW = "overflow"; // 变化太多或丢失了事件，需要重新遍历
+
+    // 每个订阅者最多缓冲的消息数，超出时丢弃最早的
+    private static final int BUFFER_SIZE = 64;
+    // 没有订阅时监听线程的等待时间
+    private static final long IDLE_MILLIS = 1000;
+
+    private final Path basePath; // 允许订阅的根目录，没有指定目录时订阅该目录
+    private final long debounceMillis; // 批次的时间窗口
+    private final int maxEvents; // 一个批次最多包含的路径数
+    private final FilesMetrics metrics; // 指标
+    private final Map<Path, Watch> watches = new HashMap<>(); // 订阅的目录 -> 批次和订阅者，只在 lock 内访问
+    private final Map<Path, WatchKey> directories = new HashMap<>(); // 已注册的目录 -> 监听键，只在 lock 内访问
+    private final WatchService watcher; // 目录监听，不支持时为 null，只推送 PathManage 报告的变化
+    private final Thread thread; // 接收事件和推送批次的线程
+    private final Lock lock; // 锁，订阅、事件和推送都在锁内进行
+    private final AtomicLong generation = new AtomicLong(); // 观察到的变化次数
+    private final boolean baseWatched; // 是否一直监听整个 files.base.path
+    private volatile boolean closed;
+
+    public WatchManage(PropertiesReader propertiesReader, FilesMetrics metrics) {
+        this.basePath = Paths.get(propertiesReader.getFilesBasePath()).toAbsolutePath().normalize();
+        this.debounceMillis = Math.max(1, propertiesReader.getFilesWatchDebounceMs());
+        this.maxEvents = Math.max(1, propertiesReader.getFilesWatchMaxEvents());
+        this.metrics = metrics;
+        this.lock = metrics.lock("watch");
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("[WATCH] Watch service unavailable, only local changes are reported : {}", e.getMessage());
+        }
+        this.watcher = service;
+        this.thread = new Thread(this::watchLoop, "files-watch");
+        thread.setDaemon(true);
+        thread.start();
+        this.baseWatched = propertiesReader.getFilesPathCacheTtlMs() > 0 && pinBase();
+    }
+
+    /**
+     * 一直监听 files.base.path，供遍历结果的缓存失效使用
+     *
+     * @return 是否已注册 files.base.path
+     */
+    private boolean pinBase() {
+        if (watcher == null || !Files.isDirectory(basePath)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Watch watch = new Watch(basePath);
+            watch.pinned = true;
+            watches.put(basePath, watch);
+        } finally {
+            lock.unlock();
+        }
+        adopt(walk(basePath, false));
+        lock.lock();
+        try {
+            return directories.containsKey(basePath);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 订阅目录及其子目录中的变化，之后的变化以 path_changes 推送给会话。
+     * 会话之前订阅的目录被替换，同一会话同时只订阅一个目录
+     *
+     * @param session 文件会话
+     * @param path 目录路径，为空时为 files.base.path，必须在 files.base.path 下
+     * @return 操作结果，版本号为该目录最后一个批次的序号
+     */
+    public WebSocketMessageBody watch(FileSession session, String path) {
+        Path root = path == null || path.isEmpty() ? basePath : Paths.get(path).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            return WebSocketMessageBody.error(WATCH, "Directory not found");
+        }
+        try {
+            if (!root.startsWith(basePath) || !root.toRealPath().startsWith(basePath.toRealPath())) { // 包括指向外部的链接
+                return WebSocketMessageBody.error(WATCH, "Directory outside base path");
+            }
+        } catch (IOException e) {
+            return WebSocketMessageBody.error(WATCH, "Directory not found");
+        }
+        Watch watch;
+        Subscriber subscriber;
+        boolean created = false;
+        lock.lock();
+        try {
+            if (closed) {
+                return WebSocketMessageBody.error(WATCH, "Server closing");
+            }
+            watch = watches.get(root);
+            if (watch == null) {
+                watch = new Watch(root);
+                watches.put(root, watch);
+                created = true;
+            }
+            subscriber = new Subscriber(Sinks.many().unicast().onBackpressureBuffer(), watch.sequence);
+            watch.subscribers.add(subscriber);
+        } finally {
+            lock.unlock();
+        }
+        if (created) {
+            adopt(walk(root, false));
+        }
+        Watch target = watch;
+        Flux<WebSocketMessageBody> changes = subscriber.sink().asFlux()
+                .onBackpressureBuffer(BUFFER_SIZE, dropped -> metrics.watchDropped(), BufferOverflowStrategy.DROP_OLDEST)
+                .doFinally(signal -> release(target, subscriber));
+        if (!session.watch(changes)) { // 会话已断开，流不会被订阅
+            release(target, subscriber);
+            return WebSocketMessageBody.error(WATCH, "Session closed");
+        }
+        return WebSocketMessageBody.success(WATCH, null, subscriber.sequence());
+    }
+
+    /**
+     * 取消会话当前的目录订阅
+     *
+     * @param session 文件会话
+     * @return 操作结果
+     */
+    public WebSocketMessageBody unwatch(FileSession session) {
+        session.unwatch();
+        return WebSocketMessageBody.success(UNWATCH, null);
+    }
+
+    /**
+     * 报告本进程对路径的修改，与文件系统的事件合并到同一批次
+     *
+     * @param path 路径
+     * @param change created、modified 或 deleted
+     */
+    public void changed(Path path, String change) {
+        generation.incrementAndGet();
+        Path absolute = path.toAbsolutePath().normalize();
+        lock.lock();
+        try {
+            if (!watches.isEmpty()) {
+                metrics.watchEvents("local", 1);
+                record(absolute, change);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 观察到的变化次数，包括本进程报告的修改和订阅的目录中文件系统的事件。
+     * 没有订阅时只能观察到本进程的修改
+     *
+     * @return 变化次数，两次取得的值相同表示期间没有观察到变化
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 是否一直监听整个 files.base.path，即 {@link #generation()} 是否包括其中所有文件系统的变化
+     *
+     * @return files.path.cache.ttl.ms 大于 0 且监听服务可用时为 true
+     */
+    public boolean isBaseWatched() {
+        return baseWatched;
+    }
+
+    /**
+     * 停止监听线程并结束所有订阅
+     */
+    @Override
+    public void close() {
+        List<Subscriber> closing = new ArrayList<>();
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            watches.values().forEach(watch -> closing.addAll(watch.subscribers));
+            watches.clear();
+            directories.values().forEach(WatchKey::cancel);
+            metrics.watchDirectories(-directories.size());
+            directories.clear();
+        } finally {
+            lock.unlock();
+        }
+        closing.forEach(subscriber -> subscriber.sink().tryEmitComplete());
+        thread.interrupt();
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("[WATCH] Failed to close watch service : {}", e.getMessage());
+            }
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 订阅者的流结束时移除订阅者，目录没有订阅者时取消不在其它订阅目录下的注册
+     */
+    private void release(Watch watch, Subscriber subscriber) {
+        lock.lock();
+        try {
+            watch.subscribers.remove(subscriber);
+            if (!watch.subscribers.isEmpty() || watch.pinned || watches.get(watch.root) != watch) {
+                return;
+            }
+            watches.remove(watch.root);
+            Iterator<Map.Entry<Path, WatchKey>> it = directories.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, WatchKey> entry = it.next();
+                if (entry.getKey().startsWith(watch.root) && watching(entry.getKey()).isEmpty()) {
+                    entry.getValue().cancel();
+                    it.remove();
+                    metrics.watchDirectories(-1);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 遍历并注册目录及其所有子目录，在 lock 外调用
+     *
+     * @param directory 目录
+     * @param report 是否收集遍历到的路径，用于事件之前已在新目录中创建的文件
+     * @return 注册的目录和收集到的路径
+     */
+    private Walk walk(Path directory, boolean report) {
+        Walk walk = new Walk(new LinkedHashMap<>(), new ArrayList<>());
+        if (watcher == null) {
+            return walk;
+        }
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (report && !dir.equals(directory)) {
+                        walk.created().add(dir);
+                    }
+                    try {
+                        walk.keys().put(dir, register(dir));
+                    } catch (IOException e) {
+                        LOGGER.warn("[WATCH] Failed to watch : {} ,error : {}", dir, e.getMessage());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (report) {
+                        walk.created().add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // 遍历期间被删除或没有权限，忽略
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("[WATCH] Failed to walk : {} ,error : {}", directory, e.getMessage());
+        }
+        return walk;
+    }
+
+    /**
+     * 记录锁外注册的目录和收集到的路径。遍历期间订阅已被取消的目录取消注册
+     */
+    private void adopt(Walk walk) {
+        lock.lock();
+        try {
+            if (closed) {
+                walk.keys().values().forEach(WatchKey::cancel);
+                return;
+            }
+            for (Map.Entry<Path, WatchKey> entry : walk.keys().entrySet()) {
+                Path dir = entry.getKey();
+                WatchKey watchKey = entry.getValue();
+                if (directories.containsKey(dir)) {
+                    continue; // 同一目录重复注册得到同一个监听键
+                }
+                if (watching(dir).isEmpty()) {
+                    watchKey.cancel();
+                    continue;
+                }
+                if (!watchKey.isValid()) { // 另一次遍历取消了同一个监听键
+                    try {
+                        watchKey = register(dir);
+                    } catch (IOException e) {
+                        LOGGER.warn("[WATCH] Failed to watch : {} ,error : {}", dir, e.getMessage());
+                        continue;
+                    }
+                }
+                directories.put(dir, watchKey);
+                metrics.watchDirectories(1);
+            }
+            for (Path path : walk.created()) {
+                record(path, CREATED);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private WatchKey register(Path dir) throws IOException {
+        return dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * 监听线程：接收目录事件，并推送时间窗口已满的批次
+     */
+    private void watchLoop() {
+        while (!closed) {
+            long timeout;
+            lock.lock();
+            try {
+                timeout = watches.isEmpty() ? IDLE_MILLIS : debounceMillis;
+            } finally {
+                lock.unlock();
+            }
+            WatchKey watchKey = null;
+            try {
+                if (watcher == null) {
+                    Thread.sleep(timeout);
+                } else {
+                    watchKey = watcher.poll(timeout, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            List<Path> added = new ArrayList<>(); // 新建的子目录，在锁外注册
+            lock.lock();
+            try {
+                while (watchKey != null) {
+                    handle(watchKey, added);
+                    watchKey = watcher.poll();
+                }
+                flush(System.nanoTime());
+            } catch (ClosedWatchServiceException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            for (Path directory : added) {
+                adopt(walk(directory, true));
+            }
+        }
+    }
+
+    /**
+     * 把一个目录的事件记入批次，在 lock 内调用
+     *
+     * @param watchKey 有事件的监听键
+     * @param added 收集新建的子目录
+     */
+    private void handle(WatchKey watchKey, List<Path> added) {
+        Path directory = (Path) watchKey.watchable();
+        List<WatchEvent<?>> events = watchKey.pollEvents();
+        if (directories.get(directory) != watchKey) { // 已取消注册
+            return;
+        }
+        metrics.watchEvents("filesystem", events.size());
+        generation.incrementAndGet();
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                for (Watch watch : watching(directory)) {
+                    watch.overflow(System.nanoTime());
+                }
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                record(path, CREATED);
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    added.add(path);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                record(path, DELETED);
+            } else if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) { // 目录的修改事件只表示其中的路径有变化
+                record(path, MODIFIED);
+            }
+        }
+        if (!watchKey.reset()) { // 目录已被删除
+            directories.remove(directory);
+            metrics.watchDirectories(-1);
+        }
+    }
+
+    /**
+     * 把路径的变化记入所有包含该路径的订阅目录的批次，在 lock 内调用
+     */
+    private void record(Path path, String change) {
+        long now = System.nanoTime();
+        for (Watch watch : watching(path)) {
+            watch.add(path.toString(), change, now);
+        }
+    }
+
+    /**
+     * 包含该路径的订阅目录，在 lock 内调用
+     */
+    private List<Watch> watching(Path path) {
+        List<Watch> result = new ArrayList<>();
+        for (Watch watch : watches.values()) {
+            if (path.startsWith(watch.root)) {
+                result.add(watch);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 推送时间窗口已满的批次，在 lock 内调用
+     */
+    private void flush(long now) {
+        long window = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        for (Watch watch : watches.values()) {
+            if (watch.started != 0 && now - watch.started >= window) {
+                watch.flush();
+            }
+        }
+    }
+
+    /**
+     * 一个订阅者。流被订阅前推送的消息暂存在 sink 中，订阅后由订阅者自己的有界缓冲区接收
+     *
+     * @param sink 推送给该订阅者的消息
+     * @param sequence 订阅时最后一个批次的序号
+     */
+    private record Subscriber(Sinks.Many<WebSocketMessageBody> sink, long sequence) {
+    }
+
+    /**
+     * 一次锁外遍历的结果
+     *
+     * @param keys 注册的目录 -> 监听键
+     * @param created 遍历到的路径，记为新建
+     */
+    private record Walk(Map<Path, WatchKey> keys, List<Path> created) {
+    }
+
+    /**
+     * 一个订阅目录的批次和订阅者，只在 lock 内访问
+     */
+    private class Watch {
+        private final Path root; // 订阅的目录
+        private final List<Subscriber> subscribers = new ArrayList<>(); // 订阅者
+        private final Map<String, String> pending = new LinkedHashMap<>(); // 路径 -> 变化，按第一次变化的顺序
+        private boolean overflowed; // 当前批次超出了 maxEvents 或丢失了事件
+        private long started; // 当前批次第一个事件的时间，没有事件时为 0
+        private long sequence; // 最后一个批次的序号
+        private boolean pinned; // 没有订阅者时也不取消，见 files.path.cache.ttl.ms
+
+        Watch(Path root) {
+            this.root = root;
+        }
+
+        /**
+         * 合并同一路径在一个批次中的变化
+         */
+        void add(String path, String change, long now) {
+            if (subscribers.isEmpty()) {
+                return; // 只为缓存失效而监听，不需要批次
+            }
+            if (started == 0) {
+                started = now;
+            }
+            if (overflowed) {
+                return;
+            }
+            String previous = pending.get(path);
+            if (previous == null) {
+                pending.put(path, change);
+            } else if (previous.equals(CREATED) && change.equals(DELETED)) {
+                pending.remove(path); // 批次内新建又删除，对客户端而言没有变化
+            } else if (previous.equals(DELETED) && change.equals(CREATED)) {
+                pending.put(path, MODIFIED);
+            } else if (!previous.equals(CREATED)) { // 新建后的修改仍是新建
+                pending.put(path, change);
+            }
+            if (pending.size() > maxEvents) {
+                overflow(now);
+            }
+        }
+
+        /**
+         * 放弃当前批次中的路径，只推送 overflow
+         */
+        void overflow(long now) {
+            if (subscribers.isEmpty()) {
+                return;
+            }
+            if (started == 0) {
+                started = now;
+            }
+            overflowed = true;
+            pending.clear();
+        }
+
+        /**
+         * 推送当前批次并开始新的批次
+         */
+        void flush() {
+            Map<String, String> changes = overflowed ? Map.of(root.toString(), OVERFLOW) : new LinkedHashMap<>(pending);
+            pending.clear();
+            started = 0;
+            if (changes.isEmpty()) {
+                return;
+            }
+            metrics.watchBatch(overflowed, overflowed ? 0 : changes.size());
+            overflowed = false;
+            WebSocketMessageBody body = WebSocketMessageBody.success(CHANGES, changes, ++sequence);
+            for (Subscriber subscriber : subscribers) {
+                subscriber.sink().tryEmitNext(body);
+            }
+        }
+    }
+}
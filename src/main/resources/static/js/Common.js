@@ -33,10 +33,14 @@ function action(url){
  * @param {string} key - 消息键
  * @param {string} message - 消息内容
  * @param {object|Map} value - 附加值
+ * @param {string} [requestId] - 请求 ID，服务端在响应中原样带回
  * @returns {string} - JSON 字符串
  */
-function getJson(type, key, message, value){
+function getJson(type, key, message, value, requestId){
     var obj = {type: type, key: key, message: message};
+    if (requestId !== undefined) {
+        obj.requestId = requestId;
+    }
     if (typeof value === "object" && !Array.isArray(value)) {
         obj.value = value;
     } else if (value instanceof Map) {
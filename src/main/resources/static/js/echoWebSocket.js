@@ -10,6 +10,8 @@ var ChatWS = (function() {
     const CONNECT_STATUS = "创建链接成功, 开始发送消息"; // 连接成功的状态信息
     const RECOVER_STATUS = "链接断开, 重连..."; // 连接断开并尝试重连的状态信息
     const CLOSE_STATUS = "链接已断开"; // 连接关闭的状态信息
+    const IDLE_STATUS = "长时间未操作, 链接已断开"; // 空闲超时的状态信息
+    const IDLE_CLOSE_CODE = 4000; // 服务端空闲超时的关闭码
     const REFLESH_TIME = 1000; // 定时器刷新时间（毫秒）
 
     // ChatWS 构造函数
@@ -70,6 +72,12 @@ var ChatWS = (function() {
         self.ws.onclose = function(event) {
             self.statusFunc(RECOVER_STATUS); // 打印连接断开状态信息
             console.log('[连接关闭]', event.code, event.reason); // 打印连接关闭的状态码和原因
+            if (event.code === IDLE_CLOSE_CODE) {
+                clearInterval(self.loopSend); // 服务端因空闲关闭连接，不再重连
+                self.ws = null;
+                self.statusFunc(IDLE_STATUS);
+                return;
+            }
             reconnect(); // 尝试重连
         };
 
@@ -83,6 +91,7 @@ var ChatWS = (function() {
         function reconnect() {
             clearInterval(self.loopSend); // 清除发送消息的定时器
             clearTimeout(self.recover); // 清除重连定时器
+            self.ws = null; // 丢弃已断开的实例，否则 connect 会认为已有连接
             self.recover = setTimeout(function() {
                 self.connect(); // 重新建立连接
             }, REFLESH_TIME);
@@ -14,6 +14,17 @@ const FILE_SAVE = "file_save"; // 发送保存文件消息的消息类型
 const FILE_END = "file_end"; // 发送结束消息的消息类型
 const FILE_READ_LINE = "file_read_line"; // 发送读取文件的一行消息类型
 const FILE_WRITE_LINE = "file_write_line"; // 发送写入文件的一行消息类型
+const FILE_DELTA = "file_delta"; // 其它会话修改共享文档时推送的增量消息类型，恢复历史版本或重新读取时被删掉的行内容为 null
+const FILE_RESYNC = "file_resync"; // 发送不及时丢失了增量时推送的完整内容，应替换整个文档
+const FILE_VERSIONS = "file_versions"; // 发送列出文件历史版本的消息类型
+const FILE_RESTORE = "file_restore"; // 发送恢复文件历史版本的消息类型，value 为版本号
+const FILE_RELOAD = "file_reload"; // 发送重新读取磁盘上文件的消息类型，保存因冲突被拒绝后使用
+const FILE_TAIL = "file_tail"; // 发送跟踪文件新增行的消息类型，返回文件最后的行，之后的新行以 FILE_TAIL_LINES 推送
+const FILE_UNTAIL = "file_untail"; // 发送停止跟踪文件的消息类型
+const FILE_TAIL_LINES = "file_tail_lines"; // 跟踪的文件新增行时推送的消息类型，键为行序号，序号不连续表示有行因发送不及被丢弃
+const PATH_WATCH = "path_watch"; // 发送订阅目录变化的消息类型，之后的变化以 PATH_CHANGES 推送
+const PATH_UNWATCH = "path_unwatch"; // 发送取消目录订阅的消息类型
+const PATH_CHANGES = "path_changes"; // 订阅的目录有变化时推送的消息类型，值为 路径 -> created/modified/deleted，overflow 表示应重新遍历
 
 /**
  * FilesWS 类用于处理与文件相关的 WebSocket 通信。
@@ -29,6 +40,8 @@ var FilesWS = (function() {
     const RECEIVE_STATUS = "接收消息成功"; // 接收消息成功的状态信息
     const ERROR_STATUS = "发送消息失败"; // 发送消息失败的状态信息
     const CLOSE_STATUS = "链接已断开"; // 连接关闭的状态信息
+    const IDLE_STATUS = "长时间未操作, 链接已断开"; // 空闲超时的状态信息
+    const IDLE_CLOSE_CODE = 4000; // 服务端空闲超时的关闭码
     const REFLESH_TIME = 1000; // 定时器刷新时间（毫秒）
 
     /**
@@ -40,9 +53,47 @@ var FilesWS = (function() {
         this.statusFunc = typeof statusFunc === "function" ? statusFunc : function(status) {
             console.info("[STATUS] " + status);
         };
+        this.deltaFunc = null; // 处理共享文档增量的函数
+        this.resyncFunc = null; // 处理丢失增量后推送的完整内容的函数
+        this.tailFunc = null; // 处理跟踪的文件新增行的函数
+        this.changesFunc = null; // 处理订阅的目录变化的函数
+        this.requestSeq = 0; // 最后一个请求 ID
+        this.pending = {}; // 请求 ID -> 展示响应的函数，响应可能乱序返回
         this.connect(); // 初始化连接
     }
 
+    /**
+     * 设置处理共享文档增量的函数
+     * @param {Function} deltaFunc - 参数为增量的行号与内容，以及文档版本号
+     */
+    FilesWS.prototype.onDelta = function(deltaFunc) {
+        this.deltaFunc = typeof deltaFunc === "function" ? deltaFunc : null;
+    }
+
+    /**
+     * 设置处理丢失增量后推送的完整内容的函数
+     * @param {Function} resyncFunc - 参数为行号与内容（整个文档），以及文档版本号
+     */
+    FilesWS.prototype.onResync = function(resyncFunc) {
+        this.resyncFunc = typeof resyncFunc === "function" ? resyncFunc : null;
+    }
+
+    /**
+     * 设置处理跟踪的文件新增行的函数
+     * @param {Function} tailFunc - 参数为行序号与内容，以及最后一行的序号
+     */
+    FilesWS.prototype.onTail = function(tailFunc) {
+        this.tailFunc = typeof tailFunc === "function" ? tailFunc : null;
+    }
+
+    /**
+     * 设置处理订阅的目录变化的函数
+     * @param {Function} changesFunc - 参数为路径与变化，以及批次序号
+     */
+    FilesWS.prototype.onChanges = function(changesFunc) {
+        this.changesFunc = typeof changesFunc === "function" ? changesFunc : null;
+    }
+
     /**
      * 连接到 WebSocket 服务器
      */
@@ -67,6 +118,12 @@ var FilesWS = (function() {
         self.ws.onclose = function(event) {
             self.statusFunc(RECOVER_STATUS); // 打印连接断开状态信息
             console.log('[连接关闭]', event.code, event.reason); // 打印连接关闭的状态码和原因
+            if (event.code === IDLE_CLOSE_CODE) {
+                clearInterval(self.loop); // 服务端因空闲关闭连接，不再重连
+                self.ws = null;
+                self.statusFunc(IDLE_STATUS);
+                return;
+            }
             reconnect(); // 尝试重连
         };
 
@@ -80,7 +137,10 @@ var FilesWS = (function() {
          * 尝试重连的方法
          */
         function reconnect() {
+            clearInterval(self.loop); // 清除状态定时器
             clearTimeout(self.recover); // 清除重连定时器
+            self.ws = null; // 丢弃已断开的实例，否则 connect 会认为已有连接
+            self.pending = {}; // 已断开的连接上的请求不会再有响应
             self.recover = setTimeout(function() {
                 self.connect(); // 重新建立连接
             }, REFLESH_TIME);
@@ -110,7 +170,7 @@ var FilesWS = (function() {
     };
 
     /**
-     * 发送消息到 WebSocket 服务器
+     * 发送消息到 WebSocket 服务器，不必等待上一个响应；每个请求带有请求 ID，响应按 ID 交给对应的函数
      * @param {string} message - 要发送的消息内容
      * @param {Object} value - 附带的值
      * @param {Function} showRecevieFunc - 用于展示接收到的数据的函数
@@ -126,16 +186,44 @@ var FilesWS = (function() {
             console.warn('[警告] 没有连接，不能发送消息');
             return;
         }
-        self.ws.send(getJson(TYPE, "", message, value)); // 发送消息
+        var requestId = String(++self.requestSeq);
+        self.pending[requestId] = showRecevieFunc;
+        self.ws.send(getJson(TYPE, "", message, value, requestId)); // 发送消息
         self.statusFunc(SEND_STATUS); // 打印发送消息成功的状态信息
         self.ws.onmessage = function(event) {
             var data = JSON.parse(event.data); // 解析接收到的消息
+            if (data.message === FILE_DELTA) {
+                if (self.deltaFunc) {
+                    self.deltaFunc(data.value, data.version); // 其它会话推送的增量，不影响当前请求的回调
+                }
+                return;
+            }
+            if (data.message === FILE_RESYNC) {
+                if (self.resyncFunc) {
+                    self.resyncFunc(data.value, data.version); // 丢失了增量，用完整内容替换整个文档
+                }
+                return;
+            }
+            if (data.message === FILE_TAIL_LINES) {
+                if (self.tailFunc) {
+                    self.tailFunc(data.value, data.version); // 跟踪的文件新增的行，不影响当前请求的回调
+                }
+                return;
+            }
+            if (data.message === PATH_CHANGES) {
+                if (self.changesFunc) {
+                    self.changesFunc(data.value, data.version); // 订阅的目录的变化，不影响当前请求的回调
+                }
+                return;
+            }
+            var receive = self.pending[data.requestId]; // 发出该请求时传入的函数
+            delete self.pending[data.requestId];
             if (data.type === "error") {
                 console.error('[错误]', data.message, 'REASON', data.value.reason); // 打印错误信息
                 self.statusFunc(ERROR_STATUS);
-            } else {
+            } else if (receive) {
                 self.statusFunc(RECEIVE_STATUS); // 打印接收消息成功的状态信息
-                showRecevieFunc(data.value); // 调用显示接收消息的函数
+                receive(data.value); // 调用显示接收消息的函数
             }
         }
     }
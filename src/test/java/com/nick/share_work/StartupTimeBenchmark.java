@@ -0,0 +1,267 @@
+package com.nick.share_work;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 应用启动时间的测量工具，直接运行 main 方法即可。
+ * <p>
+ * 以独立进程多次启动打包好的 jar，每次使用新的临时目录存放文件工作路径、users.json、JWT 密钥库和日志，
+ * 从进程创建开始不断请求 /login，第一次成功响应的时间即为首个请求的耗时（time-to-first-request）；
+ * 同时记录 Spring 输出的 "Started ... in X seconds"。结束后输出两者的最小值、中位数和最大值。
+ * <p>
+ * 参数均为 name=value 形式，未识别的参数以 --name=value 传给被测应用，例如对比普通启动与 AOT + CDS 启动：
+ * <pre>
+ * mvn -Pstartup package -DskipTests
+ * java -Djarmode=tools -jar target/share_work-0.0.1-SNAPSHOT.jar extract --destination target/startup
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.nick.share_work.StartupTimeBenchmark \
+ *     -Dexec.args="jar=target/startup/share_work-0.0.1-SNAPSHOT.jar runs=5"
+ * mvn exec:java ... -Dexec.args="jar=target/startup/share_work-0.0.1-SNAPSHOT.jar runs=5 archive=target/startup/application.jsa
+ *     jvm=-Dspring.aot.enabled=true,-Dspring.profiles.active=startup"
+ * </pre>
+ * 指定 archive 且文件不存在时，先以 -XX:ArchiveClassesAtExit 做一次训练启动生成 CDS 归档，
+ * 与 Dockerfile 的做法相同；CDS 只对解压后的 jar 生效，直接使用 fat jar 时 JVM 会忽略归档。
+ *
+ * @author nick
+ */
+public class StartupTimeBenchmark {
+
+    // Spring Boot 启动完成时输出的日志
+    private static final Pattern STARTED = Pattern.compile("Started \\S+ in ([0-9.]+) seconds");
+
+    private final Options options;
+
+    private StartupTimeBenchmark(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new StartupTimeBenchmark(Options.parse(args)).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        if (options.archive != null && !Files.exists(options.archive)) {
+            train();
+        }
+        List<Long> firstRequest = new ArrayList<>();
+        List<Long> started = new ArrayList<>();
+        for (int i = 1; i <= options.runs; i++) {
+            Result result = launch(jvmArgs(true), false);
+            System.out.printf("run %d : first request %d ms, started %s%n", i, result.firstRequestMillis,
+                    result.startedMillis < 0 ? "-" : result.startedMillis + " ms");
+            firstRequest.add(result.firstRequestMillis);
+            if (result.startedMillis >= 0) {
+                started.add(result.startedMillis);
+            }
+        }
+        System.out.printf("jvm %s%n", jvmArgs(true));
+        print("first request", firstRequest);
+        print("started", started);
+    }
+
+    /**
+     * 训练启动：刷新完上下文后立即退出，退出时由 JVM 写出 CDS 归档
+     */
+    private void train() throws IOException, InterruptedException {
+        List<String> jvm = jvmArgs(false);
+        jvm.add("-XX:ArchiveClassesAtExit=" + options.archive);
+        jvm.add("-Dspring.context.exit=onRefresh");
+        long start = System.nanoTime();
+        launch(jvm, true);
+        System.out.printf("trained %s in %d ms%n", options.archive,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!Files.exists(options.archive)) {
+            throw new IllegalStateException("CDS archive was not written : " + options.archive);
+        }
+    }
+
+    private List<String> jvmArgs(boolean useArchive) {
+        List<String> jvm = new ArrayList<>(options.jvm);
+        if (useArchive && options.archive != null) {
+            jvm.add("-XX:SharedArchiveFile=" + options.archive);
+        }
+        return jvm;
+    }
+
+    /**
+     * 启动一次应用
+     *
+     * @param jvm JVM 参数
+     * @param training 是否为训练启动，训练启动等待进程自行退出而不发请求
+     * @return 测量结果
+     */
+    private Result launch(List<String> jvm, boolean training) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("share-work-startup");
+        Path usersFile = directory.resolve("users.json");
+        Files.writeString(usersFile, "{}", StandardCharsets.UTF_8);
+        int port = freePort();
+
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", String.valueOf(port));
+        properties.put("management.server.port", "0");
+        properties.put("files.base.path", Files.createDirectories(directory.resolve("files")).toString());
+        properties.put("user.data.file.path", usersFile.toString());
+        properties.put("jwt.keystore.path", directory.resolve("jwt-keys.json").toString());
+        properties.put("files.history.path", directory.resolve("history").toString());
+        properties.put("files.journal.path", directory.resolve("journal").toString());
+        properties.put("logging.file.name", directory.resolve("logs").toString());
+        properties.putAll(options.spring);
+
+        List<String> command = new ArrayList<>();
+        command.add(options.java);
+        command.addAll(jvm);
+        command.add("-jar");
+        command.add(options.jar.toString());
+        properties.forEach((name, value) -> command.add("--" + name + "=" + value));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(options.jar.toAbsolutePath().getParent().toFile())
+                .redirectErrorStream(true)
+                .start();
+        long[] startedMillis = {-1};
+        Thread reader = new Thread(() -> readOutput(process, startedMillis), "startup-output");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            if (training) {
+                if (!process.waitFor(options.timeout, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Training run did not exit within " + options.timeout + " s");
+                }
+                return new Result(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), startedMillis[0]);
+            }
+            URI uri = URI.create("http://localhost:" + port + "/login");
+            long deadline = start + TimeUnit.SECONDS.toNanos(options.timeout);
+            while (!respond(uri)) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("Application exited with " + process.exitValue());
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("No response within " + options.timeout + " s");
+                }
+                Thread.sleep(5);
+            }
+            long firstRequest = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            reader.join(TimeUnit.SECONDS.toMillis(1)); // Started 日志可能晚于首个响应输出
+            synchronized (startedMillis) {
+                return new Result(firstRequest, startedMillis[0]);
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+            delete(directory);
+        }
+    }
+
+    private static void readOutput(Process process, long[] startedMillis) {
+        try (BufferedReader lines = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                Matcher matcher = STARTED.matcher(line);
+                if (matcher.find()) {
+                    synchronized (startedMillis) {
+                        startedMillis[0] = Math.round(Double.parseDouble(matcher.group(1)) * 1000);
+                    }
+                    return; // 之后的输出不再读取
+                }
+            }
+        } catch (IOException e) {
+            // 进程已结束
+        }
+    }
+
+    private static boolean respond(URI uri) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+            connection.setConnectTimeout(1000);
+            connection.setReadTimeout(5000);
+            connection.setRequestProperty("Accept", "text/html");
+            try {
+                return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            return false; // 端口尚未监听
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static void print(String name, List<Long> millis) {
+        if (millis.isEmpty()) {
+            return;
+        }
+        long[] sorted = millis.stream().mapToLong(Long::longValue).sorted().toArray();
+        System.out.printf("%-14s min %6d ms  median %6d ms  max %6d ms%n", name,
+                sorted[0], sorted[sorted.length / 2], sorted[sorted.length - 1]);
+    }
+
+    private record Result(long firstRequestMillis, long startedMillis) {
+    }
+
+    private static final class Options {
+        private Path jar = Paths.get("target/share_work-0.0.1-SNAPSHOT.jar");
+        private String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        private List<String> jvm = new ArrayList<>(); // 逗号分隔的 JVM 参数
+        private Path archive; // CDS 归档，为空表示不使用
+        private int runs = 5;
+        private int timeout = 120; // 等待启动的最长秒数
+        private final Map<String, String> spring = new LinkedHashMap<>(); // 传给被测应用的配置
+
+        private static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                String[] pair = arg.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Expected name=value but got " + arg);
+                }
+                String value = pair[1];
+                switch (pair[0]) {
+                    case "jar" -> options.jar = Paths.get(value);
+                    case "java" -> options.java = value;
+                    case "jvm" -> options.jvm = new ArrayList<>(Arrays.asList(value.split(",")));
+                    case "archive" -> options.archive = Paths.get(value).toAbsolutePath();
+                    case "runs" -> options.runs = Integer.parseInt(value);
+                    case "timeout" -> options.timeout = Integer.parseInt(value);
+                    default -> options.spring.put(pair[0], value);
+                }
+            }
+            if (!Files.isRegularFile(options.jar)) {
+                throw new IllegalArgumentException("Jar not found : " + options.jar + ", run mvn package first");
+            }
+            options.jar = options.jar.toAbsolutePath();
+            return options;
+        }
+    }
+}
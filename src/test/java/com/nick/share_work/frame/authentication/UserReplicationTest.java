@@ -0,0 +1,143 @@
+package com.nick.share_work.frame.authentication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.authentication.model.Authority;
+import com.nick.share_work.frame.authentication.model.User;
+import com.nick.share_work.frame.cluster.LoopbackBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * 集群模式下两个节点（同一 JVM 内的 loopback 通道）之间用户的复制与冲突合并
+ *
+ * @author nick
+ */
+class UserReplicationTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path dir;
+
+    private LoopbackBackplane backplane1;
+    private LoopbackBackplane backplane2;
+    private AuthenticationService node1;
+    private AuthenticationService node2;
+
+    @BeforeEach
+    void setUp(TestInfo info) {
+        String cluster = "users-" + info.getDisplayName();
+        backplane1 = new LoopbackBackplane(cluster, "n1");
+        backplane2 = new LoopbackBackplane(cluster, "n2");
+        node1 = node(dir.resolve("n1/users.json"), backplane1);
+        node2 = node(dir.resolve("n2/users.json"), backplane2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        node1.close();
+        node2.close();
+        backplane1.close();
+        backplane2.close();
+    }
+
+    /**
+     * user-038：注册、修改和删除在本节点保存后复制到其它节点，并写入其它节点的文件
+     */
+    @Test
+    void changesReplicate() throws Exception {
+        User alice = node1.registerUser("alice", "secret", "alice@a").block(TIMEOUT);
+        assertThat(alice).isNotNull();
+        await(() -> alice.getId().equals(node2.loadUserByUsername("alice").block().getId()));
+        await(() -> read(dir.resolve("n2/users.json")).contains("alice@a"));
+
+        User changed = new User(alice.getId(), "alice", alice.getPassword(), "alice@b", List.of(Authority.USER));
+        assertThat(node2.updateUser(alice.getId(), changed).block(TIMEOUT)).isNotNull();
+        await(() -> "alice@b".equals(node1.loadUserByUsername("alice").block().getEmail()));
+
+        assertThat(node1.deleteUser(alice.getId(), changed).block(TIMEOUT)).isTrue();
+        await(() -> node2.loadUserByUsername("alice").block().getId() == null);
+    }
+
+    /**
+     * user-038：两个节点同时注册同一用户名，两边都只保留注册时间戳较小的用户；本节点不能重复注册
+     */
+    @Test
+    void concurrentRegistrationsKeepOneUser() {
+        Mono<User> first = node1.registerUser("bob", "secret", "bob@n1"); // 调用时已写入本节点，订阅后保存并发布
+        Mono<User> second = node2.registerUser("bob", "secret", "bob@n2");
+        User kept = first.block(TIMEOUT);
+        second.block(TIMEOUT);
+
+        // 两边的时钟都是 1，节点 ID 较小的 n1 先注册
+        await(() -> kept.getId().equals(node2.loadUserByUsername("bob").block().getId()));
+        assertThat(node1.loadUserByUsername("bob").block().getEmail()).isEqualTo("bob@n1");
+        assertThat(node1.registerUser("bob", "other", "bob@again").block(TIMEOUT)).isNull();
+    }
+
+    /**
+     * user-038：两个节点同时修改同一用户，两边都以时间戳较大的修改为准，时钟相同时比较节点 ID
+     */
+    @Test
+    void concurrentUpdatesConverge() {
+        User carol = node1.registerUser("carol", "secret", "carol@a").block(TIMEOUT);
+        await(() -> carol.getId().equals(node2.loadUserByUsername("carol").block().getId()));
+
+        Mono<User> first = node1.updateUser(carol.getId(),
+                new User(carol.getId(), "carol", carol.getPassword(), "carol@n1", List.of(Authority.USER)));
+        Mono<User> second = node2.updateUser(carol.getId(),
+                new User(carol.getId(), "carol", carol.getPassword(), "carol@n2", List.of(Authority.USER)));
+        first.block(TIMEOUT);
+        second.block(TIMEOUT);
+
+        await(() -> "carol@n2".equals(node1.loadUserByUsername("carol").block().getEmail()));
+        assertThat(node2.loadUserByUsername("carol").block().getEmail()).isEqualTo("carol@n2");
+    }
+
+    private static AuthenticationService node(Path users, LoopbackBackplane backplane) {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "userDataFilePath", users.toString());
+        ReflectionTestUtils.setField(reader, "executionMode", BlockingExecution.PLATFORM);
+        return new AuthenticationService(reader, new BlockingExecution(reader), backplane);
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.exists(file) ? Files.readString(file) : "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * 等待其它节点收到变更
+     */
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
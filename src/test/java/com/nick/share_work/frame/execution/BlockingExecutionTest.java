@@ -0,0 +1,110 @@
+package com.nick.share_work.frame.execution;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * execution.mode 的选择
+ *
+ * @author nick
+ */
+class BlockingExecutionTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * user-037：未配置或为 platform（不区分大小写）时阻塞任务在 boundedElastic 上执行，工作线程为守护平台线程
+     */
+    @Test
+    void platformModeIsTheDefault() throws Exception {
+        for (String mode : new String[]{null, "", "PLATFORM"}) {
+            BlockingExecution execution = new BlockingExecution(reader(mode));
+            try {
+                assertThat(execution.isVirtual()).isFalse();
+                assertThat(execution.call(() -> Thread.currentThread().getName()).block(TIMEOUT))
+                        .startsWith("boundedElastic-");
+                assertThat(worker(execution, "files-test-")).satisfies(thread -> {
+                    assertThat(thread.getName()).isEqualTo("files-test-0");
+                    assertThat(thread.isDaemon()).isTrue();
+                });
+            } finally {
+                execution.close();
+            }
+        }
+    }
+
+    /**
+     * user-037：未知的模式启动失败，不会悄悄退回 platform
+     */
+    @Test
+    void unknownModeIsRejected() {
+        assertThatThrownBy(() -> new BlockingExecution(reader("green")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("green");
+    }
+
+    /**
+     * user-037：virtual 模式下阻塞任务和工作线程都是虚拟线程
+     */
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void virtualModeUsesVirtualThreads() throws Exception {
+        BlockingExecution execution = new BlockingExecution(reader("virtual"));
+        try {
+            assertThat(execution.isVirtual()).isTrue();
+            assertThat(execution.call(() -> isVirtual(Thread.currentThread())).block(TIMEOUT)).isTrue();
+            Thread worker = worker(execution, "files-test-");
+            assertThat(isVirtual(worker)).isTrue();
+            assertThat(worker.getName()).isEqualTo("files-test-0");
+        } finally {
+            execution.close();
+        }
+    }
+
+    /**
+     * user-037：Java 21 以前启用 virtual 模式时启动失败并说明原因
+     */
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20)
+    void virtualModeRequiresJava21() {
+        assertThatThrownBy(() -> new BlockingExecution(reader("virtual")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("requires Java 21");
+    }
+
+    private static PropertiesReader reader(String mode) {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "executionMode", mode);
+        return reader;
+    }
+
+    /**
+     * 由 threadFactory 创建并运行一个线程，返回该线程
+     */
+    private static Thread worker(BlockingExecution execution, String prefix) throws Exception {
+        AtomicReference<Thread> current = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        execution.threadFactory(prefix).newThread(() -> {
+            current.set(Thread.currentThread());
+            done.countDown();
+        }).start();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        return current.get();
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+}
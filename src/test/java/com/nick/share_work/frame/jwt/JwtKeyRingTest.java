@@ -0,0 +1,135 @@
+package com.nick.share_work.frame.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.jwt.JwtKeyRing.StoredKey;
+
+/**
+ * 签名密钥的轮换、过期删除和按 kid 重新读取密钥文件
+ *
+ * @author nick
+ */
+class JwtKeyRingTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SecureRandom random = new SecureRandom();
+
+    @TempDir
+    Path dir;
+
+    /**
+     * user-039：最新的密钥超过轮换间隔时生成新密钥签名，旧密钥继续用于验证，
+     * 下一个密钥创建后再经过令牌有效期的密钥被删除并从文件中移除
+     */
+    @Test
+    void rotatesAndRetiresKeys() throws Exception {
+        long now = System.currentTimeMillis();
+        long hour = TimeUnit.HOURS.toMillis(1);
+        Path keystore = dir.resolve("keys.json");
+        write(keystore, List.of(
+                key("expired", now - 3 * JwtTokenProvider.EXPIRATION_TIME),
+                key("previous", now - JwtTokenProvider.EXPIRATION_TIME - hour))); // 已超过 1 小时的轮换间隔
+
+        JwtKeyRing ring = new JwtKeyRing(reader(keystore, 1));
+        try {
+            String signing = ring.current().kid();
+            assertThat(signing).isNotIn("expired", "previous");
+            assertThat(ring.find("previous")).isNotNull(); // 它签发的令牌还没有过期
+            assertThat(ring.find("expired")).isNull();
+            assertThat(read(keystore)).extracting(StoredKey::kid).containsExactly("previous", signing);
+        } finally {
+            ring.close();
+        }
+
+        JwtKeyRing restarted = new JwtKeyRing(reader(keystore, 1)); // 没有到轮换间隔，继续使用文件中的密钥
+        try {
+            assertThat(restarted.current().kid()).isEqualTo(read(keystore).get(1).kid());
+            assertThat(read(keystore)).hasSize(2);
+        } finally {
+            restarted.close();
+        }
+    }
+
+    /**
+     * user-039：遇到未知的 kid 时重新读取文件取得其它节点轮换出的密钥，两次读取至少间隔 1 秒
+     */
+    @Test
+    void unknownKidReloadsAtMostOncePerSecond() throws Exception {
+        Path keystore = dir.resolve("keys.json");
+        JwtKeyRing ring = new JwtKeyRing(reader(keystore, 0));
+        try {
+            assertThat(ring.find("forged")).isNull(); // 触发一次读取
+
+            List<StoredKey> keys = new ArrayList<>(read(keystore));
+            keys.add(key("other-node", System.currentTimeMillis()));
+            write(keystore, keys);
+            assertThat(ring.find("other-node")).isNull(); // 距上次读取不到 1 秒
+
+            Thread.sleep(1100);
+            assertThat(ring.find("other-node")).isNotNull();
+            assertThat(ring.current().kid()).isEqualTo("other-node"); // 最新的密钥用于签名
+        } finally {
+            ring.close();
+        }
+    }
+
+    /**
+     * user-039：配置了 jwt.secrets 时第一个密钥用于签名，kid 由密钥内容得出，各节点一致，不读写文件
+     */
+    @Test
+    void configuredSecretsAreFixed() {
+        String first = secret();
+        String second = secret();
+        PropertiesReader reader = reader(dir.resolve("keys.json"), 1);
+        ReflectionTestUtils.setField(reader, "jwtSecrets", first + ", " + second);
+
+        JwtKeyRing ring = new JwtKeyRing(reader);
+        JwtKeyRing other = new JwtKeyRing(reader);
+        assertThat(ring.current().kid()).isEqualTo(other.current().kid());
+        assertThat(ring.current().key().getEncoded()).isEqualTo(Base64.getDecoder().decode(first));
+        assertThat(ring.find(ring.current().kid())).isNotNull();
+        assertThat(ring.find("unknown")).isNull();
+        assertThat(dir.resolve("keys.json")).doesNotExist();
+    }
+
+    private static PropertiesReader reader(Path keystore, int rotationHours) {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "jwtSecrets", "");
+        ReflectionTestUtils.setField(reader, "jwtKeystorePath", keystore.toString());
+        ReflectionTestUtils.setField(reader, "jwtKeyRotationHours", rotationHours);
+        return reader;
+    }
+
+    private StoredKey key(String kid, long created) {
+        return new StoredKey(kid, secret(), created);
+    }
+
+    private String secret() {
+        byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        return Base64.getEncoder().encodeToString(secret);
+    }
+
+    private void write(Path keystore, List<StoredKey> keys) throws Exception {
+        Files.write(keystore, objectMapper.writeValueAsBytes(keys));
+    }
+
+    private List<StoredKey> read(Path keystore) throws Exception {
+        return objectMapper.readValue(keystore.toFile(), new TypeReference<List<StoredKey>>() {});
+    }
+}
@@ -0,0 +1,78 @@
+package com.nick.share_work.frame.logging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
+import ch.qos.logback.core.AppenderBase;
+
+/**
+ * 异步日志队列将满时的丢弃与计数
+ *
+ * @author nick
+ */
+class MeteredAsyncAppenderTest {
+
+    /**
+     * user-034：剩余容量低于阈值时丢弃 INFO 并计数，WARN 不丢弃
+     */
+    @Test
+    void infoIsDroppedAndCountedWhenTheQueueIsNearlyFull() throws Exception {
+        LoggerContext context = new LoggerContext();
+        context.setMDCAdapter(new LogbackMDCAdapter());
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> written = new CopyOnWriteArrayList<>();
+        AppenderBase<ILoggingEvent> slow = new AppenderBase<>() { // 写入第一条后卡住，模拟磁盘跟不上
+            @Override
+            protected void append(ILoggingEvent event) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.add(event.getFormattedMessage());
+            }
+        };
+        slow.setContext(context);
+        slow.start();
+
+        MeteredAsyncAppender async = new MeteredAsyncAppender();
+        async.setContext(context);
+        async.setName("ASYNC");
+        async.setQueueSize(4);
+        async.setDiscardingThreshold(2);
+        async.addAppender(slow);
+        async.start();
+        Logger logger = context.getLogger("test");
+        logger.setAdditive(false);
+        logger.setLevel(Level.INFO);
+        logger.addAppender(async);
+
+        logger.info("first");
+        assertThat(entered.await(10, TimeUnit.SECONDS)).isTrue(); // 队列已空，工作线程卡在第一条
+        for (int i = 1; i <= 5; i++) {
+            logger.info("info-{}", i); // 前三条入队，剩余容量降到 1 后丢弃
+        }
+        logger.warn("warn");
+
+        LongAdder dropped = (LongAdder) context.getObject(MeteredAsyncAppender.DROPPED_KEY + "ASYNC");
+        assertThat(dropped.sum()).isEqualTo(2);
+
+        release.countDown();
+        async.stop();
+        assertThat(written).containsExactly("first", "info-1", "info-2", "info-3", "warn");
+    }
+}
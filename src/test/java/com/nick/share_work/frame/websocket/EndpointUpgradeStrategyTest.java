@@ -0,0 +1,121 @@
+package com.nick.share_work.frame.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.server.support.HandshakeWebSocketService;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * 按端点协商 permessage-deflate 和限制入站帧大小
+ *
+ * @author nick
+ */
+class EndpointUpgradeStrategyTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String EXTENSIONS = "Sec-WebSocket-Extensions";
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private DisposableServer server;
+
+    @BeforeEach
+    void setUp() {
+        EndpointUpgradeStrategy strategy = new EndpointUpgradeStrategy(
+                Map.of("/compressed", new EndpointUpgradeStrategy.Options(true, 1024, 4096)),
+                new EndpointUpgradeStrategy.Options(false, 65536, 65536),
+                new WebSocketTrafficMetrics(registry));
+        HandshakeWebSocketService service = new HandshakeWebSocketService(strategy);
+        WebSocketHandler echo = session -> session.send(session.receive()
+                .map(message -> session.textMessage(message.getPayloadAsText())));
+        server = HttpServer.create().port(0)
+                .handle(new ReactorHttpHandlerAdapter(WebHttpHandlerBuilder
+                        .webHandler(exchange -> service.handleRequest(exchange, echo)).build()))
+                .bindNow();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.disposeNow();
+    }
+
+    /**
+     * user-028：开启压缩的端点同意客户端的 permessage-deflate，重复内容在线路上明显变小
+     */
+    @Test
+    void compressedEndpointNegotiatesDeflate() {
+        AtomicReference<HttpHeaders> headers = new AtomicReference<>();
+        String text = "line of a shared document\n".repeat(30);
+        String echoed = client(headers).uri("/compressed")
+                .handle((in, out) -> out.sendString(Mono.just(text)).then()
+                        .thenMany(in.receive().asString().next()))
+                .blockFirst(TIMEOUT);
+
+        assertThat(echoed).isEqualTo(text);
+        assertThat(headers.get().get(EXTENSIONS)).contains("permessage-deflate");
+        assertThat(counter("websocket.wire.bytes", "/compressed", "out"))
+                .isLessThan(counter("websocket.payload.bytes", "/compressed", "out") / 2);
+    }
+
+    /**
+     * user-028：未开启压缩的端点不协商扩展，内容原样传输
+     */
+    @Test
+    void plainEndpointDeclinesDeflate() {
+        AtomicReference<HttpHeaders> headers = new AtomicReference<>();
+        String echoed = client(headers).uri("/plain")
+                .handle((in, out) -> out.sendString(Mono.just("hello")).then()
+                        .thenMany(in.receive().asString().next()))
+                .blockFirst(TIMEOUT);
+
+        assertThat(echoed).isEqualTo("hello");
+        assertThat(headers.get().get(EXTENSIONS)).isNull();
+        assertThat(counter("websocket.wire.bytes", "/plain", "out"))
+                .isGreaterThan(counter("websocket.payload.bytes", "/plain", "out"));
+    }
+
+    /**
+     * user-028：压缩后仍超过端点单帧上限的入站帧以 1009（消息过大）关闭连接
+     */
+    @Test
+    void oversizedFramesCloseTheConnection() {
+        byte[] random = new byte[3000];
+        new Random(28).nextBytes(random);
+        String text = Base64.getEncoder().encodeToString(random); // 几乎无法压缩
+        Integer code = client(new AtomicReference<>()).uri("/compressed")
+                .handle((in, out) -> out.sendString(Mono.just(text)).then()
+                        .then(in.receiveCloseStatus().map(status -> status.code())))
+                .blockFirst(TIMEOUT);
+
+        assertThat(code).isEqualTo(1009);
+    }
+
+    private HttpClient.WebsocketSender client(AtomicReference<HttpHeaders> headers) {
+        return HttpClient.create()
+                .port(server.port())
+                .doOnResponse((response, connection) -> headers.set(response.responseHeaders()))
+                .websocket(WebsocketClientSpec.builder().compress(true).maxFramePayloadLength(65536).build());
+    }
+
+    private double counter(String name, String endpoint, String direction) {
+        return registry.get(name).tags("endpoint", endpoint, "direction", direction).counter().count();
+    }
+}
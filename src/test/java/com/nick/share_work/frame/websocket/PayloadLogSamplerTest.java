@@ -0,0 +1,55 @@
+package com.nick.share_work.frame.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * 消息内容日志的采样与截断
+ *
+ * @author nick
+ */
+class PayloadLogSamplerTest {
+
+    /**
+     * user-034：每 sample 条放行第一条，sample 为 0 时不放行
+     */
+    @Test
+    void everyNthPayloadIsSampled() {
+        PayloadLogSampler sampler = sampler(3, 100);
+        List<Boolean> sampled = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            sampled.add(sampler.sample());
+        }
+        assertThat(sampled).containsExactly(true, false, false, true, false, false, true);
+
+        PayloadLogSampler off = sampler(0, 100);
+        for (int i = 0; i < 5; i++) {
+            assertThat(off.sample()).isFalse();
+        }
+    }
+
+    /**
+     * user-034：超过最大长度的内容截断并注明原长度，短内容原样返回
+     */
+    @Test
+    void longPayloadsAreTruncated() {
+        PayloadLogSampler sampler = sampler(1, 5);
+        assertThat(sampler.truncate("short")).isEqualTo("short");
+        assertThat(sampler.truncate("0123456789")).isEqualTo("01234...(10 chars)");
+        assertThat(sampler.truncate(null)).isEqualTo("null");
+    }
+
+    private static PayloadLogSampler sampler(int sample, int maxLength) {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "websocketLogPayloadSample", sample);
+        ReflectionTestUtils.setField(reader, "websocketLogPayloadMaxLength", maxLength);
+        return new PayloadLogSampler(reader);
+    }
+}
@@ -0,0 +1,550 @@
+package com.nick.share_work.frame.websocket;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nick.share_work.ShareWorkApplication;
+import com.nick.share_work.frame.authentication.model.Authority;
+import com.nick.share_work.frame.authentication.model.User;
+import com.nick.share_work.frame.websocket.files.BinaryFrameCodec;
+import com.nick.share_work.frame.websocket.files.FileManage;
+import com.nick.share_work.frame.websocket.files.FilesManagementServer;
+import com.nick.share_work.frame.websocket.files.PathManage;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.client.WebsocketClientSpec;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * /files_connect 与 /echo_connect 的端到端压测工具，直接运行 main 方法即可。
+ * <p>
+ * 在随机端口启动应用，文件工作路径和 users.json 都生成在临时目录中；
+ * 每个用户通过 /login 取得 AUTH-TOKEN，之后建立大量并发 WebSocket 客户端。
+ * 每个客户端先打开分配给它的文件，再按配置的比例随机发送命令，收到响应并等待思考时间后才发送下一条（闭环）。
+ * 预热结束后开始计量，按命令输出吞吐量和 p50/p99/p99.9 延迟，并把完整的 HdrHistogram 分布写入 .hgrm 文件。
+ * <p>
+ * 参数均为 name=value 形式，未识别的参数以 --name=value 传给被测应用，例如：
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.nick.share_work.frame.websocket.WebSocketLoadGenerator \
+ *     -Dexec.args="clients=2000 users=200 duration=60 mix=file_write_line:80,file_open:5,path_search:15"
+ * </pre>
+ * 被测应用的命令限流默认放开，需要压测限流本身时传入 files.rate.* 覆盖。
+ * 闭环压测中服务端变慢会同时降低发送速率，延迟分布不包含请求本应发出却未发出的等待时间。
+ *
+ * @author nick
+ */
+public class WebSocketLoadGenerator {
+
+    private static final String PASSWORD = "load-test";
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(10); // 可记录的最大延迟
+    private static final String ECHO = "echo";
+    // 可以出现在命令比例中的命令
+    private static final Set<String> OPERATIONS = Set.of(
+            PathManage.EACH, PathManage.SEARCH, FileManage.OPEN, FileManage.SAVE, FileManage.READE_LINE, FileManage.WRITE_LINE);
+
+    private final Options options;
+    private final Map<String, Stats> stats = new LinkedHashMap<>(); // 命令名称 -> 统计
+    private final Stats connects = new Stats();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Sinks.Empty<Void> stop = Sinks.empty();
+    private final List<Client> clients = new ArrayList<>();
+    private volatile boolean stopped;
+
+    private Path directory;
+    private Path filesBase;
+    private Path usersFile;
+    private ConfigurableApplicationContext context;
+    private int port;
+
+    private WebSocketLoadGenerator(Options options) {
+        this.options = options;
+        for (String op : options.mix.keySet()) {
+            stats.put(op, new Stats());
+        }
+        if (!options.echo()) {
+            stats.putIfAbsent(FileManage.OPEN, new Stats()); // 每个客户端的第一条命令
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        WebSocketLoadGenerator generator = new WebSocketLoadGenerator(Options.parse(args));
+        try {
+            generator.prepare();
+            generator.start();
+            generator.run();
+        } finally {
+            generator.shutdown();
+        }
+    }
+
+    /**
+     * 生成文件工作路径下的文档和 users.json
+     */
+    private void prepare() throws IOException {
+        directory = Files.createTempDirectory("share-work-load");
+        filesBase = Files.createDirectories(directory.resolve("files"));
+        StringBuilder content = new StringBuilder();
+        for (int f = 0; f < options.files; f++) {
+            content.setLength(0);
+            for (int l = 1; l <= options.lines; l++) {
+                content.append("document ").append(f).append(" line ").append(l).append('\n');
+            }
+            Path folder = Files.createDirectories(filesBase.resolve("dir-" + f % 10));
+            Files.writeString(folder.resolve("doc-" + f + ".txt"), content, StandardCharsets.UTF_8);
+        }
+
+        // 所有用户共用同一个密码哈希，避免为每个用户计算一次 BCrypt
+        String hash = new BCryptPasswordEncoder().encode(PASSWORD);
+        Map<String, User> users = new LinkedHashMap<>();
+        for (int i = 0; i < options.users; i++) {
+            String id = "load-" + i;
+            users.put(id, new User(id, username(i), hash, id + "@example.com", List.of(Authority.USER)));
+        }
+        usersFile = directory.resolve("users.json");
+        new ObjectMapper().writeValue(usersFile.toFile(), users);
+    }
+
+    /**
+     * 在随机端口启动应用
+     */
+    private void start() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("management.server.port", "0");
+        properties.put("files.base.path", filesBase.toString());
+        properties.put("user.data.file.path", usersFile.toString());
+        properties.put("jwt.keystore.path", directory.resolve("jwt-keys.json").toString());
+        properties.put("files.history.path", directory.resolve("history").toString());
+        properties.put("files.journal.path", directory.resolve("journal").toString());
+        properties.put("logging.file.name", directory.resolve("logs").toString());
+        properties.put("logging.level.com.nick.share_work", "WARN");
+        properties.put("files.rate.cheap.per.second", "1000000");
+        properties.put("files.rate.cheap.burst", "1000000");
+        properties.put("files.rate.expensive.per.second", "1000000");
+        properties.put("files.rate.expensive.burst", "1000000");
+        properties.putAll(options.spring); // 同名参数重复出现时 Spring 会把取值拼接起来，这里先合并
+        List<String> args = new ArrayList<>();
+        properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+        System.setProperty("spring.devtools.restart.enabled", "false"); // 重启会以应用的参数再次调用本类的 main 方法
+        context = new SpringApplicationBuilder(ShareWorkApplication.class).run(args.toArray(new String[0]));
+        port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+        System.out.printf("server port %d, management port %s%n", port,
+                context.getEnvironment().getProperty("local.management.port"));
+    }
+
+    private void run() throws InterruptedException, IOException {
+        List<String> tokens = login();
+        System.out.printf("logged in %d users%n", tokens.size());
+
+        ReactorNettyWebSocketClient client = new ReactorNettyWebSocketClient(
+                HttpClient.create(ConnectionProvider.newConnection()),
+                () -> {
+                    WebsocketClientSpec.Builder spec = WebsocketClientSpec.builder()
+                            .maxFramePayloadLength(64 * 1024 * 1024)
+                            .compress(true);
+                    return options.binary ? spec.protocols(BinaryFrameCodec.SUBPROTOCOL) : spec;
+                });
+        URI uri = URI.create("ws://localhost:" + port + (options.echo() ? "/echo_connect" : "/files_connect"));
+        CountDownLatch connected = new CountDownLatch(options.clients);
+        for (int i = 0; i < options.clients; i++) {
+            clients.add(new Client(i, tokens.get(i % tokens.size()), connected));
+        }
+
+        long rampStart = System.nanoTime();
+        Mono<Void> done = Flux.fromIterable(clients)
+                .delayElements(Duration.ofNanos(TimeUnit.SECONDS.toNanos(1) / options.ramp))
+                .flatMap(c -> c.run(client, uri), options.clients)
+                .then()
+                .cache();
+        done.subscribe();
+        Disposable sweeper = Flux.interval(Duration.ofSeconds(1)).subscribe(tick -> sweep());
+        if (!connected.await(options.clients / options.ramp + 60L, TimeUnit.SECONDS)) {
+            System.out.printf("only %d of %d clients connected%n", options.clients - connected.getCount(), options.clients);
+        }
+        System.out.printf("connected %d clients in %.1f s, %d failed%n", options.clients - connectFailures.sum(),
+                (System.nanoTime() - rampStart) / 1e9, connectFailures.sum());
+
+        TimeUnit.SECONDS.sleep(options.warmup);
+        for (Stats s : stats.values()) {
+            s.reset(); // 丢弃预热期间的数据
+        }
+        long timeoutsBefore = timeouts.sum();
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(options.duration);
+        Map<String, Histogram> histograms = new LinkedHashMap<>();
+        Map<String, Long> errors = new LinkedHashMap<>();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().recorder.getIntervalHistogram());
+            errors.put(entry.getKey(), entry.getValue().errors.sum());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long measuredTimeouts = timeouts.sum() - timeoutsBefore;
+
+        stopped = true;
+        stop.tryEmitEmpty();
+        sweeper.dispose();
+        done.block(Duration.ofSeconds(30));
+
+        report(histograms, errors, seconds, measuredTimeouts);
+    }
+
+    /**
+     * 每个用户登录一次，取得 AUTH-TOKEN
+     */
+    private List<String> login() {
+        WebClient webClient = WebClient.create("http://localhost:" + port);
+        return Flux.range(0, options.users)
+                .flatMapSequential(i -> webClient.post()
+                        .uri("/login")
+                        .accept(MediaType.TEXT_HTML)
+                        .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                        .body(BodyInserters.fromFormData("username", username(i)).with("password", PASSWORD))
+                        .exchangeToMono(response -> Mono.justOrEmpty(response.cookies().getFirst("AUTH-TOKEN")))
+                        .map(ResponseCookie::getValue)
+                        .switchIfEmpty(Mono.error(() -> new IllegalStateException("Login failed for " + username(i)))), 8)
+                .collectList()
+                .block(Duration.ofMinutes(5));
+    }
+
+    /**
+     * 关闭等待响应超时的客户端
+     */
+    private void sweep() {
+        long deadline = System.nanoTime() - TimeUnit.SECONDS.toNanos(options.timeout);
+        for (Client c : clients) {
+            WebSocketSession session = c.session;
+            if (c.pending != null && c.sentAt < deadline && session != null && session.isOpen()) {
+                timeouts.increment();
+                c.pending = null;
+                session.close().subscribe();
+            }
+        }
+    }
+
+    private void report(Map<String, Histogram> histograms, Map<String, Long> errors, double seconds, long measuredTimeouts)
+            throws IOException {
+        Path output = Files.createDirectories(Paths.get(options.output));
+        System.out.printf("%nendpoint=%s codec=%s clients=%d users=%d think=%dms measured=%.1fs timeouts=%d%n",
+                options.endpoint, options.binary ? "binary" : "json", options.clients, options.users, options.think,
+                seconds, measuredTimeouts);
+        System.out.printf("%-18s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram total = new Histogram(HIGHEST_MICROS, 3);
+        long totalErrors = 0;
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            total.add(histogram);
+            totalErrors += errors.get(entry.getKey());
+            print(entry.getKey(), histogram, errors.get(entry.getKey()), seconds);
+            write(output.resolve(entry.getKey() + ".hgrm"), histogram);
+        }
+        print("total", total, totalErrors, seconds);
+        write(output.resolve("total.hgrm"), total);
+
+        Histogram connect = connects.recorder.getIntervalHistogram();
+        System.out.printf("%nconnect (login excluded): count=%d p50=%.2fms p99=%.2fms max=%.2fms failures=%d%n",
+                connect.getTotalCount(), connect.getValueAtPercentile(50) / 1000d,
+                connect.getValueAtPercentile(99) / 1000d, connect.getMaxValue() / 1000d, connectFailures.sum());
+        write(output.resolve("connect.hgrm"), connect);
+        System.out.printf("histograms written to %s%n", output.toAbsolutePath());
+    }
+
+    private static void print(String name, Histogram histogram, long errors, double seconds) {
+        System.out.printf("%-18s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name, histogram.getTotalCount(), errors, histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / 1000d, histogram.getValueAtPercentile(90) / 1000d,
+                histogram.getValueAtPercentile(99) / 1000d, histogram.getValueAtPercentile(99.9) / 1000d,
+                histogram.getMaxValue() / 1000d);
+    }
+
+    private static void write(Path file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+            histogram.outputPercentileDistribution(out, 1000d); // 单位：毫秒
+        }
+    }
+
+    private void shutdown() {
+        if (context != null) {
+            context.close();
+        }
+        if (directory != null) {
+            try (var paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException e) {
+                System.out.printf("failed to delete %s : %s%n", directory, e.getMessage());
+            }
+        }
+    }
+
+    private static String username(int index) {
+        return "load-user-" + index;
+    }
+
+    /**
+     * 构造一条请求
+     */
+    private WebSocketMessageBody request(String op, String path) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, String> value = new LinkedHashMap<>();
+        switch (op) {
+            case ECHO, PathManage.EACH, FileManage.SAVE:
+                break;
+            case PathManage.SEARCH:
+                value.put(FilesManagementServer.COND_KEY, ".*doc-" + random.nextInt(10) + "\\d*\\.txt");
+                break;
+            case FileManage.OPEN:
+                value.put(FilesManagementServer.PATH_KEY, path);
+                break;
+            case FileManage.READE_LINE:
+                value.put(FilesManagementServer.LINE_KEY, String.valueOf(1 + random.nextInt(options.lines)));
+                break;
+            case FileManage.WRITE_LINE:
+                value.put(FilesManagementServer.LINE_KEY, String.valueOf(1 + random.nextInt(options.lines)));
+                value.put(FilesManagementServer.VALUE_KEY, "edited " + random.nextLong());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + op);
+        }
+        WebSocketMessageBody body = new WebSocketMessageBody();
+        body.setType(options.echo() ? ECHO : "files");
+        body.setKey("");
+        body.setMessage(op);
+        body.setValue(value);
+        return body;
+    }
+
+    /**
+     * 单个 WebSocket 客户端，同一时刻最多有一条等待响应的命令
+     */
+    private final class Client {
+        private final String token;
+        private final String path; // 分配给该客户端的文件
+        private final CountDownLatch connected;
+        private final Sinks.Many<WebSocketMessageBody> outbound = Sinks.many().unicast().onBackpressureBuffer();
+        private volatile WebSocketSession session;
+        private volatile String pending; // 等待响应的命令
+        private volatile long sentAt;
+
+        private Client(int index, String token, CountDownLatch connected) {
+            int file = index % options.files;
+            this.token = token;
+            this.path = filesBase.resolve("dir-" + file % 10).resolve("doc-" + file + ".txt").toString();
+            this.connected = connected;
+        }
+
+        private Mono<Void> run(ReactorNettyWebSocketClient client, URI uri) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(HttpHeaders.COOKIE, "AUTH-TOKEN=" + token);
+            long connectStart = System.nanoTime();
+            return client.execute(uri, headers, ws -> {
+                        connects.record(System.nanoTime() - connectStart, false);
+                        session = ws;
+                        connected.countDown();
+                        send(options.echo() ? ECHO : FileManage.OPEN);
+                        Mono<Void> receive = ws.receive()
+                                .filter(m -> m.getType() == WebSocketMessage.Type.TEXT
+                                        || m.getType() == WebSocketMessage.Type.BINARY)
+                                .doOnNext(m -> onResponse(decode(m)))
+                                .takeUntilOther(stop.asMono())
+                                .doFinally(signal -> outbound.tryEmitComplete())
+                                .then();
+                        Mono<Void> send = ws.send(outbound.asFlux().map(body -> encode(ws, body)));
+                        return Mono.when(receive, send).then(ws.close());
+                    })
+                    .onErrorResume(e -> {
+                        if (session == null) {
+                            connectFailures.increment();
+                            connected.countDown();
+                        }
+                        return Mono.empty();
+                    });
+        }
+
+        private void onResponse(WebSocketMessageBody body) {
+            String op = pending;
+            // 其它会话写入产生的 file_delta 等推送不是本客户端的响应
+            if (body == null || op == null || (!options.echo() && !op.equals(body.getMessage()))) {
+                return;
+            }
+            pending = null;
+            stats.get(op).record(System.nanoTime() - sentAt, body.isError());
+            if (options.think > 0) {
+                Mono.delay(Duration.ofMillis(options.think)).subscribe(tick -> next());
+            } else {
+                next();
+            }
+        }
+
+        private void next() {
+            if (!stopped && session != null && session.isOpen()) {
+                send(options.pick());
+            }
+        }
+
+        private void send(String op) {
+            sentAt = System.nanoTime();
+            pending = op;
+            outbound.tryEmitNext(request(op, path));
+        }
+
+        private WebSocketMessage encode(WebSocketSession ws, WebSocketMessageBody body) {
+            return options.binary
+                    ? new WebSocketMessage(WebSocketMessage.Type.BINARY, BinaryFrameCodec.write(ws.bufferFactory(), body))
+                    : ws.textMessage(body.toJson());
+        }
+
+        private WebSocketMessageBody decode(WebSocketMessage message) {
+            return message.getType() == WebSocketMessage.Type.BINARY
+                    ? BinaryFrameCodec.read(message.getPayload())
+                    : WebSocketMessageBody.fromJson(message.getPayloadAsText());
+        }
+    }
+
+    /**
+     * 单个命令的延迟（微秒）和错误数
+     */
+    private static final class Stats {
+        private final Recorder recorder = new Recorder(HIGHEST_MICROS, 3);
+        private final LongAdder errors = new LongAdder();
+
+        private void record(long nanos, boolean error) {
+            recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_MICROS));
+            if (error) {
+                errors.increment();
+            }
+        }
+
+        private void reset() {
+            recorder.reset();
+            errors.reset();
+        }
+    }
+
+    /**
+     * 命令行参数
+     */
+    private static final class Options {
+        private String endpoint = "files"; // files 或 echo
+        private boolean binary; // 是否使用二进制子协议，仅 files 端点支持
+        private int clients = 1000;
+        private int users = 100;
+        private int ramp = 500; // 每秒建立的连接数
+        private int warmup = 10; // 预热秒数
+        private int duration = 60; // 计量秒数
+        private int think = 50; // 两条命令之间的思考时间，毫秒
+        private int timeout = 30; // 等待响应的最长秒数，超时后关闭该客户端
+        private int files = 100;
+        private int lines = 1000;
+        private String output = "target/load";
+        private Map<String, Integer> mix = new LinkedHashMap<>(); // 命令名称 -> 权重
+        private int totalWeight;
+        private final Map<String, String> spring = new LinkedHashMap<>(); // 传给被测应用的配置
+
+        private static Options parse(String[] args) {
+            Options options = new Options();
+            String mix = FileManage.WRITE_LINE + ":80," + FileManage.OPEN + ":5," + PathManage.SEARCH + ":15";
+            for (String arg : args) {
+                String[] pair = arg.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Expected name=value but got " + arg);
+                }
+                String value = pair[1];
+                switch (pair[0]) {
+                    case "endpoint" -> options.endpoint = value;
+                    case "codec" -> options.binary = "binary".equals(value);
+                    case "clients" -> options.clients = Integer.parseInt(value);
+                    case "users" -> options.users = Integer.parseInt(value);
+                    case "ramp" -> options.ramp = Integer.parseInt(value);
+                    case "warmup" -> options.warmup = Integer.parseInt(value);
+                    case "duration" -> options.duration = Integer.parseInt(value);
+                    case "think" -> options.think = Integer.parseInt(value);
+                    case "timeout" -> options.timeout = Integer.parseInt(value);
+                    case "files" -> options.files = Integer.parseInt(value);
+                    case "lines" -> options.lines = Integer.parseInt(value);
+                    case "output" -> options.output = value;
+                    case "mix" -> mix = value;
+                    default -> options.spring.put(pair[0], value);
+                }
+            }
+            if (!"files".equals(options.endpoint) && !ECHO.equals(options.endpoint)) {
+                throw new IllegalArgumentException("endpoint must be files or echo");
+            }
+            if (options.echo() && options.binary) {
+                throw new IllegalArgumentException("echo endpoint only supports the json codec");
+            }
+            if (options.echo()) {
+                mix = ECHO + ":1";
+            }
+            for (String entry : mix.split(",")) {
+                String[] pair = entry.split(":", 2);
+                int weight = pair.length == 2 ? Integer.parseInt(pair[1]) : 1;
+                if (!options.echo() && !OPERATIONS.contains(pair[0].trim())) {
+                    throw new IllegalArgumentException("Unsupported operation " + pair[0] + ", expected one of " + OPERATIONS);
+                }
+                if (weight > 0) {
+                    options.mix.put(pair[0].trim(), weight);
+                    options.totalWeight += weight;
+                }
+            }
+            if (options.totalWeight == 0 || options.users < 1 || options.clients < 1 || options.ramp < 1) {
+                throw new IllegalArgumentException("mix, users, clients and ramp must be positive");
+            }
+            return options;
+        }
+
+        private boolean echo() {
+            return ECHO.equals(endpoint);
+        }
+
+        /**
+         * 按权重随机选择一条命令
+         */
+        private String pick() {
+            int n = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                n -= entry.getValue();
+                if (n < 0) {
+                    return entry.getKey();
+                }
+            }
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.nick.share_work.frame.websocket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 心跳超时、空闲超时和按端点登记的会话指标
+ *
+ * @author nick
+ */
+class WebSocketSessionMonitorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final DataBufferFactory BUFFERS = DefaultDataBufferFactory.sharedInstance;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final WebSocketSessionMonitor monitor = new WebSocketSessionMonitor(reader(), registry);
+
+    /**
+     * user-029：超过 pong 超时没有收到任何帧时以 HEARTBEAT_TIMEOUT 关闭会话，心跳流随之结束
+     */
+    @Test
+    void silentSessionsHitTheHeartbeatTimeout() {
+        FakeSession session = new FakeSession("silent");
+        WebSocketSessionMonitor.Tracked tracked = monitor.track("/files", session.mock, () -> 0);
+
+        List<WebSocketMessage> pings = tracked.heartbeat().collectList().block(TIMEOUT);
+        assertThat(session.closed).containsExactly(WebSocketSessionMonitor.HEARTBEAT_TIMEOUT);
+        assertThat(pings).allMatch(ping -> ping.getType() == WebSocketMessage.Type.PING);
+    }
+
+    /**
+     * user-029：只回复 pong 的会话不会心跳超时，但超过空闲超时没有数据帧时以 IDLE_TIMEOUT 关闭
+     */
+    @Test
+    void sessionsWithoutDataHitTheIdleTimeout() {
+        FakeSession session = new FakeSession("idle");
+        WebSocketSessionMonitor.Tracked tracked = monitor.track("/files", session.mock, () -> 0);
+        assertThat(tracked.onInbound(frame(WebSocketMessage.Type.TEXT))).isTrue();
+
+        Disposable pongs = Flux.interval(Duration.ofMillis(200)) // 浏览器自动回复 pong
+                .subscribe(tick -> assertThat(tracked.onInbound(frame(WebSocketMessage.Type.PONG))).isFalse());
+        try {
+            List<WebSocketMessage> pings = tracked.heartbeat().collectList().block(TIMEOUT);
+            assertThat(session.closed).containsExactly(WebSocketSessionMonitor.IDLE_TIMEOUT);
+            assertThat(pings).isNotEmpty(); // 空闲超时前照常发送 ping
+        } finally {
+            pongs.dispose();
+        }
+    }
+
+    /**
+     * user-029：按端点统计活动会话数和持有的内存，停止监视后不再计入
+     */
+    @Test
+    void gaugesFollowTrackedSessions() {
+        WebSocketSessionMonitor.Tracked first = monitor.track("/files", new FakeSession("a").mock, () -> 100);
+        monitor.track("/files", new FakeSession("b").mock, () -> 300);
+        monitor.track("/echo", new FakeSession("c").mock, () -> 50);
+
+        assertThat(gauge("websocket.sessions.active", "/files")).isEqualTo(2);
+        assertThat(gauge("websocket.sessions.retained.bytes", "/files")).isEqualTo(400);
+        assertThat(gauge("websocket.session.retained.bytes.max", "/files")).isEqualTo(300);
+        assertThat(gauge("websocket.sessions.active", "/echo")).isEqualTo(1);
+
+        first.release();
+        assertThat(gauge("websocket.sessions.active", "/files")).isEqualTo(1);
+        assertThat(gauge("websocket.sessions.retained.bytes", "/files")).isEqualTo(300);
+    }
+
+    private double gauge(String name, String endpoint) {
+        return registry.get(name).tag("endpoint", endpoint).gauge().value();
+    }
+
+    private static WebSocketMessage frame(WebSocketMessage.Type type) {
+        return new WebSocketMessage(type, BUFFERS.wrap("x".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 1 秒发送一次 ping，1 秒没有任何帧为心跳超时，2 秒没有数据帧为空闲超时
+     */
+    private static PropertiesReader reader() {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "websocketPingIntervalSeconds", 1);
+        ReflectionTestUtils.setField(reader, "websocketPongTimeoutSeconds", 1);
+        ReflectionTestUtils.setField(reader, "websocketIdleTimeoutSeconds", 2);
+        return reader;
+    }
+
+    /**
+     * 记录关闭状态的会话，关闭后 closeStatus 结束
+     */
+    private static final class FakeSession {
+        private final WebSocketSession mock = mock(WebSocketSession.class);
+        private final Sinks.One<CloseStatus> status = Sinks.one();
+        private final List<CloseStatus> closed = new CopyOnWriteArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        private FakeSession(String id) {
+            when(mock.getId()).thenReturn(id);
+            when(mock.closeStatus()).thenReturn(status.asMono());
+            when(mock.close(any())).thenAnswer(invocation -> {
+                CloseStatus closeStatus = invocation.getArgument(0);
+                closed.add(closeStatus);
+                status.tryEmitValue(closeStatus);
+                return Mono.empty();
+            });
+            when(mock.pingMessage(any())).thenAnswer(invocation -> new WebSocketMessage(WebSocketMessage.Type.PING,
+                    ((Function<DataBufferFactory, DataBuffer>) invocation.getArgument(0)).apply(BUFFERS)));
+        }
+    }
+}
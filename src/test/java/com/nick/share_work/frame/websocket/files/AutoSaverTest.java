@@ -0,0 +1,109 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+/**
+ * 未保存文档的合并保存与失败重试
+ *
+ * @author nick
+ */
+class AutoSaverTest {
+
+    private static final long INTERVAL = 200;
+
+    @TempDir
+    Path dir;
+
+    private AutoSaver autoSaver;
+
+    @BeforeEach
+    void setUp() {
+        autoSaver = autoSaver(INTERVAL);
+    }
+
+    @AfterEach
+    void tearDown() {
+        autoSaver.close();
+    }
+
+    /**
+     * user-043：一个间隔内的多次写入只保存一次，保存开始后的写入安排下一次
+     */
+    @Test
+    void writesWithinAnIntervalAreCoalesced() throws Exception {
+        AtomicInteger saves = new AtomicInteger();
+        AutoSaver.SaveTask save = () -> {
+            saves.incrementAndGet();
+            return true;
+        };
+        for (int i = 0; i < 5; i++) {
+            autoSaver.schedule("a", save);
+        }
+        autoSaver.schedule("b", save); // 不同文档各自保存
+        FilesTestSupport.await(() -> saves.get() == 2);
+        Thread.sleep(INTERVAL * 2);
+        assertThat(saves.get()).isEqualTo(2);
+
+        autoSaver.schedule("a", save);
+        FilesTestSupport.await(() -> saves.get() == 3);
+    }
+
+    /**
+     * user-043：保存失败或抛出异常时一个间隔后重试，直到保存成功
+     */
+    @Test
+    void failedSavesAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        autoSaver.schedule("a", () -> {
+            int attempt = attempts.incrementAndGet();
+            if (attempt == 1) {
+                return false;
+            }
+            if (attempt == 2) {
+                throw new IllegalStateException("disk full");
+            }
+            return true;
+        });
+        FilesTestSupport.await(() -> attempts.get() == 3);
+        Thread.sleep(INTERVAL * 2);
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    /**
+     * user-043：关闭时取消已安排的保存；间隔为 0 时不自动保存
+     */
+    @Test
+    void closeCancelsAndZeroIntervalDisables() throws Exception {
+        AtomicInteger saves = new AtomicInteger();
+        autoSaver.schedule("a", () -> saves.incrementAndGet() > 0);
+        autoSaver.close();
+        autoSaver.schedule("b", () -> saves.incrementAndGet() > 0);
+        Thread.sleep(INTERVAL * 2);
+        assertThat(saves.get()).isZero();
+
+        AutoSaver disabled = autoSaver(0);
+        assertThat(disabled.isEnabled()).isFalse();
+        disabled.schedule("a", () -> saves.incrementAndGet() > 0);
+        disabled.close();
+        assertThat(saves.get()).isZero();
+    }
+
+    private AutoSaver autoSaver(long intervalMillis) {
+        PropertiesReader reader = FilesTestSupport.propertiesReader(dir);
+        ReflectionTestUtils.setField(reader, "filesAutosaveIntervalMs", intervalMillis);
+        ReflectionTestUtils.setField(reader, "filesAutosaveConcurrency", 2);
+        return new AutoSaver(reader, new BlockingExecution(reader));
+    }
+}
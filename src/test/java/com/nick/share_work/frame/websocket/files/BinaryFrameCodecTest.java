@@ -0,0 +1,108 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+/**
+ * 二进制帧的编码与解码
+ *
+ * @author nick
+ */
+class BinaryFrameCodecTest {
+
+    private static final DataBufferFactory FACTORY = DefaultDataBufferFactory.sharedInstance;
+    private static final int FIELD_PATH = 0; // path 在常用字段表中的序号
+
+    /**
+     * user-027：各种键（行号、常用字段、内联键）和值（多字节字符、null）编码后原样解码，缓冲区大小恰好
+     */
+    @Test
+    void roundTripsEveryKeyKind() {
+        Map<String, String> value = new LinkedHashMap<>();
+        value.put("1", "    return \"中文\" + value;");
+        value.put("123456789", "emoji 😀");
+        value.put("0", "");
+        value.put("7", null);
+        value.put(FilesManagementServer.PATH_KEY, "/home/test/文件.txt");
+        value.put(FilesManagementServer.LINE_KEY, "1234");
+        value.put("01", "前导零不是行号");
+        value.put("1234567890", "超过 9 位不是行号");
+        value.put("键", "内联");
+        value.put("lone", "\uD800 surrogate");
+        WebSocketMessageBody body = WebSocketMessageBody.success(FileManage.WRITE_LINE, value, 300L).withRequestId("r-1");
+
+        WebSocketMessageBody decoded = roundTrip(body);
+        assertThat(decoded.getMessage()).isEqualTo(FileManage.WRITE_LINE);
+        assertThat(decoded.isError()).isFalse();
+        assertThat(decoded.getVersion()).isEqualTo(300L);
+        assertThat(decoded.getRequestId()).isEqualTo("r-1");
+        value.put("lone", "? surrogate"); // 与 StandardCharsets.UTF_8 一样替换不成对的代理字符
+        assertThat(decoded.getValue()).containsExactlyEntriesOf(value);
+    }
+
+    /**
+     * user-027：非数字的 line 字段、错误消息、表中没有的消息名和没有 value 的消息，短字符串也不扩容缓冲区
+     */
+    @Test
+    void roundTripsErrorsAndUnknownMessages() {
+        Map<String, String> line = new HashMap<>();
+        line.put(FilesManagementServer.LINE_KEY, "abc");
+        assertThat(roundTrip(WebSocketMessageBody.success(FileManage.READE_LINE, line)).getValue()).isEqualTo(line);
+
+        WebSocketMessageBody error = roundTrip(WebSocketMessageBody.error(FileManage.SAVE, "Conflicting changes on disk"));
+        assertThat(error.isError()).isTrue();
+        assertThat(error.getValue()).containsEntry(WebSocketMessageBody.REASON_KEY, "Conflicting changes on disk");
+        assertThat(error.getVersion()).isNull();
+
+        WebSocketMessageBody unknown = roundTrip(WebSocketMessageBody.success("custom_message", null));
+        assertThat(unknown.getMessage()).isEqualTo("custom_message");
+        assertThat(unknown.getValue()).isNull();
+        assertThat(unknown.getRequestId()).isNull();
+    }
+
+    /**
+     * user-027：截断的帧返回 null 而不是抛出异常
+     */
+    @Test
+    void truncatedFrameIsRejected() {
+        DataBuffer buffer = BinaryFrameCodec.write(FACTORY,
+                WebSocketMessageBody.success(FileManage.DELTA, Map.of("12", "some text"), 5L));
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        for (int length = 1; length < bytes.length; length++) {
+            DataBuffer truncated = FACTORY.wrap(Arrays.copyOf(bytes, length));
+            assertThat(BinaryFrameCodec.read(truncated)).as("length %d", length).isNull();
+        }
+    }
+
+    /**
+     * user-027：条目数超过帧内剩余字节能容纳的数量时拒绝，不按客户端给出的条目数分配内存
+     */
+    @Test
+    void oversizedEntryCountIsRejected() {
+        // opcode 1，flags 为携带 value，条目数 500,000,000，后面只有两个字节
+        byte[] frame = {1, 1 << 2, (byte) 0x80, (byte) 0xCA, (byte) 0xB5, (byte) 0xEE, 0x01, 2, 0};
+        assertThat(BinaryFrameCodec.read(FACTORY.wrap(frame))).isNull();
+
+        byte[] fits = {1, 1 << 2, 1, (byte) ((FIELD_PATH << 2) | 2), 0}; // 一个 path 字段，值为 null
+        assertThat(BinaryFrameCodec.read(FACTORY.wrap(fits)).getValue())
+                .containsEntry(FilesManagementServer.PATH_KEY, null);
+    }
+
+    private static WebSocketMessageBody roundTrip(WebSocketMessageBody body) {
+        DataBuffer buffer = BinaryFrameCodec.write(FACTORY, body);
+        assertThat(buffer.writableByteCount()).isZero(); // 预先计算的长度恰好
+        return BinaryFrameCodec.read(buffer);
+    }
+}
@@ -0,0 +1,92 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.nick.share_work.frame.cluster.LoopbackBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+
+
+/**
+ * 集群模式下两个节点（同一 JVM 内的 loopback 通道）对同一文件的写入、同步与删除
+ *
+ * @author nick
+ */
+class ClusterSyncTest {
+
+    @TempDir
+    Path dir;
+
+    private FileManage node1;
+    private FileManage node2;
+    private Path file;
+
+    @BeforeEach
+    void setUp(TestInfo info) throws Exception {
+        PropertiesReader reader = FilesTestSupport.propertiesReader(dir);
+        String cluster = "sync-" + info.getDisplayName();
+        node1 = FilesTestSupport.fileManage(reader, FilesTestSupport.metrics(), new LoopbackBackplane(cluster, "n1"));
+        node2 = FilesTestSupport.fileManage(reader, FilesTestSupport.metrics(), new LoopbackBackplane(cluster, "n2"));
+        file = dir.resolve("doc.txt");
+        Files.write(file, "a\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        node1.close();
+        node2.close();
+    }
+
+    /**
+     * user-038：之后才打开文件的节点取得其它节点未保存的写入，时钟随之推进，之后的写入在两个节点上都生效
+     */
+    @Test
+    void lateOpenerCatchesUpAndWins() throws Exception {
+        FileSession first = new FileSession("first");
+        node1.open(first, file.toString());
+        node1.writeLine(first, "1", "one", null);
+        node1.writeLine(first, "1", "two", null);
+        node1.writeLine(first, "1", "three", null);
+        node1.writeLine(first, "4", "added", null);
+
+        FileSession second = new FileSession("second");
+        assertThat(node2.open(second, file.toString()).getValue())
+                .isEqualTo(Map.of("1", "three", "2", "b", "3", "c", "4", "added"));
+
+        node2.writeLine(second, "1", "later", null); // 时钟未推进时时间戳为 1，会被 node1 的写入覆盖
+        FilesTestSupport.await(() -> "later".equals(first.getHub().readLine(1).getValue().get("1")));
+        assertThat(second.getHub().readLine(1).getValue()).containsEntry("1", "later");
+    }
+
+    /**
+     * user-038：恢复历史版本时被删掉的行在其它节点上同样删除
+     */
+    @Test
+    void restoreDeletionsReplicate() throws Exception {
+        FileSession first = new FileSession("first");
+        node1.open(first, file.toString());
+        node1.writeLine(first, "4", "extra", null);
+        assertThat(node1.save(first).isError()).isFalse(); // 版本 1 为三行，版本 2 为四行
+
+        FileSession second = new FileSession("second");
+        node2.open(second, file.toString());
+        assertThat(second.getHub().snapshot().getValue()).containsEntry("4", "extra");
+
+        assertThat(node1.restore(first, file.toString(), "1").isError()).isFalse();
+        FilesTestSupport.await(() -> second.getHub().snapshot().getValue().get("4") == null);
+        assertThat(second.getHub().snapshot().getValue()).isEqualTo(Map.of("1", "a", "2", "b", "3", "c"));
+
+        FileSession third = new FileSession("third");
+        assertThat(node2.open(third, file.toString()).getValue()).isEqualTo(Map.of("1", "a", "2", "b", "3", "c"));
+    }
+}
@@ -0,0 +1,48 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+/**
+ * 按用户的令牌桶限流
+ *
+ * @author nick
+ */
+class CommandRateLimiterTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * user-030：两个桶都补满的用户被移除，还在补充的用户保留已消耗的令牌
+     */
+    @Test
+    void idleUsersAreSwept() {
+        PropertiesReader reader = FilesTestSupport.propertiesReader(dir);
+        ReflectionTestUtils.setField(reader, "filesRateCheapPerSecond", 1d);
+        ReflectionTestUtils.setField(reader, "filesRateCheapBurst", 2);
+        ReflectionTestUtils.setField(reader, "filesRateExpensivePerSecond", 1000d);
+        ReflectionTestUtils.setField(reader, "filesRateExpensiveBurst", 1);
+        CommandRateLimiter limiter = new CommandRateLimiter(reader);
+
+        assertThat(limiter.tryAcquire("walker", PathManage.EACH)).isTrue();
+        assertThat(limiter.tryAcquire("typist", FileManage.WRITE_LINE)).isTrue();
+        assertThat(limiter.size()).isEqualTo(2);
+
+        limiter.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10)); // 重量命令的桶已补满，轻量命令的桶还差约一个令牌
+        assertThat(limiter.size()).isEqualTo(1);
+        assertThat(limiter.tryAcquire("typist", FileManage.WRITE_LINE)).isTrue();
+        assertThat(limiter.tryAcquire("typist", FileManage.WRITE_LINE)).isFalse();
+
+        limiter.sweep(System.nanoTime() + TimeUnit.SECONDS.toNanos(3));
+        assertThat(limiter.size()).isZero();
+    }
+}
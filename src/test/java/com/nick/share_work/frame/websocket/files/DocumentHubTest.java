@@ -0,0 +1,226 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.test.StepVerifier;
+
+/**
+ * 共享文档的增量推送、版本冲突与合并
+ *
+ * @author nick
+ */
+class DocumentHubTest {
+
+    @TempDir
+    Path dir;
+
+    private SimpleMeterRegistry registry;
+    private FilesMetrics metrics;
+    private DocumentHub hub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new SimpleMeterRegistry();
+        metrics = new FilesMetrics(registry);
+        Path file = dir.resolve("doc.txt");
+        Files.write(file, "a\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+        hub = DocumentHub.load(file.toString(), metrics, false, null, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        hub.close();
+    }
+
+    /**
+     * user-026：增量按版本顺序推送，不包含订阅者自己的写入
+     */
+    @Test
+    void deltasSkipOwnWrites() {
+        StepVerifier.create(hub.deltas("a"))
+                .then(() -> {
+                    hub.writeLine("a", 1, "mine", null);
+                    hub.writeLine("b", 2, "theirs", null);
+                })
+                .assertNext(delta -> {
+                    assertThat(delta.getMessage()).isEqualTo(FileManage.DELTA);
+                    assertThat(delta.getValue()).isEqualTo(Map.of("2", "theirs"));
+                    assertThat(delta.getVersion()).isEqualTo(2L);
+                })
+                .then(hub::close)
+                .verifyComplete();
+    }
+
+    /**
+     * user-026：发送跟不上的订阅者丢失增量后收到一条完整快照，其它订阅者不受影响
+     */
+    @Test
+    void slowSubscriberResyncsWithoutAffectingOthers() {
+        int writes = 1100;
+        StepVerifier fast = StepVerifier.create(hub.deltas("fast"))
+                .expectNextCount(writes)
+                .thenCancel()
+                .verifyLater();
+        StepVerifier.create(hub.deltas("slow"), 0)
+                .then(() -> {
+                    for (int i = 0; i < writes; i++) {
+                        hub.writeLine("writer", 1, "v" + i, null);
+                    }
+                })
+                .thenRequest(1)
+                .assertNext(resync -> {
+                    assertThat(resync.getMessage()).isEqualTo(FileManage.RESYNC);
+                    assertThat(resync.getVersion()).isEqualTo((long) writes);
+                    assertThat(resync.getValue()).isEqualTo(Map.of("1", "v" + (writes - 1), "2", "b", "3", "c"));
+                })
+                .then(() -> hub.writeLine("writer", 2, "next", null))
+                .thenRequest(1)
+                .assertNext(delta -> assertThat(delta.getVersion()).isEqualTo(writes + 1L))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        fast.verify(Duration.ofSeconds(5));
+        assertThat(registry.get("files.document.resyncs").counter().count()).isEqualTo(1.0);
+        assertThat(registry.get("files.document.deltas.dropped").counter().count()).isPositive();
+    }
+
+    /**
+     * user-026：没有订阅者的文档不保留增量，之后的订阅者不会收到过期的增量
+     */
+    @Test
+    void idleHubDoesNotReplayOldDeltas() {
+        hub.writeLine("writer", 1, "old", null);
+        StepVerifier.create(hub.deltas("late"))
+                .then(() -> hub.writeLine("writer", 2, "new", null))
+                .assertNext(delta -> assertThat(delta.getValue()).isEqualTo(Map.of("2", "new")))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    /**
+     * user-026：基于旧版本写入其它会话修改过的行时返回版本冲突
+     */
+    @Test
+    void staleBaseVersionConflicts() {
+        long base = hub.snapshot().getVersion();
+        assertThat(hub.writeLine("b", 1, "first", base).isError()).isFalse();
+        WebSocketMessageBody conflict = hub.writeLine("a", 1, "second", base);
+        assertThat(conflict.isError()).isTrue();
+        assertThat(conflict.getValue()).containsEntry(WebSocketMessageBody.REASON_KEY, "Version conflict");
+        assertThat(hub.writeLine("b", 1, "again", base).isError()).isFalse(); // 自己修改过的行不冲突
+    }
+
+    /**
+     * user-042：保存原子地替换文件，不留下临时文件
+     */
+    @Test
+    void saveReplacesFileAtomically() throws Exception {
+        hub.writeLine("a", 2, "saved", null);
+        assertThat(hub.save().isError()).isFalse();
+        assertThat(Files.readString(dir.resolve("doc.txt"))).isEqualTo("a\nsaved\nc\n");
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files).containsExactly(dir.resolve("doc.txt"));
+        }
+        assertThat(hub.isDirty()).isFalse();
+    }
+
+    /**
+     * user-044：保存时把磁盘上其它程序修改的行和追加的行合并进来，作为一条增量推送给会话
+     */
+    @Test
+    void externalChangesAreMergedOnSave() throws Exception {
+        hub.writeLine("a", 1, "mine", null);
+        StepVerifier.create(hub.deltas("a"))
+                .then(() -> {
+                    externalWrite("a\nb\nC\nd\n");
+                    assertThat(hub.save().isError()).isFalse();
+                })
+                .assertNext(delta -> assertThat(delta.getValue()).isEqualTo(Map.of("3", "C", "4", "d")))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(Files.readString(dir.resolve("doc.txt"))).isEqualTo("mine\nb\nC\nd\n");
+        assertThat(diskChanges("merged")).isEqualTo(1);
+    }
+
+    /**
+     * user-044：同一行在磁盘上和内存中都被修改时拒绝保存，磁盘上的内容保持不变
+     */
+    @Test
+    void sameLineChangedOnBothSidesConflicts() throws Exception {
+        hub.writeLine("a", 2, "mine", null);
+        externalWrite("a\ntheirs\nc\n");
+
+        WebSocketMessageBody result = hub.save();
+        assertThat(result.isError()).isTrue();
+        assertThat(result.getValue()).containsEntry(WebSocketMessageBody.REASON_KEY, DocumentHub.CONFLICT);
+        assertThat(Files.readString(dir.resolve("doc.txt"))).isEqualTo("a\ntheirs\nc\n");
+        assertThat(hub.readLine(2).getValue()).containsEntry("2", "mine");
+        assertThat(diskChanges("conflict")).isEqualTo(1);
+    }
+
+    /**
+     * user-044：磁盘上的内容没变、只是修改时间变了时照常保存，不合并任何行
+     */
+    @Test
+    void touchedFileSavesNormally() throws Exception {
+        hub.writeLine("a", 1, "mine", null);
+        externalWrite("a\nb\nc\n");
+
+        assertThat(hub.save().isError()).isFalse();
+        assertThat(Files.readString(dir.resolve("doc.txt"))).isEqualTo("mine\nb\nc\n");
+        assertThat(diskChanges("touched")).isEqualTo(1);
+    }
+
+    /**
+     * user-044：只在末尾追加了内容时重新读取只读追加的部分；有未保存的修改时拒绝重新读取
+     */
+    @Test
+    void reloadReadsAppendedLinesAndRejectsUnsavedChanges() throws Exception {
+        externalWrite("a\nb\nc\nd\n");
+        assertThat(hub.reload().isError()).isFalse();
+        assertThat(hub.readLine(4).getValue()).containsEntry("4", "d");
+        assertThat(diskChanges("appended")).isEqualTo(1);
+
+        hub.writeLine("a", 1, "mine", null);
+        externalWrite("x\nb\nc\nd\n");
+        WebSocketMessageBody result = hub.reload();
+        assertThat(result.isError()).isTrue();
+        assertThat(result.getValue()).containsEntry(WebSocketMessageBody.REASON_KEY, "Unsaved changes");
+        assertThat(hub.readLine(1).getValue()).containsEntry("1", "mine");
+    }
+
+    /**
+     * 模拟其它程序写入文件，把修改时间推后以免与上次读写落在同一毫秒
+     */
+    private void externalWrite(String content) {
+        try {
+            Path file = dir.resolve("doc.txt");
+            FileTime modified = Files.getLastModifiedTime(file);
+            Files.writeString(file, content);
+            Files.setLastModifiedTime(file, FileTime.from(modified.toInstant().plusSeconds(10)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private double diskChanges(String result) {
+        return registry.get("files.document.disk.changes").tag("result", result).counter().count();
+    }
+}
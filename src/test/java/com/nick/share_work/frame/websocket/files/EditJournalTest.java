@@ -0,0 +1,121 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+
+/**
+ * 未保存修改的日志：写了一半的记录、重放与冲突
+ *
+ * @author nick
+ */
+class EditJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private PropertiesReader reader;
+    private Path journalDir;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        reader = FilesTestSupport.propertiesReader(dir);
+        journalDir = dir.resolve(".journal");
+        ReflectionTestUtils.setField(reader, "filesJournalPath", journalDir.toString());
+        file = dir.resolve("doc.txt");
+        Files.write(file, "a\nb\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * user-042：最后一条记录写了一半时忽略它，之后的追加先截掉这部分
+     */
+    @Test
+    void tornRecordIsIgnoredAndTruncated() throws Exception {
+        String key = file.toAbsolutePath().normalize().toString();
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long size = Files.size(file);
+        EditJournal journal = new EditJournal(reader, FilesTestSupport.metrics());
+        EditJournal.Log log = journal.log(key);
+        log.append(1, "one", modified, size);
+        log.append(2, "two", modified, size);
+        log.lastCommit().join();
+        journal.close();
+        Path wal = journalFile(".wal");
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // 最后一条记录断在校验码中间
+        }
+
+        journal = new EditJournal(reader, FilesTestSupport.metrics());
+        List<EditJournal.Recovered> recovered = journal.recover();
+        assertThat(recovered).hasSize(1);
+        assertThat(recovered.get(0).conflicted()).isFalse();
+        assertThat(recovered.get(0).lines()).containsExactly(new EditJournal.Line(1, "one"));
+        recovered.get(0).log().append(3, "three", modified, size);
+        recovered.get(0).log().lastCommit().join();
+        journal.close();
+
+        journal = new EditJournal(reader, FilesTestSupport.metrics());
+        assertThat(journal.recover().get(0).lines())
+                .containsExactly(new EditJournal.Line(1, "one"), new EditJournal.Line(3, "three"));
+        journal.close();
+    }
+
+    /**
+     * user-042：文件在未保存的修改之后被外部修改时不重放、不保存，日志保留，重新读取后解除冲突
+     */
+    @Test
+    void baseMismatchKeepsJournalAndMarksConflicted() throws Exception {
+        FileManage fileManage = FilesTestSupport.fileManage(reader, FilesTestSupport.metrics(),
+                FilesTestSupport.standalone());
+        FileSession session = new FileSession("s");
+        fileManage.open(session, file.toString());
+        assertThat(fileManage.writeLine(session, "1", "unsaved", null).isError()).isFalse();
+        session.getHub().lastCommit().join();
+        fileManage.close(); // 不自动保存，修改只在日志中
+
+        Files.write(file, "x\na\nb\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        fileManage = FilesTestSupport.fileManage(reader, FilesTestSupport.metrics(),
+                FilesTestSupport.standalone());
+        try {
+            assertThat(journalFile(EditJournal.CONFLICT_EXTENSION)).isNotNull();
+            assertThat(fileManage.open(session, file.toString()).getValue()).isEqualTo(Map.of("1", "x", "2", "a", "3", "b"));
+            WebSocketMessageBody write = fileManage.writeLine(session, "1", "lost", null);
+            assertThat(write.getValue()).containsEntry(WebSocketMessageBody.REASON_KEY, DocumentHub.JOURNAL_CONFLICT);
+            assertThat(fileManage.save(session).isError()).isTrue();
+            assertThat(Files.readString(file)).isEqualTo("x\na\nb\n");
+
+            assertThat(fileManage.reload(session).isError()).isFalse();
+            assertThat(fileManage.writeLine(session, "1", "y", null).isError()).isFalse();
+            assertThat(fileManage.save(session).isError()).isFalse();
+            assertThat(Files.readString(file)).isEqualTo("y\na\nb\n");
+            assertThat(journalFile(EditJournal.CONFLICT_EXTENSION)).isNotNull();
+        } finally {
+            fileManage.close();
+        }
+    }
+
+    private Path journalFile(String extension) throws Exception {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(extension)).findFirst().orElse(null);
+        }
+    }
+}
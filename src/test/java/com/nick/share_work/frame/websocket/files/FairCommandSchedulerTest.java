@@ -0,0 +1,222 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+import com.nick.share_work.frame.websocket.files.FairCommandScheduler.Priority;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 用户之间的加权轮询
+ *
+ * @author nick
+ */
+class FairCommandSchedulerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path dir;
+
+    private FairCommandScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = scheduler(FilesTestSupport.metrics());
+    }
+
+    private FairCommandScheduler scheduler(FilesMetrics metrics) {
+        PropertiesReader reader = FilesTestSupport.propertiesReader(dir);
+        ReflectionTestUtils.setField(reader, "filesSchedulerInteractiveWorkers", 1);
+        ReflectionTestUtils.setField(reader, "filesSchedulerBulkWorkers", 1);
+        ReflectionTestUtils.setField(reader, "filesSchedulerInteractiveMaxPending", 4);
+        ReflectionTestUtils.setField(reader, "filesSchedulerBulkMaxPending", 16);
+        ReflectionTestUtils.setField(reader, "filesSchedulerUserConcurrency", 1);
+        return new FairCommandScheduler(reader, new BlockingExecution(reader), metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    /**
+     * user-030：单个工作线程上每轮执行用户的 权重 条命令，之后轮到下一个用户，大量排队的用户不会挡住其他用户
+     */
+    @Test
+    void usersTakeWeightedTurns() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Mono<Boolean> first = scheduler.submit(Priority.BULK, "heavy", 2, () -> {
+            started.countDown();
+            try {
+                return gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        first.subscribe();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue(); // 其余命令都在工作线程被占用时排队
+
+        List<Mono<String>> results = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            results.add(submit("heavy", 2, "H" + i, order));
+        }
+        for (int i = 1; i <= 3; i++) {
+            results.add(submit("light", 1, "L" + i, order));
+        }
+        gate.countDown();
+        Flux.merge(results).collectList().block(TIMEOUT);
+
+        // 第一轮的第二条命令是 H1，之后 heavy 每轮两条、light 每轮一条交替
+        assertThat(order).containsExactly("H1", "L1", "H2", "H3", "L2", "H4", "H5", "L3", "H6");
+    }
+
+    /**
+     * user-030：交互命令由独立的工作线程执行，不排在批量命令之后；单个用户的队列满时拒绝
+     */
+    @Test
+    void interactiveIsIsolatedAndQueuesAreBounded() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        Mono<Boolean> bulk = scheduler.submit(Priority.BULK, "walker", 1, () -> {
+            try {
+                return gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        bulk.subscribe();
+        try {
+            assertThat(scheduler.submit(Priority.INTERACTIVE, "walker", 1, () -> "typed").block(TIMEOUT))
+                    .isEqualTo("typed");
+
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            scheduler.submit(Priority.INTERACTIVE, "typist", 1, () -> {
+                blocked.countDown();
+                try {
+                    return release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }).subscribe();
+            assertThat(blocked.await(10, TimeUnit.SECONDS)).isTrue();
+            List<Mono<Integer>> queued = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int value = i;
+                queued.add(scheduler.submit(Priority.INTERACTIVE, "typist", 1, () -> value));
+            }
+            assertThatThrownBy(() -> scheduler.submit(Priority.INTERACTIVE, "typist", 1, () -> 4).block(TIMEOUT))
+                    .isInstanceOf(RejectedExecutionException.class);
+            Mono<String> other = scheduler.submit(Priority.INTERACTIVE, "other", 1, () -> "own queue"); // 其他用户的队列不受影响
+            release.countDown();
+            assertThat(Flux.concat(queued).collectList().block(TIMEOUT)).containsExactly(0, 1, 2, 3);
+            assertThat(other.block(TIMEOUT)).isEqualTo("own queue");
+        } finally {
+            gate.countDown();
+        }
+    }
+
+    /**
+     * user-030：用户的命令全部执行完后移除其队列，之后提交的命令进入新的队列
+     */
+    @Test
+    void idleQueuesAreRemoved() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Flux.merge(submit("a", 1, "A1", order), submit("b", 1, "B1", order)).collectList().block(TIMEOUT);
+        FilesTestSupport.await(() -> scheduler.users(Priority.BULK) == 0);
+
+        assertThat(submit("a", 1, "A2", order).block(TIMEOUT)).isEqualTo("A2");
+        FilesTestSupport.await(() -> scheduler.users(Priority.BULK) == 0);
+        assertThat(order).containsExactlyInAnyOrder("A1", "B1", "A2");
+    }
+
+    /**
+     * user-049：批量命令占满工作线程并排着队时交互命令不用等待，排队时间、执行时间和排队数按类别记录
+     */
+    @Test
+    void interactiveWaitIsMeasuredApartFromBulk() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        FairCommandScheduler measured = scheduler(new FilesMetrics(registry));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            measured.submit(Priority.BULK, "walker", 1, () -> {
+                started.countDown();
+                try {
+                    return gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }).subscribe();
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+            List<Mono<Integer>> walks = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                int value = i;
+                walks.add(measured.submit(Priority.BULK, "walker", 1, () -> value).cache());
+                walks.get(i).subscribe();
+            }
+            assertThat(registry.get("files.scheduler.pending").tag("priority", "bulk").gauge().value()).isEqualTo(3);
+
+            List<Integer> edits = Flux.range(0, 20) // 逐条提交，模拟连续的按键
+                    .concatMap(i -> measured.submit(Priority.INTERACTIVE, "typist", 1, () -> i))
+                    .collectList().block(TIMEOUT);
+            assertThat(edits).hasSize(20);
+            assertThat(registry.get("files.scheduler.wait").tag("priority", "interactive").timer().count()).isEqualTo(20);
+            assertThat(registry.get("files.scheduler.wait").tag("priority", "interactive").timer()
+                    .max(TimeUnit.MILLISECONDS)).isLessThan(500); // 远小于批量命令被挡住的时间
+            assertThat(registry.find("files.scheduler.run").tag("priority", "bulk").timer()).isNull(); // 第一条批量命令还在执行
+
+            gate.countDown();
+            assertThat(Flux.concat(walks).collectList().block(TIMEOUT)).containsExactly(0, 1, 2);
+            assertThat(registry.get("files.scheduler.wait").tag("priority", "bulk").timer().count()).isEqualTo(4);
+            assertThat(registry.get("files.scheduler.pending").tag("priority", "bulk").gauge().value()).isZero();
+        } finally {
+            gate.countDown();
+            measured.close();
+        }
+    }
+
+    /**
+     * user-049：逐行读写属于交互命令，遍历目录和整个文件的打开、保存属于批量命令
+     */
+    @Test
+    void commandsAreClassifiedByCost() {
+        assertThat(List.of(FileManage.READE_LINE, FileManage.WRITE_LINE, FileManage.END))
+                .noneMatch(CommandRateLimiter::isExpensive);
+        assertThat(List.of(PathManage.EACH, PathManage.SEARCH, FileManage.OPEN, FileManage.SAVE, FileManage.RELOAD))
+                .allMatch(CommandRateLimiter::isExpensive);
+    }
+
+    private Mono<String> submit(String user, int weight, String name, List<String> order) {
+        return scheduler.submit(Priority.BULK, user, weight, () -> {
+            order.add(name);
+            return name;
+        });
+    }
+}
@@ -0,0 +1,154 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.nick.share_work.frame.cluster.LoopbackBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 文件管理器的打开、缓存与恢复
+ *
+ * @author nick
+ */
+class FileManageTest {
+
+    @TempDir
+    Path dir;
+
+    private SimpleMeterRegistry registry;
+    private PropertiesReader reader;
+    private FileManage fileManage;
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        registry = new SimpleMeterRegistry();
+        reader = FilesTestSupport.propertiesReader(dir);
+        fileManage = FilesTestSupport.fileManage(reader, new FilesMetrics(registry), FilesTestSupport.standalone());
+        file = dir.resolve("doc.txt");
+        Files.write(file, "a\nb\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        fileManage.close();
+    }
+
+    /**
+     * user-026：同时打开同一文件的会话只读取一次文件，共用同一份文档
+     */
+    @Test
+    void concurrentOpensLoadOnce() throws Exception {
+        int sessions = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(sessions);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<FileSession> opened = new ArrayList<>();
+            List<Future<WebSocketMessageBody>> results = new ArrayList<>();
+            for (int i = 0; i < sessions; i++) {
+                FileSession session = new FileSession("s" + i);
+                opened.add(session);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return fileManage.open(session, file.toString());
+                }));
+            }
+            start.countDown();
+            for (Future<WebSocketMessageBody> result : results) {
+                assertThat(result.get().getValue()).isEqualTo(Map.of("1", "a", "2", "b"));
+            }
+            assertThat(opened).extracting(FileSession::getHub).containsOnly(opened.get(0).getHub());
+            assertThat(registry.get("files.document.io").tag("operation", "open").timer().count()).isEqualTo(1);
+            assertThat(registry.get("files.document.cache.requests").tag("result", "miss").counter().count()).isEqualTo(1.0);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * user-026：缓存中已被外部修改的文档在再次打开时重新读取
+     */
+    @Test
+    void reopenReloadsStaleCachedDocument() throws Exception {
+        FileSession session = new FileSession("s");
+        fileManage.open(session, file.toString());
+        fileManage.end(session);
+        Files.write(file, "a\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertThat(fileManage.open(session, file.toString()).getValue()).isEqualTo(Map.of("1", "a", "2", "b", "3", "c"));
+    }
+
+    /**
+     * user-026：没有打开的文件直接恢复到磁盘上，之后打开读到恢复的内容
+     */
+    @Test
+    void restoreWritesClosedFile() throws Exception {
+        FileSession session = new FileSession("s");
+        fileManage.open(session, file.toString());
+        fileManage.writeLine(session, "1", "changed", null);
+        assertThat(fileManage.save(session).isError()).isFalse();
+        fileManage.end(session);
+        fileManage.close();
+        fileManage = FilesTestSupport.fileManage(reader, new FilesMetrics(registry), FilesTestSupport.standalone());
+
+        assertThat(fileManage.restore(session, file.toString(), "1").isError()).isFalse();
+        assertThat(Files.readString(file)).isEqualTo("a\nb\n");
+        assertThat(fileManage.open(session, file.toString()).getValue()).isEqualTo(Map.of("1", "a", "2", "b"));
+    }
+
+    /**
+     * user-035：缓存期间文档大小变化（其它节点的写入）后，移出缓存减去的是放入时计入的字节数
+     */
+    @Test
+    void idleBytesTrackChargedSize() throws Exception {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        FileManage node1 = FilesTestSupport.fileManage(reader, new FilesMetrics(meters), new LoopbackBackplane("idle-bytes", "n1"));
+        FileManage node2 = FilesTestSupport.fileManage(reader, FilesTestSupport.metrics(), new LoopbackBackplane("idle-bytes", "n2"));
+        try {
+            FileSession first = new FileSession("first");
+            node1.open(first, file.toString());
+            DocumentHub cached = first.getHub();
+            node1.end(first);
+            double charged = meters.get("files.document.cache.bytes").gauge().value();
+            assertThat(charged).isEqualTo(cached.getRetainedBytes());
+
+            FileSession second = new FileSession("second");
+            node2.open(second, file.toString());
+            String longLine = "x".repeat(10_000);
+            node2.writeLine(second, "1", longLine, null);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!longLine.equals(cached.readLine(1).getValue().get("1")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(cached.getRetainedBytes()).isGreaterThan((long) charged);
+
+            node1.open(first, file.toString());
+            assertThat(meters.get("files.document.cache.bytes").gauge().value()).isZero();
+            node1.end(first);
+            assertThat(meters.get("files.document.cache.bytes").gauge().value()).isEqualTo(cached.getRetainedBytes());
+        } finally {
+            node1.close();
+            node2.close();
+        }
+    }
+}
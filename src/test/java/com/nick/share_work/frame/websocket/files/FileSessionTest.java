@@ -0,0 +1,87 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 带 requestId 的命令按队列排序执行
+ *
+ * @author nick
+ */
+class FileSessionTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final FileSession session = new FileSession("s");
+
+    /**
+     * user-048：同一队列中前一条命令完成后才执行下一条
+     */
+    @Test
+    void sameLaneRunsInArrivalOrder() {
+        Sinks.One<String> slow = Sinks.one();
+        List<String> executed = new CopyOnWriteArrayList<>();
+        Mono<String> first = session.inOrder("file", slow.asMono().doOnNext(executed::add));
+        Mono<String> second = session.inOrder("file", Mono.fromCallable(() -> {
+            executed.add("second");
+            return "second";
+        }));
+
+        Disposable running = first.subscribe();
+        Mono<String> waiting = second.cache();
+        waiting.subscribe();
+        assertThat(executed).isEmpty(); // 第一条还没有完成，第二条在排队
+
+        slow.tryEmitValue("first");
+        assertThat(waiting.block(TIMEOUT)).isEqualTo("second");
+        assertThat(executed).containsExactly("first", "second");
+        running.dispose();
+    }
+
+    /**
+     * user-048：不同队列的命令互不等待，慢的路径搜索不会挡住文档读取
+     */
+    @Test
+    void otherLanesDoNotWait() {
+        Sinks.One<String> search = Sinks.one();
+        Disposable running = session.inOrder(FilesManagementServer.lane(PathManage.SEARCH), search.asMono()).subscribe();
+
+        String read = session.inOrder(FilesManagementServer.lane(FileManage.READE_LINE), Mono.just("line")).block(TIMEOUT);
+        assertThat(read).isEqualTo("line");
+        running.dispose();
+    }
+
+    /**
+     * user-048：前一条命令被取消后同一队列的下一条命令照常执行
+     */
+    @Test
+    void cancelledCommandReleasesTheLane() {
+        Disposable cancelled = session.inOrder("file", Mono.never()).subscribe();
+        Mono<String> next = session.inOrder("file", Mono.just("next"));
+
+        cancelled.dispose();
+        assertThat(next.block(TIMEOUT)).isEqualTo("next");
+    }
+
+    /**
+     * user-048：共用会话状态的命令在同一队列，不认识的命令不排队
+     */
+    @Test
+    void commandsSharingStateShareALane() {
+        assertThat(FilesManagementServer.lane(FileManage.WRITE_LINE))
+                .isEqualTo(FilesManagementServer.lane(FileManage.READE_LINE));
+        assertThat(FilesManagementServer.lane(PathManage.SEARCH))
+                .isEqualTo(FilesManagementServer.lane(PathManage.EACH))
+                .isNotEqualTo(FilesManagementServer.lane(FileManage.READE_LINE));
+        assertThat(FilesManagementServer.lane("unknown")).isNull();
+    }
+}
@@ -0,0 +1,101 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 文件管理的指标与计时锁
+ *
+ * @author nick
+ */
+class FilesMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FilesMetrics metrics = new FilesMetrics(registry);
+
+    /**
+     * user-031：重入时只记录最外层的一次等待和持有，持有时间包括重入期间
+     */
+    @Test
+    void reentrantLocksAreTimedOnce() throws Exception {
+        TimedLock lock = metrics.lock("doc");
+        lock.lock();
+        try {
+            lock.lock();
+            try {
+                Thread.sleep(50);
+            } finally {
+                lock.unlock();
+            }
+            assertThat(timer("files.lock.hold", "doc").count()).isZero(); // 还没有释放最外层
+        } finally {
+            lock.unlock();
+        }
+        assertThat(timer("files.lock.wait", "doc").count()).isEqualTo(1);
+        assertThat(timer("files.lock.hold", "doc").count()).isEqualTo(1);
+        assertThat(timer("files.lock.hold", "doc").totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(50);
+    }
+
+    /**
+     * user-031：被其它线程占用时记录等待时间，获取失败的 tryLock 不记录
+     */
+    @Test
+    void contentionIsRecordedAsWait() throws Exception {
+        TimedLock lock = metrics.lock("hub");
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> {
+            lock.lock();
+            try {
+                held.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        assertThat(held.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(lock.tryLock()).isFalse();
+        assertThat(timer("files.lock.wait", "hub").count()).isEqualTo(1);
+
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(release::countDown);
+        lock.lock();
+        lock.unlock();
+        holder.get(10, TimeUnit.SECONDS);
+        assertThat(timer("files.lock.wait", "hub").count()).isEqualTo(2);
+        assertThat(timer("files.lock.wait", "hub").max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(50);
+    }
+
+    /**
+     * user-031：不认识的命令名称记为 unknown，同一标签组合反复记录时累加到同一个计时器
+     */
+    @Test
+    void commandTagsAreBounded() {
+        metrics.command(FileManage.OPEN, false, 1_000_000);
+        metrics.command(FileManage.OPEN, false, 3_000_000);
+        metrics.command(FileManage.OPEN, true, 1_000_000);
+        metrics.command("/etc/passwd", false, 1_000_000);
+        metrics.command("anything else", false, 1_000_000);
+
+        assertThat(registry.get("files.command").tags("message", FileManage.OPEN, "outcome", "success").timer().count())
+                .isEqualTo(2);
+        assertThat(registry.get("files.command").tags("message", FileManage.OPEN, "outcome", "error").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("files.command").tags("message", FilesManagementServer.UNKNOWN).timer().count())
+                .isEqualTo(2);
+        assertThat(registry.get("files.command").timers()).hasSize(3);
+    }
+
+    private Timer timer(String name, String lock) {
+        return registry.get(name).tag("lock", lock).timer();
+    }
+}
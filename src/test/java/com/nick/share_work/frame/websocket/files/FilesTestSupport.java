@@ -0,0 +1,108 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.cluster.Backplane;
+import com.nick.share_work.frame.cluster.NoopBackplane;
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.execution.BlockingExecution;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 文件管理测试的公共工具，在不启动 Spring 容器的情况下组装被测对象。
+ *
+ * @author nick
+ */
+final class FilesTestSupport {
+
+    private FilesTestSupport() {
+    }
+
+    /**
+     * 创建与 application.properties 取值一致的配置读取器，不记录日志、不自动保存
+     *
+     * @param base 文件工作路径
+     * @return 配置读取器
+     */
+    static PropertiesReader propertiesReader(Path base) {
+        PropertiesReader reader = new PropertiesReader();
+        ReflectionTestUtils.setField(reader, "filesBasePath", base.toString());
+        ReflectionTestUtils.setField(reader, "filesCacheMaxBytes", 64L * 1024 * 1024);
+        ReflectionTestUtils.setField(reader, "filesDocumentStorage", "heap");
+        ReflectionTestUtils.setField(reader, "filesHistoryPath", base.resolve(".history").toString());
+        ReflectionTestUtils.setField(reader, "filesHistorySnapshotInterval", 20);
+        ReflectionTestUtils.setField(reader, "filesJournalPath", "");
+        ReflectionTestUtils.setField(reader, "filesAutosaveIntervalMs", 0L);
+        ReflectionTestUtils.setField(reader, "executionMode", BlockingExecution.PLATFORM);
+        ReflectionTestUtils.setField(reader, "clusterSyncTimeoutMs", 2000L);
+        ReflectionTestUtils.setField(reader, "filesWatchDebounceMs", 50L);
+        ReflectionTestUtils.setField(reader, "filesWatchMaxEvents", 1000);
+        return reader;
+    }
+
+    /**
+     * 组装文件管理器
+     *
+     * @param reader 配置读取器
+     * @param metrics 指标
+     * @param backplane 节点之间的消息通道
+     * @return 文件管理器
+     */
+    static FileManage fileManage(PropertiesReader reader, FilesMetrics metrics, Backplane backplane) {
+        return new FileManage(reader, metrics, backplane, new VersionStore(reader, metrics),
+                new EditJournal(reader, metrics), new AutoSaver(reader, new BlockingExecution(reader)));
+    }
+
+    /**
+     * 单机模式的消息通道
+     *
+     * @return 消息通道
+     */
+    static Backplane standalone() {
+        return new NoopBackplane("test");
+    }
+
+    /**
+     * 不检查指标的测试使用的指标
+     *
+     * @return 登记到独立注册表的指标
+     */
+    static FilesMetrics metrics() {
+        return new FilesMetrics(new SimpleMeterRegistry());
+    }
+
+    /**
+     * 读取计数器，还没有登记时为 0
+     *
+     * @param registry 指标注册表
+     * @param name 计数器名称
+     * @param tag 标签名
+     * @param value 标签值
+     * @return 计数
+     */
+    static double count(MeterRegistry registry, String name, String tag, String value) {
+        Counter counter = registry.find(name).tag(tag, value).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    /**
+     * 轮询直到条件成立，超时后断言失败。轮询实现的监听服务可能要数秒才报告变化，因此超时较长
+     *
+     * @param condition 条件
+     */
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
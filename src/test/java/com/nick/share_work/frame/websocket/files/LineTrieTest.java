@@ -0,0 +1,94 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * 行号前缀树的写时复制
+ *
+ * @author nick
+ */
+class LineTrieTest {
+
+    private final LineTrie trie = new LineTrie(() -> new String[LineTrie.WIDTH]);
+
+    /**
+     * user-045：冻结后的写入只复制到该行的路径，旧的根保持原样，其它叶子在新旧两个根之间共用
+     */
+    @Test
+    void writesAfterFreezeCopyOnlyThePath() {
+        set(1, "one");
+        set(100, "hundred");
+        LineTrie.Root before = trie.freeze();
+
+        set(1, "changed");
+        LineTrie.Root after = trie.freeze();
+
+        assertThat(get(before, 1)).isEqualTo("one");
+        assertThat(get(after, 1)).isEqualTo("changed");
+        assertThat(before.leaf(1)).isNotSameAs(after.leaf(1));
+        assertThat(before.leaf(100)).isSameAs(after.leaf(100));
+    }
+
+    /**
+     * user-045：两次冻结之间的写入原地修改同一个叶子，没有写入时冻结返回同一个根
+     */
+    @Test
+    void writesBetweenFreezesAreInPlace() {
+        Object leaf = trie.leafForWrite(3);
+        assertThat(trie.leafForWrite(4)).isSameAs(leaf);
+        LineTrie.Root root = trie.freeze();
+        assertThat(trie.freeze()).isSameAs(root);
+        assertThat(trie.leafForWrite(5)).isNotSameAs(leaf);
+    }
+
+    /**
+     * user-045：增加层数后旧的根仍然只包含当时的行，遍历按行号顺序
+     */
+    @Test
+    void growingKeepsOlderRootsAndOrder() {
+        set(0, "zero");
+        set(31, "last of leaf");
+        LineTrie.Root small = trie.freeze();
+
+        set(1_000_000, "far");
+        set(40, "second leaf");
+        LineTrie.Root large = trie.freeze();
+
+        assertThat(get(small, 1_000_000)).isNull();
+        assertThat(get(large, 1_000_000)).isEqualTo("far");
+        assertThat(get(large, 0)).isEqualTo("zero");
+        assertThat(lines(small)).containsExactly(0, 31);
+        assertThat(lines(large)).containsExactly(0, 31, 40, 1_000_000);
+
+        trie.clear();
+        assertThat(lines(trie.freeze())).isEmpty();
+        assertThat(lines(large)).containsExactly(0, 31, 40, 1_000_000);
+    }
+
+    private void set(int line, String text) {
+        ((String[]) trie.leafForWrite(line))[line & LineTrie.MASK] = text;
+    }
+
+    private static String get(LineTrie.Root root, int line) {
+        String[] leaf = (String[]) root.leaf(line);
+        return leaf == null ? null : leaf[line & LineTrie.MASK];
+    }
+
+    private static List<Integer> lines(LineTrie.Root root) {
+        List<Integer> lines = new ArrayList<>();
+        root.forEachLeaf((first, leaf) -> {
+            String[] texts = (String[]) leaf;
+            for (int i = 0; i < texts.length; i++) {
+                if (texts[i] != null) {
+                    lines.add(first + i);
+                }
+            }
+        });
+        return lines;
+    }
+}
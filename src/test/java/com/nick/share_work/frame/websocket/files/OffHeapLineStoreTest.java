@@ -0,0 +1,102 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 堆外行存储的压缩
+ *
+ * @author nick
+ */
+class OffHeapLineStoreTest {
+
+    private static final int LINES = 100;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final OffHeapLineStore store = new OffHeapLineStore(new FilesMetrics(registry));
+
+    /**
+     * user-036：反复覆盖同一行产生的垃圾超过阈值后压缩，内容和行号顺序不变，压缩前的快照仍然可以读取
+     */
+    @Test
+    void overwritesAreCompacted() throws Exception {
+        for (int line = 0; line < LINES; line++) {
+            store.put(line, text(line, 0));
+        }
+        LineView before = store.snapshot();
+
+        for (int round = 1; round <= 1200; round++) { // 约 1.2 MB 的垃圾，超过 1 MB 的阈值
+            store.put(5, text(5, round));
+        }
+
+        assertThat(store.retainedBytes()).isLessThan(1 << 20); // 压缩前已分配的内存超过 1 MB
+        assertThat(offHeapGauge()).isEqualTo(store.retainedBytes() - LINES * 10L);
+        assertThat(store.size()).isEqualTo(LINES);
+        assertThat(store.get(5)).isEqualTo(text(5, 1200));
+        assertThat(store.get(99)).isEqualTo(text(99, 0));
+        assertThat(store.textBytes()).isEqualTo(LINES * 1000L);
+
+        assertThat(before.get(5)).isEqualTo(text(5, 0));
+        assertThat(write(before)).isEqualTo(expected(0));
+        assertThat(write(store)).isEqualTo(expected(1200));
+    }
+
+    /**
+     * user-036：删除的行也计入垃圾，压缩后只保留剩下的行，关闭后统计归零
+     */
+    @Test
+    void removalsAreCompactedAndCloseReleases() {
+        for (int line = 0; line < 3000; line++) {
+            store.put(line, text(line, 0));
+        }
+        long allocated = offHeapGauge();
+        for (int line = 0; line < 3000; line += 2) {
+            store.remove(line);
+        }
+        store.remove(0); // 已删除的行不再计入
+
+        assertThat(store.size()).isEqualTo(1500);
+        assertThat(offHeapGauge()).isLessThan(allocated);
+        assertThat(store.get(0)).isNull();
+        assertThat(store.get(1)).isEqualTo(text(1, 0));
+        assertThat(store.get(2999)).isEqualTo(text(2999, 0));
+
+        LineView snapshot = store.snapshot();
+        store.close();
+        assertThat(offHeapGauge()).isZero();
+        assertThat(store.size()).isZero();
+        assertThat(snapshot.get(2999)).isEqualTo(text(2999, 0)); // 快照仍引用关闭前的内存块
+    }
+
+    private long offHeapGauge() {
+        return (long) registry.get("files.document.offheap.bytes").gauge().value();
+    }
+
+    /**
+     * 每行 1000 字节，包含行号和写入轮次
+     */
+    private static String text(int line, int round) {
+        String prefix = line + ":" + round + ":";
+        return prefix + "x".repeat(1000 - prefix.length());
+    }
+
+    private static String expected(int round) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < LINES; line++) {
+            text.append(text(line, line == 5 ? round : 0)).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String write(LineView view) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        view.write(out, new byte[]{'\n'});
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
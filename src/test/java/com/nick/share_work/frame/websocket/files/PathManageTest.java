@@ -0,0 +1,63 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 遍历结果的复用与失效
+ *
+ * @author nick
+ */
+class PathManageTest {
+
+    @TempDir
+    Path dir;
+
+    private SimpleMeterRegistry registry;
+    private WatchManage watchManage;
+    private PathManage pathManage;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(dir.resolve("sub"));
+        Files.writeString(dir.resolve("sub").resolve("a.txt"), "a");
+        PropertiesReader reader = FilesTestSupport.propertiesReader(dir);
+        ReflectionTestUtils.setField(reader, "filesPathCacheTtlMs", 60_000L);
+        registry = new SimpleMeterRegistry();
+        FilesMetrics metrics = new FilesMetrics(registry);
+        watchManage = new WatchManage(reader, metrics);
+        pathManage = new PathManage(reader, metrics, new VersionStore(reader, metrics), watchManage);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchManage.close();
+    }
+
+    /**
+     * user-050：复用时间内没有订阅时，外部新建的文件（如恢复已删除的文件）也使缓存的结果失效
+     */
+    @Test
+    void externalChangesInvalidateCachedWalkWithoutSubscribers() throws Exception {
+        assertThat(watchManage.isBaseWatched()).isTrue();
+        FileSession session = new FileSession("s");
+        assertThat(pathManage.each(session).getValue()).containsOnlyKeys("a.txt");
+        assertThat(pathManage.each(session).getValue()).containsOnlyKeys("a.txt");
+        assertThat(registry.get("files.path.coalesce").tag("result", "cached").counter().count()).isEqualTo(1.0);
+
+        AtomicFiles.write(dir.resolve("sub").resolve("b.txt"), "b".getBytes());
+        FilesTestSupport.await(() -> pathManage.each(session).getValue().containsKey("b.txt"));
+    }
+}
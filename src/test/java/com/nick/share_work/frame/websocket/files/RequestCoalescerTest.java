@@ -0,0 +1,102 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * 相同请求的合并与复用
+ *
+ * @author nick
+ */
+class RequestCoalescerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FilesMetrics metrics = new FilesMetrics(registry);
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicInteger computed = new AtomicInteger();
+
+    /**
+     * user-050：计算期间到达的相同请求等待并共用同一个结果，不同的键各自计算
+     */
+    @Test
+    void concurrentRequestsJoinOneComputation() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>("each", 0, generation::get, metrics);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> coalescer.get("a", () -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "walk-" + computed.incrementAndGet();
+        }, value -> true));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> coalescer.get("a", this::compute, value -> true));
+        FilesTestSupport.await(() -> count("joined") == 1);
+        assertThat(coalescer.get("b", this::compute, value -> true)).isEqualTo("walk-1");
+
+        release.countDown();
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("walk-2");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isSameAs(first.get());
+        assertThat(coalescer.get("a", this::compute, value -> true)).isEqualTo("walk-3"); // ttl 为 0 时不复用
+        assertThat(count("computed")).isEqualTo(3);
+    }
+
+    /**
+     * user-050：ttl 内复用完成的结果，generation 变化或超过 ttl 后重新计算，不可复用的结果不保留
+     */
+    @Test
+    void resultsAreReusedUntilGenerationChangesOrTtlExpires() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>("each", 200, generation::get, metrics);
+        assertThat(coalescer.get("a", this::compute, value -> true)).isEqualTo("walk-1");
+        assertThat(coalescer.get("a", this::compute, value -> true)).isEqualTo("walk-1");
+        assertThat(count("cached")).isEqualTo(1);
+
+        generation.incrementAndGet();
+        assertThat(coalescer.get("a", this::compute, value -> true)).isEqualTo("walk-2");
+
+        Thread.sleep(300);
+        assertThat(coalescer.get("a", this::compute, value -> true)).isEqualTo("walk-3");
+
+        assertThat(coalescer.get("error", this::compute, value -> false)).isEqualTo("walk-4");
+        assertThat(coalescer.get("error", this::compute, value -> false)).isEqualTo("walk-5");
+    }
+
+    /**
+     * user-050：计算期间 generation 发生变化的结果不再复用，异常交给调用方且不保留
+     */
+    @Test
+    void resultsStartedBeforeAChangeAreNotReused() {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>("search", 60_000, generation::get, metrics);
+        assertThat(coalescer.get("a", () -> {
+            generation.incrementAndGet(); // 遍历期间文件系统发生变化
+            return compute();
+        }, value -> true)).isEqualTo("walk-1");
+        assertThat(coalescer.get("a", this::compute, value -> true)).isEqualTo("walk-2");
+
+        assertThatThrownBy(() -> coalescer.get("b", () -> {
+            throw new IllegalStateException("walk failed");
+        }, value -> true)).isInstanceOf(IllegalStateException.class);
+        assertThat(coalescer.get("b", this::compute, value -> true)).isEqualTo("walk-3");
+    }
+
+    private String compute() {
+        return "walk-" + computed.incrementAndGet();
+    }
+
+    private double count(String result) {
+        return FilesTestSupport.count(registry, "files.path.coalesce", "result", result);
+    }
+}
@@ -0,0 +1,108 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.nick.share_work.frame.config.PropertiesReader;
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+
+/**
+ * 跟踪文件末尾新增的行，包括轮转和截断
+ *
+ * @author nick
+ */
+class TailManageTest {
+
+    @TempDir
+    Path dir;
+
+    private SimpleMeterRegistry registry;
+    private TailManage tailManage;
+
+    @BeforeEach
+    void setUp() {
+        PropertiesReader reader = FilesTestSupport.propertiesReader(dir);
+        ReflectionTestUtils.setField(reader, "filesTailPollMs", 50L);
+        ReflectionTestUtils.setField(reader, "filesTailBufferSize", 256);
+        ReflectionTestUtils.setField(reader, "filesTailInitialLines", 2);
+        registry = new SimpleMeterRegistry();
+        tailManage = new TailManage(reader, new FilesMetrics(registry));
+    }
+
+    @AfterEach
+    void tearDown() {
+        tailManage.close();
+    }
+
+    /**
+     * user-046：开始跟踪时返回最后几行；轮转后先推送原文件剩余的内容（包括没有换行符的最后一行），再从头推送新文件；截断后从头读取
+     */
+    @Test
+    void followsRotationAndTruncation() throws Exception {
+        Path log = Files.writeString(dir.resolve("app.log"), "a\nb\nc\n");
+        FileSession session = new FileSession("s");
+        Map<Long, String> lines = new ConcurrentSkipListMap<>();
+        Disposable subscription = session.tailLines().subscribe(body -> ((Map<?, ?>) body.getValue())
+                .forEach((sequence, text) -> lines.put(Long.parseLong((String) sequence), (String) text)));
+        try {
+            WebSocketMessageBody result = tailManage.tail(session, log.toString());
+            assertThat(result.isError()).isFalse();
+            assertThat(result.getValue()).isEqualTo(Map.of("2", "b", "3", "c"));
+            assertThat(result.getVersion()).isEqualTo(3L);
+
+            Files.writeString(log, "d\n", StandardOpenOption.APPEND);
+            FilesTestSupport.await(() -> lines.containsKey(4L));
+
+            Files.writeString(log, "last\nunterminated", StandardOpenOption.APPEND);
+            Files.move(log, dir.resolve("app.log.1"));
+            Files.writeString(log, "fresh\n");
+            FilesTestSupport.await(() -> lines.containsKey(7L));
+            assertThat(lines).isEqualTo(Map.of(4L, "d", 5L, "last", 6L, "unterminated", 7L, "fresh"));
+            assertThat(count("rotated")).isEqualTo(1);
+
+            Files.writeString(log, "t\n", StandardOpenOption.TRUNCATE_EXISTING);
+            FilesTestSupport.await(() -> lines.containsKey(8L));
+            assertThat(lines.get(8L)).isEqualTo("t");
+            assertThat(count("truncated")).isEqualTo(1);
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * user-046：只能跟踪 files.base.path 下的文件，包括指向外部的链接
+     */
+    @Test
+    void filesOutsideBasePathAreRejected(@TempDir Path outside) throws Exception {
+        Path secret = Files.writeString(outside.resolve("secret.log"), "x\n");
+        FileSession session = new FileSession("s");
+
+        WebSocketMessageBody result = tailManage.tail(session, secret.toString());
+        assertThat(result.isError()).isTrue();
+        assertThat(result.getValue()).isEqualTo(Map.of(WebSocketMessageBody.REASON_KEY, "File outside base path"));
+
+        Path link = Files.createSymbolicLink(dir.resolve("link.log"), secret);
+        result = tailManage.tail(session, link.toString());
+        assertThat(result.isError()).isTrue();
+        assertThat(result.getValue()).isEqualTo(Map.of(WebSocketMessageBody.REASON_KEY, "File outside base path"));
+        assertThat(registry.get("files.tail.files").gauge().value()).isZero();
+    }
+
+    private double count(String event) {
+        return FilesTestSupport.count(registry, "files.tail.events", "event", event);
+    }
+}
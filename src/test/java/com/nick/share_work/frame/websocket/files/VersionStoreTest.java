@@ -0,0 +1,118 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * 历史版本的差异、重建与版本包索引的上限
+ *
+ * @author nick
+ */
+class VersionStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private VersionStore history;
+
+    @BeforeEach
+    void setUp() {
+        history = new VersionStore(FilesTestSupport.propertiesReader(dir), FilesTestSupport.metrics());
+    }
+
+    /**
+     * user-041：差异应用到上一版本得到新版本，包括增删行和最后一行没有换行的情况
+     */
+    @Test
+    void deltaRoundTrips() throws Exception {
+        String[][] cases = {
+                {"a\nb\nc\n", "a\nB\nc\n"},
+                {"a\nb\nc\n", "a\nb\nc\nd\n"},
+                {"a\nb\nc\nd\n", "a\nd\n"},
+                {"", "x\ny"},
+                {"x\ny", "x\nz"},
+                {"same\n", "same\n"},
+        };
+        for (String[] c : cases) {
+            byte[] previous = c[0].getBytes(StandardCharsets.UTF_8);
+            byte[] next = c[1].getBytes(StandardCharsets.UTF_8);
+            byte[] delta = VersionStore.delta(previous, next);
+            if (delta != null) {
+                assertThat(new String(VersionStore.apply(previous, delta, next.length), StandardCharsets.UTF_8))
+                        .isEqualTo(c[1]);
+            }
+        }
+    }
+
+    /**
+     * user-041：差异只保存变化的行，整个文件重写时放弃差异
+     */
+    @Test
+    void deltaStoresOnlyChangedLines() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        byte[] previous = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] next = text.toString().replace("line 500\n", "changed\n").getBytes(StandardCharsets.UTF_8);
+        assertThat(VersionStore.delta(previous, next)).hasSizeLessThan(64);
+        assertThat(VersionStore.delta(previous, "other\n".repeat(1000).getBytes(StandardCharsets.UTF_8))).isNull();
+    }
+
+    /**
+     * user-041：跨过多个完整快照记录的每个版本都能重建
+     */
+    @Test
+    void everyVersionRebuilds() throws Exception {
+        Path file = dir.resolve("doc.txt");
+        for (int v = 1; v <= 45; v++) {
+            write(file, content(v), v);
+            assertThat(history.record(file.toString())).isEqualTo(v);
+        }
+        assertThat(history.versions(file.toString())).hasSize(45);
+        for (int v = 1; v <= 45; v++) {
+            assertThat(new String(history.read(file.toString(), v), StandardCharsets.UTF_8)).isEqualTo(content(v));
+        }
+        assertThat(history.read(file.toString(), 46)).isNull();
+    }
+
+    /**
+     * user-041：内存中的版本包索引不超过上限，被丢弃的索引在下次访问时重新扫描
+     */
+    @Test
+    void idlePacksAreDropped() throws Exception {
+        int files = VersionStore.MAX_IDLE_PACKS + 50;
+        for (int i = 0; i < files; i++) {
+            Path file = dir.resolve("f" + i + ".txt");
+            write(file, "file " + i + "\n", 1);
+            history.record(file.toString());
+        }
+        assertThat(history.cachedPacks()).isEqualTo(VersionStore.MAX_IDLE_PACKS);
+        Path first = dir.resolve("f0.txt");
+        write(first, "file 0 changed\n", 2);
+        assertThat(history.record(first.toString())).isEqualTo(2);
+        assertThat(new String(history.read(first.toString(), 1), StandardCharsets.UTF_8)).isEqualTo("file 0\n");
+    }
+
+    private static String content(int version) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            text.append(i == version % 20 ? "version " + version : "line " + i).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void write(Path file, String content, int version) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1_000_000L * version));
+    }
+}
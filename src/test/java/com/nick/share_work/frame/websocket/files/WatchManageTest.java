@@ -0,0 +1,80 @@
+package com.nick.share_work.frame.websocket.files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.nick.share_work.frame.websocket.WebSocketMessageBody;
+
+import reactor.core.Disposable;
+
+/**
+ * 目录订阅的范围与新建子目录的注册
+ *
+ * @author nick
+ */
+class WatchManageTest {
+
+    @TempDir
+    Path dir;
+
+    @TempDir
+    Path outside;
+
+    private WatchManage watchManage;
+
+    @BeforeEach
+    void setUp() {
+        watchManage = new WatchManage(FilesTestSupport.propertiesReader(dir), FilesTestSupport.metrics());
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchManage.close();
+    }
+
+    /**
+     * user-047：只能订阅 files.base.path 下的目录，包括经由链接指向外部的目录
+     */
+    @Test
+    void rejectsDirectoriesOutsideBasePath() throws Exception {
+        FileSession session = new FileSession("s");
+        WebSocketMessageBody result = watchManage.watch(session, outside.toString());
+        assertThat(result.getValue()).containsEntry(WebSocketMessageBody.REASON_KEY, "Directory outside base path");
+        assertThat(watchManage.watch(session, dir.resolve("..").toString()).isError()).isTrue();
+
+        Path link = Files.createSymbolicLink(dir.resolve("link"), outside);
+        assertThat(watchManage.watch(session, link.toString()).isError()).isTrue();
+        assertThat(watchManage.watch(session, null).isError()).isFalse();
+    }
+
+    /**
+     * user-047：在锁外注册新建的子目录后，其中已经存在和之后新建的文件都被推送
+     */
+    @Test
+    void reportsFilesInNewSubdirectories() throws Exception {
+        FileSession session = new FileSession("s");
+        assertThat(watchManage.watch(session, dir.toString()).isError()).isFalse();
+        Set<Object> seen = ConcurrentHashMap.newKeySet();
+        Disposable changes = session.changes().subscribe(body -> seen.addAll(((Map<?, ?>) body.getValue()).keySet()));
+        try {
+            Path sub = Files.createDirectories(dir.resolve("sub").resolve("nested"));
+            Path early = Files.writeString(sub.resolve("early.txt"), "x"); // 可能早于子目录的注册
+            FilesTestSupport.await(() -> seen.contains(early.toString()));
+            Path later = Files.writeString(sub.resolve("later.txt"), "x");
+            FilesTestSupport.await(() -> seen.contains(later.toString()));
+            assertThat(seen).doesNotContain(dir.toString()); // 没有因为丢失事件而推送 overflow
+        } finally {
+            changes.dispose();
+        }
+    }
+}